@@ -20,6 +20,8 @@
 
 package org.riodb.engine;
 
+import org.riodb.windows.OffHeapDoubleArray;
+
 public class Clock implements Runnable {
 
 	/*
@@ -39,6 +41,8 @@ public class Clock implements Runnable {
 	 */
 
 	private static volatile int currentSecond;
+	// the current millisecond (which updates about every 1ms)
+	private static volatile long currentMillis;
 	private Thread clockThread;
 
 	public Clock() {
@@ -52,9 +56,16 @@ public class Clock implements Runnable {
 		return currentSecond;
 	}
 
+	// return the current millisecond (which updates about every 1ms)
+	// used by windows with millisecond ranges, and by query limits.
+	public long getCurrentMillis() {
+		return currentMillis;
+	}
+
 	// start clock thread
 	public void start() {
-		currentSecond = Long.valueOf(System.currentTimeMillis() / 1000).intValue();
+		currentMillis = System.currentTimeMillis();
+		currentSecond = Long.valueOf(currentMillis / 1000).intValue();
 		clockThread = new Thread(this);
 		clockThread.setName("RIO_CLOCK_THREAD");
 		
@@ -73,10 +84,12 @@ public class Clock implements Runnable {
 			RioDB.rio.getSystemSettings().getLogger().debug("Starting clock...");
 			// Run in a loop updating "current second" field about every 1 ms.  
 			while (true) {
-				int now = (int) (System.currentTimeMillis() / 1000L);
+				currentMillis = System.currentTimeMillis();
+				int now = (int) (currentMillis / 1000L);
 				if(now > currentSecond) {
 					currentSecond = now;
 					RioDB.rio.getEngine().trimExpiredWindowElements(currentSecond);
+					OffHeapDoubleArray.releaseRetired(currentMillis);
 				}
 				Thread.sleep(1);
 			}
@@ -32,6 +32,7 @@ package org.riodb.engine;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.riodb.sql.ExceptionSQLStatement;
 import org.riodb.plugin.RioDBPluginException;
+import org.riodb.windows.OffHeapDoubleArray;
 
 public class Engine {
 	
@@ -314,7 +315,8 @@ public class Engine {
 			stat = "online";
 		}
 
-		String response = "{\n   \"system_status\": \"" + stat + "\",\n   \"streams\": [\n   ";
+		String response = "{\n   \"system_status\": \"" + stat + "\",\n   \"off_heap_bytes\": "
+				+ OffHeapDoubleArray.getTotalBytes() + ",\n   \"streams\": [\n   ";
 		boolean first = true;
 		for (int i = 0; i < streams.length; i++) {
 			if (streams[i] != null) {
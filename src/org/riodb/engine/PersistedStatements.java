@@ -90,6 +90,11 @@ public class PersistedStatements {
 		updatePersistedStmtFile();
 	}
 
+	// get window statement, for ALTER WINDOW
+	public String getWindowStmt(String name) {
+		return windowStatements.get(name);
+	}
+
 	// load newly created select statement
 	public void saveNewQueryStmt(Integer queryId, String statement) {
 		queryStatements.put(queryId, statement);
@@ -37,11 +37,15 @@
 
 package org.riodb.engine;
 
+import java.util.HashMap;
+
 import org.riodb.classloaders.InputClassLoader;
 import org.riodb.queries.MessageWithSummaries;
 import org.riodb.queries.Query;
 import org.riodb.queries.QueryManager;
 import org.riodb.sql.ExceptionSQLStatement;
+import org.riodb.sql.SQLStringLIKEMatcher;
+import org.riodb.windows.StreamHistory;
 import org.riodb.windows.WindowManager;
 import org.riodb.windows.WindowSummary;
 import org.riodb.windows.WindowSummary_String;
@@ -72,6 +76,21 @@ public class Stream implements Runnable {
 	// Container of user-defined queries. is FINAL for performance
 	private final QueryManager streamQueryMgr = new QueryManager();
 
+	// max messages processed per batch
+	public static final int MAX_BATCH_SIZE = 10000;
+
+	// messages processed per batch. With 1, every message is processed by windows and
+	// queries. With more, windows get all messages available (up to batchSize), and queries
+	// run once per batch, on the last message. For dashboard-style queries.
+	private int batchSize = 1;
+	private RioDBStreamMessage batch[];
+
+	// dictionary to encode string fields at ingest. null for no dictionary.
+	private StringDictionary stringDictionary;
+
+	// LIKE matchers shared by the conditions over the same string field, by field source
+	private final HashMap<String, SQLStringLIKEMatcher> likeMatchers = new HashMap<String, SQLStringLIKEMatcher>();
+
 	// Thread that this handler runs on.
 	private Thread streamThread;
 	// boolean to interrupt thread loop.
@@ -120,13 +139,63 @@ public class Stream implements Runnable {
 		return streamName;
 	}
 
+	// batchSize getter
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	// batchSize setter
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		if (batchSize > 1) {
+			batch = new RioDBStreamMessage[batchSize];
+		} else {
+			batch = null;
+		}
+	}
+
+	// history of raw messages, to load new windows. null for no history.
+	public void setHistory(StreamHistory history) {
+		streamWindowMgr.setStreamHistory(history);
+	}
+
+	// dictionary for string fields. null for no dictionary.
+	public void setDictionary(StringDictionary stringDictionary) {
+		this.stringDictionary = stringDictionary;
+	}
+
+	// fuse the query conditions when there are at least minQueries. 0 to disable.
+	public void setQueryFusion(int minQueries) {
+		streamQueryMgr.setQueryFusion(minQueries);
+	}
+
+	// the LIKE matcher of a string field, like 'message.getString(0)'.
+	// Matchers left without patterns by dropped queries are removed.
+	public synchronized SQLStringLIKEMatcher getLikeMatcher(String source) {
+		likeMatchers.values().removeIf(m -> m.getPatternCount() == 0);
+		SQLStringLIKEMatcher matcher = likeMatchers.get(source);
+		if (matcher == null) {
+			matcher = new SQLStringLIKEMatcher();
+			likeMatchers.put(source, matcher);
+		}
+		return matcher;
+	}
+
 	// describe stream in JSON format
 	public String describe() {
 		String s = "{ \"name\":\"" + streamName + "\",\n \"fields\":[" + streamMessageDef.getFieldList()
 				+ "],\n \"type\":\"" + streamInput.getType() + "\"," + "\n \"timestamp\" : \""
 				+ (streamMessageDef.getTimestampNumericFieldId() == -1 ? "clock"
 						: streamMessageDef.getTimestampFieldName())
-				+ "\" }";
+				+ "\"" + (batchSize > 1 ? ",\n \"batch\" : " + batchSize : "")
+				+ (streamWindowMgr.getStreamHistory() != null
+						? ",\n \"history\" : " + streamWindowMgr.getStreamHistory().describe()
+						: "")
+				+ (stringDictionary != null ? ",\n \"dictionary\" : " + stringDictionary.describe() : "")
+				+ (streamQueryMgr.getQueryFusion() > 0 ? ",\n \"fuse\" : " + streamQueryMgr.getQueryFusion()
+						+ (streamQueryMgr.describeFusion() != null ? ",\n \"fused\" : " + streamQueryMgr.describeFusion() : "")
+						: "")
+				+ " }";
 		return s;
 	}
 
@@ -343,10 +412,39 @@ public class Stream implements Runnable {
 				// e1.printStackTrace();
 				// }
 
+				// process messages in batches. Only the messages already available are taken,
+				// so batching does not wait for a batch to fill up.
+				if (batch != null) {
+					int count = 0;
+					RioDBStreamMessage message;
+					while (count < batch.length && (message = streamInput.getNextInputMessage()) != null) {
+						if (stringDictionary != null) {
+							stringDictionary.encode(message);
+						}
+						batch[count++] = message;
+					}
+					if (count > 0) {
+						final WindowSummary results[] = streamWindowMgr.putMessageBatch(batch, count);
+						final WindowSummary_String results_String[] = streamWindowMgr.putMessageBatch_String(batch,
+								count);
+						// queries run once, for the last message of the batch.
+						sendMessageResultsRefToQueries(new MessageWithSummaries(batch[count - 1], results, results_String));
+						for (int i = 0; i < count; i++) {
+							batch[i] = null;
+						}
+					}
+					continue;
+				}
+
 				// get next message from dataSource. non-blocking. Null can be returned.
 				RioDBStreamMessage message = streamInput.getNextInputMessage();
 				if (message != null) {
 
+					// string fields get their canonical instances, before windows and queries see them.
+					if (stringDictionary != null) {
+						stringDictionary.encode(message);
+					}
+
 					/*
 					 * Tell windowManager to run this message on ALL windows. Collect all windows
 					 * responses (windowSummary) into array. This array is filled with the clone of
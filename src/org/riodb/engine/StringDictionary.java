@@ -0,0 +1,144 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The StringDictionary encodes the string fields of a stream at ingest,
+ *    like 'create stream ... input udp(...) dictionary 10000;'
+ *
+ *    Each string field has its own dictionary of up to maxValues distinct
+ *    values. A value gets an int code when first seen, and every later
+ *    message with the same value gets the same canonical String instance
+ *    (the one for that code) put in its place.
+ *
+ *    So repeated values are stored once by windows and partitions, their hash is
+ *    computed once, and equality (in maps, IN lists and '=' conditions) is
+ *    an identity check. Canonical values are interned, so they're also the
+ *    same instance as the string constants in compiled conditions.
+ *
+ *    When a field's dictionary is full, new values pass through as they are.
+ *
+ *    Codes are kept in an open-addressing table of ints. Messages are encoded
+ *    by the stream thread only.
+ *
+ *    The int codes stay inside the dictionary. Messages are a plugin type that
+ *    only carries Strings, so string windows, count_distinct, partition maps and
+ *    IN sets still work on Strings. They get the savings of one shared instance
+ *    with a cached hash, not int keys. Passing codes along with messages would
+ *    need a change to the plugin message type first.
+ *
+ */
+
+package org.riodb.engine;
+
+import org.riodb.plugin.RioDBStreamMessage;
+
+public class StringDictionary {
+
+	// the dictionary of one field
+	private static class FieldDictionary {
+		// code + 1 of the value in each slot. 0 is an empty slot.
+		private final int slots[];
+		private final int mask;
+		// canonical values and their hashes, by code
+		private final String values[];
+		private final int hashes[];
+		private int size;
+
+		private FieldDictionary(int maxValues) {
+			int capacity = 2;
+			// at most half full, for short probes
+			while (capacity < maxValues * 2) {
+				capacity = capacity << 1;
+			}
+			slots = new int[capacity];
+			mask = capacity - 1;
+			values = new String[maxValues];
+			hashes = new int[maxValues];
+			size = 0;
+		}
+
+		// the canonical instance of the value, or the value itself if the dictionary is full.
+		private String encode(String value) {
+			int hash = value.hashCode();
+			int i = mix(hash) & mask;
+			while (slots[i] != 0) {
+				int code = slots[i] - 1;
+				if (hashes[code] == hash && values[code].equals(value)) {
+					return values[code];
+				}
+				i = (i + 1) & mask;
+			}
+			if (size == values.length) {
+				return value;
+			}
+			values[size] = value.intern();
+			hashes[size] = hash;
+			size++;
+			slots[i] = size;
+			return values[size - 1];
+		}
+	}
+
+	// max distinct values per field
+	private final int maxValues;
+	// one dictionary per string field. Allocated with the first message.
+	private FieldDictionary fields[];
+
+	// constructor
+	public StringDictionary(int maxValues) {
+		this.maxValues = maxValues;
+	}
+
+	// replace the string fields of the message with their canonical instances
+	public void encode(RioDBStreamMessage message) {
+		if (fields == null) {
+			fields = new FieldDictionary[message.getStringFieldsCount()];
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = new FieldDictionary(maxValues);
+			}
+		}
+		for (int i = 0; i < fields.length; i++) {
+			String value = message.getString(i);
+			if (value != null) {
+				message.set(i, fields[i].encode(value));
+			}
+		}
+	}
+
+	// spread the bits of the hash, since Strings with the same prefix have close hashes.
+	private static int mix(int hash) {
+		hash = hash * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	// describe the dictionary, for DESCRIBE STREAM
+	public String describe() {
+		String s = "{\"max_values\": " + maxValues + ", \"values\": [";
+		FieldDictionary f[] = fields;
+		if (f != null) {
+			for (int i = 0; i < f.length; i++) {
+				s = s + (i > 0 ? ", " : "") + f[i].size;
+			}
+		}
+		return s + "]}";
+	}
+
+}
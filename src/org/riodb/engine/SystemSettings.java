@@ -44,6 +44,7 @@ import org.riodb.plugin.RioDBPlugin;
 import org.riodb.sql.ExceptionSQLStatement;
 import org.riodb.sql.SQLExecutor;
 import org.riodb.sql.SQLParser;
+import org.riodb.windows.OffHeapDoubleArray;
 
 
 public class SystemSettings {
@@ -312,6 +313,18 @@ public class SystemSettings {
 			passwdFile = confProperties.get("credentials_file");
 		}
 
+		if (confProperties.containsKey("off_heap_threshold")) {
+			if (SQLParser.isNumber(confProperties.get("off_heap_threshold"))
+					&& !confProperties.get("off_heap_threshold").contains(".")
+					&& Integer.valueOf(confProperties.get("off_heap_threshold")) >= 0) {
+				OffHeapDoubleArray.setThreshold(Integer.valueOf(confProperties.get("off_heap_threshold")));
+				logger.debug("Off-heap threshold: " + OffHeapDoubleArray.getThreshold());
+			} else {
+				logger.error(fatal,"Configuration error: 'off_heap_threshold' must be 0 or a positive integer.");
+				return false;
+			}
+		}
+
 		if (confProperties.containsKey("sql_dir")) {
 			sqlDirectory = confProperties.get("sql_dir");
 		}
@@ -31,6 +31,7 @@ import org.riodb.engine.RioDB;
 import org.riodb.sql.ExceptionSQLExecution;
 import org.riodb.sql.SQLQueryColumn;
 import org.riodb.sql.SQLQueryCondition;
+import org.riodb.sql.SQLQueryConditionFusion;
 import org.riodb.sql.SQLQueryResources;
 import org.riodb.plugin.RioDBPlugin;
 import org.riodb.plugin.RioDBPluginException;
@@ -46,21 +47,29 @@ public class Query {
 
 	// Does this query expired by time?
 	private boolean limitByTime;
-	// limit til expired
-	private int limit;
+	// limit til expired. A count, or the time (in ms) when the query expires.
+	private long limit;
 
 	// Does this query take a timeout after each match?
 	private boolean usesTimeout;
 	// Is the timeout duration measured by time?
 	private boolean timeoutByTime;
-	// the timeout
-	private int timeout;
+	// the timeout. A count, or a duration in ms.
+	private long timeout;
 	// is the query currently in timeout?
 	private boolean currentlyInTimeout;
 	// when the current timeout ends
-	private int currentTimeoutTil;
+	private long currentTimeoutTil;
 	// list of resources used by this Query:
 	private SQLQueryResources queryResources;
+	// Does this query only fire when a TUMBLING, HOPPING or SESSION window closes?
+	private boolean fireOnWindowClose;
+	// predicate of the condition for the QueryIndex. null if not indexed.
+	private QueryPredicate indexPredicate;
+	// results of the fused conditions of the stream, and the slot of this query.
+	// slot -1 if this query's condition is not fused.
+	private byte fusedResults[];
+	private int fusedSlot = -1;
 
 	// THIS query id
 	private int queryId;
@@ -76,9 +85,9 @@ public class Query {
 	private String status;
 
 	// constructor
-	public Query(SQLQueryCondition condition, RioDBPlugin output, SQLQueryColumn columns[], int limit,
-			boolean limitByTime, int timeout, boolean timeoutByTime, String queryStr,
-			SQLQueryResources queryResources) {
+	public Query(SQLQueryCondition condition, RioDBPlugin output, SQLQueryColumn columns[], long limit,
+			boolean limitByTime, long timeout, boolean timeoutByTime, String queryStr,
+			SQLQueryResources queryResources, boolean fireOnWindowClose) {
 		this.sqlQueryCondition = condition;
 		this.output = output;
 		this.columns = columns;
@@ -89,6 +98,7 @@ public class Query {
 		this.timeoutByTime = timeoutByTime;
 		this.queryId = RioDB.rio.getEngine().counterNext();
 		this.queryResources = queryResources;
+		this.fireOnWindowClose = fireOnWindowClose;
 
 		currentlyInTimeout = false;
 		currentTimeoutTil = 0;
@@ -103,6 +113,18 @@ public class Query {
 		this.status = "ok";
 	}
 
+	// if evalAndGetStatus won't read the condition for this message: dropped, expired,
+	// sleeping, or ON CLOSE with no window closed. Doesn't change the query.
+	boolean skipsCondition(MessageWithSummaries esum, long currentMillis) {
+		if (destroy || (limitByTime && limit < currentMillis)) {
+			return true;
+		}
+		if (currentlyInTimeout && (timeoutByTime ? currentTimeoutTil > currentMillis : currentTimeoutTil > 1)) {
+			return true;
+		}
+		return fireOnWindowClose && !queryResources.hasWindowClosed(esum.getWindowSummariesRef());
+	}
+
 	// run a query, and get status to see if it can be dropped
 	// if 'true' is returned, the query will be removed.
 	public boolean evalAndGetStatus(MessageWithSummaries esum) throws ExceptionSQLExecution {
@@ -114,7 +136,7 @@ public class Query {
 		// PART 1, take care of expiring queries and queries in timeout
 
 		// If the query is limited by time and the time is up, drop the query
-		if (destroy || (limitByTime && limit < RioDB.rio.getEngine().getClock().getCurrentSecond())) {
+		if (destroy || (limitByTime && limit < RioDB.rio.getEngine().getClock().getCurrentMillis())) {
 			if (!destroy)
 				RioDB.rio.getSystemSettings().getLogger().debug("Query " + queryId + " reached age.");
 			return true; // this Query is overdue and can be destroyed.
@@ -124,7 +146,7 @@ public class Query {
 		if (currentlyInTimeout) {
 			// if it's timeout by time, check if the time is up
 			if (timeoutByTime) {
-				if (currentTimeoutTil <= RioDB.rio.getEngine().getClock().getCurrentSecond()) {
+				if (currentTimeoutTil <= RioDB.rio.getEngine().getClock().getCurrentMillis()) {
 					currentlyInTimeout = false; // timeout ends
 				} else {
 					return false; // cut it short. But don't destroy query.
@@ -146,6 +168,11 @@ public class Query {
 		// if the query is in timeout, we skip it. Otherwise, run it:
 		if (!currentlyInTimeout && !destroy) {
 
+			// queries ON CLOSE only run on the message that closed a TUMBLING, HOPPING or SESSION window
+			if (fireOnWindowClose && !queryResources.hasWindowClosed(esum.getWindowSummariesRef())) {
+				return false;
+			}
+
 			// if the condition is not null (some queries don't have a condition), check for
 			// condition match:
 			if (sqlQueryCondition != null) {
@@ -153,7 +180,14 @@ public class Query {
 				// use 'try' to catch query execution errors, like divide by 0.
 				try {
 
-					if (!sqlQueryCondition.match(esum.getMessageRef(), esum.getWindowSummariesRef(),
+					// the fused result, if already evaluated for this message.
+					// On error or if skipped, the query's own condition is run.
+					if (fusedSlot >= 0 && (fusedResults[fusedSlot] == SQLQueryConditionFusion.MATCH
+							|| fusedResults[fusedSlot] == SQLQueryConditionFusion.NO_MATCH)) {
+						if (fusedResults[fusedSlot] == SQLQueryConditionFusion.NO_MATCH) {
+							return false;
+						}
+					} else if (!sqlQueryCondition.match(esum.getMessageRef(), esum.getWindowSummariesRef(),
 							esum.getWindowSummariesRef_String())) {
 						// the query conditions did NOT match.
 						// Nothing more to do. But don't destroy the query.
@@ -198,7 +232,7 @@ public class Query {
 			if (usesTimeout) {
 				currentlyInTimeout = true;
 				if (timeoutByTime) {
-					currentTimeoutTil = timeout + RioDB.rio.getEngine().getClock().getCurrentSecond();
+					currentTimeoutTil = timeout + RioDB.rio.getEngine().getClock().getCurrentMillis();
 				} else {
 					currentTimeoutTil = timeout;
 				}
@@ -208,9 +242,21 @@ public class Query {
 	}
 
 	// get query limit
-	public int getLimit() {
+	public long getLimit() {
 		return limit;
 	}
+
+	// query limit in JSON. A count, or the time left, like "90s" or "250ms"
+	public String describeLimit() {
+		if (!limitByTime) {
+			return String.valueOf(limit);
+		}
+		long millisLeft = Math.max(0, limit - RioDB.rio.getEngine().getClock().getCurrentMillis());
+		if (millisLeft >= 1000) {
+			return "\"" + (millisLeft / 1000) + "s\"";
+		}
+		return "\"" + millisLeft + "ms\"";
+	}
 	
 	// get status
 	public String getStatus() {
@@ -228,7 +274,7 @@ public class Query {
 	}
 
 	// get timeout
-	public int getTimeout() {
+	public long getTimeout() {
 		return timeout;
 	}
 
@@ -252,6 +298,11 @@ public class Query {
 		return queryStr;
 	}
 
+	// REGEXP patterns used by the query, with match stats. null if none.
+	public String describeRegexps() {
+		return queryResources.describeRegexps();
+	}
+
 	// checks if query depends on a stream:
 	public boolean dependsOnStream(int streamId) {
 		return queryResources.dependsOnStream(streamId);
@@ -263,6 +314,12 @@ public class Query {
 		return queryResources.dependsOnWindow(streamId, windowId);
 	}
 
+	// release what the query holds in shared structures, like LIKE patterns in stream matchers
+	void releaseResources() {
+		queryResources.releaseLikes();
+		queryResources.releaseRegexps();
+	}
+
 	// mark query for removal
 	public void removeQuery() {
 		destroy = true;
@@ -273,6 +330,36 @@ public class Query {
 		return destroy;
 	}
 
+	public void setIndexPredicate(QueryPredicate indexPredicate) {
+		this.indexPredicate = indexPredicate;
+	}
+
+	public QueryPredicate getIndexPredicate() {
+		return indexPredicate;
+	}
+
+	public SQLQueryCondition getCondition() {
+		return sqlQueryCondition;
+	}
+
+	// set by the QueryManager when the stream's fused conditions change
+	public void setFused(byte fusedResults[], int fusedSlot) {
+		this.fusedResults = fusedResults;
+		this.fusedSlot = fusedSlot;
+	}
+
+	// if the query can be skipped when its predicate is false.
+	// A timeout measured in messages must count every message, so it can't.
+	public boolean isIndexable() {
+		return indexPredicate != null && !(usesTimeout && !timeoutByTime);
+	}
+
+	// if the query is dropped or expired. For indexed queries, which are
+	// not evaluated (and not removed) while their predicate is false.
+	public boolean isExpired() {
+		return destroy || (limitByTime && limit < RioDB.rio.getEngine().getClock().getCurrentMillis());
+	}
+
 	// start plugin (in case it has a startup procedure)
 	public void start() throws RioDBPluginException {
 		RioDB.rio.getSystemSettings().getLogger().debug("Query.start(): starting query " + queryId);
@@ -0,0 +1,282 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *   The QueryIndex finds the queries of a stream that may match a message,
+ *   without evaluating every query.
+ *
+ *   Each indexed query has one QueryPredicate. Queries are grouped by the
+ *   source of their predicate (a message field or a window aggregate), so the
+ *   value of each source is read once per message:
+ *      - equality predicates are in a hash map of value -> queries
+ *      - range predicates are in an interval tree, that finds all ranges
+ *        containing the value in O(log n + matches)
+ *
+ *   Only the queries returned as candidates need a full evaluation.
+ *
+ *   The index is only used by the stream thread. The interval tree is rebuilt
+ *   on the next message after queries are added or removed.
+ */
+
+package org.riodb.queries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+public class QueryIndex {
+
+	// a range predicate and its query
+	private static final class Range {
+		private final QueryPredicate predicate;
+		private final Query query;
+
+		private Range(QueryPredicate predicate, Query query) {
+			this.predicate = predicate;
+			this.query = query;
+		}
+
+		// range is entirely below value
+		private boolean below(double value) {
+			return predicate.getTo() < value || (predicate.getTo() == value && !predicate.isToInclusive());
+		}
+
+		// range is entirely above value
+		private boolean above(double value) {
+			return predicate.getFrom() > value || (predicate.getFrom() == value && !predicate.isFromInclusive());
+		}
+	}
+
+	// centered interval tree node
+	private static final class Node {
+		private double center;
+		// ranges containing the center, by start ascending and by end descending
+		private Range byFrom[];
+		private Range byTo[];
+		private Node left;
+		private Node right;
+	}
+
+	// all predicates over the same source
+	private static final class SourceIndex {
+		private final QueryPredicate source;
+		private final HashMap<String, ArrayList<Query>> stringEquals = new HashMap<String, ArrayList<Query>>();
+		private final HashMap<Double, ArrayList<Query>> numberEquals = new HashMap<Double, ArrayList<Query>>();
+		private final ArrayList<Range> ranges = new ArrayList<Range>();
+		private Node tree;
+		private boolean treeOutdated;
+
+		private SourceIndex(QueryPredicate source) {
+			this.source = source;
+		}
+
+		private boolean isEmpty() {
+			return stringEquals.isEmpty() && numberEquals.isEmpty() && ranges.isEmpty();
+		}
+	}
+
+	private final HashMap<String, SourceIndex> sourceMap = new HashMap<String, SourceIndex>();
+	private final ArrayList<SourceIndex> sources = new ArrayList<SourceIndex>();
+	private int queryCount;
+
+	// add a query with its predicate
+	public void add(Query query) {
+		QueryPredicate p = query.getIndexPredicate();
+		SourceIndex s = sourceMap.get(p.getSourceKey());
+		if (s == null) {
+			s = new SourceIndex(p);
+			sourceMap.put(p.getSourceKey(), s);
+			sources.add(s);
+		}
+		if (!p.isEquality()) {
+			s.ranges.add(new Range(p, query));
+			s.treeOutdated = true;
+		} else if (p.getSource() == QueryPredicate.STRING_FIELD) {
+			s.stringEquals.computeIfAbsent(p.getStringValue(), k -> new ArrayList<Query>()).add(query);
+		} else {
+			s.numberEquals.computeIfAbsent(p.getNumberValue(), k -> new ArrayList<Query>()).add(query);
+		}
+		queryCount++;
+	}
+
+	// remove a query
+	public void remove(Query query) {
+		QueryPredicate p = query.getIndexPredicate();
+		SourceIndex s = sourceMap.get(p.getSourceKey());
+		if (s == null) {
+			return;
+		}
+		boolean removed = false;
+		if (!p.isEquality()) {
+			for (int i = 0; i < s.ranges.size(); i++) {
+				if (s.ranges.get(i).query == query) {
+					s.ranges.remove(i);
+					s.treeOutdated = true;
+					removed = true;
+					break;
+				}
+			}
+		} else {
+			HashMap<?, ArrayList<Query>> map = p.getSource() == QueryPredicate.STRING_FIELD ? s.stringEquals
+					: s.numberEquals;
+			Object key = p.getSource() == QueryPredicate.STRING_FIELD ? p.getStringValue() : p.getNumberValue();
+			ArrayList<Query> list = map.get(key);
+			if (list != null) {
+				removed = list.remove(query);
+				if (list.isEmpty()) {
+					map.remove(key);
+				}
+			}
+		}
+		if (removed) {
+			queryCount--;
+		}
+		if (s.isEmpty()) {
+			sourceMap.remove(p.getSourceKey());
+			sources.remove(s);
+		}
+	}
+
+	public int size() {
+		return queryCount;
+	}
+
+	// adds the queries whose predicate is true for the message to candidates
+	public void getCandidates(MessageWithSummaries esum, ArrayList<Query> candidates) {
+		for (int i = 0; i < sources.size(); i++) {
+			SourceIndex s = sources.get(i);
+			if (s.source.getSource() == QueryPredicate.STRING_FIELD) {
+				String value = s.source.getString(esum);
+				if (value != null) {
+					ArrayList<Query> list = s.stringEquals.get(value);
+					if (list != null) {
+						candidates.addAll(list);
+					}
+				}
+				continue;
+			}
+			double value = s.source.getNumber(esum);
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			if (!s.numberEquals.isEmpty()) {
+				ArrayList<Query> list = s.numberEquals.get(value + 0.0d);
+				if (list != null) {
+					candidates.addAll(list);
+				}
+			}
+			if (!s.ranges.isEmpty()) {
+				if (s.treeOutdated) {
+					s.tree = build(s.ranges.toArray(new Range[s.ranges.size()]));
+					s.treeOutdated = false;
+				}
+				stab(s.tree, value, candidates);
+			}
+		}
+	}
+
+	// builds an interval tree. The center is the median of the range ends.
+	private static Node build(Range ranges[]) {
+		if (ranges.length == 0) {
+			return null;
+		}
+		double ends[] = new double[ranges.length * 2];
+		int n = 0;
+		for (Range r : ranges) {
+			// infinite ends don't make useful centers
+			if (!Double.isInfinite(r.predicate.getFrom())) {
+				ends[n++] = r.predicate.getFrom();
+			}
+			if (!Double.isInfinite(r.predicate.getTo())) {
+				ends[n++] = r.predicate.getTo();
+			}
+		}
+		Node node = new Node();
+		if (n > 0) {
+			Arrays.sort(ends, 0, n);
+			node.center = ends[n / 2];
+		}
+		ArrayList<Range> left = new ArrayList<Range>();
+		ArrayList<Range> right = new ArrayList<Range>();
+		ArrayList<Range> here = new ArrayList<Range>();
+		for (Range r : ranges) {
+			if (r.below(node.center)) {
+				left.add(r);
+			} else if (r.above(node.center)) {
+				right.add(r);
+			} else {
+				// ranges that contain the center, and empty ranges, stay here
+				here.add(r);
+			}
+		}
+		// no progress: keep all ranges in this node
+		if (left.size() == ranges.length || right.size() == ranges.length) {
+			here.addAll(left);
+			here.addAll(right);
+			left.clear();
+			right.clear();
+		}
+		node.byFrom = here.toArray(new Range[here.size()]);
+		Arrays.sort(node.byFrom, Comparator.comparingDouble(r -> r.predicate.getFrom()));
+		node.byTo = here.toArray(new Range[here.size()]);
+		Arrays.sort(node.byTo, Comparator.comparingDouble(r -> -r.predicate.getTo()));
+		node.left = build(left.toArray(new Range[left.size()]));
+		node.right = build(right.toArray(new Range[right.size()]));
+		return node;
+	}
+
+	// adds the queries of all ranges containing value
+	private static void stab(Node node, double value, ArrayList<Query> candidates) {
+		while (node != null) {
+			if (value < node.center) {
+				// ranges here end at or after the center. Check where they start.
+				for (Range r : node.byFrom) {
+					if (r.predicate.getFrom() > value) {
+						break;
+					}
+					if (r.predicate.inRange(value)) {
+						candidates.add(r.query);
+					}
+				}
+				node = node.left;
+			} else if (value > node.center) {
+				// ranges here start at or before the center. Check where they end.
+				for (Range r : node.byTo) {
+					if (r.predicate.getTo() < value) {
+						break;
+					}
+					if (r.predicate.inRange(value)) {
+						candidates.add(r.query);
+					}
+				}
+				node = node.right;
+			} else {
+				for (Range r : node.byFrom) {
+					if (r.predicate.inRange(value)) {
+						candidates.add(r.query);
+					}
+				}
+				return;
+			}
+		}
+	}
+}
@@ -30,13 +30,16 @@
 package org.riodb.queries;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Comparator;
 
 import org.riodb.engine.RioDB;
 import org.riodb.plugin.RioDBPluginException;
 import org.riodb.sql.BASE64Utils;
 import org.riodb.sql.ExceptionSQLExecution;
+import org.riodb.sql.ExceptionSQLStatement;
 import org.riodb.sql.SQLParser;
+import org.riodb.sql.SQLQueryCondition;
+import org.riodb.sql.SQLQueryConditionFusion;
 
 public class QueryManager{
 
@@ -46,6 +49,27 @@ public class QueryManager{
 	
 	// ArrayList of queries
 	private final ArrayList<Query> queries = new ArrayList<Query>();
+	// Queries evaluated for every message, by queryId. Queries with an index predicate are
+	// in the queryIndex instead, and only evaluated when their predicate is true.
+	private final ArrayList<Query> unindexedQueries = new ArrayList<Query>();
+	private final QueryIndex queryIndex = new QueryIndex();
+	// reusable list of candidate queries for a message. Sorted by queryId, and merged
+	// with the unindexed queries, so queries run in the order they were created.
+	private final ArrayList<Query> candidates = new ArrayList<Query>();
+	private static final Comparator<Query> BY_QUERY_ID = (a, b) -> Integer.compare(a.getQueryId(), b.getQueryId());
+	// last second when indexed queries were checked for expiration
+	private int lastExpirationCheck = Integer.MIN_VALUE;
+	// Conditions of the unindexed queries fused into one generated class.
+	// fusionMinQueries is 0 when disabled.
+	private int fusionMinQueries = 0;
+	private SQLQueryConditionFusion fusion;
+	private Query fusedQueries[];
+	// if unindexed queries changed since the fusion was built
+	private boolean fusionOutdated = false;
+	// fusion built in a background thread, to be swapped in by the stream thread
+	private volatile boolean fusionBuilding = false;
+	private volatile Query builtFusionQueries[];
+	private volatile SQLQueryConditionFusion builtFusion;
 	// Temp query buffer for inserting new query into arraylist in thread-safe manner. 
 	private Query   tempQuery;
 	private boolean queryWaitingToBeInserted = false;
@@ -83,11 +107,61 @@ public class QueryManager{
 			RioDB.rio.getSystemSettings().getLogger().debug("Query "+ query.getQueryId() +" queued to be added to stream.");
 			queryWaitingToBeInserted = true;
 		} else {
-			queries.add(query);
+			insertQuery(query);
 		}
 
 	}
 
+	// fuse the conditions of unindexed queries when there are at least minQueries.
+	// 0 to disable.
+	public void setQueryFusion(int minQueries) {
+		this.fusionMinQueries = minQueries;
+		this.fusionOutdated = true;
+	}
+
+	public int getQueryFusion() {
+		return fusionMinQueries;
+	}
+
+	// describe fused conditions in JSON format. null if not fused.
+	public String describeFusion() {
+		SQLQueryConditionFusion f = fusion;
+		if (f == null) {
+			return null;
+		}
+		return f.describe();
+	}
+
+	// adds a query to the list, and to the index or unindexed list
+	private void insertQuery(Query query) {
+		queries.add(query);
+		if (query.isIndexable()) {
+			queryIndex.add(query);
+			RioDB.rio.getSystemSettings().getLogger().debug("Query " + query.getQueryId() + " indexed by "
+					+ query.getIndexPredicate().describe() + ". " + queryIndex.size() + " indexed queries.");
+		} else {
+			// by queryId. Queries created at the same time may be inserted out of order.
+			int i = unindexedQueries.size();
+			while (i > 0 && unindexedQueries.get(i - 1).getQueryId() > query.getQueryId()) {
+				i--;
+			}
+			unindexedQueries.add(i, query);
+			fusionOutdated = true;
+		}
+	}
+
+	// removes a query from the lists
+	private void deleteQuery(Query query) {
+		queries.remove(query);
+		if (query.isIndexable()) {
+			queryIndex.remove(query);
+		} else {
+			unindexedQueries.remove(query);
+			fusionOutdated = true;
+		}
+		query.releaseResources();
+	}
+
 	// get query count (of this stream only)
 	public int queryCount() {
 		return queries.size();
@@ -109,7 +183,7 @@ public class QueryManager{
 				+ ", \"stream\":\"" + RioDB.rio.getEngine().getStream(streamId).getName() 
 				+ "\", \"output_type\": \""+ queries.get(i).getOutputType()
 				+ "\", \"status\": \""+ queries.get(i).getStatus()
-				+ "\", \"limit\": "+ queries.get(i).getLimit() 
+				+ "\", \"limit\": "+ queries.get(i).describeLimit() 
 			    + ",\n  \"statement\": \"" +  queryString + "\"},";
 				
 			}
@@ -129,7 +203,7 @@ public class QueryManager{
 					// mark query to be removed thread-safe. 
 					queries.get(i).removeQuery();
 				} else {
-					queries.remove(i);
+					deleteQuery(queries.get(i));
 				}
 				return true;
 			}
@@ -150,6 +224,10 @@ public class QueryManager{
 				queryString = BASE64Utils.decodeQuotedText(queryString);
 				queryString = SQLParser.hidePassword(queryString);
 				
+				String regexps = queries.get(i).describeRegexps();
+				if (regexps != null) {
+					return "{\"statement\": \"" + queryString + "\",\n \"regexp\": " + regexps + "}";
+				}
 				return "\"" + queryString + "\"";
 			}
 		}
@@ -183,49 +261,177 @@ public class QueryManager{
 		
 		// concurrency
 		if(queryWaitingToBeInserted) {
-			queries.add(tempQuery);
+			insertQuery(tempQuery);
 			queryWaitingToBeInserted = false;
 		}
+
+		if (fusionMinQueries > 0 || fusion != null) {
+			updateFusion();
+		}
 		
 		if (esum != null) {
-			
-			// Iterator to loop through queries
-			Iterator<Query> qItr = queries.iterator();
-			while (qItr.hasNext()) {
-				Query q = qItr.next();
 
-				try {
-					/*
-					 for each query:
-					 call Query evaluation and get query status.
-					 the query returns TRUE if it reached end-of-life.
-					 When there's a matched record, the query itself handles calling posting the output. 
-					 This process does not need to collect selected values for output. 
-					 
-					 If the query hit end-of-life, remove it.
-					  
-					 */
-					if (q.evalAndGetStatus(esum)) {
-						int queryId = q.getQueryId();
-						qItr.remove();
-						//dropQuery(queryId);
-						RioDB.rio.getSystemSettings().getPersistedStatements().dropQueryStmt(queryId);
-						RioDB.rio.getSystemSettings().getLogger().info("Query "+ String.valueOf(queryId) +" removed.");
+			// evaluate the fused conditions once. Each fused query reads its result.
+			// Conditions of queries that won't read them are skipped. Slots that are
+			// not evaluated stay ERROR, so their query runs its own condition.
+			if (fusion != null) {
+				byte results[] = fusion.getResults();
+				long currentMillis = RioDB.rio.getEngine().getClock().getCurrentMillis();
+				for (int i = 0; i < fusedQueries.length; i++) {
+					results[i] = fusedQueries[i].skipsCondition(esum, currentMillis) ? SQLQueryConditionFusion.SKIPPED
+							: SQLQueryConditionFusion.ERROR;
+				}
+				fusion.evaluate(esum.getMessageRef(), esum.getWindowSummariesRef(),
+						esum.getWindowSummariesRef_String());
+			}
+
+			if (queryIndex.size() > 0) {
+				// indexed queries are not evaluated while their predicate is false,
+				// so dropped and expired ones are removed here, once per second.
+				int currentSecond = RioDB.rio.getEngine().getClock().getCurrentSecond();
+				if (currentSecond != lastExpirationCheck) {
+					lastExpirationCheck = currentSecond;
+					for (int i = queries.size() - 1; i >= 0; i--) {
+						Query q = queries.get(i);
+						if (q.isIndexable() && q.isExpired()) {
+							endQuery(q);
+						}
 					}
-				} catch (ExceptionSQLExecution e) {
-					//if (!erroAlreadyCaught) {
-					//	RioDB.rio.getSystemSettings().getLogger().debug("Error executing query.");
-					//	RioDB.rio.getSystemSettings().getLogger().debug(e.getMessage());
-						
-					//}
+				}
+				// queries whose index predicate is true for this message
+				candidates.clear();
+				queryIndex.getCandidates(esum, candidates);
+				if (candidates.size() > 1) {
+					candidates.sort(BY_QUERY_ID);
 				}
 			}
 
+			// unindexed queries and candidates, merged by queryId
+			int u = 0;
+			int c = 0;
+			while (u < unindexedQueries.size() || c < candidates.size()) {
+				if (c == candidates.size() || (u < unindexedQueries.size()
+						&& unindexedQueries.get(u).getQueryId() < candidates.get(c).getQueryId())) {
+					Query q = unindexedQueries.get(u);
+					if (evalQuery(q, esum)) {
+						endQuery(q);
+					} else {
+						u++;
+					}
+				} else {
+					Query q = candidates.get(c++);
+					if (evalQuery(q, esum)) {
+						endQuery(q);
+					}
+				}
+			}
+			candidates.clear();
+
 			// for future enhancement, queries should be able to reference data from previous message. 
 			// previousMessage = esum.getMessageRef();
 
 		}
 	}
+
+	// swaps in a fusion built in the background, and starts building
+	// a new one if the unindexed queries changed.
+	private void updateFusion() {
+
+		SQLQueryConditionFusion built = builtFusion;
+		if (built != null) {
+			builtFusion = null;
+			installFusion(built, builtFusionQueries);
+		}
+
+		if (!fusionOutdated || fusionBuilding) {
+			return;
+		}
+		fusionOutdated = false;
+
+		ArrayList<Query> fusible = new ArrayList<Query>();
+		for (Query q : unindexedQueries) {
+			if (q.getCondition() != null) {
+				fusible.add(q);
+			}
+		}
+		if (fusionMinQueries == 0 || fusible.size() < fusionMinQueries) {
+			installFusion(null, null);
+			return;
+		}
+
+		// snapshot of the queries. The fusion is built from their conditions
+		// while the stream keeps evaluating with the current one.
+		final Query snapshot[] = fusible.toArray(new Query[fusible.size()]);
+		final SQLQueryCondition conditions[] = new SQLQueryCondition[snapshot.length];
+		for (int i = 0; i < snapshot.length; i++) {
+			conditions[i] = snapshot[i].getCondition();
+		}
+
+		fusionBuilding = true;
+		Thread fusionThread = new Thread("FUSION_" + streamId) {
+			@Override
+			public void run() {
+				try {
+					SQLQueryConditionFusion f = new SQLQueryConditionFusion(conditions);
+					builtFusionQueries = snapshot;
+					builtFusion = f;
+				} catch (ExceptionSQLStatement e) {
+					RioDB.rio.getSystemSettings().getLogger()
+							.warn("Could not fuse query conditions: " + e.getMessage());
+				} finally {
+					fusionBuilding = false;
+				}
+			}
+		};
+		fusionThread.setDaemon(true);
+		fusionThread.start();
+	}
+
+	// points the queries to the results of a new fusion. null to disable.
+	// Queries added after the snapshot are not fused, and run their own condition.
+	private void installFusion(SQLQueryConditionFusion newFusion, Query newFusedQueries[]) {
+		if (fusedQueries != null) {
+			for (Query q : fusedQueries) {
+				q.setFused(null, -1);
+			}
+		}
+		fusion = newFusion;
+		fusedQueries = newFusedQueries;
+		if (newFusion != null) {
+			for (int i = 0; i < newFusedQueries.length; i++) {
+				newFusedQueries[i].setFused(newFusion.getResults(), i);
+			}
+			RioDB.rio.getSystemSettings().getLogger()
+					.debug("Fused conditions of " + newFusion.getFusedCount() + " queries.");
+		}
+	}
+
+	/*
+	 call Query evaluation and get query status.
+	 the query returns TRUE if it reached end-of-life.
+	 When there's a matched record, the query itself handles calling posting the output. 
+	 This process does not need to collect selected values for output. 
+	 */
+	private boolean evalQuery(Query q, MessageWithSummaries esum) {
+		try {
+			return q.evalAndGetStatus(esum);
+		} catch (ExceptionSQLExecution e) {
+			//if (!erroAlreadyCaught) {
+			//	RioDB.rio.getSystemSettings().getLogger().debug("Error executing query.");
+			//	RioDB.rio.getSystemSettings().getLogger().debug(e.getMessage());
+				
+			//}
+			return false;
+		}
+	}
+
+	// remove a query that hit end-of-life.
+	private void endQuery(Query q) {
+		int queryId = q.getQueryId();
+		deleteQuery(q);
+		RioDB.rio.getSystemSettings().getPersistedStatements().dropQueryStmt(queryId);
+		RioDB.rio.getSystemSettings().getLogger().info("Query "+ String.valueOf(queryId) +" removed.");
+	}
 	
 	// start Runnable thread - queryManager run its own thread.
 	public void start() throws RioDBPluginException {
@@ -0,0 +1,235 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *   A predicate of a query condition that the QueryIndex can check for many
+ *   queries at once.
+ *
+ *   It's one term of a condition made of terms joined by AND, comparing a
+ *   source (a field of the driving stream message, or an aggregate of a local
+ *   window) with constants:
+ *      symbol = 'TSLA'     (string equality)
+ *      price = 100         (number equality)
+ *      price > 100         (number range, open or closed)
+ *      w.avg > 10 and w.avg <= 20   (both terms make one range)
+ *
+ *   If the predicate is false, the whole condition is false, so the query
+ *   doesn't need to be evaluated.
+ */
+
+package org.riodb.queries;
+
+import org.riodb.plugin.RioDBStreamMessage;
+import org.riodb.sql.SQLAggregateFunctions;
+import org.riodb.windows.WindowSummary;
+
+public class QueryPredicate {
+
+	// source of the value
+	static final int STRING_FIELD = 0;
+	static final int NUMBER_FIELD = 1;
+	static final int WINDOW_AGGREGATE = 2;
+
+	// window aggregates that can be indexed
+	private static final int AVG = SQLAggregateFunctions.getFunctionId("avg");
+	private static final int COUNT = SQLAggregateFunctions.getFunctionId("count");
+	private static final int FIRST = SQLAggregateFunctions.getFunctionId("first");
+	private static final int LAST = SQLAggregateFunctions.getFunctionId("last");
+	private static final int MAX = SQLAggregateFunctions.getFunctionId("max");
+	private static final int MEDIAN = SQLAggregateFunctions.getFunctionId("median");
+	private static final int MIN = SQLAggregateFunctions.getFunctionId("min");
+	private static final int MODE = SQLAggregateFunctions.getFunctionId("mode");
+	private static final int PREVIOUS = SQLAggregateFunctions.getFunctionId("previous");
+	private static final int SUM = SQLAggregateFunctions.getFunctionId("sum");
+
+	private final int source;
+	// field index (string or numeric) or window id
+	private final int index;
+	// aggregate function of a window
+	private final int functionId;
+
+	// equality
+	private final boolean equality;
+	private String stringValue;
+	private double numberValue;
+
+	// range
+	private double from = Double.NEGATIVE_INFINITY;
+	private boolean fromInclusive = true;
+	private double to = Double.POSITIVE_INFINITY;
+	private boolean toInclusive = true;
+
+	private QueryPredicate(int source, int index, int functionId, boolean equality) {
+		this.source = source;
+		this.index = index;
+		this.functionId = functionId;
+		this.equality = equality;
+	}
+
+	// a stream field, with any value. Narrow it with equalTo() or narrow().
+	public static QueryPredicate field(int fieldIndex, boolean numeric) {
+		return new QueryPredicate(numeric ? NUMBER_FIELD : STRING_FIELD, fieldIndex, -1, false);
+	}
+
+	// a window aggregate, with any value. Narrow it with equalTo() or narrow().
+	public static QueryPredicate window(int windowId, int functionId) {
+		return new QueryPredicate(WINDOW_AGGREGATE, windowId, functionId, false);
+	}
+
+	// same source = 'value'
+	public QueryPredicate equalTo(String value) {
+		QueryPredicate p = new QueryPredicate(source, index, functionId, true);
+		p.stringValue = value;
+		return p;
+	}
+
+	// same source = number
+	public QueryPredicate equalTo(double value) {
+		QueryPredicate p = new QueryPredicate(source, index, functionId, true);
+		p.numberValue = value + 0.0d; // -0.0 == 0.0
+		return p;
+	}
+
+	// if the window function can be indexed
+	public static boolean isIndexableFunction(int functionId) {
+		return functionId == AVG || functionId == COUNT || functionId == FIRST || functionId == LAST
+				|| functionId == MAX || functionId == MEDIAN || functionId == MIN || functionId == MODE
+				|| functionId == PREVIOUS || functionId == SUM;
+	}
+
+	// narrows the range with a comparison: value > constant, value >= constant...
+	public void narrow(String operator, double constant) {
+		if (operator.equals(">") || operator.equals(">=")) {
+			boolean inclusive = operator.equals(">=");
+			if (constant > from || (constant == from && !inclusive)) {
+				from = constant;
+				fromInclusive = inclusive;
+			}
+		} else if (operator.equals("<") || operator.equals("<=")) {
+			boolean inclusive = operator.equals("<=");
+			if (constant < to || (constant == to && !inclusive)) {
+				to = constant;
+				toInclusive = inclusive;
+			}
+		}
+	}
+
+	// same source as another predicate
+	public boolean sameSource(QueryPredicate other) {
+		return source == other.source && index == other.index && functionId == other.functionId;
+	}
+
+	// key of the source, for the index
+	String getSourceKey() {
+		return source + ":" + index + ":" + functionId;
+	}
+
+	int getSource() {
+		return source;
+	}
+
+	public boolean isStringSource() {
+		return source == STRING_FIELD;
+	}
+
+	boolean isEquality() {
+		return equality;
+	}
+
+	String getStringValue() {
+		return stringValue;
+	}
+
+	double getNumberValue() {
+		return numberValue;
+	}
+
+	double getFrom() {
+		return from;
+	}
+
+	boolean isFromInclusive() {
+		return fromInclusive;
+	}
+
+	double getTo() {
+		return to;
+	}
+
+	boolean isToInclusive() {
+		return toInclusive;
+	}
+
+	// if a number is in the range
+	boolean inRange(double value) {
+		return (value > from || (fromInclusive && value == from)) && (value < to || (toInclusive && value == to));
+	}
+
+	// the string value of the source in a message. null if not a string field.
+	String getString(MessageWithSummaries esum) {
+		RioDBStreamMessage message = esum.getMessageRef();
+		return message == null ? null : message.getString(index);
+	}
+
+	// the numeric value of the source in a message. NaN if not available.
+	double getNumber(MessageWithSummaries esum) {
+		if (source == NUMBER_FIELD) {
+			RioDBStreamMessage message = esum.getMessageRef();
+			return message == null ? Double.NaN : message.getDouble(index);
+		}
+		WindowSummary summaries[] = esum.getWindowSummariesRef();
+		if (summaries == null || index >= summaries.length || summaries[index] == null) {
+			return Double.NaN;
+		}
+		WindowSummary s = summaries[index];
+		if (functionId == AVG) {
+			return s.getAvg();
+		} else if (functionId == COUNT) {
+			return s.getCount();
+		} else if (functionId == FIRST) {
+			return s.getFirst();
+		} else if (functionId == LAST) {
+			return s.getLast();
+		} else if (functionId == MAX) {
+			return s.getMax();
+		} else if (functionId == MEDIAN) {
+			return s.getMedian();
+		} else if (functionId == MIN) {
+			return s.getMin();
+		} else if (functionId == MODE) {
+			return s.getMode();
+		} else if (functionId == PREVIOUS) {
+			return s.getPrevious();
+		}
+		return s.getSum();
+	}
+
+	// describe the predicate, for logging
+	public String describe() {
+		String s = source == STRING_FIELD ? "string field " + index
+				: source == NUMBER_FIELD ? "number field " + index
+						: "window " + index + " " + SQLAggregateFunctions.getFunction(functionId);
+		if (equality) {
+			return s + " = " + (source == STRING_FIELD ? "'" + stringValue + "'" : String.valueOf(numberValue));
+		}
+		return s + " in " + (fromInclusive ? "[" : "(") + from + ", " + to + (toInclusive ? "]" : ")");
+	}
+}
@@ -32,8 +32,8 @@ import org.riodb.engine.RioDB;
 public final class JavaGenerator {
 
 	public static String convertSqlToJava(String sqlExpression, SQLQueryResources queryResources, int drivingStreamId,
-			ArrayList<SQLStringLIKE> likeList, ArrayList<SQLStringIN> inList, TreeSet<Integer> requiredWindows)
-			throws ExceptionSQLStatement {
+			ArrayList<SQLStringLIKE> likeList, ArrayList<SQLStringIN> inList, ArrayList<SQLStringREGEXP> regexpList,
+			TreeSet<Integer> requiredWindows) throws ExceptionSQLStatement {
 
 		if (sqlExpression == null) {
 			return null;
@@ -309,8 +309,19 @@ public final class JavaGenerator {
 					words[i - 1] = "";
 
 					words[i] = "likeList[" + likeCounter + "].match(" + source + ")";
-					SQLStringLIKE sl = new SQLStringLIKE(words[i + 1]);
+					// LIKE over a stream field shares the matcher of that field, across queries.
+					SQLStringLIKE sl;
+					if (source.matches("(message|previousMessage)\\.getString\\(\\d+\\)")
+							&& drivingStreamId >= 0 && RioDB.rio.getEngine().getStream(drivingStreamId) != null) {
+						sl = new SQLStringLIKE(words[i + 1],
+								RioDB.rio.getEngine().getStream(drivingStreamId).getLikeMatcher(source));
+					} else {
+						sl = new SQLStringLIKE(words[i + 1]);
+					}
 					likeList.add(sl);
+					if (queryResources != null) {
+						queryResources.addLike(sl);
+					}
 					words[i + 1] = "";
 					// s = s + words[i - 1] + " " + words[i] + " " + words[i + 1];
 					i++;
@@ -368,6 +379,14 @@ public final class JavaGenerator {
 
 		}
 
+		// REGEXP functions with constant patterns are compiled now
+		for (int i = 0; i < words.length; i++) {
+			if (words[i].endsWith("SQLScalarFunctionsReturningBoolean.regexp_like")
+					|| words[i].endsWith("SQLScalarFunctionsReturningString.regexp_substr")) {
+				compileRegexp(words, i, queryResources, regexpList);
+			}
+		}
+
 		javaExpression = "";
 		for (String word : words) {
 			javaExpression = javaExpression + word + " ";
@@ -380,6 +399,76 @@ public final class JavaGenerator {
 		return javaExpression;
 	}
 
+	// REGEXP_LIKE or REGEXP_SUBSTR at words[functionIndex], with arguments (source, pattern [, match parameter])
+	// If the pattern and match parameter are constants, the pattern is compiled now,
+	// and the call is replaced by a call using the compiled pattern.
+	// Queries keep the pattern in their resources. Windows keep it in regexpList.
+	private static void compileRegexp(String words[], int functionIndex, SQLQueryResources queryResources,
+			ArrayList<SQLStringREGEXP> regexpList) throws ExceptionSQLStatement {
+
+		String function = words[functionIndex].substring(words[functionIndex].lastIndexOf('.') + 1);
+		int open = functionIndex + 1;
+		if (open >= words.length || !words[open].equals("(")) {
+			throw new ExceptionSQLStatement(function.toUpperCase() + " must be followed by (source, pattern).");
+		}
+
+		// commas separating the arguments
+		int commas[] = new int[2];
+		int commaCount = 0;
+		int depth = 0;
+		int close = -1;
+		for (int i = open + 1; i < words.length && close == -1; i++) {
+			if (words[i].equals("(")) {
+				depth++;
+			} else if (words[i].startsWith(")")) {
+				if (depth == 0) {
+					close = i;
+				}
+				depth--;
+			} else if (words[i].equals(",") && depth == 0) {
+				if (commaCount == 2) {
+					throw new ExceptionSQLStatement(function.toUpperCase() + " takes 2 or 3 arguments.");
+				}
+				commas[commaCount++] = i;
+			}
+		}
+		if (close == -1 || commaCount == 0) {
+			throw new ExceptionSQLStatement(function.toUpperCase() + " takes 2 or 3 arguments.");
+		}
+
+		int patternIndex = commas[0] + 1;
+		int patternEnd = commaCount == 2 ? commas[1] : close;
+		if (patternEnd != patternIndex + 1 || !SQLParser.isStringConstant(words[patternIndex])) {
+			// pattern is built at runtime
+			return;
+		}
+		String matchParameter = null;
+		if (commaCount == 2) {
+			if (close != commas[1] + 2 || !SQLParser.isStringConstant(words[commas[1] + 1])) {
+				return;
+			}
+			matchParameter = BASE64Utils.decodeText(words[commas[1] + 1].replace("'", ""));
+		}
+
+		String encodedPattern = words[patternIndex].replace("'", "");
+		SQLStringREGEXP regexp = SQLStringREGEXP.compileConstant(encodedPattern, matchParameter);
+		if (queryResources != null) {
+			queryResources.addRegexp(regexp);
+		}
+		if (regexpList != null) {
+			regexpList.add(regexp);
+		}
+
+		String negation = words[functionIndex].startsWith("!") ? "!" : "";
+		words[functionIndex] = negation
+				+ (function.equals("regexp_like") ? "SQLStringREGEXP.constantLike" : "SQLStringREGEXP.constantSubstr");
+		words[patternIndex] = String.valueOf(regexp.getConstantId());
+		if (commaCount == 2) {
+			words[commas[1]] = "";
+			words[commas[1] + 1] = "";
+		}
+	}
+
 	// method to go back in array of words and find index of an opening parenthesis
 	// note: accounts for nested parenthesis pairs in between
 	public static int getIndexOfOpeningParenthesis(String words[], int indexOfClosingParenthesis) {
@@ -479,6 +568,18 @@ public final class JavaGenerator {
 					word = "message.getString(" + stringFieldIndex + ")";
 				}
 
+			} else if (queryResources.containsWindowAlias(alias) && SQLParser.isGlobalAggregateFunction(fieldName)) {
+				// global rollup of a partitioned window, like w.global.avg
+				int windowId = queryResources.getResourceByAlias(alias).getWindowId();
+				int windowStreamId = queryResources.getResourceByAlias(alias).getStreamId();
+				int functionId = SQLAggregateFunctions.getFunctionId(fieldName.substring(7));
+				if (windowId < 0 || !RioDB.rio.getEngine().getStream(windowStreamId).getWindowMgr().getWindow(windowId)
+						.globalProvidesFunction(functionId)) {
+					throw new ExceptionSQLStatement("Window " + alias + " does not provide global function " + fieldName);
+				}
+				word = "org.riodb.engine.RioDB.rio.getEngine().getStream(" + windowStreamId + ").getWindowMgr().getWindow("
+						+ windowId + ").getWindowSummary()." + SQLAggregateFunctions.getFunctionCall(functionId);
+
 			} else if (queryResources.containsWindowAlias(alias)) {
 				int windowId = queryResources.getResourceByAlias(alias).getWindowId();
 
@@ -20,6 +20,12 @@
 
 package org.riodb.sql;
 
+import java.util.ArrayList;
+
+import org.riodb.windows.Histogram;
+import org.riodb.windows.SlidingAggregateOperator;
+import org.riodb.windows.TopKSketch;
+
 public final class SQLAggregateFunctions {
 
 	private static final String functions[] = {
@@ -40,7 +46,14 @@ public final class SQLAggregateFunctions {
 			"variance",
 			"slope",
 			"sum",
-			"sum_if"
+			"sum_if",
+			"topk",
+			"histogram",
+			"covariance",
+			"covariance_pop",
+			"correlation",
+			"regr_slope",
+			"regr_intercept"
 	};
 	
 	private static final String functionCalls[] = {
@@ -61,7 +74,44 @@ public final class SQLAggregateFunctions {
 			"getVariance()",
 			"getSlope()",
 			"getSum()",
-			"getSumIf()"
+			"getSumIf()",
+			"getTopK()",
+			"getHistogram()",
+			"getCovariance()",
+			"getCovariancePop()",
+			"getCorrelation()",
+			"getRegrSlope()",
+			"getRegrIntercept()"
+	};
+	
+	// associative operators for functions that are not invertible on eviction.
+	// Windows compute these with a SlidingAggregation. null if not applicable.
+	private static final SlidingAggregateOperator slidingOperators[] = {
+			null, // avg
+			null, // count
+			null, // count_distinct
+			null, // count_if
+			null, // first
+			null, // last
+			SlidingAggregateOperator.MAX, // max
+			null, // median
+			SlidingAggregateOperator.MIN, // min
+			null, // mode
+			null, // stddev_pop
+			null, // variance_pop
+			null, // previous
+			null, // stddev
+			null, // variance
+			null, // slope
+			null, // sum
+			null, // sum_if
+			null, // topk
+			null, // histogram
+			null, // covariance
+			null, // covariance_pop
+			null, // correlation
+			null, // regr_slope
+			null  // regr_intercept
 	};
 	
 	public static final int functionsAvailable() {
@@ -107,13 +157,21 @@ public final class SQLAggregateFunctions {
 		return functionCalls[id];
 	}
 
+	public static final SlidingAggregateOperator getSlidingOperator(int id) {
+
+		if(id >= slidingOperators.length || id < 0) {
+			return null;
+		}
+		return slidingOperators[id];
+	}
+
 	
 	public static final boolean[] getFunctionsRequired(String functionStr) {
 		boolean functionsRequired[] = new boolean[SQLAggregateFunctions.functionsAvailable()];
 		for(int i = 0; i < functionsRequired.length; i++) {
 			functionsRequired[i] = false;
 		}
-		String[] functions = functionStr.split(",");
+		String[] functions = splitFunctions(functionStr);
 		for(int i = 0; i < functions.length; i++) {
 			functions[i] = functions[i].trim(); 
 			
@@ -196,10 +254,100 @@ public final class SQLAggregateFunctions {
 			if(functions[i] != null && functions[i].equals("sum_if")) {
 				functionsRequired[SQLAggregateFunctions.getFunctionId("sum_if")] = true;
 			}
+			// topk, or topk(k)
+			if(functions[i] != null && (functions[i].equals("topk") || functions[i].startsWith("topk ("))) {
+				functionsRequired[SQLAggregateFunctions.getFunctionId("topk")] = true;
+			}
+			// histogram, or histogram(log), or histogram(bound, bound, ...)
+			if(functions[i] != null && (functions[i].equals("histogram") || functions[i].startsWith("histogram ("))) {
+				functionsRequired[SQLAggregateFunctions.getFunctionId("histogram")] = true;
+			}
+			// functions of two fields, for multi-field windows
+			if(functions[i] != null && isPairFunction(functions[i])) {
+				functionsRequired[SQLAggregateFunctions.getFunctionId(functions[i])] = true;
+				functionsRequired[SQLAggregateFunctions.getFunctionId("count")] = true;
+			}
 		}
 		return functionsRequired;
 	}
 	
+	// if function is computed over two fields (x, y) of a multi-field window
+	public static final boolean isPairFunction(String function) {
+		return function.equals("covariance") || function.equals("covariance_pop") || function.equals("correlation")
+				|| function.equals("regr_slope") || function.equals("regr_intercept");
+	}
+
+	// get K from "topk ( k )" in a list of functions. Default if K is not specified.
+	public static final int getTopK(String functionStr) throws ExceptionSQLStatement {
+		for (String function : splitFunctions(functionStr)) {
+			function = function.trim();
+			if (function.startsWith("topk (")) {
+				String kStr = function.substring(6).replace(")", "").trim();
+				if (!kStr.matches("[0-9]{1,9}")) {
+					throw new ExceptionSQLStatement("TOPK requires a whole number, like 'topk(10)'");
+				}
+				int k = Integer.parseInt(kStr);
+				if (k < 1 || k > TopKSketch.MAX_K) {
+					throw new ExceptionSQLStatement("TOPK must be between 1 and " + TopKSketch.MAX_K);
+				}
+				return k;
+			}
+		}
+		return TopKSketch.DEFAULT_K;
+	}
+
+	// get the Histogram from "histogram ( ... )" in a list of functions.
+	// Log scaled if bounds are not specified.
+	public static final Histogram getHistogram(String functionStr) throws ExceptionSQLStatement {
+		for (String function : splitFunctions(functionStr)) {
+			function = function.trim();
+			if (function.startsWith("histogram (")) {
+				String boundsStr = function.substring(11).replace(")", "").trim();
+				if (boundsStr.equals("log")) {
+					return Histogram.logScaled();
+				}
+				String boundsArr[] = boundsStr.split(",");
+				if (boundsArr.length > Histogram.MAX_BOUNDS) {
+					throw new ExceptionSQLStatement("HISTOGRAM can have at most " + Histogram.MAX_BOUNDS + " bounds.");
+				}
+				double bounds[] = new double[boundsArr.length];
+				for (int i = 0; i < boundsArr.length; i++) {
+					String b = boundsArr[i].replace(" ", "");
+					if (!SQLParser.isNumber(b)) {
+						throw new ExceptionSQLStatement(
+								"HISTOGRAM requires numeric bounds, like 'histogram(10, 50, 100)', or 'histogram(log)'");
+					}
+					bounds[i] = Double.valueOf(b);
+					if (i > 0 && bounds[i] <= bounds[i - 1]) {
+						throw new ExceptionSQLStatement("HISTOGRAM bounds must be in ascending order.");
+					}
+				}
+				return new Histogram(bounds);
+			}
+		}
+		return Histogram.logScaled();
+	}
+
+	// split a list of functions by commas, except commas within parentheses
+	private static String[] splitFunctions(String functionStr) {
+		ArrayList<String> functions = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < functionStr.length(); i++) {
+			char c = functionStr.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				functions.add(functionStr.substring(start, i));
+				start = i + 1;
+			}
+		}
+		functions.add(functionStr.substring(start));
+		return functions.toArray(new String[functions.size()]);
+	}
+
 	public static final String getFunctionsAvailable(boolean[] functionsRequired) {
 		String s = "";
 		
@@ -206,6 +206,25 @@ public final class SQLExecutor {
 								responseList.add("Unknown DROP command.");
 								httpResponseStatus = "400";
 							}
+						} else if (statement.startsWith("alter ")) {
+							if (statement.contains(" window ")) {
+								if (RioDB.rio.getUserMgr() == null
+										|| RioDB.rio.getUserMgr().getUserAccessLevel(actingUser).can("WINDOW")) {
+									String response = SQLWindowOperations.alterWindow(statement);
+									responseList.add(response);
+									RioDB.rio.getSystemSettings().getLogger().info(response);
+
+								} else {
+									RioDB.rio.getSystemSettings().getLogger()
+											.debug("User not authorized to manage windows.");
+									responseList.add("User not authorized to manage windows.");
+									httpResponseStatus = "401";
+								}
+							} else {
+								RioDB.rio.getSystemSettings().getLogger().debug("Unknown ALTER command.");
+								responseList.add("Unknown ALTER command.");
+								httpResponseStatus = "400";
+							}
 						} else if (statement.startsWith("list ")) {
 							if (statement.contains(" streams")) {
 
@@ -311,6 +330,25 @@ public final class SQLExecutor {
 										"Describe command should be like... DESCRIBE STREAM stream_name;  or DESCRIBE WINDOW stream_name.window_name; or DESCRIBE QUERY stream_name.0;");
 								httpResponseStatus = "400";
 							}
+						} else if (statement.startsWith("history ")) {
+							if (RioDB.rio.getUserMgr() == null
+									|| RioDB.rio.getUserMgr().getUserAccessLevel(actingUser).can("QUERY")) {
+								responseList.add(SQLStreamOperations.getHistoryRows(statement));
+							} else {
+								RioDB.rio.getSystemSettings().getLogger().debug("User not authorized to QUERY");
+								responseList.add("User not authorized to QUERY.");
+								httpResponseStatus = "401";
+							}
+						} else if (statement.startsWith("top ")) {
+							if (RioDB.rio.getUserMgr() == null
+									|| RioDB.rio.getUserMgr().getUserAccessLevel(actingUser).can("WINDOW")) {
+								responseList.add(SQLWindowOperations.topPartitions(statement));
+							} else {
+								RioDB.rio.getSystemSettings().getLogger()
+										.debug("User not authorized to manage windows.");
+								responseList.add("User not authorized to manage windows.");
+								httpResponseStatus = "401";
+							}
 						} else if (statement.startsWith("reset window ")) {
 							if (RioDB.rio.getUserMgr() == null
 									|| RioDB.rio.getUserMgr().getUserAccessLevel(actingUser).can("WINDOW")) {
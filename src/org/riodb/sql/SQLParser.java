@@ -280,6 +280,16 @@ public final class SQLParser {
 		return columns;
 	}
 
+	// used for Select. ON CLOSE makes query fire only when a TUMBLING, HOPPING or SESSION window closes.
+	public static final boolean getQueryOnClose(String stmt) {
+		return stmt.contains(" on close ") || stmt.contains(" on close;");
+	}
+
+	// used for Select. Removes ON CLOSE so that other clauses can be parsed.
+	public static final String removeQueryOnClose(String stmt) {
+		return stmt.replace(" on close ", " ").replace(" on close;", ";");
+	}
+
 	public static final String getQuerySleepStr(String stmt) throws ExceptionSQLStatement {
 
 		if (stmt.contains(" sleep "))
@@ -449,6 +459,27 @@ public final class SQLParser {
 
 	}
 
+	// if a partitioned window keeps a global rollup, like 'partition by device global'
+	public static final boolean getWindowPartitionGlobal(String stmt) {
+		if (stmt.contains(" partition by ")) {
+			String partition = stmt.substring(stmt.indexOf(" partition by ") + 14).replace(";", " ");
+			return partition.contains(" global ");
+		}
+		return false;
+	}
+
+	// function that partitions are ranked by, like 'partition by device rank by sum'. null for none.
+	public static final String getWindowPartitionRankFunction(String stmt) throws ExceptionSQLStatement {
+		if (stmt.contains(" partition by ") && stmt.indexOf(" rank by ") > stmt.indexOf(" partition by ")) {
+			String words[] = stmt.substring(stmt.indexOf(" rank by ") + 9).replace(";", " ").trim().split(" ");
+			if (words.length == 0 || !SQLAggregateFunctions.isFunction(words[0])) {
+				throw new ExceptionSQLStatement("RANK BY requires a running function, like 'rank by sum'");
+			}
+			return words[0];
+		}
+		return null;
+	}
+
 	/*
 	 * // not used. public static final int getWindowRangeByFieldId(String stmt, int
 	 * streamId) throws ExceptionSQLStatement {
@@ -671,6 +702,11 @@ public final class SQLParser {
 		return SQLAggregateFunctions.isFunction(word);
 	}
 
+	// function of the global rollup of a partitioned window, like global.avg
+	static boolean isGlobalAggregateFunction(String word) {
+		return word.startsWith("global.") && SQLAggregateFunctions.isFunction(word.substring(7));
+	}
+
 	// checks if word is scalar function
 	public static boolean isScalarFunction(String word) {
 		if (SQLScalarFunctions.isScalarFunction(word)) {
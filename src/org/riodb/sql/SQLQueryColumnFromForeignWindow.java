@@ -108,6 +108,24 @@ public class SQLQueryColumnFromForeignWindow implements SQLQueryColumn {
 			} else if (functionId == 15) {
 				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
 						.getWindowSummary().getSlope());
+			} else if (functionId == 19) {
+				return RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getHistogram();
+			} else if (functionId == 20) {
+				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getCovariance());
+			} else if (functionId == 21) {
+				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getCovariancePop());
+			} else if (functionId == 22) {
+				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getCorrelation());
+			} else if (functionId == 23) {
+				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getRegrSlope());
+			} else if (functionId == 24) {
+				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowId)
+						.getWindowSummary().getRegrIntercept());
 			}
 //		else if(functionId == 17) {
 //			return String.valueOf(RioDB.rio.getStreamMgr().getStream(streamId).getWindowMgr().getWindow(windowId).getWindowSummary().getSumIf());
@@ -152,6 +170,9 @@ public class SQLQueryColumnFromForeignWindow implements SQLQueryColumn {
 			} else if (functionId == 12) {
 				return String.valueOf(RioDB.rio.getEngine().getStream(streamId).getWindowMgr()
 						.getWindow_String(windowId).getWindowSummary().getPrevious());
+			} else if (functionId == 18) {
+				return RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow_String(windowId)
+						.getWindowSummary().getTopK();
 			}
 //			else if(functionId == 17) {
 //				return String.valueOf(RioDB.rio.getStreamMgr().getStream(streamId).getWindowMgr().getWindow(windowId).getWindowSummary().getSumIf());
@@ -0,0 +1,57 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+package org.riodb.sql;
+
+import org.riodb.engine.RioDB;
+import org.riodb.windows.WindowSummary;
+import org.riodb.windows.WindowSummary_String;
+import org.riodb.windows.WindowWrapperPartitioned;
+import org.riodb.plugin.RioDBStreamMessage;
+
+// the top N partitions of a ranked partitioned window, like "key1:10.0|key2:8.5"
+public class SQLQueryColumnFromTopPartitions implements SQLQueryColumn {
+
+	private int streamId;
+	private int windowId;
+	private int n;
+	private String heading;
+
+	SQLQueryColumnFromTopPartitions(int streamId, int windowId, int n, String heading) {
+		this.streamId = streamId;
+		this.windowId = windowId;
+		this.n = n;
+		this.heading = heading;
+	}
+
+	@Override
+	public String getValue(RioDBStreamMessage message, WindowSummary[] windowSummaries,
+			WindowSummary_String[] windowSummaries_String) throws ExceptionSQLExecution {
+		return ((WindowWrapperPartitioned) RioDB.rio.getEngine().getStream(streamId).getWindowMgr()
+				.getWindow(windowId)).getTopPartitions(n);
+	}
+
+	@Override
+	public String getHeading() {
+		return heading;
+	}
+
+}
@@ -100,6 +100,18 @@ public class SQLQueryColumnFromWindow implements SQLQueryColumn {
 				return String.valueOf(windowSummaries[windowId].getSampleVariance());
 			} else if (functionId == 15) {
 				return String.valueOf(windowSummaries[windowId].getSlope());
+			} else if (functionId == 19) {
+				return windowSummaries[windowId].getHistogram();
+			} else if (functionId == 20) {
+				return String.valueOf(windowSummaries[windowId].getCovariance());
+			} else if (functionId == 21) {
+				return String.valueOf(windowSummaries[windowId].getCovariancePop());
+			} else if (functionId == 22) {
+				return String.valueOf(windowSummaries[windowId].getCorrelation());
+			} else if (functionId == 23) {
+				return String.valueOf(windowSummaries[windowId].getRegrSlope());
+			} else if (functionId == 24) {
+				return String.valueOf(windowSummaries[windowId].getRegrIntercept());
 			}
 //		else if(functionId == 17) {
 //			return String.valueOf(windowSummaries[windowId].getSumIf());
@@ -135,6 +147,8 @@ public class SQLQueryColumnFromWindow implements SQLQueryColumn {
 				return String.valueOf(windowSummaries_String[windowId_String].getMode());
 			} else if (functionId == 12) {
 				return String.valueOf(windowSummaries_String[windowId_String].getPrevious());
+			} else if (functionId == 18) {
+				return windowSummaries_String[windowId_String].getTopK();
 			}
 
 		}
@@ -22,11 +22,21 @@ package org.riodb.sql;
 
 import java.util.ArrayList;
 import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.riodb.engine.RioDB;
+import org.riodb.windows.WindowWrapperPartitioned;
 
 final public class SQLQueryColumnOperations {
 
+	// like 'w.top ( 10 )' or 'w.top ( 10 ) as top_devices' after formatting
+	// max partitions returned by TOP
+	private static final int MAX_TOP_PARTITIONS = 1000;
+
+	private static final Pattern TOP_PARTITIONS_PATTERN = Pattern
+			.compile("^([^ .]+)\\.top \\( ([0-9]+) \\)( as ([^ ]+))?$");
+
 	public static final SQLQueryColumn[] getSelectItems(String selectStr, SQLQueryResources queryResources)
 			throws ExceptionSQLStatement {
 
@@ -48,6 +58,9 @@ final public class SQLQueryColumnOperations {
 
 				if (itemStrParts.length == 0 || (itemStrParts.length == 1 && itemStrParts[0].length() == 0)) {
 					undefined = true;
+				} else if (TOP_PARTITIONS_PATTERN.matcher(selectItemStr[i]).matches()) {
+					// top N partitions of a ranked window, like w.top(10)
+					selectItemArr[i] = makeSelectItemTopPartitions(selectItemStr[i], queryResources);
 				} else if (itemStrParts.length == 1) {
 					if (SQLParser.isStreamField(streamId, itemStrParts[0])) {
 						selectItemArr[i] = makeSelectItemFromMessage(streamId, itemStrParts[0], itemStrParts[0]);
@@ -73,7 +86,8 @@ final public class SQLQueryColumnOperations {
 							int windowId = queryResources.getResourceIdByAlias(alias);
 							String item = itemStrParts[0].substring(itemStrParts[0].indexOf(".") + 1);
 
-							if (windowId >= 0 && SQLParser.isAggregateFunction(item)) {
+							if (windowId >= 0
+									&& (SQLParser.isAggregateFunction(item) || SQLParser.isGlobalAggregateFunction(item))) {
 								selectItemArr[i] = makeSelectItemFromWindow(itemStrParts[0], itemStrParts[0],
 										queryResources);
 							} else if (windowId == -1 && SQLParser.isStreamField(streamId, item)) {
@@ -111,7 +125,8 @@ final public class SQLQueryColumnOperations {
 							int windowId = queryResources.getResourceIdByAlias(alias);
 							String item = itemStrParts[0].substring(itemStrParts[0].indexOf(".") + 1);
 
-							if (windowId >= 0 && SQLParser.isAggregateFunction(item)) {
+							if (windowId >= 0
+									&& (SQLParser.isAggregateFunction(item) || SQLParser.isGlobalAggregateFunction(item))) {
 								selectItemArr[i] = makeSelectItemFromWindow(itemStrParts[0], itemStrParts[1],
 										queryResources);
 							} else if (windowId == -1 && SQLParser.isStreamField(streamId, item)) {
@@ -149,7 +164,8 @@ final public class SQLQueryColumnOperations {
 							int windowId = queryResources.getResourceIdByAlias(alias);
 							String item = itemStrParts[0].substring(itemStrParts[0].indexOf(".") + 1);
 
-							if (windowId >= 0 && SQLParser.isAggregateFunction(item)) {
+							if (windowId >= 0
+									&& (SQLParser.isAggregateFunction(item) || SQLParser.isGlobalAggregateFunction(item))) {
 								selectItemArr[i] = makeSelectItemFromWindow(itemStrParts[0], itemStrParts[2],
 										queryResources);
 							} else if (windowId == -1 && SQLParser.isStreamField(streamId, item)) {
@@ -220,6 +236,12 @@ final public class SQLQueryColumnOperations {
 				throw new ExceptionSQLStatement("alias not identified: " + selectItemStr);
 			}
 			String function = selectItemStr.substring(selectItemStr.indexOf(".") + 1);
+			// global rollup of a partitioned window, like w.global.avg
+			boolean global = false;
+			if (function.startsWith("global.")) {
+				global = true;
+				function = function.substring(7);
+			}
 			int functionId = SQLAggregateFunctions.getFunctionId(function);
 			if (functionId == -1) {
 				throw new ExceptionSQLStatement("not a valid function: " + selectItemStr);
@@ -228,6 +250,20 @@ final public class SQLQueryColumnOperations {
 			int windowStreamId = queryResources.getResourceById(resourceId).getStreamId();
 			int windowId = queryResources.getResourceById(resourceId).getWindowId();
 
+			if (global) {
+				if (windowId < 0 || !RioDB.rio.getEngine().getStream(windowStreamId).getWindowMgr().getWindow(windowId)
+						.globalProvidesFunction(functionId)) {
+					throw new ExceptionSQLStatement(
+							"window does not provide this function globally. A partitioned window needs 'partition by <field> global', and a mergeable function (avg, count, sum, max, min, variance, stddev): "
+									+ selectItemStr);
+				}
+
+				RioDB.rio.getSystemSettings().getLogger().trace("    Column from global rollup: "+windowStreamId+"."+windowId);
+
+				// the wrapper summary of a partitioned window is the global rollup.
+				return new SQLQueryColumnFromForeignWindow(windowStreamId, windowId, functionId, heading);
+			}
+
 			// window is a foreign window
 			if (windowStreamId != streamId) {
 				// in the case of a foreign window, windowId is the ID in the foreign stream.
@@ -282,6 +318,39 @@ final public class SQLQueryColumnOperations {
 		throw new ExceptionSQLStatement("Unable to determine this selected item: " + selectItemStr);
 	}
 
+	private static final SQLQueryColumn makeSelectItemTopPartitions(String selectItemStr,
+			SQLQueryResources queryResources) throws ExceptionSQLStatement {
+
+		Matcher m = TOP_PARTITIONS_PATTERN.matcher(selectItemStr);
+		m.matches();
+		String alias = m.group(1);
+		int n = Integer.valueOf(m.group(2));
+		String heading = m.group(4) != null ? m.group(4) : "top";
+
+		int resourceId = queryResources.getResourceIdByAlias(alias);
+		if (resourceId == -1) {
+			throw new ExceptionSQLStatement("alias not identified: " + selectItemStr);
+		}
+		int windowStreamId = queryResources.getResourceById(resourceId).getStreamId();
+		int windowId = queryResources.getResourceById(resourceId).getWindowId();
+
+		if (windowId < 0 || !(RioDB.rio.getEngine().getStream(windowStreamId).getWindowMgr()
+				.getWindow(windowId) instanceof WindowWrapperPartitioned)
+				|| !((WindowWrapperPartitioned) RioDB.rio.getEngine().getStream(windowStreamId).getWindowMgr()
+						.getWindow(windowId)).hasPartitionRanking()) {
+			throw new ExceptionSQLStatement(
+					"TOP requires a partitioned window with a ranking, like 'partition by device rank by sum': "
+							+ selectItemStr);
+		}
+		if (n <= 0 || n > MAX_TOP_PARTITIONS) {
+			throw new ExceptionSQLStatement("TOP must be between 1 and " + MAX_TOP_PARTITIONS + ": " + selectItemStr);
+		}
+
+		RioDB.rio.getSystemSettings().getLogger().trace("    Column from top partitions: "+windowStreamId+"."+windowId);
+
+		return new SQLQueryColumnFromTopPartitions(windowStreamId, windowId, n, heading);
+	}
+
 	private static final SQLQueryColumn makeSelectItemExpression(String expression, String heading,
 			SQLQueryResources queryResources) throws ExceptionSQLStatement {
 		// System.out.println("Expression: "+ expression);
@@ -296,7 +365,7 @@ final public class SQLQueryColumnOperations {
 		TreeSet<Integer> requiredWindows = new TreeSet<Integer>();
 
 		String javaExpression = JavaGenerator.convertSqlToJava(expression, queryResources, streamId, likeList,
-						inList, requiredWindows);
+						inList, null, requiredWindows);
 		
 		RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
 
@@ -34,11 +34,21 @@ public class SQLQueryConditionExpression implements SQLQueryCondition {
 
 	private String expression;
 	private SQLQueryConditionCompiled compiledCondition;
+
+	// the generated java expression and its resources, kept for SQLQueryConditionFusion
+	private String javaExpression;
+	private SQLStringLIKE[] likeArr;
+	private SQLStringIN[] inArr;
+	private TreeSet<Integer> requiredWindows;
 	
 	SQLQueryConditionExpression(String expression, SQLStringLIKE[] likeArr, SQLStringIN[] inArr, String originalExpression, TreeSet<Integer> requiredWindows) 
 			throws ExceptionSQLStatement {
 
 		this.expression = originalExpression;
+		this.javaExpression = expression;
+		this.likeArr = likeArr;
+		this.inArr = inArr;
+		this.requiredWindows = requiredWindows;
 		String className = "CompiledConditionClass"+ RioDB.rio.getEngine().counterNext();
 		
 		
@@ -168,5 +178,21 @@ public class SQLQueryConditionExpression implements SQLQueryCondition {
 	public String getExpression() {
 		return expression;
 	}
+
+	String getJavaExpression() {
+		return javaExpression;
+	}
+
+	SQLStringLIKE[] getLikeArr() {
+		return likeArr;
+	}
+
+	SQLStringIN[] getInArr() {
+		return inArr;
+	}
+
+	TreeSet<Integer> getRequiredWindows() {
+		return requiredWindows;
+	}
 	
 }
@@ -0,0 +1,42 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *   Interface for the class generated by SQLQueryConditionFusion,
+ *   which evaluates the conditions of many queries in one call.
+ */
+
+package org.riodb.sql;
+
+import org.riodb.windows.WindowSummary;
+import org.riodb.windows.WindowSummary_String;
+
+import org.riodb.plugin.RioDBStreamMessage;
+
+public interface SQLQueryConditionFusedCompiled {
+
+	// writes the result of every condition into results, by slot.
+	public void matchAll(RioDBStreamMessage message, WindowSummary[] windowSummaries,
+			WindowSummary_String[] windowSummaries_String, byte results[]);
+
+	// LIKE and IN lists, by slot
+	public void load(SQLStringLIKE likeLists[][], SQLStringIN inLists[][]);
+}
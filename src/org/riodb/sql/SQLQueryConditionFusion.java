@@ -0,0 +1,279 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *   SQLQueryConditionFusion evaluates the conditions of many queries
+ *   of the same stream with a single generated class.
+ *
+ *   Each query condition is compiled into its own class. With many queries,
+ *   every message makes one virtual call per query, and every query reads
+ *   the same message fields and window summaries again.
+ *
+ *   The fused class reads each message field and each window aggregate
+ *   once per message (hoisted into fields of the class), and then
+ *   evaluates every condition inline, writing MATCH, NO_MATCH or ERROR
+ *   into a result array by slot. Conditions are split into small methods,
+ *   so the JIT still compiles them when there are many queries.
+ *
+ *   On ERROR the query runs its own compiled condition, which throws the
+ *   error as before.
+ *
+ *   Slots set to SKIPPED before the evaluation are not evaluated. The
+ *   QueryManager sets them for queries that won't read their condition on
+ *   this message (ON CLOSE with no window closed, sleeping, or dropped).
+ *   If such a query runs anyway, it runs its own condition, like on ERROR.
+ *
+ *   The fused class is immutable. When queries change, a new one is built
+ *   by the QueryManager and swapped in between messages.
+ */
+
+package org.riodb.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mdkt.compiler.InMemoryJavaCompiler;
+import org.riodb.engine.RioDB;
+import org.riodb.windows.WindowSummary;
+import org.riodb.windows.WindowSummary_String;
+
+import org.riodb.plugin.RioDBStreamMessage;
+
+public class SQLQueryConditionFusion {
+
+	// condition results, by slot
+	public static final byte NO_MATCH = 0;
+	public static final byte MATCH = 1;
+	public static final byte ERROR = 2;
+	public static final byte SKIPPED = 3;
+
+	// conditions per generated method. Small methods are still compiled by the JIT.
+	private static final int CONDITIONS_PER_METHOD = 16;
+
+	// message fields, window aggregates and LIKE/IN lists in a generated expression.
+	private static final Pattern HOISTABLE = Pattern.compile("(?<![\\w.])message\\.get(Double|String)\\((\\d+)\\)"
+			+ "|(?<![\\w.])windowSummaries\\[(\\d+)\\]\\.(getAvg|getCount|getFirst|getLast|getMax|getMedian|getMin|getMode|getPrevious|getSum)\\(\\)"
+			+ "|(?<![\\w.])(likeList|inList)\\[");
+
+	private SQLQueryConditionFusedCompiled compiledFusion;
+	private final byte results[];
+	private int fusedCount;
+	private int hoistedCount;
+
+	public SQLQueryConditionFusion(SQLQueryCondition conditions[]) throws ExceptionSQLStatement {
+
+		results = new byte[conditions.length];
+		// slots that are not fused always fall back to their own condition.
+		Arrays.fill(results, ERROR);
+
+		String className = "FusedConditionClass" + RioDB.rio.getEngine().counterNext();
+
+		// hoisted fields, by name, with their type and initializer
+		TreeMap<String, String[]> hoisted = new TreeMap<String, String[]>();
+		// required windows, checked for null once per message
+		TreeSet<Integer> hoistedWindows = new TreeSet<Integer>();
+		ArrayList<String> conditionCode = new ArrayList<String>();
+
+		SQLStringLIKE likeLists[][] = new SQLStringLIKE[conditions.length][];
+		SQLStringIN inLists[][] = new SQLStringIN[conditions.length][];
+
+		for (int slot = 0; slot < conditions.length; slot++) {
+			if (!(conditions[slot] instanceof SQLQueryConditionExpression)) {
+				continue;
+			}
+			SQLQueryConditionExpression condition = (SQLQueryConditionExpression) conditions[slot];
+			likeLists[slot] = condition.getLikeArr();
+			inLists[slot] = condition.getInArr();
+
+			// aggregates are only hoisted from required windows, which are checked for null.
+			String expression = hoist(condition.getJavaExpression(), slot, hoisted, condition.getRequiredWindows());
+
+			// same as the required window checks of the condition's own class
+			String guard = "";
+			for (int windowId : condition.getRequiredWindows()) {
+				if (windowId >= 0) {
+					hoistedWindows.add(windowId);
+					guard = guard + "w_" + windowId + " && ";
+				} else {
+					guard = guard + "windowSummaries_String[" + ((windowId + 1) * -1) + "] != null && ";
+				}
+			}
+
+			conditionCode.add("		if (results[" + slot + "] != " + SKIPPED + ") {\r\n" + "		try {\r\n"
+					+ "			results[" + slot + "] = (" + guard + "(" + expression + ")) ? (byte) " + MATCH
+					+ " : (byte) " + NO_MATCH + ";\r\n" + "		} catch (Exception e) {\r\n" + "			results["
+					+ slot + "] = " + ERROR + ";\r\n" + "		}\r\n" + "		}\r\n");
+			fusedCount++;
+		}
+
+		for (int windowId : hoistedWindows) {
+			hoisted.put("w_" + windowId,
+					new String[] { "boolean", "windowSummaries[" + windowId + "] != null", String.valueOf(windowId) });
+		}
+		hoistedCount = hoisted.size();
+
+		String source = "package org.riodb.sql;\r\n" + "import org.riodb.plugin.RioDBStreamMessage;\r\n"
+				+ "import org.riodb.engine.RioDB;\r\n" + "import org.riodb.windows.WindowSummary;\r\n"
+				+ "import org.riodb.windows.WindowSummary_String;\r\n" + "public class " + className
+				+ " implements SQLQueryConditionFusedCompiled {\r\n" + "	SQLStringLIKE likeLists[][];\r\n"
+				+ "	SQLStringIN inLists[][];\r\n"
+				+ "	public void load(SQLStringLIKE likeLists[][], SQLStringIN inLists[][]) {\r\n"
+				+ "		this.likeLists = likeLists;\r\n" + "		this.inLists = inLists;\r\n" + "	}\r\n";
+
+		for (String name : hoisted.keySet()) {
+			source = source + "	" + hoisted.get(name)[0] + " " + name + ";\r\n";
+		}
+
+		String params = "RioDBStreamMessage message, WindowSummary[] windowSummaries, WindowSummary_String[] windowSummaries_String, byte results[]";
+		source = source + "	@Override\r\n" + "	public void matchAll(" + params + ") {\r\n";
+		// window null checks first, so aggregates are only read from windows that exist.
+		for (String name : hoisted.keySet()) {
+			if (hoisted.get(name)[0].equals("boolean")) {
+				source = source + "		" + name + " = " + hoisted.get(name)[1] + ";\r\n";
+			}
+		}
+		for (String name : hoisted.keySet()) {
+			String h[] = hoisted.get(name);
+			if (h[0].equals("boolean")) {
+				continue;
+			}
+			if (h.length > 2) {
+				// window aggregate: only if the window exists
+				source = source + "		" + name + " = w_" + h[2] + " ? " + h[1] + " : 0;\r\n";
+			} else {
+				source = source + "		" + name + " = " + h[1] + ";\r\n";
+			}
+		}
+		for (int m = 0; m * CONDITIONS_PER_METHOD < conditionCode.size(); m++) {
+			source = source + "		matchAll" + m + "(message, windowSummaries, windowSummaries_String, results);\r\n";
+		}
+		source = source + "	}\r\n";
+
+		for (int m = 0; m * CONDITIONS_PER_METHOD < conditionCode.size(); m++) {
+			source = source + "	private void matchAll" + m + "(" + params + ") {\r\n";
+			for (int i = m * CONDITIONS_PER_METHOD; i < conditionCode.size()
+					&& i < (m + 1) * CONDITIONS_PER_METHOD; i++) {
+				source = source + conditionCode.get(i);
+			}
+			source = source + "	}\r\n";
+		}
+		source = source + "}\r\n";
+
+		try {
+
+			RioDB.rio.getSystemSettings().getLogger()
+					.debug("Compiling dynamic class " + className + " fusing " + fusedCount + " conditions");
+
+			@SuppressWarnings("unchecked")
+			Class<SQLQueryConditionFusedCompiled> newClass = (Class<SQLQueryConditionFusedCompiled>) InMemoryJavaCompiler
+					.newInstance().compile("org.riodb.sql." + className, source);
+
+			compiledFusion = newClass.getDeclaredConstructor().newInstance();
+			compiledFusion.load(likeLists, inLists);
+
+		} catch (Exception e) {
+			throw new ExceptionSQLStatement("Error compiling dynamic class " + className + ":\n" + e.getMessage());
+		}
+	}
+
+	// replaces message fields and window aggregates with hoisted fields, and
+	// LIKE/IN lists with the lists of the slot. Quoted text is left as is.
+	private static String hoist(String expression, int slot, TreeMap<String, String[]> hoisted,
+			TreeSet<Integer> requiredWindows) {
+
+		StringBuilder sb = new StringBuilder();
+		int segmentStart = 0;
+		boolean quoted = false;
+		for (int i = 0; i <= expression.length(); i++) {
+			if (i == expression.length() || (expression.charAt(i) == '"' && !isEscaped(expression, i))) {
+				String segment = expression.substring(segmentStart, Math.min(i + 1, expression.length()));
+				if (quoted) {
+					sb.append(segment);
+				} else {
+					sb.append(hoistSegment(segment, slot, hoisted, requiredWindows));
+				}
+				quoted = !quoted;
+				segmentStart = i + 1;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String hoistSegment(String segment, int slot, TreeMap<String, String[]> hoisted,
+			TreeSet<Integer> requiredWindows) {
+
+		Matcher m = HOISTABLE.matcher(segment);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String replacement;
+			if (m.group(1) != null) {
+				boolean isDouble = m.group(1).equals("Double");
+				replacement = (isDouble ? "d_" : "s_") + m.group(2);
+				hoisted.put(replacement, new String[] { isDouble ? "double" : "String", m.group() });
+			} else if (m.group(3) != null) {
+				if (!requiredWindows.contains(Integer.valueOf(m.group(3)))) {
+					replacement = m.group();
+				} else {
+					replacement = "w_" + m.group(3) + "_" + m.group(4);
+					hoisted.put(replacement,
+							new String[] { m.group(4).equals("getCount") ? "int" : "double", m.group(), m.group(3) });
+				}
+			} else {
+				replacement = m.group(5) + "s[" + slot + "][";
+			}
+			m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	// if the char at i is preceded by an odd number of backslashes
+	private static boolean isEscaped(String s, int i) {
+		int backslashes = 0;
+		while (i - backslashes - 1 >= 0 && s.charAt(i - backslashes - 1) == '\\') {
+			backslashes++;
+		}
+		return backslashes % 2 == 1;
+	}
+
+	// evaluates all fused conditions for a message. Results are read with getResults()
+	public void evaluate(RioDBStreamMessage message, WindowSummary[] windowSummaries,
+			WindowSummary_String[] windowSummaries_String) {
+		compiledFusion.matchAll(message, windowSummaries, windowSummaries_String, results);
+	}
+
+	// results of the last evaluation, by slot
+	public byte[] getResults() {
+		return results;
+	}
+
+	public int getFusedCount() {
+		return fusedCount;
+	}
+
+	public String describe() {
+		return "{\"conditions\": " + fusedCount + ", \"hoisted\": " + hoistedCount + "}";
+	}
+}
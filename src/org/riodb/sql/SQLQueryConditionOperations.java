@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.TreeSet;
 
 import org.riodb.engine.RioDB;
+import org.riodb.queries.QueryPredicate;
 
 final public class SQLQueryConditionOperations {
 
@@ -43,7 +44,7 @@ final public class SQLQueryConditionOperations {
 		TreeSet<Integer> requiredWindows = new TreeSet<Integer>();
 
 		String javaExpression = JavaGenerator.convertSqlToJava(whenStr, queryResources, drivingStreamId, likeList,
-				inList, requiredWindows);
+				inList, null, requiredWindows);
 
 		RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
 
@@ -56,4 +57,136 @@ final public class SQLQueryConditionOperations {
 		return new SQLQueryConditionExpression(javaExpression, likeArr, inArr, whenStr, requiredWindows);
 	}
 
+	/*
+	 * A predicate of the condition for the QueryIndex. The condition must be terms
+	 * joined by AND, and a term must compare a field of the driving stream, or an
+	 * aggregate of a local window, with a constant. Equality is preferred, then
+	 * the range of the first source compared with < > <= >=. Returns null if there
+	 * is nothing to index.
+	 */
+	public static QueryPredicate getIndexPredicate(String whenStr, SQLQueryResources queryResources) {
+
+		if (whenStr == null || queryResources == null || queryResources.getDrivingStreamId() < 0) {
+			return null;
+		}
+
+		// split terms at AND. Any OR or NOT outside of parentheses, and there's nothing to index.
+		ArrayList<ArrayList<String>> terms = new ArrayList<ArrayList<String>>();
+		terms.add(new ArrayList<String>());
+		int depth = 0;
+		for (String word : whenStr.trim().split(" ")) {
+			if (word.equals("(")) {
+				depth++;
+			} else if (word.equals(")")) {
+				depth--;
+			} else if (depth == 0 && (word.equals("or") || word.equals("not") || word.equals("||"))) {
+				return null;
+			} else if (depth == 0 && (word.equals("and") || word.equals("&&"))) {
+				terms.add(new ArrayList<String>());
+				continue;
+			}
+			terms.get(terms.size() - 1).add(word);
+		}
+
+		QueryPredicate range = null;
+		for (ArrayList<String> term : terms) {
+			// negative number, like price > - 5
+			for (int i = 0; i < term.size() - 1; i++) {
+				if (term.get(i).equals("-") && SQLParser.isNumber(term.get(i + 1))
+						&& (i == 0 || isComparison(term.get(i - 1)))) {
+					term.set(i, "-" + term.get(i + 1));
+					term.remove(i + 1);
+				}
+			}
+			if (term.size() != 3 || !isComparison(term.get(1))) {
+				continue;
+			}
+			String sourceWord = term.get(0);
+			String constant = term.get(2);
+			String operator = term.get(1);
+			// constant first, like 100 < price
+			if (SQLParser.isNumber(sourceWord) || SQLParser.isStringConstant(sourceWord)) {
+				sourceWord = term.get(2);
+				constant = term.get(0);
+				operator = operator.replace('<', '!').replace('>', '<').replace('!', '>');
+			}
+
+			QueryPredicate p = getPredicateSource(sourceWord, queryResources);
+			if (p == null) {
+				continue;
+			}
+
+			if (p.isStringSource()) {
+				// string field: only = 'constant'
+				if (!operator.equals("=") || !SQLParser.isStringConstant(constant)) {
+					continue;
+				}
+				// same text as the constant in the compiled condition
+				String value = BASE64Utils.decodeText(constant.substring(1, constant.length() - 1)).replace("''", "'");
+				if (value.contains("\\") || value.contains("\"")) {
+					continue;
+				}
+				return p.equalTo(value);
+			}
+
+			if (!SQLParser.isNumber(constant)) {
+				continue;
+			}
+			double value = Double.valueOf(constant);
+			if (operator.equals("=")) {
+				return p.equalTo(value);
+			}
+			if (range == null) {
+				range = p;
+			}
+			if (range.sameSource(p)) {
+				range.narrow(operator, value);
+			}
+		}
+
+		return range;
+	}
+
+	private static boolean isComparison(String word) {
+		return word.equals("=") || word.equals(">") || word.equals(">=") || word.equals("<") || word.equals("<=");
+	}
+
+	// a predicate with any value for a source word (a stream field or window.function),
+	// or null if it can't be indexed.
+	private static QueryPredicate getPredicateSource(String word, SQLQueryResources queryResources) {
+
+		int drivingStreamId = queryResources.getDrivingStreamId();
+		String fieldName = word;
+		if (word.indexOf('.') > 0) {
+			String alias = word.substring(0, word.indexOf('.'));
+			String name = word.substring(word.indexOf('.') + 1);
+			if (queryResources.containsStreamAlias(alias)) {
+				fieldName = name;
+			} else if (queryResources.containsWindowAlias(alias)) {
+				SQLQueryResource r = queryResources.getResourceByAlias(alias);
+				if (r.getStreamId() != drivingStreamId || r.getWindowId() < 0 || !SQLParser.isAggregateFunction(name)) {
+					return null;
+				}
+				int functionId = SQLAggregateFunctions.getFunctionId(name);
+				if (!QueryPredicate.isIndexableFunction(functionId)) {
+					return null;
+				}
+				return QueryPredicate.window(r.getWindowId(), functionId);
+			} else {
+				return null;
+			}
+		}
+
+		if (!SQLParser.isStreamField(drivingStreamId, fieldName)) {
+			return null;
+		}
+		int fieldId = RioDB.rio.getEngine().getStream(drivingStreamId).getDef().getFieldId(fieldName);
+		if (RioDB.rio.getEngine().getStream(drivingStreamId).getDef().isNumeric(fieldId)) {
+			return QueryPredicate.field(
+					RioDB.rio.getEngine().getStream(drivingStreamId).getDef().getNumericFieldIndex(fieldId), true);
+		}
+		return QueryPredicate.field(
+				RioDB.rio.getEngine().getStream(drivingStreamId).getDef().getStringFieldIndex(fieldId), false);
+	}
+
 }
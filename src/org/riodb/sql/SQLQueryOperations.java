@@ -33,13 +33,29 @@ public final class SQLQueryOperations {
 
 		RioDB.rio.getSystemSettings().getLogger().trace("SQLQueryOperations.createQuery.");
 
-		String statement = originalStmt;
+		// ON CLOSE is removed before parsing the other clauses.
+		boolean fireOnWindowClose = SQLParser.getQueryOnClose(originalStmt);
+		String statement = SQLParser.removeQueryOnClose(originalStmt);
 
 		String fromStr = SQLParser.getQueryFromStr(statement);
 		RioDB.rio.getSystemSettings().getLogger().trace("QUERY_FROM: " + fromStr);
 
 		SQLQueryResources queryResources = new SQLQueryResources(fromStr);
 
+		try {
+			return createQuery(originalStmt, statement, fireOnWindowClose, queryResources, persistStmt, actingUser);
+		} catch (ExceptionSQLStatement e) {
+			// the query was not created. Its LIKE and REGEXP patterns are released.
+			queryResources.releaseLikes();
+			queryResources.releaseRegexps();
+			throw e;
+		}
+	}
+
+	// create the query, once its FROM clause is parsed into queryResources
+	private static final String createQuery(String originalStmt, String statement, boolean fireOnWindowClose,
+			SQLQueryResources queryResources, boolean persistStmt, String actingUser) throws ExceptionSQLStatement {
+
 		String selectStr = SQLParser.getQuerySelectList(statement);
 		RioDB.rio.getSystemSettings().getLogger().trace("QUERY_SELECT: " + selectStr);
 		SQLQueryColumn queryColumns[] = SQLQueryColumnOperations.getSelectItems(selectStr, queryResources);
@@ -48,6 +64,10 @@ public final class SQLQueryOperations {
 			columnHeaders[i] = queryColumns[i].getHeading();
 		}
 
+		if (fireOnWindowClose && !queryResources.hasClosingWindow()) {
+			throw new ExceptionSQLStatement("ON CLOSE requires a TUMBLING, HOPPING or SESSION window.");
+		}
+
 		String whenStr = SQLParser.getQueryWhenStr(statement);
 		RioDB.rio.getSystemSettings().getLogger().trace("QUERY_WHEN: " + whenStr);
 		SQLQueryCondition queryCondition = null;
@@ -56,36 +76,23 @@ public final class SQLQueryOperations {
 		}
 		
 		String limitStr = SQLParser.getQueryLimitStr(statement);
-		limitStr = SQLParser.getQueryLimitStr(originalStmt);
+		limitStr = SQLParser.getQueryLimitStr(SQLParser.removeQueryOnClose(originalStmt));
 		RioDB.rio.getSystemSettings().getLogger().trace("QUERY_LIMIT: " + limitStr);
-		int limit = -1;
-		char limitUnit = 'q'; // quantity
+		// a limit by time is the time (in ms) when the query expires.
+		long limit = -1;
 		boolean limitByTime = false;
 		if (limitStr != null && limitStr.length() > 0) {
 			if (SQLParser.isNumber(limitStr)) {
 				limit = Integer.valueOf(limitStr);
 				limitByTime = false;
 			} else if (limitStr.length() >= 2) {
-				String limitNum = limitStr.substring(0, limitStr.length() - 1);
-				if (SQLParser.isNumber(limitNum)) {
+				long limitMillis = getDurationMillis(limitStr);
+				if (limitMillis >= 0) {
 					limitByTime = true;
-					limit = Integer.valueOf(limitNum);
-					limitUnit = limitStr.toLowerCase().charAt(limitStr.length() - 1);
-					if (limitUnit == 's') {
-						;
-					} else if (limitUnit == 'm') {
-						limit = limit * 60;
-					} else if (limitUnit == 'h') {
-						limit = limit * 60 * 60;
-					} else if (limitUnit == 'd') {
-						limit = limit * 60 * 60 * 24;
-					} else {
-						throw new ExceptionSQLStatement(
-								"To limit by time, the duration (integer) must be followed by unit, like 15s = fifteen seconds. Units allowed are s, m, h, d. ");
-					}
-
-					limit = RioDB.rio.getEngine().getClock().getCurrentSecond() + limit;
-
+					limit = RioDB.rio.getEngine().getClock().getCurrentMillis() + limitMillis;
+				} else if (limitMillis == -2) {
+					throw new ExceptionSQLStatement(
+							"To limit by time, the duration (integer) must be followed by unit, like 15s = fifteen seconds. Units allowed are ms, s, m, h, d. ");
 				} else {
 					throw new ExceptionSQLStatement("limit could not be parsed to a valid number.");
 				}
@@ -97,31 +104,21 @@ public final class SQLQueryOperations {
 				
 		String sleepStr = SQLParser.getQuerySleepStr(statement);
 		RioDB.rio.getSystemSettings().getLogger().trace("QUERY_SLEEP: " + sleepStr);
-		int sleep = -1;
-		char sleepUnit = 'q'; // quantity
+		// a sleep by time is a duration in ms
+		long sleep = -1;
 		boolean sleepByTime = false;
 		if (sleepStr != null && sleepStr.length() > 0) {
 			if (SQLParser.isNumber(sleepStr)) {
 				sleep = Integer.valueOf(sleepStr);
 				sleepByTime = false;
 			} else if (sleepStr.length() >= 2) {
-				String sleepNum = sleepStr.substring(0, sleepStr.length() - 1);
-				if (SQLParser.isNumber(sleepNum)) {
+				long sleepMillis = getDurationMillis(sleepStr);
+				if (sleepMillis >= 0) {
 					sleepByTime = true;
-					sleep = Integer.valueOf(sleepNum);
-					sleepUnit = sleepStr.toLowerCase().charAt(sleepStr.length() - 1);
-					if (sleepUnit == 's') {
-						;
-					} else if (sleepUnit == 'm') {
-						sleep = sleep * 60;
-					} else if (sleepUnit == 'h') {
-						sleep = sleep * 60 * 60;
-					} else if (sleepUnit == 'd') {
-						sleep = sleep * 60 * 60 * 24;
-					} else {
-						throw new ExceptionSQLStatement(
-								"To set 'sleep' by time, the duration (integer) must be followed by unit, like 15s = fifteen seconds. Units allowed are s, m, h, d. ");
-					}
+					sleep = sleepMillis;
+				} else if (sleepMillis == -2) {
+					throw new ExceptionSQLStatement(
+							"To set 'sleep' by time, the duration (integer) must be followed by unit, like 15s = fifteen seconds. Units allowed are ms, s, m, h, d. ");
 				} else {
 					throw new ExceptionSQLStatement("'sleep' could not be parsed to a valid number.");
 				}
@@ -138,11 +135,11 @@ public final class SQLQueryOperations {
 			int sessionId = RioDB.rio.getEngine().counterNext();
 			outputStr = String.valueOf(drivingStreamId) + "," + String.valueOf(sessionId);
 			limit = 1;
-			limitUnit = 'q';
 			limitByTime = false;
 			sleepByTime = true;
-			if (sleep == -1 || sleep > RioDB.rio.getSystemSettings().getHttpInterface().getTimeout()) {
-				sleep = RioDB.rio.getSystemSettings().getHttpInterface().getTimeout();
+			long httpTimeoutMillis = RioDB.rio.getSystemSettings().getHttpInterface().getTimeout() * 1000L;
+			if (sleep == -1 || sleep > httpTimeoutMillis) {
+				sleep = httpTimeoutMillis;
 			}
 
 			// Output output = SQLQueryOutputOperations.getOutput(outputStr, columnHeaders);
@@ -150,13 +147,15 @@ public final class SQLQueryOperations {
 			DefaultOutput output = new DefaultOutput(drivingStreamId, sessionId, columnHeaders);
 
 			Query query = new Query(queryCondition, output, queryColumns, limit, limitByTime, sleep, sleepByTime,
-					statement, queryResources);
+					originalStmt, queryResources, fireOnWindowClose);
+			query.setIndexPredicate(SQLQueryConditionOperations.getIndexPredicate(whenStr, queryResources));
 
 			int queryId = query.getQueryId();
 			RioDB.rio.getEngine().getStream(drivingStreamId).addQueryRef(query);
 
 			try {
-				String msg = RioDB.rio.getEngine().getStream(drivingStreamId).requestQueryResponse(sessionId, sleep);
+				String msg = RioDB.rio.getEngine().getStream(drivingStreamId).requestQueryResponse(sessionId,
+						(int) ((sleep + 999) / 1000));
 				if (msg == null || msg.length() == 0) {
 					msg = "Query timed out.";
 				}
@@ -169,16 +168,17 @@ public final class SQLQueryOperations {
 			RioDBPlugin output = SQLQueryOutputOperations.getOutput(outputStr, columnHeaders);
 
 			Query query = new Query(queryCondition, output, queryColumns, limit, limitByTime, sleep, sleepByTime,
-					statement, queryResources);
+					originalStmt, queryResources, fireOnWindowClose);
+			query.setIndexPredicate(SQLQueryConditionOperations.getIndexPredicate(whenStr, queryResources));
 
 			int queryId = query.getQueryId();
 			RioDB.rio.getEngine().getStream(drivingStreamId).addQueryRef(query);
 			
 			if (persistStmt && limit == -1) {
 				if (actingUser != null && actingUser.equals("SYSTEM")) {
-					RioDB.rio.getSystemSettings().getPersistedStatements().loadQueryStmt(queryId, statement);
+					RioDB.rio.getSystemSettings().getPersistedStatements().loadQueryStmt(queryId, originalStmt);
 				} else {
-					RioDB.rio.getSystemSettings().getPersistedStatements().saveNewQueryStmt(queryId, statement);
+					RioDB.rio.getSystemSettings().getPersistedStatements().saveNewQueryStmt(queryId, originalStmt);
 				}
 			}
 			
@@ -188,6 +188,34 @@ public final class SQLQueryOperations {
 
 	}
 
+	// get duration in ms, like 250ms, 15s, 2m, 1h, 1d.
+	// returns -1 if the number can't be parsed, -2 if the unit is not known.
+	private static long getDurationMillis(String durationStr) {
+		String unit;
+		if (durationStr.endsWith("ms")) {
+			unit = "ms";
+		} else {
+			unit = durationStr.substring(durationStr.length() - 1);
+		}
+		String durationNum = durationStr.substring(0, durationStr.length() - unit.length());
+		if (!SQLParser.isNumber(durationNum)) {
+			return -1;
+		}
+		long duration = Integer.valueOf(durationNum);
+		if (unit.equals("ms")) {
+			return duration;
+		} else if (unit.equals("s")) {
+			return duration * 1000L;
+		} else if (unit.equals("m")) {
+			return duration * 60 * 1000L;
+		} else if (unit.equals("h")) {
+			return duration * 60 * 60 * 1000L;
+		} else if (unit.equals("d")) {
+			return duration * 60 * 60 * 24 * 1000L;
+		}
+		return -2;
+	}
+
 	public static final String dropQuery(String stmt) throws ExceptionSQLStatement {
 
 		String newStmt = SQLStreamOperations.formatSQL(stmt);
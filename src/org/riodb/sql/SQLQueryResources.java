@@ -27,12 +27,17 @@ package org.riodb.sql;
 import java.util.ArrayList;
 
 import org.riodb.engine.RioDB;
+import org.riodb.windows.WindowSummary;
 
 public class SQLQueryResources {
 
 	private ArrayList<SQLQueryResource> resources;
 	private int drivingStreamId;
 	private String drivingStreamAlias;
+	// compiled REGEXP patterns used by the query
+	private ArrayList<SQLStringREGEXP> regexps = new ArrayList<SQLStringREGEXP>();
+	// LIKE conditions of the query, released when the query is dropped
+	private ArrayList<SQLStringLIKE> likes = new ArrayList<SQLStringLIKE>();
 
 	SQLQueryResources(String fromStr) throws ExceptionSQLStatement {
 
@@ -158,6 +163,34 @@ public class SQLQueryResources {
 		return false;
 	}
 	
+	// checks if a TUMBLING, HOPPING or SESSION window (local to the driving stream) just closed
+	public boolean hasWindowClosed(WindowSummary[] windowSummaries) {
+
+		for (int i = 0; i < resources.size(); i++) {
+			int windowId = resources.get(i).getWindowId();
+			if (resources.get(i).getStreamId() == drivingStreamId && windowId >= 0
+					&& windowSummaries[windowId] != null && windowSummaries[windowId].isWindowClosed()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// checks if query uses a TUMBLING, HOPPING or SESSION window (local to the driving stream)
+	public boolean hasClosingWindow() {
+
+		for (int i = 0; i < resources.size(); i++) {
+			int windowId = resources.get(i).getWindowId();
+			if (resources.get(i).getStreamId() == drivingStreamId && windowId >= 0 && RioDB.rio.getEngine()
+					.getStream(drivingStreamId).getWindowMgr().getWindow(windowId).isClosingWindow()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
 	public boolean dependsOnWindow(int streamId, int windowId) {
 		
 		for(int i = 0; i < resources.size(); i++) {
@@ -169,4 +202,37 @@ public class SQLQueryResources {
 		return false;
 	}
 
+	public void addRegexp(SQLStringREGEXP regexp) {
+		if (!regexps.contains(regexp)) {
+			regexps.add(regexp);
+		}
+	}
+
+	// release the constant REGEXP patterns of the query
+	public void releaseRegexps() {
+		SQLStringREGEXP.release(regexps);
+	}
+
+	public void addLike(SQLStringLIKE like) {
+		likes.add(like);
+	}
+
+	// release the LIKE patterns of the query from their matchers
+	public void releaseLikes() {
+		SQLStringLIKE.release(likes);
+		likes.clear();
+	}
+
+	// REGEXP patterns and their match stats in JSON format. null if none.
+	public String describeRegexps() {
+		if (regexps.size() == 0) {
+			return null;
+		}
+		String s = "[";
+		for (int i = 0; i < regexps.size(); i++) {
+			s = s + (i > 0 ? ",\n  " : "") + regexps.get(i).describe();
+		}
+		return s + "]";
+	}
+
 }
@@ -10,14 +10,15 @@ public final class SQLScalarFunctions {
 	// classes:
 
 	// SQLScalarFunctionsReturningBoolean,
-	private static String[] booleanFunctions = { "" };
+	private static String[] booleanFunctions = { "regexp_like" };
 
 	// SQLScalarFunctionsReturningNumber,
 	private static String[] numericFunctions = { "to_number", "decode_number",
 			"length", "floor", "ceil", "round", "instr" };
 
 	// SQLScalarFunctionsReturningString
-	private static String[] stringFunctions = { "decode", "concat", "to_string", "upper", "lower", "replace", "substr" };
+	private static String[] stringFunctions = { "decode", "concat", "to_string", "upper", "lower", "replace", "substr",
+			"regexp_substr" };
 
 	/*
 	 * 
@@ -32,9 +32,17 @@ package org.riodb.sql;
 
 public final class SQLScalarFunctionsReturningBoolean {
 
-	
-	
-	
-
+	// if pattern is found in s. Constant patterns are compiled with the statement
+	// (see SQLStringREGEXP), so these are only called for patterns built at runtime.
+	public static boolean regexp_like(String s, String pattern) throws ExceptionSQLExecution {
+		return regexp_like(s, pattern, null);
+	}
+
+	public static boolean regexp_like(String s, String pattern, String matchParameter) throws ExceptionSQLExecution {
+		if (s == null || pattern == null) {
+			return false;
+		}
+		return SQLStringREGEXP.get(pattern, matchParameter).like(s);
+	}
 
 }
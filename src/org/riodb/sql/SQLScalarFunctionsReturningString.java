@@ -109,4 +109,16 @@ public final class SQLScalarFunctionsReturningString {
 			throw new ExceptionSQLExecution("SUBSTR: Out of bounds");
 		}
 	}
+
+	// first substring of s matching pattern, or null.
+	public static String regexp_substr(String s, String pattern) throws ExceptionSQLExecution {
+		return regexp_substr(s, pattern, null);
+	}
+
+	public static String regexp_substr(String s, String pattern, String matchParameter) throws ExceptionSQLExecution {
+		if (s == null || pattern == null) {
+			return null;
+		}
+		return SQLStringREGEXP.get(pattern, matchParameter).substr(s);
+	}
 }
@@ -24,13 +24,21 @@ import java.util.LinkedHashMap;
 
 import org.riodb.engine.RioDB;
 import org.riodb.engine.Stream;
+import org.riodb.engine.StringDictionary;
 
 import org.riodb.plugin.RioDBPluginException;
 import org.riodb.plugin.RioDBStreamMessageDef;
 import org.riodb.plugin.RioDBStreamFieldDef;
+import org.riodb.windows.StreamHistory;
 
 public final class SQLStreamOperations {
 
+	// max distinct values per string field in a stream dictionary
+	private static final int MAX_DICTIONARY_SIZE = 1000000;
+
+	// min queries to fuse their conditions, when 'fuse' has no number
+	private static final int DEFAULT_FUSION_QUERIES = 2;
+
 	public static final String createStream(String statement, boolean persistStmt, String actingUser)
 			throws ExceptionSQLStatement, RioDBPluginException {
 		
@@ -111,8 +119,14 @@ public final class SQLStreamOperations {
 				inputParams = BASE64Utils.decodeQuotedText(inputParams);
 				RioDB.rio.getSystemSettings().getLogger().trace("STREAM_DECODED_INPUT_PARAMS: "+ inputParams);
 			}
+			int batchSize = SQLStreamOperations.getBatchSize(statement);
+			RioDB.rio.getSystemSettings().getLogger().trace("STREAM_BATCH_SIZE: "+ batchSize);
 			Stream newStream = new Stream(RioDB.rio.getEngine().getStreamCounter(), streamName, def, inputType,
 					inputParams);
+			newStream.setBatchSize(batchSize);
+			newStream.setHistory(SQLStreamOperations.getHistory(statement));
+			newStream.setDictionary(SQLStreamOperations.getDictionary(statement));
+			newStream.setQueryFusion(SQLStreamOperations.getQueryFusion(statement));
 			RioDB.rio.getSystemSettings().getLogger().trace("Adding stream to engine...");
 			RioDB.rio.getEngine().addStream(newStream);
 			RioDB.rio.getSystemSettings().getLogger().debug("New stream timestamp: "+ newStream.getDef().getTimestampFieldName() +" "+ newStream.getDef().getTimestampFormat());
@@ -319,6 +333,167 @@ public final class SQLStreamOperations {
 		return listenerParams;
 	}
 
+	// options after the input parameters, in any order.
+	private static final String INPUT_OPTIONS[] = { "batch", "history", "dictionary", "fuse" };
+
+	// text of an option after the input parameters, like '500' for 'batch 500'. null if the option isn't there.
+	private static final String getInputOption(String stmt, String option) throws ExceptionSQLStatement {
+
+		if (stmt == null || !stmt.contains(" input ") || stmt.lastIndexOf(")") < 0) {
+			return null;
+		}
+
+		String optionsStr = stmt.substring(stmt.lastIndexOf(")") + 1).replace(";", "").trim();
+		if (optionsStr.length() == 0) {
+			return null;
+		}
+
+		String optionStr = null;
+		String current = null;
+		for (String word : optionsStr.split(" ")) {
+			boolean isOption = false;
+			for (String o : INPUT_OPTIONS) {
+				if (word.equals(o)) {
+					isOption = true;
+				}
+			}
+			if (isOption) {
+				current = word;
+				if (word.equals(option)) {
+					optionStr = "";
+				}
+			} else if (current == null) {
+				throw new ExceptionSQLStatement("SQL ERROR: unexpected text after input parameters: " + optionsStr);
+			} else if (current.equals(option)) {
+				optionStr = (optionStr + " " + word).trim();
+			}
+		}
+		return optionStr;
+	}
+
+	// optional batch size after the input parameters. Example: ...input udp(port 9999) batch 500;
+	public static final int getBatchSize(String stmt) throws ExceptionSQLStatement {
+
+		String batchStr = getInputOption(stmt, "batch");
+		if (batchStr == null) {
+			return 1;
+		}
+		if (!SQLParser.isNumber(batchStr) || batchStr.contains(".")) {
+			throw new ExceptionSQLStatement("SQL ERROR: batch size must be a whole number.");
+		}
+		int batchSize = Integer.valueOf(batchStr);
+		if (batchSize < 1 || batchSize > Stream.MAX_BATCH_SIZE) {
+			throw new ExceptionSQLStatement("SQL ERROR: batch size must be between 1 and " + Stream.MAX_BATCH_SIZE + ".");
+		}
+		return batchSize;
+	}
+
+	// optional history of raw messages after the input parameters,
+	// by quantity, age, or both. Example: ...input udp(port 9999) history 100000 1h;
+	public static final StreamHistory getHistory(String stmt) throws ExceptionSQLStatement {
+
+		String historyStr = getInputOption(stmt, "history");
+		if (historyStr == null) {
+			return null;
+		}
+
+		int maxSize = 0;
+		int maxAge = 0;
+		for (String word : historyStr.split(" ")) {
+			if (SQLParser.isNumber(word)) {
+				if (word.contains(".") || word.length() > 9 || Integer.valueOf(word) < 1
+						|| Integer.valueOf(word) > StreamHistory.MAX_HISTORY_SIZE) {
+					throw new ExceptionSQLStatement(
+							"SQL ERROR: history size must be between 1 and " + StreamHistory.MAX_HISTORY_SIZE + ".");
+				}
+				maxSize = Integer.valueOf(word);
+			} else if (word.length() > 0) {
+				maxAge = SQLWindowOperations.getRangeTime(word);
+				if (maxAge < 1) {
+					throw new ExceptionSQLStatement("SQL ERROR: history age must be positive, like 'history 1h'.");
+				}
+			}
+		}
+		if (maxSize == 0 && maxAge == 0) {
+			throw new ExceptionSQLStatement("SQL ERROR: history requires a size, an age, or both, like 'history 100000 1h'.");
+		}
+		return new StreamHistory(maxSize, maxAge);
+	}
+
+	// optional dictionary for string fields after the input parameters,
+	// with the max distinct values per field. Example: ...input udp(port 9999) dictionary 10000;
+	public static final StringDictionary getDictionary(String stmt) throws ExceptionSQLStatement {
+
+		String dictionaryStr = getInputOption(stmt, "dictionary");
+		if (dictionaryStr == null) {
+			return null;
+		}
+		if (!SQLParser.isNumber(dictionaryStr) || dictionaryStr.contains(".") || dictionaryStr.length() > 9
+				|| Integer.valueOf(dictionaryStr) < 1 || Integer.valueOf(dictionaryStr) > MAX_DICTIONARY_SIZE) {
+			throw new ExceptionSQLStatement(
+					"SQL ERROR: dictionary size must be a whole number between 1 and " + MAX_DICTIONARY_SIZE + ".");
+		}
+		return new StringDictionary(Integer.valueOf(dictionaryStr));
+	}
+
+	// optional fusion of query conditions after the input parameters, with the min
+	// number of queries to fuse. Example: ...input udp(port 9999) fuse 10;
+	// 0 if not fused.
+	public static final int getQueryFusion(String stmt) throws ExceptionSQLStatement {
+
+		String fuseStr = getInputOption(stmt, "fuse");
+		if (fuseStr == null) {
+			return 0;
+		}
+		if (fuseStr.length() == 0) {
+			return DEFAULT_FUSION_QUERIES;
+		}
+		if (!SQLParser.isNumber(fuseStr) || fuseStr.contains(".") || fuseStr.length() > 9
+				|| Integer.valueOf(fuseStr) < 1) {
+			throw new ExceptionSQLStatement("SQL ERROR: fuse requires a whole number of queries, like 'fuse 10'.");
+		}
+		return Integer.valueOf(fuseStr);
+	}
+
+	// read the stream history, like 'HISTORY stream_name [LAST 100] [SINCE 5m];'
+	public static final String getHistoryRows(String stmt) throws ExceptionSQLStatement {
+
+		String words[] = stmt.replace(";", "").trim().split(" ");
+		if (words.length < 2 || !words[0].equals("history")) {
+			throw new ExceptionSQLStatement("Statement error. Try 'HISTORY stream_name LAST 100;'");
+		}
+
+		Stream stream = RioDB.rio.getEngine().getStream(words[1]);
+		if (stream == null) {
+			throw new ExceptionSQLStatement("Stream " + words[1] + " does not exist.");
+		}
+		StreamHistory history = stream.getWindowMgr().getStreamHistory();
+		if (history == null) {
+			throw new ExceptionSQLStatement(
+					"Stream " + words[1] + " has no history. Create the stream with 'history', like '... history 1h;'");
+		}
+
+		int limit = 100;
+		int sinceSecond = Integer.MIN_VALUE;
+		for (int i = 2; i < words.length - 1; i += 2) {
+			if (words[i].equals("last") && SQLParser.isNumber(words[i + 1]) && !words[i + 1].contains(".")
+					&& words[i + 1].length() < 10) {
+				limit = Integer.valueOf(words[i + 1]);
+			} else if (words[i].equals("since")) {
+				sinceSecond = RioDB.rio.getEngine().getClock().getCurrentSecond()
+						- SQLWindowOperations.getRangeTime(words[i + 1]);
+				limit = Integer.MAX_VALUE;
+			} else {
+				throw new ExceptionSQLStatement("Statement error. Try 'HISTORY stream_name LAST 100;'");
+			}
+		}
+		if (words.length % 2 != 0) {
+			throw new ExceptionSQLStatement("Statement error. Try 'HISTORY stream_name LAST 100;'");
+		}
+
+		return history.getRows(stream.getDef(), limit, sinceSecond);
+	}
+
 	public static final String getWhere(String stmt) throws ExceptionSQLStatement {
 
 		String where = "-";
@@ -0,0 +1,395 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *  The SQLStringLIKEMatcher matches a string against many LIKE patterns at once.
+ *
+ *  LIKE conditions over the same stream field share one matcher per stream,
+ *  across all queries and windows. So a message with 50 LIKE conditions on
+ *  'symbol' scans the symbol once, instead of 50 times.
+ *
+ *  Each pattern is split into an anchored start (before the first %), an
+ *  anchored end (after the last %), and the parts in between, which must be
+ *  found in order, without overlapping. The parts of all patterns are put
+ *  into one Aho-Corasick automaton. One scan finds where all parts occur, and
+ *  the patterns are checked against those positions into a bitset.
+ *
+ *  The bitset of the last string scanned is kept. Every LIKE over the same
+ *  field reads the same String instance of the message, so only the first
+ *  LIKE scans. With a stream dictionary, repeated values are the same instance
+ *  too, so they aren't scanned again.
+ *
+ *  Patterns are counted by the conditions that use them. A pattern is removed
+ *  when the last of them is released (query dropped, or failed to compile).
+ *  Its bit is free for the next new pattern, so bits of other patterns don't
+ *  change. The automaton is rebuilt and replaced when a pattern is added or
+ *  removed, while the stream keeps using the previous one.
+ *
+ *  note: NULL and Empty String "" are treated the same.
+ */
+
+package org.riodb.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+public class SQLStringLIKEMatcher {
+
+	// a LIKE pattern split in parts
+	private static class Pattern {
+		private final String pattern;
+		private final boolean empty; // ''
+		private final boolean exact; // no wildcard
+		private final String start; // before the first %
+		private final String end; // after the last %
+		private final String partStrings[]; // the parts in between, in order
+		private int references; // conditions using the pattern
+
+		private Pattern(String pattern) {
+			this.pattern = pattern;
+			this.empty = pattern.length() == 0;
+			this.exact = pattern.indexOf('%') < 0;
+			this.start = exact ? pattern : pattern.substring(0, pattern.indexOf('%'));
+			this.end = exact ? "" : pattern.substring(pattern.lastIndexOf('%') + 1);
+			ArrayList<String> p = new ArrayList<String>();
+			if (!exact) {
+				String inner = pattern.substring(pattern.indexOf('%') + 1, pattern.lastIndexOf('%') + 1);
+				for (String part : inner.split("%")) {
+					if (part.length() > 0) {
+						p.add(part);
+					}
+				}
+			}
+			this.partStrings = p.toArray(new String[0]);
+		}
+	}
+
+	// the Aho-Corasick automaton of the parts, and the patterns it checks.
+	// Free bits have a null pattern.
+	private static class Automaton {
+		private final Pattern patterns[];
+		private final int patternParts[][];
+		private final int partLength[];
+		// transitions of each node: sorted chars and the next node
+		private final char keys[][];
+		private final int next[][];
+		// direct transitions from the root for ASCII
+		private final int rootNext[];
+		private final int fail[];
+		// ids of the parts that end at each node (including through fail links)
+		private final int outputs[][];
+
+		private Automaton(Pattern patterns[]) {
+
+			this.patterns = patterns;
+
+			// ids of the parts, shared by patterns with the same part
+			ArrayList<String> parts = new ArrayList<String>();
+			HashMap<String, Integer> partIds = new HashMap<String, Integer>();
+			this.patternParts = new int[patterns.length][];
+			for (int p = 0; p < patterns.length; p++) {
+				if (patterns[p] == null) {
+					continue;
+				}
+				patternParts[p] = new int[patterns[p].partStrings.length];
+				for (int i = 0; i < patternParts[p].length; i++) {
+					String part = patterns[p].partStrings[i];
+					Integer partId = partIds.get(part);
+					if (partId == null) {
+						partId = parts.size();
+						parts.add(part);
+						partIds.put(part, partId);
+					}
+					patternParts[p][i] = partId;
+				}
+			}
+			this.partLength = new int[parts.size()];
+
+			// build the trie
+			ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+			ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+			trie.add(new TreeMap<Character, Integer>());
+			out.add(new ArrayList<Integer>());
+			for (int p = 0; p < parts.size(); p++) {
+				String part = parts.get(p);
+				partLength[p] = part.length();
+				int node = 0;
+				for (int i = 0; i < part.length(); i++) {
+					Integer child = trie.get(node).get(part.charAt(i));
+					if (child == null) {
+						child = trie.size();
+						trie.get(node).put(part.charAt(i), child);
+						trie.add(new TreeMap<Character, Integer>());
+						out.add(new ArrayList<Integer>());
+					}
+					node = child;
+				}
+				out.get(node).add(p);
+			}
+
+			int nodes = trie.size();
+			keys = new char[nodes][];
+			next = new int[nodes][];
+			for (int n = 0; n < nodes; n++) {
+				keys[n] = new char[trie.get(n).size()];
+				next[n] = new int[trie.get(n).size()];
+				int k = 0;
+				for (Character c : trie.get(n).keySet()) {
+					keys[n][k] = c;
+					next[n][k] = trie.get(n).get(c);
+					k++;
+				}
+			}
+			rootNext = new int[128];
+			for (int k = 0; k < keys[0].length; k++) {
+				if (keys[0][k] < 128) {
+					rootNext[keys[0][k]] = next[0][k];
+				}
+			}
+
+			// fail links, breadth first. Outputs include the outputs of the fail node.
+			fail = new int[nodes];
+			outputs = new int[nodes][];
+			outputs[0] = new int[0];
+			int queue[] = new int[nodes];
+			int head = 0;
+			int tail = 0;
+			// children of the root fail to the root
+			for (int k = 0; k < next[0].length; k++) {
+				queue[tail++] = next[0][k];
+			}
+			while (head < tail) {
+				int node = queue[head++];
+				ArrayList<Integer> o = new ArrayList<Integer>(out.get(node));
+				for (int x : outputs[fail[node]]) {
+					o.add(x);
+				}
+				outputs[node] = new int[o.size()];
+				for (int i = 0; i < o.size(); i++) {
+					outputs[node][i] = o.get(i);
+				}
+				for (int k = 0; k < keys[node].length; k++) {
+					int child = next[node][k];
+					int f = fail[node];
+					while (f != 0 && child(f, keys[node][k]) == 0) {
+						f = fail[f];
+					}
+					fail[child] = child(f, keys[node][k]);
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		// next node from a node by a char. 0 (root) if none.
+		private int child(int node, char c) {
+			if (node == 0 && c < 128) {
+				return rootNext[c];
+			}
+			char k[] = keys[node];
+			int low = 0;
+			int high = k.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (k[mid] < c) {
+					low = mid + 1;
+				} else if (k[mid] > c) {
+					high = mid - 1;
+				} else {
+					return next[node][mid];
+				}
+			}
+			return 0;
+		}
+
+		// scan the string once, and check all patterns
+		private long[] scan(String s) {
+
+			long bits[] = new long[(patterns.length + 63) / 64];
+			int length = s == null ? 0 : s.length();
+
+			// occurrences of parts, in order of their end position
+			int occurrencePart[] = null;
+			int occurrenceEnd[] = null;
+			int occurrences = 0;
+			if (length > 0 && fail.length > 1) {
+				occurrencePart = new int[16];
+				occurrenceEnd = new int[16];
+				int node = 0;
+				for (int i = 0; i < length; i++) {
+					char c = s.charAt(i);
+					int n = child(node, c);
+					while (n == 0 && node != 0) {
+						node = fail[node];
+						n = child(node, c);
+					}
+					node = n;
+					for (int part : outputs[node]) {
+						if (occurrences == occurrencePart.length) {
+							occurrencePart = Arrays.copyOf(occurrencePart, occurrences * 2);
+							occurrenceEnd = Arrays.copyOf(occurrenceEnd, occurrences * 2);
+						}
+						occurrencePart[occurrences] = part;
+						occurrenceEnd[occurrences] = i;
+						occurrences++;
+					}
+				}
+			}
+
+			for (int p = 0; p < patterns.length; p++) {
+				Pattern pattern = patterns[p];
+				boolean match;
+				if (pattern == null) {
+					match = false;
+				} else if (length == 0) {
+					match = pattern.empty;
+				} else if (pattern.empty) {
+					match = false;
+				} else if (pattern.exact) {
+					match = s.equals(pattern.pattern);
+				} else if (length < pattern.start.length() + pattern.end.length() || !s.startsWith(pattern.start)
+						|| !s.endsWith(pattern.end)) {
+					match = false;
+				} else {
+					// find the parts in order, earliest first, between the start and the end.
+					int from = pattern.start.length();
+					int limit = length - pattern.end.length();
+					int o = 0;
+					match = true;
+					for (int part : patternParts[p]) {
+						while (o < occurrences && (occurrencePart[o] != part
+								|| occurrenceEnd[o] - partLength[part] + 1 < from)) {
+							o++;
+						}
+						if (o == occurrences || occurrenceEnd[o] >= limit) {
+							match = false;
+							break;
+						}
+						from = occurrenceEnd[o] + 1;
+						o++;
+					}
+				}
+				if (match) {
+					bits[p >>> 6] |= 1L << (p & 63);
+				}
+			}
+			return bits;
+		}
+	}
+
+	// the bitset of the last string scanned
+	private static class Scan {
+		private final String s;
+		private final Automaton automaton;
+		private final long bits[];
+
+		private Scan(String s, Automaton automaton, long bits[]) {
+			this.s = s;
+			this.automaton = automaton;
+			this.bits = bits;
+		}
+	}
+
+	// patterns by bit (null if the bit is free), only changed when adding or releasing a pattern (synchronized)
+	private final ArrayList<Pattern> patternList = new ArrayList<Pattern>();
+	private final HashMap<String, Integer> patternIds = new HashMap<String, Integer>();
+	private int patternCount;
+
+	private volatile Automaton automaton;
+	private volatile Scan lastScan;
+
+	// constructor
+	public SQLStringLIKEMatcher() {
+		automaton = new Automaton(new Pattern[0]);
+	}
+
+	// add a pattern (or find it, if it's already there), and get its bit.
+	public synchronized int addPattern(String pattern) {
+
+		if (pattern == null || pattern.equals("''")) {
+			pattern = "";
+		}
+		Integer id = patternIds.get(pattern);
+		if (id != null) {
+			patternList.get(id).references++;
+			return id;
+		}
+
+		// the first free bit, or a new one
+		int bit = patternList.indexOf(null);
+		if (bit < 0) {
+			bit = patternList.size();
+			patternList.add(null);
+		}
+		Pattern p = new Pattern(pattern);
+		p.references = 1;
+		patternList.set(bit, p);
+		patternIds.put(pattern, bit);
+		patternCount++;
+		automaton = new Automaton(patternList.toArray(new Pattern[0]));
+
+		return bit;
+	}
+
+	// release a pattern added by addPattern. The pattern is removed when no condition uses it.
+	public synchronized void releasePattern(int bit) {
+
+		Pattern p = patternList.get(bit);
+		if (p == null) {
+			return;
+		}
+		p.references--;
+		if (p.references > 0) {
+			return;
+		}
+
+		patternList.set(bit, null);
+		patternIds.remove(p.pattern);
+		patternCount--;
+		// free bits at the end are dropped. Bits in use don't change.
+		while (patternList.size() > 0 && patternList.get(patternList.size() - 1) == null) {
+			patternList.remove(patternList.size() - 1);
+		}
+		automaton = new Automaton(patternList.toArray(new Pattern[0]));
+	}
+
+	// if the string matches the pattern of this bit
+	public boolean match(String s, int bit) {
+		Scan scan = lastScan;
+		Automaton a = automaton;
+		if (scan == null || scan.s != s || scan.automaton != a) {
+			scan = new Scan(s, a, a.scan(s));
+			lastScan = scan;
+		}
+		// a released bit can be past the patterns, until its condition is gone.
+		if ((bit >>> 6) >= scan.bits.length) {
+			return false;
+		}
+		return (scan.bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+
+	// number of patterns in use
+	public synchronized int getPatternCount() {
+		return patternCount;
+	}
+
+}
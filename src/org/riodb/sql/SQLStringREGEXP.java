@@ -0,0 +1,305 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *  The SQLStringREGEXP is a compiled pattern for REGEXP_LIKE and REGEXP_SUBSTR.
+ *
+ *  Patterns are compiled once and cached. A constant pattern in a statement is
+ *  compiled when the query is created, so a bad pattern is a statement error.
+ *  Each use of a constant pattern gets an id, and the generated code calls it by
+ *  id, which is an array read instead of a map lookup per message. Uses share the
+ *  compiled pattern, and keep their own stats. When the query or window is dropped,
+ *  the id is released for reuse, and the compiled pattern leaves the cache with
+ *  its last use. Patterns that are not constant (like a pattern from a stream field)
+ *  are compiled on first use, and cached. A full cache is cleared.
+ *
+ *  Patterns in the subset supported by SQLStringREGEXPAutomaton are matched
+ *  by a DFA, in linear time. Others are matched by java.util.regex.
+ *  REGEXP_SUBSTR uses the DFA to reject strings that don't match, and
+ *  java.util.regex to extract the match.
+ *
+ *  The optional match parameter is like Oracle's:
+ *     'i' case-insensitive, 'c' case-sensitive, 'n' dot matches newline,
+ *     'm' multiline, 'x' ignore whitespace in pattern.
+ *
+ *  Match time is sampled (1 in 64 calls) for DESCRIBE QUERY. The counters
+ *  are per use, and not synchronized, so they are approximate.
+ */
+
+package org.riodb.sql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.riodb.engine.RioDB;
+
+public class SQLStringREGEXP {
+
+	// limit of cached patterns per match parameter. The cache is cleared when full.
+	private static final int MAX_CACHED_PATTERNS = 10000;
+
+	// 1 in (SAMPLE_MASK + 1) calls is timed
+	private static final int SAMPLE_MASK = 63;
+
+	// patterns by match parameter flags, then pattern
+	private static final ConcurrentHashMap<Integer, ConcurrentHashMap<String, SQLStringREGEXP>> cache = new ConcurrentHashMap<Integer, ConcurrentHashMap<String, SQLStringREGEXP>>();
+
+	// constant patterns of statements, by id. Replaced by a copy when a pattern is added.
+	private static volatile SQLStringREGEXP constants[] = new SQLStringREGEXP[0];
+	// ids of released constants, to reuse
+	private static final ArrayDeque<Integer> freeConstantIds = new ArrayDeque<Integer>();
+
+	private final String pattern;
+	private final int flags;
+	private final Pattern javaPattern;
+	private final SQLStringREGEXPAutomaton automaton;
+	// index in constants, or -1 if not a constant of any statement
+	private int constantId = -1;
+	// for a constant, the cached pattern it was compiled from. null for cached patterns.
+	private final SQLStringREGEXP compiled;
+	// constants using this cached pattern
+	private int uses;
+
+	// stats
+	private long calls;
+	private long sampledCalls;
+	private long sampledNanos;
+	private long javaCalls;
+
+	private SQLStringREGEXP(String pattern, int flags) throws PatternSyntaxException {
+		this.pattern = pattern;
+		this.flags = flags;
+		this.compiled = null;
+		// java.util.regex validates the pattern, and matches what the DFA can't.
+		this.javaPattern = Pattern.compile(pattern, flags);
+		if ((flags & ~(Pattern.CASE_INSENSITIVE | Pattern.DOTALL)) == 0) {
+			this.automaton = SQLStringREGEXPAutomaton.build(pattern, (flags & Pattern.CASE_INSENSITIVE) != 0,
+					(flags & Pattern.DOTALL) != 0);
+		} else {
+			this.automaton = null;
+		}
+		RioDB.rio.getSystemSettings().getLogger().debug("SQLStringREGEXP object created with pattern '" + pattern
+				+ "' using " + (automaton != null ? "DFA of " + automaton.getStateCount() + " states." : "java.util.regex."));
+	}
+
+	// a constant use of a cached pattern, with its own stats
+	private SQLStringREGEXP(SQLStringREGEXP compiled) {
+		this.pattern = compiled.pattern;
+		this.flags = compiled.flags;
+		this.javaPattern = compiled.javaPattern;
+		this.automaton = compiled.automaton;
+		this.compiled = compiled;
+	}
+
+	// java.util.regex flags of a match parameter, like 'i'
+	private static int getFlags(String matchParameter) {
+		int flags = 0;
+		if (matchParameter == null) {
+			return flags;
+		}
+		for (int i = 0; i < matchParameter.length(); i++) {
+			switch (matchParameter.charAt(i)) {
+			case 'i':
+				flags = flags | Pattern.CASE_INSENSITIVE;
+				break;
+			case 'c':
+				flags = flags & ~Pattern.CASE_INSENSITIVE;
+				break;
+			case 'n':
+				flags = flags | Pattern.DOTALL;
+				break;
+			case 'm':
+				flags = flags | Pattern.MULTILINE;
+				break;
+			case 'x':
+				flags = flags | Pattern.COMMENTS;
+				break;
+			default:
+				throw new IllegalArgumentException(
+						"Invalid REGEXP match parameter '" + matchParameter + "'. Use i, c, n, m or x.");
+			}
+		}
+		return flags;
+	}
+
+	// compiled pattern from cache, or compiled now.
+	private static SQLStringREGEXP getOrCompile(String pattern, String matchParameter)
+			throws PatternSyntaxException, IllegalArgumentException {
+		int flags = getFlags(matchParameter);
+		ConcurrentHashMap<String, SQLStringREGEXP> patterns = cache.get(flags);
+		if (patterns == null) {
+			patterns = cache.computeIfAbsent(flags, f -> new ConcurrentHashMap<String, SQLStringREGEXP>());
+		}
+		SQLStringREGEXP r = patterns.get(pattern);
+		if (r == null) {
+			r = new SQLStringREGEXP(pattern, flags);
+			// constants keep their own reference, so they don't need the cache.
+			if (patterns.size() >= MAX_CACHED_PATTERNS) {
+				patterns.clear();
+			}
+			SQLStringREGEXP previous = patterns.putIfAbsent(pattern, r);
+			if (previous != null) {
+				r = previous;
+			}
+		}
+		return r;
+	}
+
+	// pattern that is not constant, used by the REGEXP scalar functions
+	static SQLStringREGEXP get(String pattern, String matchParameter) throws ExceptionSQLExecution {
+		try {
+			return getOrCompile(pattern, matchParameter);
+		} catch (PatternSyntaxException e) {
+			throw new ExceptionSQLExecution("REGEXP: invalid pattern '" + pattern + "'. " + e.getDescription());
+		} catch (IllegalArgumentException e) {
+			throw new ExceptionSQLExecution(e.getMessage());
+		}
+	}
+
+	// compiles a constant pattern of a statement, when the statement is compiled,
+	// and gives the use an id for the generated code (see getConstantId).
+	static synchronized SQLStringREGEXP compileConstant(String encodedPattern, String matchParameter)
+			throws ExceptionSQLStatement {
+		String pattern = BASE64Utils.decodeText(encodedPattern);
+		try {
+			SQLStringREGEXP compiled = getOrCompile(pattern, matchParameter);
+			SQLStringREGEXP r = new SQLStringREGEXP(compiled);
+			compiled.uses++;
+			Integer id = freeConstantIds.poll();
+			SQLStringREGEXP newConstants[];
+			if (id == null) {
+				id = constants.length;
+				newConstants = Arrays.copyOf(constants, constants.length + 1);
+			} else {
+				newConstants = constants.clone();
+			}
+			newConstants[id] = r;
+			r.constantId = id;
+			constants = newConstants;
+			return r;
+		} catch (PatternSyntaxException e) {
+			throw new ExceptionSQLStatement("REGEXP: invalid pattern '" + pattern + "'. " + e.getDescription());
+		} catch (IllegalArgumentException e) {
+			throw new ExceptionSQLStatement(e.getMessage());
+		}
+	}
+
+	// id of a constant pattern, written in generated code
+	int getConstantId() {
+		return constantId;
+	}
+
+	// release a constant, when its query or window is dropped, or fails to compile.
+	// The id is reused by the next constant. Until then it still points to this use.
+	static synchronized void release(ArrayList<SQLStringREGEXP> regexpList) {
+		for (SQLStringREGEXP r : regexpList) {
+			if (r.constantId == -1) {
+				continue;
+			}
+			freeConstantIds.add(r.constantId);
+			r.constantId = -1;
+			r.compiled.uses--;
+			if (r.compiled.uses == 0) {
+				ConcurrentHashMap<String, SQLStringREGEXP> patterns = cache.get(r.flags);
+				if (patterns != null) {
+					patterns.remove(r.pattern, r.compiled);
+				}
+			}
+		}
+	}
+
+	// REGEXP_LIKE with a constant pattern, called by generated code
+	public static boolean constantLike(String s, int id) throws ExceptionSQLExecution {
+		return constants[id].like(s);
+	}
+
+	// REGEXP_SUBSTR with a constant pattern, called by generated code
+	public static String constantSubstr(String s, int id) throws ExceptionSQLExecution {
+		return constants[id].substr(s);
+	}
+
+	// if the pattern is found in s
+	private boolean find(String s) {
+		if (automaton != null) {
+			int r = automaton.find(s);
+			if (r != SQLStringREGEXPAutomaton.UNSUPPORTED_INPUT) {
+				return r == SQLStringREGEXPAutomaton.MATCH;
+			}
+		}
+		javaCalls++;
+		return javaPattern.matcher(s).find();
+	}
+
+	public boolean like(String s) {
+		if (s == null) {
+			return false;
+		}
+		if ((++calls & SAMPLE_MASK) != 0) {
+			return find(s);
+		}
+		long start = System.nanoTime();
+		boolean r = find(s);
+		sampledNanos += System.nanoTime() - start;
+		sampledCalls++;
+		return r;
+	}
+
+	// the first substring matching the pattern, or null
+	public String substr(String s) {
+		if (s == null) {
+			return null;
+		}
+		boolean timed = (++calls & SAMPLE_MASK) == 0;
+		long start = timed ? System.nanoTime() : 0;
+		String r = null;
+		if (automaton == null) {
+			javaCalls++;
+		}
+		if (automaton == null || find(s)) {
+			Matcher m = javaPattern.matcher(s);
+			if (m.find()) {
+				r = m.group();
+			}
+		}
+		if (timed) {
+			sampledNanos += System.nanoTime() - start;
+			sampledCalls++;
+		}
+		return r;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	// describe pattern and match stats in JSON format
+	public String describe() {
+		return "{\"pattern\": \"" + pattern.replace("\\", "\\\\").replace("\"", "\\\"") + "\", \"engine\": "
+				+ (automaton != null ? "\"dfa\", \"dfa_states\": " + automaton.getStateCount() : "\"java.util.regex\"")
+				+ ", \"calls\": " + calls + ", \"java_regex_calls\": " + javaCalls + ", \"avg_match_ns\": "
+				+ (sampledCalls == 0 ? 0 : sampledNanos / sampledCalls) + "}";
+	}
+}
@@ -0,0 +1,766 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *  The SQLStringREGEXPAutomaton is a DFA for the simple regular expressions
+ *  used by REGEXP_LIKE and REGEXP_SUBSTR.
+ *
+ *  java.util.regex is a backtracking matcher. Patterns like '(a|aa)*b' can take
+ *  exponential time on a long string that doesn't match, and that would stall the
+ *  stream. The DFA reads each character once, so a match takes linear time.
+ *
+ *  Only a safe subset is supported: literals, '.', character classes,
+ *  \d \w \s (and negations), groups, alternation, * + ? {n,m} (greedy or lazy),
+ *  '^' at the start and '$' at the end of the pattern. Anything else
+ *  (back-references, look-around, word boundaries, possessive quantifiers...)
+ *  returns null from build(), and the pattern is matched by java.util.regex.
+ *
+ *  The pattern is parsed into a Thompson NFA, and the DFA is built up front
+ *  with subset construction. Characters are grouped in classes that every
+ *  pattern character set treats the same way, so the transition table has one
+ *  column per class, not per character. The DFA is immutable once built, so
+ *  it can be shared by many threads.
+ *
+ *  Match semantics are the same as java.util.regex find(), with default flags,
+ *  CASE_INSENSITIVE and DOTALL.
+ */
+
+package org.riodb.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+final class SQLStringREGEXPAutomaton {
+
+	// limits. Larger patterns are left to java.util.regex
+	private static final int MAX_NFA_STATES = 4096;
+	private static final int MAX_DFA_STATES = 2048;
+	private static final int MAX_TABLE_SIZE = 1 << 20;
+
+	// results of find()
+	static final int NO_MATCH = 0;
+	static final int MATCH = 1;
+	static final int UNSUPPORTED_INPUT = -1;
+
+	private static final int DEAD = -1;
+
+	// thrown when the pattern is outside the supported subset
+	private static class UnsupportedPattern extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	// a set of characters, as sorted ranges {from, to, from, to...}, inclusive
+	private static final class CharSet {
+		private final int ranges[];
+
+		private CharSet(int ranges[]) {
+			this.ranges = ranges;
+		}
+
+		private static CharSet of(int from, int to) {
+			return new CharSet(new int[] { from, to });
+		}
+
+		private boolean contains(int c) {
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (c < ranges[i]) {
+					return false;
+				}
+				if (c <= ranges[i + 1]) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private CharSet union(CharSet other) {
+			int all[] = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+			System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+			// sort ranges by start
+			Integer order[] = new Integer[all.length / 2];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Integer.compare(all[a * 2], all[b * 2]));
+			int merged[] = new int[all.length];
+			int n = 0;
+			for (Integer o : order) {
+				int from = all[o * 2];
+				int to = all[o * 2 + 1];
+				if (n > 0 && from <= merged[n - 1] + 1) {
+					merged[n - 1] = Math.max(merged[n - 1], to);
+				} else {
+					merged[n++] = from;
+					merged[n++] = to;
+				}
+			}
+			return new CharSet(Arrays.copyOf(merged, n));
+		}
+
+		private CharSet negate() {
+			int negated[] = new int[ranges.length + 2];
+			int n = 0;
+			int next = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				if (ranges[i] > next) {
+					negated[n++] = next;
+					negated[n++] = ranges[i] - 1;
+				}
+				next = ranges[i + 1] + 1;
+			}
+			if (next <= Character.MAX_VALUE) {
+				negated[n++] = next;
+				negated[n++] = Character.MAX_VALUE;
+			}
+			return new CharSet(Arrays.copyOf(negated, n));
+		}
+
+		// adds the other case of ASCII letters, like CASE_INSENSITIVE does
+		private CharSet foldCase() {
+			CharSet folded = this;
+			for (int c = 'a'; c <= 'z'; c++) {
+				if (contains(c) != contains(c - 32)) {
+					folded = folded.union(contains(c) ? of(c - 32, c - 32) : of(c, c));
+				}
+			}
+			return folded;
+		}
+	}
+
+	private static final CharSet DIGIT = CharSet.of('0', '9');
+	private static final CharSet WORD = new CharSet(new int[] { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' });
+	private static final CharSet SPACE = new CharSet(new int[] { '\t', '\r', ' ', ' ' });
+	// '.' without DOTALL doesn't match line terminators
+	private static final CharSet DOT = new CharSet(new int[] { '\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029 })
+			.negate();
+	private static final CharSet ANY = CharSet.of(0, Character.MAX_VALUE);
+
+	/*
+	 * Parser: builds the NFA, from the end of the pattern to the start. Each
+	 * piece of the pattern is compiled with the state that follows it.
+	 */
+	private static final int CHAR = 0;
+	private static final int SPLIT = 1;
+	private static final int ACCEPT = 2;
+
+	private static final class Parser {
+		private final String pattern;
+		private final boolean caseInsensitive;
+		private final boolean dotAll;
+		private int pos;
+
+		// NFA states
+		private final ArrayList<Integer> type = new ArrayList<Integer>();
+		private final ArrayList<CharSet> charSet = new ArrayList<CharSet>();
+		private final ArrayList<Integer> out1 = new ArrayList<Integer>();
+		private final ArrayList<Integer> out2 = new ArrayList<Integer>();
+
+		private Parser(String pattern, boolean caseInsensitive, boolean dotAll) {
+			this.pattern = pattern;
+			this.caseInsensitive = caseInsensitive;
+			this.dotAll = dotAll;
+		}
+
+		private int newState(int t, CharSet set, int o1, int o2) throws UnsupportedPattern {
+			if (type.size() >= MAX_NFA_STATES) {
+				throw new UnsupportedPattern();
+			}
+			type.add(t);
+			charSet.add(set);
+			out1.add(o1);
+			out2.add(o2);
+			return type.size() - 1;
+		}
+
+		/*
+		 * The pattern is parsed into a tree first, because a repeated piece like
+		 * x{2,5} is compiled once per copy.
+		 */
+		private static final int NODE_SET = 0;
+		private static final int NODE_CONCAT = 1;
+		private static final int NODE_ALT = 2;
+		private static final int NODE_REPEAT = 3;
+
+		private static final class Node {
+			private final int kind;
+			private CharSet set;
+			private ArrayList<Node> children = new ArrayList<Node>();
+			private int min;
+			private int max; // -1 for unbounded
+
+			private Node(int kind) {
+				this.kind = kind;
+			}
+		}
+
+		private boolean more() {
+			return pos < pattern.length();
+		}
+
+		private char peek() {
+			return pattern.charAt(pos);
+		}
+
+		private Node parseAlternation() throws UnsupportedPattern {
+			Node alt = new Node(NODE_ALT);
+			alt.children.add(parseConcat());
+			while (more() && peek() == '|') {
+				pos++;
+				alt.children.add(parseConcat());
+			}
+			return alt.children.size() == 1 ? alt.children.get(0) : alt;
+		}
+
+		private Node parseConcat() throws UnsupportedPattern {
+			Node concat = new Node(NODE_CONCAT);
+			while (more() && peek() != '|' && peek() != ')') {
+				concat.children.add(parseRepeat());
+			}
+			return concat;
+		}
+
+		private Node parseRepeat() throws UnsupportedPattern {
+			Node atom = parseAtom();
+			if (!more()) {
+				return atom;
+			}
+			int min;
+			int max;
+			char c = peek();
+			if (c == '*') {
+				min = 0;
+				max = -1;
+				pos++;
+			} else if (c == '+') {
+				min = 1;
+				max = -1;
+				pos++;
+			} else if (c == '?') {
+				min = 0;
+				max = 1;
+				pos++;
+			} else if (c == '{') {
+				int close = pattern.indexOf('}', pos);
+				if (close < 0) {
+					throw new UnsupportedPattern();
+				}
+				String bounds[] = pattern.substring(pos + 1, close).split(",", -1);
+				try {
+					min = Integer.parseInt(bounds[0].trim());
+					if (bounds.length == 1) {
+						max = min;
+					} else if (bounds.length == 2 && bounds[1].trim().length() == 0) {
+						max = -1;
+					} else if (bounds.length == 2) {
+						max = Integer.parseInt(bounds[1].trim());
+					} else {
+						throw new UnsupportedPattern();
+					}
+				} catch (NumberFormatException e) {
+					throw new UnsupportedPattern();
+				}
+				if (min < 0 || (max != -1 && max < min) || Math.max(min, max) > MAX_NFA_STATES) {
+					throw new UnsupportedPattern();
+				}
+				pos = close + 1;
+			} else {
+				return atom;
+			}
+			// a lazy quantifier matches the same strings. Possessive doesn't.
+			if (more() && peek() == '?') {
+				pos++;
+			} else if (more() && peek() == '+') {
+				throw new UnsupportedPattern();
+			}
+			if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+				throw new UnsupportedPattern();
+			}
+			Node repeat = new Node(NODE_REPEAT);
+			repeat.children.add(atom);
+			repeat.min = min;
+			repeat.max = max;
+			return repeat;
+		}
+
+		private Node parseAtom() throws UnsupportedPattern {
+			char c = peek();
+			pos++;
+			if (c == '(') {
+				if (more() && peek() == '?') {
+					// only non-capturing groups (?:...)
+					if (pos + 1 < pattern.length() && pattern.charAt(pos + 1) == ':') {
+						pos += 2;
+					} else {
+						throw new UnsupportedPattern();
+					}
+				}
+				Node group = parseAlternation();
+				if (!more() || peek() != ')') {
+					throw new UnsupportedPattern();
+				}
+				pos++;
+				return group;
+			}
+			if (c == '[') {
+				return set(parseClass());
+			}
+			if (c == '.') {
+				return set(dotAll ? ANY : DOT);
+			}
+			if (c == '\\') {
+				return set(parseEscape());
+			}
+			if (c == '^' || c == '$' || c == ')' || c == '*' || c == '+' || c == '?' || c == '{'
+					|| Character.isSurrogate(c)) {
+				throw new UnsupportedPattern();
+			}
+			return set(CharSet.of(c, c));
+		}
+
+		private Node set(CharSet set) {
+			Node n = new Node(NODE_SET);
+			n.set = caseInsensitive ? set.foldCase() : set;
+			return n;
+		}
+
+		// escape after a backslash, outside or inside a class
+		private CharSet parseEscape() throws UnsupportedPattern {
+			if (!more()) {
+				throw new UnsupportedPattern();
+			}
+			char c = peek();
+			pos++;
+			switch (c) {
+			case 'd':
+				return DIGIT;
+			case 'D':
+				return DIGIT.negate();
+			case 'w':
+				return WORD;
+			case 'W':
+				return WORD.negate();
+			case 's':
+				return SPACE;
+			case 'S':
+				return SPACE.negate();
+			case 't':
+				return CharSet.of('\t', '\t');
+			case 'n':
+				return CharSet.of('\n', '\n');
+			case 'r':
+				return CharSet.of('\r', '\r');
+			case 'f':
+				return CharSet.of('\f', '\f');
+			default:
+				// escaped punctuation is a literal. Letters and digits have special meanings.
+				if (c < 128 && !Character.isLetterOrDigit(c)) {
+					return CharSet.of(c, c);
+				}
+				throw new UnsupportedPattern();
+			}
+		}
+
+		// character class, after the '['
+		private CharSet parseClass() throws UnsupportedPattern {
+			boolean negated = false;
+			if (more() && peek() == '^') {
+				negated = true;
+				pos++;
+			}
+			if (more() && peek() == ']') {
+				throw new UnsupportedPattern();
+			}
+			CharSet set = new CharSet(new int[0]);
+			while (true) {
+				if (!more()) {
+					throw new UnsupportedPattern();
+				}
+				char c = peek();
+				pos++;
+				if (c == ']') {
+					break;
+				}
+				if (c == '[' || Character.isSurrogate(c) || (c == '&' && more() && peek() == '&')) {
+					throw new UnsupportedPattern();
+				}
+				CharSet item;
+				if (c == '\\') {
+					item = parseEscape();
+				} else {
+					item = CharSet.of(c, c);
+				}
+				// range like a-z
+				if (more() && peek() == '-' && pos + 1 < pattern.length() && pattern.charAt(pos + 1) != ']') {
+					char to = pattern.charAt(pos + 1);
+					if (c == '\\' || to == '\\' || to == '[' || to < c || Character.isSurrogate(to)) {
+						throw new UnsupportedPattern();
+					}
+					pos += 2;
+					item = CharSet.of(c, to);
+				}
+				set = set.union(item);
+			}
+			if (caseInsensitive) {
+				set = set.foldCase();
+			}
+			return negated ? set.negate() : set;
+		}
+
+		// compiles a node, followed by state next. Returns the node's start state.
+		private int compile(Node node, int next) throws UnsupportedPattern {
+			switch (node.kind) {
+			case NODE_SET:
+				return newState(CHAR, node.set, next, -1);
+			case NODE_CONCAT:
+				for (int i = node.children.size() - 1; i >= 0; i--) {
+					next = compile(node.children.get(i), next);
+				}
+				return next;
+			case NODE_ALT:
+				int start = compile(node.children.get(node.children.size() - 1), next);
+				for (int i = node.children.size() - 2; i >= 0; i--) {
+					start = newState(SPLIT, null, compile(node.children.get(i), next), start);
+				}
+				return start;
+			default: // NODE_REPEAT
+				Node body = node.children.get(0);
+				int cur;
+				if (node.max == -1) {
+					// loop: split into the body (back to the split) or out
+					int loop = newState(SPLIT, null, -1, next);
+					out1.set(loop, compile(body, loop));
+					cur = loop;
+				} else {
+					// optional copies, nested: (x(x)?)?
+					cur = next;
+					for (int i = node.min; i < node.max; i++) {
+						cur = newState(SPLIT, null, compile(body, cur), next);
+					}
+				}
+				for (int i = 0; i < node.min; i++) {
+					cur = compile(body, cur);
+				}
+				return cur;
+			}
+		}
+	}
+
+	// character classes: class of each ASCII char, and class boundaries for the rest
+	private final int asciiClass[];
+	private final int boundaries[];
+	private final int boundaryClass[];
+	private final int classCount;
+
+	// DFA
+	private final int transitions[];
+	private final boolean accepting[];
+	private final int stateCount;
+	private final boolean startAnchored;
+	private final boolean endAnchored;
+
+	private SQLStringREGEXPAutomaton(int asciiClass[], int boundaries[], int boundaryClass[], int classCount,
+			int transitions[], boolean accepting[], int stateCount, boolean startAnchored, boolean endAnchored) {
+		this.asciiClass = asciiClass;
+		this.boundaries = boundaries;
+		this.boundaryClass = boundaryClass;
+		this.classCount = classCount;
+		this.transitions = transitions;
+		this.accepting = accepting;
+		this.stateCount = stateCount;
+		this.startAnchored = startAnchored;
+		this.endAnchored = endAnchored;
+	}
+
+	// builds a DFA for a pattern already validated by java.util.regex.
+	// Returns null if the pattern is not in the supported subset, or too large.
+	static SQLStringREGEXPAutomaton build(String pattern, boolean caseInsensitive, boolean dotAll) {
+
+		boolean startAnchored = pattern.startsWith("^");
+		boolean endAnchored = false;
+		if (pattern.endsWith("$")) {
+			// $ is an anchor unless escaped by an odd number of backslashes
+			int backslashes = 0;
+			for (int i = pattern.length() - 2; i >= 0 && pattern.charAt(i) == '\\'; i--) {
+				backslashes++;
+			}
+			endAnchored = backslashes % 2 == 0;
+		}
+		String body = pattern.substring(startAnchored ? 1 : 0, pattern.length() - (endAnchored ? 1 : 0));
+
+		Parser parser = new Parser(body, caseInsensitive, dotAll);
+		int start;
+		try {
+			Parser.Node root = parser.parseAlternation();
+			if (parser.more()) {
+				// unbalanced ')'
+				return null;
+			}
+			// an anchor next to a top-level alternation, like ^a|b, only applies to one side
+			if ((startAnchored || endAnchored) && root.kind == Parser.NODE_ALT) {
+				return null;
+			}
+			int accept = parser.newState(ACCEPT, null, -1, -1);
+			start = parser.compile(root, accept);
+		} catch (UnsupportedPattern e) {
+			return null;
+		}
+
+		// character classes: split the char range at every set boundary.
+		TreeSet<Integer> points = new TreeSet<Integer>();
+		points.add(0);
+		// surrogates get their own classes, so find() can refuse them
+		points.add((int) Character.MIN_SURROGATE);
+		points.add(Character.MAX_SURROGATE + 1);
+		for (CharSet set : parser.charSet) {
+			if (set != null) {
+				for (int i = 0; i < set.ranges.length; i += 2) {
+					points.add(set.ranges[i]);
+					if (set.ranges[i + 1] < Character.MAX_VALUE) {
+						points.add(set.ranges[i + 1] + 1);
+					}
+				}
+			}
+		}
+		int boundaries[] = new int[points.size()];
+		int k = 0;
+		for (int p : points) {
+			boundaries[k++] = p;
+		}
+		// chars in the same class for every set get the same class number
+		HashMap<String, Integer> classOfSignature = new HashMap<String, Integer>();
+		ArrayList<Integer> classRepresentative = new ArrayList<Integer>();
+		int boundaryClass[] = new int[boundaries.length];
+		for (int b = 0; b < boundaries.length; b++) {
+			int c = boundaries[b];
+			if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				boundaryClass[b] = UNSUPPORTED_INPUT;
+				continue;
+			}
+			StringBuilder signature = new StringBuilder();
+			for (CharSet set : parser.charSet) {
+				if (set != null) {
+					signature.append(set.contains(c) ? '1' : '0');
+				}
+			}
+			Integer cls = classOfSignature.get(signature.toString());
+			if (cls == null) {
+				cls = classRepresentative.size();
+				classOfSignature.put(signature.toString(), cls);
+				classRepresentative.add(c);
+			}
+			boundaryClass[b] = cls;
+		}
+		int classCount = classRepresentative.size();
+		int asciiClass[] = new int[128];
+		for (int c = 0; c < 128; c++) {
+			asciiClass[c] = boundaryClass[boundaryIndex(boundaries, c)];
+		}
+
+		// subset construction
+		int nfaStates = parser.type.size();
+		int nfaType[] = new int[nfaStates];
+		int nfaOut1[] = new int[nfaStates];
+		int nfaOut2[] = new int[nfaStates];
+		boolean moves[][] = new boolean[nfaStates][];
+		for (int s = 0; s < nfaStates; s++) {
+			nfaType[s] = parser.type.get(s);
+			nfaOut1[s] = parser.out1.get(s);
+			nfaOut2[s] = parser.out2.get(s);
+			if (nfaType[s] == CHAR) {
+				moves[s] = new boolean[classCount];
+				for (int cls = 0; cls < classCount; cls++) {
+					moves[s][cls] = parser.charSet.get(s).contains(classRepresentative.get(cls));
+				}
+			}
+		}
+
+		int startSet[] = closure(new int[] { start }, nfaType, nfaOut1, nfaOut2);
+		HashMap<String, Integer> dfaIds = new HashMap<String, Integer>();
+		ArrayList<int[]> dfaSets = new ArrayList<int[]>();
+		dfaSets.add(startSet);
+		dfaIds.put(Arrays.toString(startSet), 0);
+		int transitions[] = new int[classCount * 16];
+		boolean accepting[] = new boolean[16];
+
+		for (int d = 0; d < dfaSets.size(); d++) {
+			if ((long) (d + 1) * classCount > MAX_TABLE_SIZE) {
+				return null;
+			}
+			if (transitions.length < (d + 1) * classCount) {
+				transitions = Arrays.copyOf(transitions, transitions.length * 2);
+				accepting = Arrays.copyOf(accepting, accepting.length * 2);
+			}
+			int set[] = dfaSets.get(d);
+			boolean isAccepting = false;
+			for (int s : set) {
+				if (nfaType[s] == ACCEPT) {
+					isAccepting = true;
+				}
+			}
+			accepting[d] = isAccepting;
+			for (int cls = 0; cls < classCount; cls++) {
+				// without $, find() is done at the first accepting state
+				if (isAccepting && !endAnchored) {
+					transitions[d * classCount + cls] = d;
+					continue;
+				}
+				TreeSet<Integer> next = new TreeSet<Integer>();
+				for (int s : set) {
+					if (nfaType[s] == CHAR && moves[s][cls]) {
+						next.add(nfaOut1[s]);
+					}
+				}
+				// unanchored: a match can start at any position
+				if (!startAnchored) {
+					next.add(start);
+				}
+				if (next.isEmpty()) {
+					transitions[d * classCount + cls] = DEAD;
+					continue;
+				}
+				int seeds[] = new int[next.size()];
+				int i = 0;
+				for (int s : next) {
+					seeds[i++] = s;
+				}
+				int nextSet[] = closure(seeds, nfaType, nfaOut1, nfaOut2);
+				String key = Arrays.toString(nextSet);
+				Integer id = dfaIds.get(key);
+				if (id == null) {
+					if (dfaSets.size() >= MAX_DFA_STATES) {
+						return null;
+					}
+					id = dfaSets.size();
+					dfaIds.put(key, id);
+					dfaSets.add(nextSet);
+				}
+				transitions[d * classCount + cls] = id;
+			}
+		}
+
+		return new SQLStringREGEXPAutomaton(asciiClass, boundaries, boundaryClass, classCount,
+				Arrays.copyOf(transitions, dfaSets.size() * classCount), Arrays.copyOf(accepting, dfaSets.size()),
+				dfaSets.size(), startAnchored, endAnchored);
+	}
+
+	// the CHAR and ACCEPT states reachable from seeds without reading a char
+	private static int[] closure(int seeds[], int nfaType[], int nfaOut1[], int nfaOut2[]) {
+		boolean visited[] = new boolean[nfaType.length];
+		int stack[] = new int[nfaType.length];
+		int top = 0;
+		TreeSet<Integer> result = new TreeSet<Integer>();
+		for (int s : seeds) {
+			if (!visited[s]) {
+				visited[s] = true;
+				stack[top++] = s;
+			}
+		}
+		while (top > 0) {
+			int s = stack[--top];
+			if (nfaType[s] == SPLIT) {
+				for (int o : new int[] { nfaOut1[s], nfaOut2[s] }) {
+					if (!visited[o]) {
+						visited[o] = true;
+						stack[top++] = o;
+					}
+				}
+			} else {
+				result.add(s);
+			}
+		}
+		int r[] = new int[result.size()];
+		int i = 0;
+		for (int s : result) {
+			r[i++] = s;
+		}
+		return r;
+	}
+
+	// index of the boundary that starts the range containing c
+	private static int boundaryIndex(int boundaries[], int c) {
+		int i = Arrays.binarySearch(boundaries, c);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	// MATCH if the pattern is found in s, NO_MATCH if not.
+	// UNSUPPORTED_INPUT for surrogate pairs, that java.util.regex reads as one code point.
+	int find(String s) {
+
+		int state = 0;
+		if (accepting[0] && !endAnchored) {
+			return MATCH;
+		}
+		int len = s.length();
+		// states before the last two chars, for $ before a final line terminator
+		int beforeLast = DEAD;
+		int beforeSecondLast = DEAD;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			int cls = c < 128 ? asciiClass[c] : boundaryClass[boundaryIndex(boundaries, c)];
+			if (cls == UNSUPPORTED_INPUT) {
+				return UNSUPPORTED_INPUT;
+			}
+			if (i == len - 2) {
+				beforeSecondLast = state;
+			} else if (i == len - 1) {
+				beforeLast = state;
+			}
+			state = transitions[state * classCount + cls];
+			if (state == DEAD) {
+				if (!endAnchored) {
+					return NO_MATCH;
+				}
+				// only a match before a final line terminator is still possible
+				break;
+			}
+			if (!endAnchored && accepting[state]) {
+				return MATCH;
+			}
+		}
+		if (!endAnchored) {
+			return NO_MATCH;
+		}
+		if (state != DEAD && accepting[state]) {
+			return MATCH;
+		}
+		// $ also matches before a final line terminator, but not between \r and \n
+		if (len >= 1 && isLineTerminator(s.charAt(len - 1))) {
+			if (len >= 2 && s.charAt(len - 1) == '\n' && s.charAt(len - 2) == '\r') {
+				if (beforeSecondLast != DEAD && accepting[beforeSecondLast]) {
+					return MATCH;
+				}
+			} else if (beforeLast != DEAD && accepting[beforeLast]) {
+				return MATCH;
+			}
+		}
+		return NO_MATCH;
+	}
+
+	int getStateCount() {
+		return stateCount;
+	}
+}
@@ -26,4 +26,7 @@ public interface SQLWindowCondition {
 
 	public boolean match(RioDBStreamMessage message,RioDBStreamMessage previousMessage) throws ExceptionSQLExecution ;
 	public String  getExpression();
+	// windows and window sources holding the condition. LIKE patterns are released with the last one.
+	public void retain();
+	public void release();
 }
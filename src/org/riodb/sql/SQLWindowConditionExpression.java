@@ -20,6 +20,8 @@
 
 package org.riodb.sql;
 
+import java.util.ArrayList;
+
 import org.mdkt.compiler.InMemoryJavaCompiler;
 import org.riodb.engine.RioDB;
 
@@ -29,11 +31,16 @@ public class SQLWindowConditionExpression implements SQLWindowCondition {
 
 	private String expression;
 	private SQLWindowConditionCompiled compiledCondition;
+	private final SQLStringLIKE likeArr[];
+	private final ArrayList<SQLStringREGEXP> regexpList;
+	private int references;
 
 	SQLWindowConditionExpression(String expression, int streamId, SQLStringLIKE[] likeArr, SQLStringIN[] inArr,
-			String originalExpression) throws ExceptionSQLStatement {
+			ArrayList<SQLStringREGEXP> regexpList, String originalExpression) throws ExceptionSQLStatement {
 
 		this.expression = originalExpression;
+		this.likeArr = likeArr;
+		this.regexpList = regexpList;
 		String className = "CompiledWindowCondition" + RioDB.rio.getEngine().counterNext();
 
 		String source = "package org.riodb.sql;\r\n" 
@@ -132,6 +139,26 @@ public class SQLWindowConditionExpression implements SQLWindowCondition {
 
 	}
 
+	// windows and window sources holding the condition. Its LIKE and REGEXP
+	// patterns are released with the last one.
+	@Override
+	public synchronized void retain() {
+		references++;
+	}
+
+	@Override
+	public synchronized void release() {
+		if (references > 0) {
+			references--;
+		}
+		if (references == 0) {
+			for (SQLStringLIKE like : likeArr) {
+				like.release();
+			}
+			SQLStringREGEXP.release(regexpList);
+		}
+	}
+
 	@Override
 	public boolean match(RioDBStreamMessage message, RioDBStreamMessage previousMessage) throws ExceptionSQLExecution  {
 		return compiledCondition.match(message, previousMessage);
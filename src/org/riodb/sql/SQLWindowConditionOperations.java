@@ -37,6 +37,7 @@ final public class SQLWindowConditionOperations {
 		// ArrayLists of StringLike and StringIn objects if needed
 		ArrayList<SQLStringLIKE> likeList = new ArrayList<SQLStringLIKE>();
 		ArrayList<SQLStringIN> inList = new ArrayList<SQLStringIN>();
+		ArrayList<SQLStringREGEXP> regexpList = new ArrayList<SQLStringREGEXP>();
 
 		// get the list of all required Windows for this query condition
 		TreeSet<Integer> requiredWindows = new TreeSet<Integer>();
@@ -44,18 +45,25 @@ final public class SQLWindowConditionOperations {
 		// Not used, but we can share same procedure for JavaGenerator
 		SQLQueryResources queryResources = null;
 
-		String javaExpression = JavaGenerator.convertSqlToJava(whereStr, queryResources, drivingStreamId, likeList,
-				inList, requiredWindows);
+		try {
+			String javaExpression = JavaGenerator.convertSqlToJava(whereStr, queryResources, drivingStreamId, likeList,
+					inList, regexpList, requiredWindows);
 
-		RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
+			RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
 
-		SQLStringLIKE[] likeArr = new SQLStringLIKE[likeList.size()];
-		likeArr = likeList.toArray(likeArr);
+			SQLStringLIKE[] likeArr = new SQLStringLIKE[likeList.size()];
+			likeArr = likeList.toArray(likeArr);
 
-		SQLStringIN[] inArr = new SQLStringIN[inList.size()];
-		inArr = inList.toArray(inArr);
+			SQLStringIN[] inArr = new SQLStringIN[inList.size()];
+			inArr = inList.toArray(inArr);
 
-		return new SQLWindowConditionExpression(javaExpression, drivingStreamId, likeArr, inArr, whereStr);
+			return new SQLWindowConditionExpression(javaExpression, drivingStreamId, likeArr, inArr, regexpList, whereStr);
+		} catch (ExceptionSQLStatement e) {
+			// LIKE and REGEXP patterns of a failed condition are released
+			SQLStringLIKE.release(likeList);
+			SQLStringREGEXP.release(regexpList);
+			throw e;
+		}
 
 	}
 
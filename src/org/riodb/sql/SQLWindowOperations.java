@@ -21,15 +21,27 @@
 package org.riodb.sql;
 
 import org.riodb.engine.RioDB;
+import org.riodb.windows.Histogram;
+import org.riodb.windows.MultiFieldWindowSource;
+import org.riodb.windows.PartitionRanking;
+import org.riodb.windows.SharedWindowSource;
 import org.riodb.windows.Window;
+import org.riodb.windows.WindowClassGenerator;
+import org.riodb.windows.WindowOfDecay;
+import org.riodb.windows.WindowOfMultiFieldColumn;
 import org.riodb.windows.WindowOfOne;
 import org.riodb.windows.WindowOfOne_String;
 import org.riodb.windows.WindowOfQuantity;
 import org.riodb.windows.WindowOfQuantity_String;
+import org.riodb.windows.WindowOfSession;
 import org.riodb.windows.WindowOfTimeComplex;
 import org.riodb.windows.WindowOfTimeComplex_String;
+import org.riodb.windows.WindowOfTimeMillis;
+import org.riodb.windows.WindowOfTimePanes;
+import org.riodb.windows.WindowOfTimeRollup;
 import org.riodb.windows.WindowOfTimeSimple;
 import org.riodb.windows.WindowOfTimeSimple_String;
+import org.riodb.windows.WindowManager;
 import org.riodb.windows.WindowWrapper;
 import org.riodb.windows.WindowWrapperPartitioned;
 import org.riodb.windows.WindowWrapperPartitioned_String;
@@ -84,6 +96,12 @@ public final class SQLWindowOperations {
 			whereClauseRequiresPrevious = true;
 		}
 		
+		// multi-field window, like 'from s.price, s.volume'
+		if (!fromStr.startsWith("number (") && !fromStr.startsWith("string (") && fromStr.contains(",")) {
+			return createMultiFieldWindow(stmt, windowName, functionStr, streamId, fromStr, whereStr, persistStmt,
+					actingUser);
+		}
+
 		if (fromStr.startsWith("number (")) {
 			windowSourceExpression = SQLWindowSourceOperations.getWindowSource(fromStr, streamId, whereClauseRequiresPrevious);
 			
@@ -103,6 +121,45 @@ public final class SQLWindowOperations {
 			RioDB.rio.getSystemSettings().getLogger().trace("\tfieldId: " + fieldId + " fieldIsNumeric: " + windowOfNumbers);
 
 		}
+
+		// TOPK counts strings. Numeric windows only get it from 'running all', so it's dropped.
+		int topKId = SQLAggregateFunctions.getFunctionId("topk");
+		int topK = 0;
+		if (functionsRequired[topKId]) {
+			if (windowOfNumbers) {
+				if (!functionStr.contains("all")) {
+					throw new ExceptionSQLStatement("TOPK is only supported for windows of strings.");
+				}
+				functionsRequired[topKId] = false;
+			} else {
+				topK = SQLAggregateFunctions.getTopK(functionStr);
+			}
+		}
+
+		// HISTOGRAM counts numbers. Windows of strings only get it from 'running all', so it's dropped.
+		int histogramId = SQLAggregateFunctions.getFunctionId("histogram");
+		Histogram histogram = null;
+		if (functionsRequired[histogramId]) {
+			if (!windowOfNumbers) {
+				if (!functionStr.contains("all")) {
+					throw new ExceptionSQLStatement("HISTOGRAM is only supported for windows of numbers.");
+				}
+				functionsRequired[histogramId] = false;
+			} else {
+				histogram = SQLAggregateFunctions.getHistogram(functionStr);
+			}
+		}
+
+		// functions of two fields are for multi-field windows. Others only get them from 'running all', so they're dropped.
+		for (int i = 0; i < functionsRequired.length; i++) {
+			if (functionsRequired[i] && SQLAggregateFunctions.isPairFunction(SQLAggregateFunctions.getFunction(i))) {
+				if (!functionStr.contains("all")) {
+					throw new ExceptionSQLStatement("Function '" + SQLAggregateFunctions.getFunction(i)
+							+ "' requires a multi-field window of two fields, like 'from s.x, s.y'");
+				}
+				functionsRequired[i] = false;
+			}
+		}
 	
 
 
@@ -123,19 +180,122 @@ public final class SQLWindowOperations {
 		// default is range by quantity.
 		boolean rangeByTime = false;
 		boolean rangeByTimeIsTimestamp = false; // NOT CLOCK-based.
+		boolean rangeByPanes = false; // TUMBLING or HOPPING
+		boolean rangeBySession = false; // SESSION
+		boolean rangeByDecay = false; // DECAY
 		int windowRange = 0;
 		int windowRangeEnd = -1; // negative 1 means it's not used.
+		int windowHop = 0; // only for TUMBLING or HOPPING
 
 		String rangeStr = SQLParser.getWindowRangeStr(stmt);
 		String rangeEndStr = null;
 
+		// compressed elements for long windows of time, like 'range 1d compressed'
+		boolean compressed = false;
+		if (rangeStr != null && rangeStr.contains(" compressed")) {
+			compressed = true;
+			rangeStr = rangeStr.replace(" compressed", "").trim();
+		}
+
+		// older data cascaded into minutes and hours, for long windows of time, like 'range 30d rollup'
+		boolean rollup = false;
+		if (rangeStr != null && rangeStr.contains(" rollup")) {
+			rollup = true;
+			rangeStr = rangeStr.replace(" rollup", "").trim();
+		}
+
+		// allowed lateness for out-of-order messages, like 'range timestamp 5m lateness 10s [drop|include]'
+		String latenessStr = null;
+		if (rangeStr != null && rangeStr.contains(" lateness ")) {
+			latenessStr = rangeStr.substring(rangeStr.indexOf(" lateness ") + 10).trim();
+			rangeStr = rangeStr.substring(0, rangeStr.indexOf(" lateness "));
+		}
+
+		// bucket granularity for windows of time in milliseconds, like 'range 5s bucket 100ms'
+		String bucketStr = null;
+		if (rangeStr != null && rangeStr.contains(" bucket ")) {
+			bucketStr = rangeStr.substring(rangeStr.indexOf(" bucket ") + 8).trim();
+			rangeStr = rangeStr.substring(0, rangeStr.indexOf(" bucket "));
+		}
+
 		if (rangeStr != null && rangeStr.contains(" - ")) {
 			rangeEndStr = rangeStr.substring(rangeStr.indexOf(" - ") + 3).trim();
 			rangeStr = rangeStr.substring(0, rangeStr.indexOf(" - "));
 		}
 
+		// TUMBLING, HOPPING, SESSION and DECAY windows.
+		// Like 'range tumbling 1m' or 'range hopping 5m every 10s' or 'range session 30s' or 'range decay 5m'
+		if (rangeStr != null && (rangeStr.contains("tumbling ") || rangeStr.contains("hopping ")
+				|| rangeStr.contains("session ") || rangeStr.contains("decay "))) {
+
+			if (rangeEndStr != null) {
+				throw new ExceptionSQLStatement("TUMBLING, HOPPING, SESSION and DECAY windows do not use a range end.");
+			}
+
+			rangeByTime = true;
+
+			String words[] = rangeStr.split(" ");
+			int w = 0;
+			if (words[w].equals("timestamp")) {
+				rangeByTimeIsTimestamp = true;
+				if (RioDB.rio.getEngine().getStream(streamId).getDef().getTimestampNumericFieldId() == -1) {
+					throw new ExceptionSQLStatement("Stream '" + RioDB.rio.getEngine().getStream(streamId).getName()
+							+ "' does not have a timestamp field.");
+				}
+				w++;
+			} else if (words[w].equals("clock")) {
+				w++;
+			}
+
+			if (words.length < w + 2) {
+				throw new ExceptionSQLStatement("'range' clause is missing the window size.");
+			}
+
+			if (words[w].equals("tumbling")) {
+				rangeByPanes = true;
+				windowRange = getRangeTime(words[w + 1]);
+				windowHop = windowRange;
+			} else if (words[w].equals("session")) {
+				rangeBySession = true;
+				// the session gap
+				windowRange = getRangeTime(words[w + 1]);
+			} else if (words[w].equals("decay")) {
+				rangeByDecay = true;
+				// the half-life
+				windowRange = getRangeTime(words[w + 1]);
+				if (windowRange <= 0) {
+					throw new ExceptionSQLStatement("The half-life of a DECAY window must be positive, like 'range decay 5m'");
+				}
+				for (int i = 0; i < functionsRequired.length; i++) {
+					if (functionsRequired[i] && !WindowOfDecay.supportsFunction(i)) {
+						throw new ExceptionSQLStatement("DECAY windows support avg, count, last, previous and sum.");
+					}
+				}
+			} else if (words[w].equals("hopping")) {
+				rangeByPanes = true;
+				if (words.length < w + 4 || !words[w + 2].equals("every")) {
+					throw new ExceptionSQLStatement("HOPPING window requires a hop, like 'range hopping 5m every 10s'");
+				}
+				windowRange = getRangeTime(words[w + 1]);
+				windowHop = getRangeTime(words[w + 3]);
+				if (windowHop <= 0 || windowHop > windowRange) {
+					throw new ExceptionSQLStatement("The hop of a HOPPING window must be positive and no larger than the window size.");
+				}
+			} else {
+				throw new ExceptionSQLStatement("Range not understood: '" + rangeStr + "'");
+			}
+
+			if (functionsRequired[SQLAggregateFunctions.getFunctionId("count_distinct")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("median")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("mode")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("slope")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]) {
+				throw new ExceptionSQLStatement(
+						"TUMBLING, HOPPING and SESSION windows support avg, count, first, histogram, last, max, min, previous and sum.");
+			}
+		}
 		// if rangeStr is just a number, then it's a range of quantity (integer)
-		if (SQLParser.isNumber(rangeStr)) {
+		else if (SQLParser.isNumber(rangeStr)) {
 			windowRange = Integer.valueOf(rangeStr);
 			if (rangeEndStr != null && SQLParser.isNumber(rangeEndStr)) {
 				windowRangeEnd = Integer.valueOf(rangeEndStr);
@@ -164,7 +324,41 @@ public final class SQLWindowOperations {
 			rangeByTime = true;
 		}
 
-		if (rangeByTime) {
+		// windows of time in milliseconds, like 'range 250ms' or 'range 5s bucket 100ms'
+		boolean rangeByMillis = false;
+		long windowRangeMillis = 0;
+		long windowBucketMillis = 1;
+		if (rangeByTime && !rangeByPanes && !rangeBySession && !rangeByDecay
+				&& (rangeStr.endsWith("ms") || bucketStr != null)) {
+			rangeByMillis = true;
+			if (rangeEndStr != null) {
+				throw new ExceptionSQLStatement("Windows of time in milliseconds do not use a range end.");
+			}
+			windowRangeMillis = getRangeMillis(rangeStr);
+			if (bucketStr != null) {
+				windowBucketMillis = getRangeMillis(bucketStr);
+			}
+			if (windowBucketMillis <= 0 || windowBucketMillis > windowRangeMillis) {
+				throw new ExceptionSQLStatement("The bucket must be positive and no larger than the range.");
+			}
+			if (windowRangeMillis / windowBucketMillis > WindowOfTimeMillis.MAX_BUCKETS) {
+				throw new ExceptionSQLStatement("The range can have at most " + WindowOfTimeMillis.MAX_BUCKETS
+						+ " buckets. Use a larger bucket, like 'range 1h bucket 10ms'");
+			}
+			if (functionsRequired[SQLAggregateFunctions.getFunctionId("count_distinct")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("median")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("mode")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("slope")]
+					|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]
+					|| functionsRequired[histogramId]) {
+				throw new ExceptionSQLStatement(
+						"Windows of time in milliseconds support avg, count, first, last, max, min, previous and sum.");
+			}
+			// range in seconds, rounded up.
+			windowRange = (int) ((windowRangeMillis + 999) / 1000);
+		} else if (bucketStr != null) {
+			throw new ExceptionSQLStatement("BUCKET is only used by windows of time, like 'range 5s bucket 100ms'");
+		} else if (rangeByTime && !rangeByPanes && !rangeBySession && !rangeByDecay) {
 			windowRange = getRangeTime(rangeStr);
 			if (rangeEndStr != null && rangeEndStr.length() > 0) {
 				windowRangeEnd = getRangeTime(rangeEndStr);
@@ -175,6 +369,36 @@ public final class SQLWindowOperations {
 			throw new ExceptionSQLStatement("Range is required, and must be a positive intenger.");
 		}
 
+		long latenessMillis = -1; // negative 1 means messages are not reordered.
+		boolean includeLate = false;
+		if (latenessStr != null) {
+			if (!rangeByTimeIsTimestamp) {
+				throw new ExceptionSQLStatement("LATENESS requires a window with range by timestamp.");
+			}
+			String latenessWords[] = latenessStr.split(" ");
+			latenessMillis = getRangeMillis(latenessWords[0]);
+			if (latenessWords.length > 1) {
+				if (latenessWords[1].equals("include")) {
+					includeLate = true;
+				} else if (!latenessWords[1].equals("drop")) {
+					throw new ExceptionSQLStatement(
+							"Messages later than the allowed lateness can be DROP or INCLUDE, like 'lateness 10s drop'");
+				}
+			}
+		}
+
+		if (compressed && (!rangeByTime || rangeByPanes || rangeBySession || rangeByDecay || rangeByMillis
+				|| !windowOfNumbers)) {
+			throw new ExceptionSQLStatement(
+					"COMPRESSED is only supported for numeric windows with a range of time in seconds, like 'range 1d compressed'");
+		}
+
+		if (rollup && (!rangeByTime || rangeByPanes || rangeBySession || rangeByDecay || rangeByMillis
+				|| !windowOfNumbers || compressed || windowRangeEnd > 0)) {
+			throw new ExceptionSQLStatement(
+					"ROLLUP is only supported for numeric windows with a range of time in seconds and no range end, like 'range 30d rollup'");
+		}
+
 		RioDB.rio.getSystemSettings().getLogger().trace("\tRANGE: " + windowRange);
 
 		// get window partition (numeric field from stream). -1 for none.
@@ -182,6 +406,24 @@ public final class SQLWindowOperations {
 
 		int partitionExpiration = SQLParser.getWindowPartitionExpiration(stmt);
 
+		boolean partitionGlobal = SQLParser.getWindowPartitionGlobal(stmt);
+		if (partitionGlobal && !windowOfNumbers) {
+			throw new ExceptionSQLStatement("GLOBAL rollup is only supported for partitioned windows of numbers.");
+		}
+
+		String rankFunction = SQLParser.getWindowPartitionRankFunction(stmt);
+		int rankFunctionId = -1;
+		if (rankFunction != null) {
+			rankFunctionId = SQLAggregateFunctions.getFunctionId(rankFunction);
+			if (!windowOfNumbers || partitionFieldId == -1) {
+				throw new ExceptionSQLStatement("RANK BY is only supported for partitioned windows of numbers.");
+			}
+			if (!functionsRequired[rankFunctionId] || !PartitionRanking.isRankable(rankFunctionId)) {
+				throw new ExceptionSQLStatement("Partitions can only be ranked by a running function of the window: "
+						+ rankFunction);
+			}
+		}
+
 		if (windowRangeEnd >= windowRange) {
 			throw new ExceptionSQLStatement(
 					"The range expression goes from oldest to most recent. The value after the dash has to be smaller than the first value, like 100-10, or 10m-20s");
@@ -191,25 +433,78 @@ public final class SQLWindowOperations {
 
 			Window window;
 
-			if (rangeByTime) {
-				if (functionsRequired[SQLAggregateFunctions.getFunctionId("count_distinct")]
+			if (rangeByMillis) {
+				window = new WindowOfTimeMillis(windowRangeMillis, windowBucketMillis, functionsRequired,
+						partitionExpiration);
+			} else if (rangeByPanes) {
+				window = new WindowOfTimePanes(windowRange, windowHop, functionsRequired, partitionExpiration);
+			} else if (rangeBySession) {
+				window = new WindowOfSession(windowRange, functionsRequired);
+			} else if (rangeByDecay) {
+				window = new WindowOfDecay(windowRange, functionsRequired);
+			} else if (rangeByTime) {
+				if (rollup) {
+					// older data is cascaded into minutes and hours. Counts and sums of the
+					// oldest node are interpolated, so rollup is only used when requested.
+					if (!WindowOfTimeRollup.supportsFunctions(functionsRequired)) {
+						throw new ExceptionSQLStatement(
+								"ROLLUP windows only support avg, count, first, last, max, min, previous and sum.");
+					}
+					window = new WindowOfTimeRollup(windowRange, functionsRequired, partitionExpiration);
+				} else if (compressed) {
+					// elements are kept compressed in blocks.
+					window = new WindowOfTimeComplex(windowRange, windowRangeEnd, functionsRequired,
+							partitionExpiration, true);
+				} else if (functionsRequired[SQLAggregateFunctions.getFunctionId("count_distinct")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("median")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("mode")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("slope")]
-						|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]) {
+						|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]
+						|| functionsRequired[histogramId]) {
 					window = new WindowOfTimeComplex(windowRange, windowRangeEnd, functionsRequired,
 							partitionExpiration);
+				} else if (windowRangeEnd <= 0 && partitionFieldId == -1 && latenessMillis == -1) {
+					// windows over the same field, condition and time basis share one source.
+					String sourceKey = fromStr + " when " + whereStr + (rangeByTimeIsTimestamp ? " timestamp" : " clock");
+					WindowManager windowMgr = RioDB.rio.getEngine().getStream(streamId).getWindowMgr();
+					SharedWindowSource sharedSource = windowMgr.getSharedSource(sourceKey);
+					if (sharedSource == null) {
+						sharedSource = new SharedWindowSource(sourceKey, streamId, fieldId, whereClause,
+								rangeByTimeIsTimestamp, windowSourceExpression);
+						windowMgr.addSharedSource(sharedSource);
+					}
+					window = sharedSource.newView(windowRange, functionsRequired);
 				} else {
-					window = new WindowOfTimeSimple(windowRange, windowRangeEnd, functionsRequired,
-							partitionExpiration);
+					// windows without range end use a class generated for the functions required.
+					window = null;
+					if (windowRangeEnd <= 0) {
+						window = WindowClassGenerator.newWindowOfTime(windowRange, functionsRequired,
+								partitionExpiration);
+					}
+					if (window == null) {
+						window = new WindowOfTimeSimple(windowRange, windowRangeEnd, functionsRequired,
+								partitionExpiration);
+					}
 				}
-			} else if (windowRange == 1) {
+			} else if (windowRange == 1 && histogram == null) {
 				window = new WindowOfOne(functionsRequired[SQLAggregateFunctions.getFunctionId("previous")],
 						partitionExpiration);
 			} else {
 				window = new WindowOfQuantity(windowRange, windowRangeEnd, functionsRequired, partitionExpiration);
 			}
 
+			if (histogram != null) {
+				if (window instanceof WindowOfTimeComplex) {
+					((WindowOfTimeComplex) window).enableHistogram(histogram);
+				} else if (window instanceof WindowOfQuantity) {
+					((WindowOfQuantity) window).enableHistogram(histogram);
+				} else if (window instanceof WindowOfTimePanes) {
+					((WindowOfTimePanes) window).enableHistogram(histogram);
+				} else if (window instanceof WindowOfSession) {
+					((WindowOfSession) window).enableHistogram(histogram);
+				}
+			}
+
 			RioDB.rio.getSystemSettings().getLogger().trace("\twindow object created.");
 			WindowWrapper wrapper;
 			if (partitionFieldId == -1) {
@@ -223,6 +518,15 @@ public final class SQLWindowOperations {
 			} else {
 				wrapper = new WindowWrapperPartitioned(streamId, windowName, window, fieldId, whereClause, rangeByTime,
 						rangeByTimeIsTimestamp, partitionFieldId, windowSourceExpression);
+				if (partitionGlobal) {
+					((WindowWrapperPartitioned) wrapper).enableGlobalRollup();
+				}
+				if (rankFunctionId >= 0) {
+					((WindowWrapperPartitioned) wrapper).enablePartitionRanking(rankFunctionId);
+				}
+			}
+			if (latenessMillis >= 0) {
+				wrapper.setAllowedLateness(latenessMillis, includeLate);
 			}
 			RioDB.rio.getSystemSettings().getLogger().trace("\twindow wrapper created.");
 
@@ -244,12 +548,19 @@ public final class SQLWindowOperations {
 
 			Window_String window;
 
-			if (rangeByTime) {
+			if (rangeByMillis) {
+				throw new ExceptionSQLStatement("Windows of time in milliseconds are only supported for numeric fields.");
+			} else if (latenessMillis >= 0) {
+				throw new ExceptionSQLStatement("LATENESS is only supported for windows of numeric fields.");
+			} else if (rangeByPanes || rangeBySession || rangeByDecay) {
+				throw new ExceptionSQLStatement("TUMBLING, HOPPING, SESSION and DECAY windows are only supported for numeric fields.");
+			} else if (rangeByTime) {
 				if (functionsRequired[SQLAggregateFunctions.getFunctionId("count_distinct")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("median")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("mode")]
 						|| functionsRequired[SQLAggregateFunctions.getFunctionId("slope")]
-						|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]) {
+						|| functionsRequired[SQLAggregateFunctions.getFunctionId("variance")]
+						|| functionsRequired[topKId]) {
 					window = new WindowOfTimeComplex_String(windowRange, windowRangeEnd, functionsRequired,
 							partitionExpiration);
 				} else {
@@ -263,6 +574,14 @@ public final class SQLWindowOperations {
 				window = new WindowOfQuantity_String(windowRange, windowRangeEnd, functionsRequired, partitionExpiration);
 			}
 
+			if (topK > 0) {
+				if (window instanceof WindowOfTimeComplex_String) {
+					((WindowOfTimeComplex_String) window).enableTopK(topK);
+				} else if (window instanceof WindowOfQuantity_String) {
+					((WindowOfQuantity_String) window).enableTopK(topK);
+				}
+			}
+
 			RioDB.rio.getSystemSettings().getLogger().trace("\twindow object created.");
 			WindowWrapper_String wrapper;
 			if (partitionFieldId == -1) {
@@ -294,6 +613,182 @@ public final class SQLWindowOperations {
 		return "Created window " + windowName;
 	}
 
+	/*
+	 * Creates a multi-field window, like
+	 * 'create window pv running avg, volume.sum from s.price, s.volume range 5m;'
+	 * 
+	 * Functions apply to all fields, unless prefixed by a field name. Each field
+	 * becomes a window named like pv_price and pv_volume, for queries. All fields
+	 * share one store of rows, with one timestamp per message.
+	 * 
+	 * Functions of two fields, like correlation, are for a window named like the
+	 * multi-field window (pv), with x as the first field and y as the second.
+	 */
+	private static final String createMultiFieldWindow(String stmt, String windowName, String functionStr,
+			int streamId, String fromStr, String whereStr, boolean persistStmt, String actingUser)
+			throws ExceptionSQLStatement {
+
+		// the fields
+		String fields[] = fromStr.split(",");
+		int fieldIds[] = new int[fields.length];
+		String fieldNames[] = new String[fields.length];
+		for (int c = 0; c < fields.length; c++) {
+			String field = fields[c].trim();
+			if (field.indexOf(".") <= 0 || field.contains(" ")) {
+				throw new ExceptionSQLStatement("Multi-field windows use \"stream.field\" notation for each field after FROM.");
+			}
+			if (RioDB.rio.getEngine().getStreamId(field.substring(0, field.indexOf("."))) != streamId) {
+				throw new ExceptionSQLStatement("All fields of a multi-field window must be from the same stream.");
+			}
+			fieldNames[c] = field.substring(field.indexOf(".") + 1);
+			fieldIds[c] = RioDB.rio.getEngine().getStream(streamId).getDef().getFieldId(fieldNames[c]);
+			if (fieldIds[c] < 0) {
+				throw new ExceptionSQLStatement("field not found: " + fieldNames[c]);
+			}
+			if (!RioDB.rio.getEngine().getStream(streamId).getDef().isNumeric(fieldIds[c])) {
+				throw new ExceptionSQLStatement("Multi-field windows are only supported for numeric fields.");
+			}
+			for (int i = 0; i < c; i++) {
+				if (fieldIds[i] == fieldIds[c]) {
+					throw new ExceptionSQLStatement("Field '" + fieldNames[c] + "' is listed more than once.");
+				}
+			}
+			String columnWindowName = windowName + "_" + fieldNames[c];
+			if (RioDB.rio.getEngine().getStreamIdOfWindow(columnWindowName) >= 0) {
+				throw new ExceptionSQLStatement("A window named '" + columnWindowName + "' already exists.");
+			}
+		}
+
+		// the functions of each field. 'avg' is for all fields. 'price.avg' is only for price.
+		String columnFunctionStr[] = new String[fields.length];
+		for (int c = 0; c < fields.length; c++) {
+			columnFunctionStr[c] = "";
+		}
+		String pairFunctionStr = "";
+		for (String function : functionStr.split(",")) {
+			function = function.trim();
+			if (SQLAggregateFunctions.isPairFunction(function)) {
+				if (fields.length != 2) {
+					throw new ExceptionSQLStatement("Function '" + function
+							+ "' requires a multi-field window of exactly two fields, like 'from s.x, s.y'");
+				}
+				pairFunctionStr = pairFunctionStr + ", " + function;
+				continue;
+			}
+			int column = -1;
+			if (function.contains(".")) {
+				String fieldName = function.substring(0, function.indexOf("."));
+				function = function.substring(function.indexOf(".") + 1);
+				for (int c = 0; c < fields.length; c++) {
+					if (fieldNames[c].equals(fieldName)) {
+						column = c;
+					}
+				}
+				if (column == -1) {
+					throw new ExceptionSQLStatement("Field '" + fieldName + "' is not in the FROM clause.");
+				}
+			}
+			if (!SQLAggregateFunctions.isFunction(function)
+					|| !WindowOfMultiFieldColumn.supportsFunction(SQLAggregateFunctions.getFunctionId(function))) {
+				throw new ExceptionSQLStatement("Multi-field windows support avg, count, first, last, max, min, previous and sum,"
+						+ " and covariance, covariance_pop, correlation, regr_slope and regr_intercept of two fields.");
+			}
+			for (int c = 0; c < fields.length; c++) {
+				if (column == -1 || column == c) {
+					columnFunctionStr[c] = columnFunctionStr[c] + ", " + function;
+				}
+			}
+		}
+		// fields without functions don't get a window. null.
+		boolean functionsRequired[][] = new boolean[fields.length][];
+		for (int c = 0; c < fields.length; c++) {
+			if (columnFunctionStr[c].length() > 0) {
+				functionsRequired[c] = SQLAggregateFunctions.getFunctionsRequired(columnFunctionStr[c].substring(2));
+			} else if (pairFunctionStr.length() == 0) {
+				throw new ExceptionSQLStatement("No running function for field '" + fieldNames[c] + "'.");
+			}
+		}
+		boolean pairFunctionsRequired[] = null;
+		if (pairFunctionStr.length() > 0) {
+			pairFunctionsRequired = SQLAggregateFunctions.getFunctionsRequired(pairFunctionStr.substring(2));
+		}
+
+		// get window condition (WHEN...)
+		SQLWindowCondition whereClause = null;
+		if (whereStr != null) {
+			RioDB.rio.getSystemSettings().getLogger().trace("\tWHEN: " + whereStr);
+			whereClause = SQLWindowConditionOperations.getWindowCondition(whereStr, streamId);
+		}
+
+		if (SQLParser.getWindowPartitionFieldId(stmt) != -1) {
+			throw new ExceptionSQLStatement("Multi-field windows cannot be partitioned.");
+		}
+
+		// range of quantity, or time in seconds by clock or timestamp
+		String rangeStr = SQLParser.getWindowRangeStr(stmt);
+		if (rangeStr == null) {
+			throw new ExceptionSQLStatement("Range is required, and must be a positive intenger.");
+		}
+		boolean rangeByTime = false;
+		boolean rangeByTimeIsTimestamp = false;
+		int windowRange;
+		String words[] = rangeStr.split(" ");
+		if (words.length == 1 && SQLParser.isNumber(words[0])) {
+			windowRange = Integer.valueOf(words[0]);
+		} else {
+			rangeByTime = true;
+			int w = 0;
+			if (words[0].equals("timestamp")) {
+				rangeByTimeIsTimestamp = true;
+				if (RioDB.rio.getEngine().getStream(streamId).getDef().getTimestampNumericFieldId() == -1) {
+					throw new ExceptionSQLStatement("Stream '" + RioDB.rio.getEngine().getStream(streamId).getName()
+							+ "' does not have a timestamp field.");
+				}
+				w++;
+			} else if (words[0].equals("clock")) {
+				w++;
+			}
+			if (words.length != w + 1 || words[w].endsWith("ms")) {
+				throw new ExceptionSQLStatement(
+						"Multi-field windows use a range of quantity, or of time in seconds, like 'range 5m'");
+			}
+			windowRange = getRangeTime(words[w]);
+		}
+		if (windowRange <= 0) {
+			throw new ExceptionSQLStatement("Range is required, and must be a positive intenger.");
+		}
+
+		RioDB.rio.getSystemSettings().getLogger().trace("\tRANGE: " + windowRange);
+
+		MultiFieldWindowSource source = new MultiFieldWindowSource(windowName, streamId, fieldIds,
+				functionsRequired, pairFunctionsRequired, whereClause, rangeByTime, rangeByTimeIsTimestamp, windowRange);
+		RioDB.rio.getEngine().getStream(streamId).getWindowMgr().addMultiFieldSource(source);
+
+		for (int c = 0; c < fields.length; c++) {
+			if (source.getColumn(c) != null) {
+				WindowWrapper wrapper = new WindowWrapper(streamId, source.getColumnWindowName(c), source.getColumn(c),
+						fieldIds[c], whereClause, rangeByTime, rangeByTimeIsTimestamp, null);
+				RioDB.rio.getEngine().getStream(streamId).addWindowRef(wrapper);
+			}
+		}
+		if (source.getPair() != null) {
+			WindowWrapper wrapper = new WindowWrapper(streamId, windowName, source.getPair(), fieldIds[1], whereClause,
+					rangeByTime, rangeByTimeIsTimestamp, null);
+			RioDB.rio.getEngine().getStream(streamId).addWindowRef(wrapper);
+		}
+		RioDB.rio.getSystemSettings().getLogger().trace("\tmulti-field window created.");
+
+		if (persistStmt) {
+			if (actingUser != null && actingUser.equals("SYSTEM")) {
+				RioDB.rio.getSystemSettings().getPersistedStatements().loadWindowStmt(windowName, stmt);
+			} else {
+				RioDB.rio.getSystemSettings().getPersistedStatements().saveNewWindowStmt(windowName, stmt);
+			}
+		}
+
+		return "Created window " + windowName;
+	}
+
 	public static final String dropWindow(String stmt) throws ExceptionSQLStatement {
 
 		String newStmt = SQLStreamOperations.formatSQL(stmt);
@@ -311,10 +806,39 @@ public final class SQLWindowOperations {
 				throw new ExceptionSQLStatement("Window not found.");
 			}
 
-			int windowId = RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindowId(windowName);
+			WindowManager windowMgr = RioDB.rio.getEngine().getStream(streamId).getWindowMgr();
+			MultiFieldWindowSource multiFieldSource = windowMgr.getMultiFieldSource(windowName);
+
+			if (multiFieldSource != null) {
+				// queries use the windows of the columns, and of the pair
+				for (int c = 0; c < multiFieldSource.getColumnCount(); c++) {
+					if (multiFieldSource.getColumn(c) == null) {
+						continue;
+					}
+					int windowId = windowMgr.getWindowId(multiFieldSource.getColumnWindowName(c));
+					if (RioDB.rio.getEngine().hasQueryDependantOnWindow(streamId, windowId)) {
+						throw new ExceptionSQLStatement("There are queries using window '"
+								+ multiFieldSource.getColumnWindowName(c) + "'. Drop the queries first.");
+					}
+				}
+				if (multiFieldSource.getPair() != null && RioDB.rio.getEngine().hasQueryDependantOnWindow(streamId,
+						windowMgr.getWindowId(windowName))) {
+					throw new ExceptionSQLStatement("There are queries using this window. Drop the queries first.");
+				}
+			} else {
+				int windowId = windowMgr.getWindowId(windowName);
 
-			if (RioDB.rio.getEngine().hasQueryDependantOnWindow(streamId, windowId)) {
-				throw new ExceptionSQLStatement("There are queries using this window. Drop the queries first.");
+				if (RioDB.rio.getEngine().hasQueryDependantOnWindow(streamId, windowId)) {
+					throw new ExceptionSQLStatement("There are queries using this window. Drop the queries first.");
+				}
+
+				if (windowMgr.getWindow(windowName) != null
+						&& windowMgr.getWindow(windowName).getMultiFieldSource() != null) {
+					throw new ExceptionSQLStatement("Window '" + windowName + "' is a column of multi-field window '"
+							+ windowMgr.getWindow(windowName).getMultiFieldSource().getWindowName()
+							+ "'. Drop '" + windowMgr.getWindow(windowName).getMultiFieldSource().getWindowName()
+							+ "' instead.");
+				}
 			}
 
 			RioDB.rio.getEngine().getStream(streamId).dropWindow(windowName);
@@ -328,7 +852,113 @@ public final class SQLWindowOperations {
 
 	}
 
+	// add functions to a window, like 'ALTER WINDOW window_name ADD RUNNING median, mode;'
+	// The window is rebuilt with the elements it has, so the new functions don't start empty.
+	public static final String alterWindow(String stmt) throws ExceptionSQLStatement {
+
+		String newStmt = SQLStreamOperations.formatSQL(stmt);
+
+		String words[] = newStmt.split(" ");
+		if (words.length >= 6 && words[0].equals("alter") && words[1].equals("window") && words[3].equals("add")
+				&& words[4].equals("running")) {
+
+			String windowName = words[2];
+			String functionStr = newStmt.substring(newStmt.indexOf(" running ") + 9).replace(";", "").trim();
+
+			int streamId = RioDB.rio.getEngine().getStreamIdOfWindow(windowName);
+			if (streamId == -1) {
+				throw new ExceptionSQLStatement("Window not found.");
+			}
+
+			WindowManager windowMgr = RioDB.rio.getEngine().getStream(streamId).getWindowMgr();
+			WindowWrapper wrapper = windowMgr.getWindow(windowName);
+			if (wrapper == null) {
+				throw new ExceptionSQLStatement("ALTER WINDOW is only supported for windows of numbers.");
+			}
+			if (wrapper instanceof WindowWrapperPartitioned || wrapper.getMultiFieldSource() != null
+					|| wrapper.getSharedSource() != null) {
+				throw new ExceptionSQLStatement(
+						"ALTER WINDOW is not supported for partitioned, multi-field or shared windows. Create a new window instead.");
+			}
+			if (wrapper.isAlterInProgress()) {
+				throw new ExceptionSQLStatement("Window " + windowName + " is still being rebuilt. Try again later.");
+			}
+			if (functionStr.contains("all") || functionStr.contains("topk") || functionStr.contains("histogram")) {
+				throw new ExceptionSQLStatement("ALTER WINDOW does not add ALL, TOPK or HISTOGRAM.");
+			}
+
+			boolean added[] = SQLAggregateFunctions.getFunctionsRequired(functionStr);
+			boolean functionsRequired[] = new boolean[added.length];
+			String addedStr = "";
+			for (int i = 0; i < added.length; i++) {
+				functionsRequired[i] = wrapper.windowRequiresFunction(i);
+				if (added[i] && !functionsRequired[i]) {
+					if (SQLAggregateFunctions.isPairFunction(SQLAggregateFunctions.getFunction(i))) {
+						throw new ExceptionSQLStatement("Function '" + SQLAggregateFunctions.getFunction(i)
+								+ "' requires a multi-field window of two fields, like 'from s.x, s.y'");
+					}
+					functionsRequired[i] = true;
+					addedStr += (addedStr.length() > 0 ? ", " : "") + SQLAggregateFunctions.getFunction(i);
+				}
+			}
+			if (addedStr.length() == 0) {
+				return "Window " + windowName + " already runs " + functionStr + ".";
+			}
+			// windows that only keep a summary don't have the elements to rebuild from.
+			if (!wrapper.canAddFunctions()) {
+				throw new ExceptionSQLStatement("Window " + windowName
+						+ " does not keep its elements, so functions can't be added. Create a new window instead.");
+			}
+
+			wrapper.requestAddFunctions(functionsRequired);
+
+			// persist the functions added (so the window runs them after reboot)
+			String windowStmt = RioDB.rio.getSystemSettings().getPersistedStatements().getWindowStmt(windowName);
+			if (windowStmt != null && windowStmt.contains(" running ")) {
+				int r = windowStmt.indexOf(" running ") + 9;
+				windowStmt = windowStmt.substring(0, r) + addedStr + ", " + windowStmt.substring(r);
+				RioDB.rio.getSystemSettings().getPersistedStatements().saveNewWindowStmt(windowName, windowStmt);
+			}
+
+			return "Window " + windowName + " is being rebuilt with " + addedStr
+					+ ". The new functions read as empty until the rebuild is done.";
+
+		}
+		throw new ExceptionSQLStatement("Statement error. Try 'ALTER WINDOW window_name ADD RUNNING function_name;");
+
+	}
+
 	// describe a window
+	// top N partitions of a ranked window, like 'TOP 10 WINDOW window_name;'
+	public static final String topPartitions(String stmt) throws ExceptionSQLStatement {
+
+		String newStmt = SQLStreamOperations.formatSQL(stmt);
+
+		String words[] = newStmt.split(" ");
+
+		if (words.length >= 4 && words[0].equals("top") && SQLParser.isNumber(words[1])
+				&& words[2].equals("window") && words[3].length() > 0) {
+
+			String windowName = words[3].replace(";", "").trim();
+			int n = (int) Double.parseDouble(words[1]);
+
+			int streamId = RioDB.rio.getEngine().getStreamIdOfWindow(windowName);
+			if (streamId == -1) {
+				throw new ExceptionSQLStatement("Window not found.");
+			}
+			WindowWrapper wrapper = RioDB.rio.getEngine().getStream(streamId).getWindowMgr().getWindow(windowName);
+			if (!(wrapper instanceof WindowWrapperPartitioned)
+					|| !((WindowWrapperPartitioned) wrapper).hasPartitionRanking()) {
+				throw new ExceptionSQLStatement(
+						"TOP requires a partitioned window with a ranking, like 'partition by device rank by sum'");
+			}
+			return ((WindowWrapperPartitioned) wrapper).describeTopPartitions(n);
+
+		}
+		throw new ExceptionSQLStatement("Statement error. Try 'TOP 10 WINDOW window_name;");
+
+	}
+
 	public static final String describeWindow(String stmt) throws ExceptionSQLStatement {
 
 		String newStmt = SQLStreamOperations.formatSQL(stmt);
@@ -355,7 +985,19 @@ public final class SQLWindowOperations {
 
 	
 	
-	private static int getRangeTime(String rangeStr) throws ExceptionSQLStatement {
+	// get range in milliseconds, like 250ms, or 5s
+	private static long getRangeMillis(String rangeStr) throws ExceptionSQLStatement {
+		if (rangeStr.endsWith("ms")) {
+			String numberInRangeStr = rangeStr.substring(0, rangeStr.length() - 2);
+			if (SQLParser.isNumber(numberInRangeStr)) {
+				return Long.valueOf(numberInRangeStr);
+			}
+			throw new ExceptionSQLStatement("could not find number in '" + rangeStr + "'");
+		}
+		return getRangeTime(rangeStr) * 1000L;
+	}
+
+	static int getRangeTime(String rangeStr) throws ExceptionSQLStatement {
 		int windowRange;
 		if (rangeStr.charAt(rangeStr.length() - 1) == 's' || rangeStr.charAt(rangeStr.length() - 1) == 'm'
 				|| rangeStr.charAt(rangeStr.length() - 1) == 'h' || rangeStr.charAt(rangeStr.length() - 1) == 'd') {
@@ -20,6 +20,8 @@
 
 package org.riodb.sql;
 
+import java.util.ArrayList;
+
 import org.mdkt.compiler.InMemoryJavaCompiler;
 import org.riodb.engine.RioDB;
 
@@ -30,12 +32,17 @@ public class SQLWindowSourceExpression {
 	private String expression;
 	private SQLWindowSourceCompiled compiledSource;
 	private boolean requiresPrevious;
+	private final SQLStringLIKE likeArr[];
+	private final ArrayList<SQLStringREGEXP> regexpList;
+	private int references;
 	
-	SQLWindowSourceExpression(String expression, int streamId, String originalExpression, String stringOrNumber, boolean requiresPrevious,SQLStringLIKE[] likeArr, SQLStringIN[] inArr) 
+	SQLWindowSourceExpression(String expression, int streamId, String originalExpression, String stringOrNumber, boolean requiresPrevious,SQLStringLIKE[] likeArr, SQLStringIN[] inArr, ArrayList<SQLStringREGEXP> regexpList) 
 			throws ExceptionSQLStatement {
 
 		this.expression = originalExpression;
 		this.requiresPrevious = requiresPrevious;
+		this.likeArr = likeArr;
+		this.regexpList = regexpList;
 		
 		String stringExpression = "null";
 		String numberExpression = "Double.NaN";
@@ -174,6 +181,24 @@ public class SQLWindowSourceExpression {
 		return compiledSource.getNumber(message, previousMessage);
 	}
 
+	// windows and window sources holding the expression. Its LIKE and REGEXP
+	// patterns are released with the last one.
+	public synchronized void retain() {
+		references++;
+	}
+
+	public synchronized void release() {
+		if (references > 0) {
+			references--;
+		}
+		if (references == 0) {
+			for (SQLStringLIKE like : likeArr) {
+				like.release();
+			}
+			SQLStringREGEXP.release(regexpList);
+		}
+	}
+
 	public String getExpression() {
 		return expression;
 	}
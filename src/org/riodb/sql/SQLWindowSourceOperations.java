@@ -60,6 +60,7 @@ final public class SQLWindowSourceOperations {
 		// ArrayLists of StringLike and StringIn objects if needed
 		ArrayList<SQLStringLIKE> likeList = new ArrayList<SQLStringLIKE>();
 		ArrayList<SQLStringIN> inList = new ArrayList<SQLStringIN>();
+		ArrayList<SQLStringREGEXP> regexpList = new ArrayList<SQLStringREGEXP>();
 
 		// get the list of all required Windows for this query condition
 		TreeSet<Integer> requiredWindows = new TreeSet<Integer>();
@@ -67,17 +68,23 @@ final public class SQLWindowSourceOperations {
 		// Not used, but we can share same procedure for JavaGenerator
 		SQLQueryResources queryResources = null;
 		
-		String javaExpression = JavaGenerator.convertSqlToJava(sqlExpression, queryResources, drivingStreamId, likeList, inList, requiredWindows);
-		
-		
-		RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
-		
-		SQLStringLIKE[] likeArr = new SQLStringLIKE[likeList.size()];
-		likeArr = likeList.toArray(likeArr);
+		try {
+			String javaExpression = JavaGenerator.convertSqlToJava(sqlExpression, queryResources, drivingStreamId, likeList, inList, regexpList, requiredWindows);
+			
+			RioDB.rio.getSystemSettings().getLogger().trace("\tcompiled: " + javaExpression);
+			
+			SQLStringLIKE[] likeArr = new SQLStringLIKE[likeList.size()];
+			likeArr = likeList.toArray(likeArr);
 
-		SQLStringIN[] inArr = new SQLStringIN[inList.size()];
-		inArr = inList.toArray(inArr);
+			SQLStringIN[] inArr = new SQLStringIN[inList.size()];
+			inArr = inList.toArray(inArr);
 
-		return new SQLWindowSourceExpression(javaExpression, drivingStreamId, fromStr, stringOrNumber, requiresPrevious, likeArr, inArr);
+			return new SQLWindowSourceExpression(javaExpression, drivingStreamId, fromStr, stringOrNumber, requiresPrevious, likeArr, inArr, regexpList);
+		} catch (ExceptionSQLStatement e) {
+			// LIKE and REGEXP patterns of a failed expression are released
+			SQLStringLIKE.release(likeList);
+			SQLStringREGEXP.release(regexpList);
+			throw e;
+		}
 	}	
 }
@@ -31,6 +31,9 @@ public class CircularArray {
 
 	// array
 	private double[] buffer;
+	// or, for very large arrays, an off-heap array
+	private OffHeapDoubleArray offHeapBuffer;
+	private int length;
 	// index of the element where the circular array begins
 	private int marker;
 	// flag if the array is full, or n has been received.
@@ -38,7 +41,12 @@ public class CircularArray {
 
 	// constructor
 	CircularArray(int size) {
-		buffer = new double[size];
+		length = size;
+		if (OffHeapDoubleArray.isOffHeap(size)) {
+			offHeapBuffer = new OffHeapDoubleArray(size);
+		} else {
+			buffer = new double[size];
+		}
 		marker = 0;
 		full = false;
 	}
@@ -90,9 +98,13 @@ public class CircularArray {
 	// put element into ring buffer
 	public void put(double d) {
 
-		buffer[marker] = d;
+		if (offHeapBuffer != null) {
+			offHeapBuffer.set(marker, d);
+		} else {
+			buffer[marker] = d;
+		}
 		marker++;
-		if (marker == buffer.length) {
+		if (marker == length) {
 			marker = 0;
 			full = true;
 		}
@@ -103,23 +115,63 @@ public class CircularArray {
 	public double putAndPop(double d) {
 
 		// swaps array entry old for new, at marker
-		double ret = buffer[marker];
-		buffer[marker] = d;
+		double ret;
+		if (offHeapBuffer != null) {
+			ret = offHeapBuffer.get(marker);
+			offHeapBuffer.set(marker, d);
+		} else {
+			ret = buffer[marker];
+			buffer[marker] = d;
+		}
 		marker++;
 		// if marker exceeds array, return to 0
-		if (marker == buffer.length) {
+		if (marker == length) {
 			marker = 0;
 		}
 		return ret;
 
 	}
 	
+	// copy elements into a log, oldest first
+	public void copyTo(ElementLog log, int second) {
+		if (isFull()) {
+			for (int i = marker; i < length; i++) {
+				log.add(get(i), second);
+			}
+		}
+		for (int i = 0; i < marker; i++) {
+			log.add(get(i), second);
+		}
+	}
+
+	private double get(int index) {
+		if (offHeapBuffer != null) {
+			return offHeapBuffer.get(index);
+		}
+		return buffer[index];
+	}
+
 	// get queueSize -- elements waiting
 	public int size() {
 		if (isFull()) {
-			return buffer.length;
+			return length;
 		}
 		return marker;
 	}
 
+	// off-heap bytes used by this array
+	public long getOffHeapBytes() {
+		if (offHeapBuffer != null) {
+			return offHeapBuffer.getBytes();
+		}
+		return 0;
+	}
+
+	// free off-heap memory
+	public void free() {
+		if (offHeapBuffer != null) {
+			offHeapBuffer.free();
+		}
+	}
+
 }
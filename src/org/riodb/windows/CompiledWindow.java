@@ -0,0 +1,233 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    CompiledWindow is the base class for window classes generated at runtime
+ *    by the WindowClassGenerator.
+ *
+ *    Generated classes are loaded by their own class loader, so they can only
+ *    reach public and protected members. This base class holds the state that
+ *    is common to every generated window, and the bits of WindowSummary that
+ *    are package-private.
+ *
+ *    Everything that depends on the required functions (node arrays, addTrimmed
+ *    and eviction code) is left to the generated subclass.
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.sql.SQLAggregateFunctions;
+
+public abstract class CompiledWindow implements Window {
+
+	// the window summary, updated by the generated subclass
+	protected WindowSummary windowSummary;
+
+	// the window range in seconds
+	protected int rangeStart;
+
+	// partitionExpiration - to expire stale partitions.
+	protected int partitionExpiration;
+	protected int lastEntryTime;
+
+	protected boolean functionsRequired[];
+
+	// sliding aggregations for MAX and MIN, one entry per node. null if not required.
+	// A node that gets elements after it was flipped to the front stack takes another entry.
+	protected SlidingAggregation slidingMax;
+	protected SlidingAggregation slidingMin;
+
+	// constructor
+	protected CompiledWindow(int rangeStart, boolean[] functionsRequired, int partitionExpiration) {
+		this.rangeStart = rangeStart;
+		this.functionsRequired = functionsRequired;
+		this.partitionExpiration = partitionExpiration;
+		this.windowSummary = new WindowSummary();
+		if (functionsRequired[SQLAggregateFunctions.getFunctionId("max")]) {
+			slidingMax = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("max")));
+		}
+		if (functionsRequired[SQLAggregateFunctions.getFunctionId("min")]) {
+			slidingMin = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("min")));
+		}
+	}
+
+	// adds element to the window. Expired elements were already trimmed.
+	protected abstract void addTrimmed(double element, int currentSecond);
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		addTrimmed(element, currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	// adds a batch of elements. Eviction runs once per second in the batch,
+	// and the summary is only copied at the end, or per element if requested.
+	@Override
+	public WindowSummary trimAddBatch(double[] elements, int[] seconds, int count, WindowSummaryInterface[] summaries) {
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || seconds[i] != seconds[i - 1]) {
+				trimExpiredWindowElements(seconds[i]);
+			}
+			addTrimmed(elements[i], seconds[i]);
+			if (summaries != null) {
+				summaries[i] = getWindowSummaryCopy();
+			}
+		}
+		return getWindowSummaryCopy();
+	}
+
+	// replaces the summary with a new empty summary, optionally keeping previous.
+	protected void resetSummary(boolean keepPrevious) {
+		WindowSummary newEmptyWindow = new WindowSummary();
+		if (keepPrevious) {
+			newEmptyWindow.setPrevious(windowSummary.getPrevious());
+		}
+		windowSummary = newEmptyWindow;
+	}
+
+	// adds the element of a new node to the sliding aggregations.
+	protected void slidingPush(double element) {
+		if (slidingMax != null) {
+			slidingMax.push(element);
+		}
+		if (slidingMin != null) {
+			slidingMin.push(element);
+		}
+	}
+
+	// adds an element to the newest node. Returns the stack entries it added to the node (0 or 1).
+	// Both aggregations push and pop together, so they always take the same entries.
+	protected int slidingAddToNewest(double element) {
+		int entries = 0;
+		if (slidingMax != null && !slidingMax.combineNewest(element)) {
+			slidingMax.push(element);
+			entries = 1;
+		}
+		if (slidingMin != null && !slidingMin.combineNewest(element)) {
+			slidingMin.push(element);
+			entries = 1;
+		}
+		return entries;
+	}
+
+	// removes the stack entries of the oldest node.
+	protected void slidingPop(int entries) {
+		for (int i = 0; i < entries; i++) {
+			if (slidingMax != null) {
+				slidingMax.pop();
+			}
+			if (slidingMin != null) {
+				slidingMin.pop();
+			}
+		}
+	}
+
+	protected void slidingClear() {
+		if (slidingMax != null) {
+			slidingMax.clear();
+		}
+		if (slidingMin != null) {
+			slidingMin.clear();
+		}
+	}
+
+	// copies a ring of ints into a larger array, starting from the head.
+	protected static int[] regrow(int[] ring, int head, int size, int capacity) {
+		int[] newRing = new int[capacity];
+		for (int i = 0; i < size; i++) {
+			newRing[i] = ring[(head + i) % ring.length];
+		}
+		return newRing;
+	}
+
+	// copies a ring of doubles into a larger array, starting from the head.
+	protected static double[] regrow(double[] ring, int head, int size, int capacity) {
+		double[] newRing = new double[capacity];
+		for (int i = 0; i < size; i++) {
+			newRing[i] = ring[(head + i) % ring.length];
+		}
+		return newRing;
+	}
+
+	@Override
+	public int getWindowCount() {
+		return windowSummary.getCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return windowSummary.getLast();
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		return new WindowSummary(windowSummary);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return windowSummary.isEmpty();
+	}
+
+	@Override
+	public boolean isFull() {
+		return windowSummary.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		System.out.println(getClass().getSimpleName() + "\n" + windowSummary.getAll());
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return String.valueOf(rangeStart);
+	}
+
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond - lastEntryTime > Window.GRACE_PERIOD) {
+			return true;
+		}
+		return false;
+	}
+
+}
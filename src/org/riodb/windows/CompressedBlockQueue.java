@@ -0,0 +1,370 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    CompressedBlockQueue is a ValueQueue that stores elements compressed.
+ *
+ *    A window of time with Median, Mode, Slope, etc. keeps every element, as a
+ *    ValueWithTimestamp object of about 32 bytes, plus a reference in the deque.
+ *    For long windows over regular metrics that's a lot of memory.
+ *
+ *    Here, elements are encoded into blocks of bits:
+ *      - Timestamps are stored as delta-of-delta. Regular intervals cost 1 bit.
+ *      - Values are XOR'ed with the previous value. Repeated values cost 1 bit,
+ *        and similar values only store the bits in between the leading and
+ *        trailing zeros of the XOR.
+ *
+ *    New elements are appended to the newest (open) block. Once it has BLOCK_SIZE
+ *    elements, it's sealed (trimmed to size) and a new block is opened.
+ *    Elements are polled from the oldest block, by decoding one element at a time.
+ *    Once all elements of a block are polled, the whole block is dropped.
+ *
+ *    The window aggregates are still maintained incrementally. Elements are only
+ *    decoded when evicted, or when the window needs to go through all elements.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class CompressedBlockQueue implements ValueQueue {
+
+	// elements per block
+	public static final int BLOCK_SIZE = 1024;
+
+	// A block of encoded elements.
+	private static final class Block {
+		private long words[] = new long[8];
+		private int bitCount;
+		private int count;
+		private Block next;
+
+		// encoder state
+		private long lastBits;
+		private int lastSecond;
+		private long lastDelta;
+		private int lastLeading = -1;
+		private int lastTrailing;
+
+		// write the lowest 'bits' bits of value
+		private void writeBits(long value, int bits) {
+			while (bits > 0) {
+				int wordIndex = bitCount >>> 6;
+				if (wordIndex == words.length) {
+					words = Arrays.copyOf(words, words.length * 2);
+				}
+				int free = 64 - (bitCount & 63);
+				int n = free < bits ? free : bits;
+				long chunk = (value >>> (bits - n)) & (n == 64 ? -1L : (1L << n) - 1);
+				words[wordIndex] |= chunk << (free - n);
+				bitCount += n;
+				bits -= n;
+			}
+		}
+
+		private void append(double value, int second) {
+			long bits = Double.doubleToRawLongBits(value);
+			if (count == 0) {
+				writeBits(second, 32);
+				writeBits(bits, 64);
+			} else {
+				// timestamp: delta of delta
+				long delta = (long) second - lastSecond;
+				long deltaOfDelta = delta - lastDelta;
+				if (deltaOfDelta == 0) {
+					writeBits(0, 1);
+				} else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+					writeBits(0b10, 2);
+					writeBits(deltaOfDelta + 63, 7);
+				} else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+					writeBits(0b110, 3);
+					writeBits(deltaOfDelta + 255, 9);
+				} else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+					writeBits(0b1110, 4);
+					writeBits(deltaOfDelta + 2047, 12);
+				} else {
+					writeBits(0b1111, 4);
+					writeBits(deltaOfDelta, 64);
+				}
+				lastDelta = delta;
+
+				// value: XOR with previous value
+				long xor = bits ^ lastBits;
+				if (xor == 0) {
+					writeBits(0, 1);
+				} else {
+					int leading = Long.numberOfLeadingZeros(xor);
+					int trailing = Long.numberOfTrailingZeros(xor);
+					if (leading > 31) {
+						leading = 31;
+					}
+					if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+						// meaningful bits fit in the previous window
+						writeBits(0b10, 2);
+						writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+					} else {
+						int length = 64 - leading - trailing;
+						writeBits(0b11, 2);
+						writeBits(leading, 5);
+						writeBits(length - 1, 6);
+						writeBits(xor >>> trailing, length);
+						lastLeading = leading;
+						lastTrailing = trailing;
+					}
+				}
+			}
+			lastBits = bits;
+			lastSecond = second;
+			count++;
+		}
+
+		// trim the block to size. No more elements will be appended.
+		private void seal() {
+			words = Arrays.copyOf(words, (bitCount + 63) >>> 6);
+		}
+	}
+
+	// Reads elements of a block, one at a time.
+	private static final class Decoder {
+		private Block block;
+		private int bitPosition;
+		private int index;
+
+		// decoder state. Also the current element.
+		private long bits;
+		private int second;
+		private long delta;
+		private int leading;
+		private int trailing;
+
+		private Decoder(Block block) {
+			this.block = block;
+		}
+
+		private Decoder(Decoder source) {
+			this.block = source.block;
+			this.bitPosition = source.bitPosition;
+			this.index = source.index;
+			this.bits = source.bits;
+			this.second = source.second;
+			this.delta = source.delta;
+			this.leading = source.leading;
+			this.trailing = source.trailing;
+		}
+
+		private long readBits(int n) {
+			long result = 0;
+			while (n > 0) {
+				long word = block.words[bitPosition >>> 6];
+				int available = 64 - (bitPosition & 63);
+				int r = available < n ? available : n;
+				long chunk = (word >>> (available - r)) & (r == 64 ? -1L : (1L << r) - 1);
+				result = r == 64 ? chunk : (result << r) | chunk;
+				bitPosition += r;
+				n -= r;
+			}
+			return result;
+		}
+
+		// if the block has more elements to read
+		private boolean hasNext() {
+			return index < block.count;
+		}
+
+		// decode the next element
+		private void next() {
+			if (index == 0) {
+				second = (int) readBits(32);
+				bits = readBits(64);
+			} else {
+				long deltaOfDelta;
+				if (readBits(1) == 0) {
+					deltaOfDelta = 0;
+				} else if (readBits(1) == 0) {
+					deltaOfDelta = readBits(7) - 63;
+				} else if (readBits(1) == 0) {
+					deltaOfDelta = readBits(9) - 255;
+				} else if (readBits(1) == 0) {
+					deltaOfDelta = readBits(12) - 2047;
+				} else {
+					deltaOfDelta = readBits(64);
+				}
+				delta = delta + deltaOfDelta;
+				second = (int) (second + delta);
+
+				if (readBits(1) == 1) {
+					if (readBits(1) == 1) {
+						leading = (int) readBits(5);
+						int length = (int) readBits(6) + 1;
+						trailing = 64 - leading - length;
+					}
+					bits = bits ^ (readBits(64 - leading - trailing) << trailing);
+				}
+			}
+			index++;
+		}
+
+		private ValueWithTimestamp getElement() {
+			return new ValueWithTimestamp(Double.longBitsToDouble(bits), second);
+		}
+	}
+
+	// oldest block, and newest (open) block
+	private Block oldest;
+	private Block newest;
+
+	// reads the oldest block. Positioned at the oldest element.
+	private Decoder decoder;
+	private ValueWithTimestamp first;
+
+	// the newest element
+	private ValueWithTimestamp last;
+
+	private int size;
+
+	// constructor
+	public CompressedBlockQueue() {
+	}
+
+	@Override
+	public boolean add(ValueWithTimestamp element) {
+		if (newest == null) {
+			newest = new Block();
+			oldest = newest;
+		} else if (newest.count == BLOCK_SIZE) {
+			newest.seal();
+			newest.next = new Block();
+			newest = newest.next;
+		}
+		newest.append(element.doubleValue(), element.getSecond());
+		last = element;
+		size++;
+		if (size == 1) {
+			first = element;
+		}
+		return true;
+	}
+
+	@Override
+	public ValueWithTimestamp poll() {
+		if (size == 0) {
+			return null;
+		}
+		ValueWithTimestamp element = peekFirst();
+		size--;
+		first = null;
+		if (size == 0) {
+			// all read. start over with an empty block.
+			oldest = null;
+			newest = null;
+			decoder = null;
+			last = null;
+		} else if (!decoder.hasNext()) {
+			// oldest block all read. drop it.
+			oldest = oldest.next;
+			decoder = null;
+		}
+		return element;
+	}
+
+	@Override
+	public ValueWithTimestamp peekFirst() {
+		if (size == 0) {
+			return null;
+		}
+		if (first == null) {
+			if (decoder == null) {
+				decoder = new Decoder(oldest);
+			}
+			decoder.next();
+			first = decoder.getElement();
+		} else if (decoder == null) {
+			// first element of a new block was added, and not decoded yet.
+			decoder = new Decoder(oldest);
+			decoder.next();
+		}
+		return first;
+	}
+
+	@Override
+	public ValueWithTimestamp peekLast() {
+		return last;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// bytes used by encoded blocks
+	public long getEncodedBytes() {
+		long bytes = 0;
+		for (Block b = oldest; b != null; b = b.next) {
+			bytes = bytes + b.words.length * 8L;
+		}
+		return bytes;
+	}
+
+	// iterates from oldest to newest.
+	// The queue can be polled while iterating, as long as it's polled behind the iterator.
+	@Override
+	public Iterator<ValueWithTimestamp> iterator() {
+		peekFirst();
+		final int total = size;
+		final Decoder start = decoder == null ? null : new Decoder(decoder);
+		final ValueWithTimestamp firstElement = first;
+
+		return new Iterator<ValueWithTimestamp>() {
+			private int returned = 0;
+			private Decoder d = start;
+
+			@Override
+			public boolean hasNext() {
+				return returned < total;
+			}
+
+			@Override
+			public ValueWithTimestamp next() {
+				if (returned >= total) {
+					throw new NoSuchElementException();
+				}
+				returned++;
+				if (returned == 1) {
+					return firstElement;
+				}
+				if (!d.hasNext()) {
+					d = new Decoder(d.block.next);
+				}
+				d.next();
+				return d.getElement();
+			}
+		};
+	}
+
+}
@@ -65,6 +65,11 @@ public class Counter {
 	public void increment() {
 		n++;
 	}
+
+	// add y to n
+	public void add(int y) {
+		n += y;
+	}
 	
 	// check if n equals int
 	public boolean isEQ(int y) {
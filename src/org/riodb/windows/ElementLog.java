@@ -0,0 +1,120 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    A log of elements with their seconds, in primitive arrays.
+ *
+ *    Used to rebuild a window with more functions (ALTER WINDOW ... ADD RUNNING).
+ *    A window copies its stored elements into a log, oldest first, and the log
+ *    is replayed into a new window. Trims can be logged too, so that what
+ *    happened to a window while it was being rebuilt can be replayed after.
+ *
+ */
+
+package org.riodb.windows;
+
+public class ElementLog {
+
+	private double elements[];
+	private int seconds[];
+	// if the entry is a trim, and not an element
+	private boolean trims[];
+	private int size;
+
+	public ElementLog(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		elements = new double[capacity];
+		seconds = new int[capacity];
+		trims = new boolean[capacity];
+		size = 0;
+	}
+
+	// log an element added at second
+	public void add(double element, int second) {
+		if (size == elements.length) {
+			grow();
+		}
+		elements[size] = element;
+		seconds[size] = second;
+		trims[size] = false;
+		size++;
+	}
+
+	// log a trim at second
+	public void addTrim(int second) {
+		if (size == elements.length) {
+			grow();
+		}
+		seconds[size] = second;
+		trims[size] = true;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	// replay all entries into a window, in order
+	public void replay(Window window) {
+		int i = 0;
+		while (i < size) {
+			if (trims[i]) {
+				window.trimExpiredWindowElements(seconds[i]);
+				i++;
+			} else {
+				// consecutive elements are added as a batch
+				int batchEnd = i;
+				while (batchEnd < size && !trims[batchEnd]) {
+					batchEnd++;
+				}
+				if (i == 0 && batchEnd == size) {
+					window.trimAddBatch(elements, seconds, size, null);
+				} else {
+					int count = batchEnd - i;
+					double batchElements[] = new double[count];
+					int batchSeconds[] = new int[count];
+					System.arraycopy(elements, i, batchElements, 0, count);
+					System.arraycopy(seconds, i, batchSeconds, 0, count);
+					window.trimAddBatch(batchElements, batchSeconds, count, null);
+				}
+				i = batchEnd;
+			}
+		}
+	}
+
+	private void grow() {
+		int capacity = elements.length * 2;
+		double newElements[] = new double[capacity];
+		int newSeconds[] = new int[capacity];
+		boolean newTrims[] = new boolean[capacity];
+		System.arraycopy(elements, 0, newElements, 0, size);
+		System.arraycopy(seconds, 0, newSeconds, 0, size);
+		System.arraycopy(trims, 0, newTrims, 0, size);
+		elements = newElements;
+		seconds = newSeconds;
+		trims = newTrims;
+	}
+
+}
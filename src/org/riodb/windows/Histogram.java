@@ -0,0 +1,184 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    Histogram counts the elements of a window in buckets, for the HISTOGRAM function.
+ *    Like latency distributions for SLO dashboards.
+ *
+ *    Buckets are defined by ascending upper bounds. An element goes to the first
+ *    bucket with a bound >= element. Elements above the last bound go to an
+ *    overflow bucket (inf).
+ *
+ *    Bounds are either defined by the user, like histogram(10, 50, 100, 500),
+ *    or log scaled, like histogram(log). Log bounds are powers of 2, each split
+ *    in 4 linear sub-buckets (1, 1.25, 1.5, 1.75, 2, 2.5, 3, ...), so any
+ *    positive value is in a bucket within 25% of its bound.
+ *
+ *    Counts are a primitive array, incremented when an element enters the window
+ *    and decremented when it's evicted.
+ *
+ */
+
+package org.riodb.windows;
+
+public class Histogram {
+
+	// max count of user-defined bounds
+	public static final int MAX_BOUNDS = 1000;
+
+	// log scale: powers of 2 from 2^-10 to 2^40, with sub-buckets per power
+	private static final int LOG_MIN_EXPONENT = -10;
+	private static final int LOG_MAX_EXPONENT = 40;
+	private static final int LOG_SUB_BUCKETS = 4;
+
+	private static final double[] LOG_BOUNDS = makeLogBounds();
+
+	// upper bounds, ascending. Shared by clones.
+	private final double[] bounds;
+	// if log scaled. Empty buckets are omitted from the result.
+	private final boolean logScale;
+	// one counter per bound, plus overflow
+	private final int[] counts;
+
+	// constructor for user-defined bounds
+	public Histogram(double[] bounds) {
+		this(bounds, false);
+	}
+
+	private Histogram(double[] bounds, boolean logScale) {
+		this.bounds = bounds;
+		this.logScale = logScale;
+		this.counts = new int[bounds.length + 1];
+	}
+
+	// constructor for a snapshot of the counts
+	private Histogram(Histogram source) {
+		this.bounds = source.bounds;
+		this.logScale = source.logScale;
+		this.counts = source.counts.clone();
+	}
+
+	// constructor for log scaled bounds
+	public static Histogram logScaled() {
+		return new Histogram(LOG_BOUNDS, true);
+	}
+
+	public Histogram makeEmptyClone() {
+		return new Histogram(bounds, logScale);
+	}
+
+	// a copy of the current counts, for summary copies
+	public Histogram makeCopy() {
+		return new Histogram(this);
+	}
+
+	private static double[] makeLogBounds() {
+		// first bound 0 takes zero and negative values.
+		double[] b = new double[(LOG_MAX_EXPONENT - LOG_MIN_EXPONENT) * LOG_SUB_BUCKETS + 2];
+		int i = 0;
+		b[i++] = 0;
+		for (int e = LOG_MIN_EXPONENT; e < LOG_MAX_EXPONENT; e++) {
+			double power = Math.scalb(1d, e);
+			for (int s = 0; s < LOG_SUB_BUCKETS; s++) {
+				b[i++] = power + power * s / LOG_SUB_BUCKETS;
+			}
+		}
+		b[i] = Math.scalb(1d, LOG_MAX_EXPONENT);
+		return b;
+	}
+
+	// index of the bucket of an element
+	public int bucketOf(double element) {
+		int low = 0;
+		int high = bounds.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (bounds[mid] < element) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public void add(double element) {
+		counts[bucketOf(element)]++;
+	}
+
+	public void remove(double element) {
+		counts[bucketOf(element)]--;
+	}
+
+	// add the counts of another histogram with the same bounds
+	public void addAll(Histogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+
+	public int getBucketCount(int bucket) {
+		return counts[bucket];
+	}
+
+	public int getBuckets() {
+		return counts.length;
+	}
+
+	public boolean isLogScale() {
+		return logScale;
+	}
+
+	// bucket counts by upper bound, like "10:3|50:7|100:0|inf:1"
+	public String getHistogram() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < counts.length; i++) {
+			if (logScale && counts[i] == 0) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			if (i < bounds.length) {
+				appendBound(sb, bounds[i]);
+			} else {
+				sb.append("inf");
+			}
+			sb.append(':').append(counts[i]);
+		}
+		return sb.toString();
+	}
+
+	private static void appendBound(StringBuilder sb, double bound) {
+		if (bound == Math.rint(bound) && Math.abs(bound) < 1e15) {
+			sb.append((long) bound);
+		} else {
+			sb.append(bound);
+		}
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The MultiFieldWindowSource is the storage of a multi-field window,
+ *    like 'create window pv running avg, max from s.price, s.volume range 5m;'
+ *
+ *    Instead of one window per field, each storing its own timestamps and
+ *    evicting on its own, a row is stored per message: one second, and one
+ *    value per field. The WindowManager puts each message into the source ONCE.
+ *    The condition and timestamp are evaluated once, and rows are evicted once.
+ *
+ *    Each field is a column window (WindowOfMultiFieldColumn), named like
+ *    pv_price and pv_volume, with its own aggregates. Columns are notified when
+ *    a row enters or leaves the window, and read values from the rows.
+ *    Functions of two fields, like correlation, are computed by a pair window
+ *    (WindowOfMultiFieldPair) named like the multi-field window.
+ *
+ *    Rows are stored in primitive arrays used as a ring, with sequence numbers.
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.plugin.RioDBStreamMessage;
+import org.riodb.sql.ExceptionSQLExecution;
+import org.riodb.sql.SQLWindowCondition;
+
+public class MultiFieldWindowSource {
+
+	// name of the multi-field window
+	private final String windowName;
+
+	// field name of each column
+	private final String fieldNames[];
+
+	private final int numericFieldIndexes[];
+
+	private SQLWindowCondition windowCondition;
+	private boolean hasCondition;
+
+	// range is in seconds if rangeByTime. Otherwise, a quantity of rows.
+	private final boolean rangeByTime;
+	private final boolean rangeByTimeIsTimestamp;
+	private int timestampNumericFieldId;
+	private final int range;
+
+	private boolean errorAlreadyCaught;
+
+	// rows, stored as parallel arrays. Capacity is a power of 2.
+	private int rowSecond[];
+	private double rowValues[][];
+	private int mask;
+
+	// sequence number of the oldest row in the window
+	private long headSeq;
+	// sequence number of the next row to be added
+	private long nextSeq;
+
+	// if rows were ever evicted
+	private boolean full;
+
+	// a window per column. null for a column without functions.
+	private final WindowOfMultiFieldColumn columns[];
+	// window of the first two columns, for functions of two fields. null if not required.
+	private WindowOfMultiFieldPair pair;
+
+	// constructor
+	public MultiFieldWindowSource(String windowName, int streamId, int fieldIds[], boolean functionsRequired[][],
+			boolean pairFunctionsRequired[], SQLWindowCondition windowCondition, boolean rangeByTime,
+			boolean rangeByTimeIsTimestamp, int range) {
+
+		this.windowName = windowName;
+
+		this.fieldNames = new String[fieldIds.length];
+		this.numericFieldIndexes = new int[fieldIds.length];
+		for (int i = 0; i < fieldIds.length; i++) {
+			numericFieldIndexes[i] = RioDB.rio.getEngine().getStream(streamId).getDef()
+					.getNumericFieldIndex(fieldIds[i]);
+			fieldNames[i] = RioDB.rio.getEngine().getStream(streamId).getDef()
+					.getNumericFieldName(numericFieldIndexes[i]);
+		}
+
+		this.windowCondition = windowCondition;
+		this.hasCondition = windowCondition != null;
+		if (hasCondition) {
+			windowCondition.retain();
+		}
+
+		this.rangeByTime = rangeByTime;
+		this.rangeByTimeIsTimestamp = rangeByTimeIsTimestamp;
+		if (rangeByTimeIsTimestamp) {
+			this.timestampNumericFieldId = RioDB.rio.getEngine().getStream(streamId).getDef()
+					.getTimestampNumericFieldId();
+		}
+		this.range = range;
+
+		errorAlreadyCaught = false;
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing multi-field window source");
+
+		allocate(rangeByTime ? 64 : Integer.highestOneBit(Math.max(range, 32) - 1) << 1);
+		headSeq = 0;
+		nextSeq = 0;
+		full = false;
+
+		columns = new WindowOfMultiFieldColumn[fieldIds.length];
+		for (int i = 0; i < columns.length; i++) {
+			if (functionsRequired[i] != null) {
+				columns[i] = new WindowOfMultiFieldColumn(this, i, functionsRequired[i]);
+			}
+		}
+		if (pairFunctionsRequired != null) {
+			pair = new WindowOfMultiFieldPair(this, 0, 1, pairFunctionsRequired);
+		}
+	}
+
+	public String getWindowName() {
+		return windowName;
+	}
+
+	// release the condition, when the multi-field window is dropped
+	public void releaseConditions() {
+		if (windowCondition != null) {
+			windowCondition.release();
+		}
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	// name of the window of a column, like pv_price
+	public String getColumnWindowName(int column) {
+		return windowName + "_" + fieldNames[column];
+	}
+
+	public WindowOfMultiFieldColumn getColumn(int column) {
+		return columns[column];
+	}
+
+	public WindowOfMultiFieldPair getPair() {
+		return pair;
+	}
+
+	// evaluate the message once, for all columns
+	public void putMessageRef(RioDBStreamMessage message, int currentSecond) {
+
+		try {
+			if (hasCondition && !windowCondition.match(message, null)) {
+				if (rangeByTime) {
+					trimExpiredRows(getSecond(message, currentSecond));
+				}
+				return;
+			}
+
+			int second = getSecond(message, currentSecond);
+			if (rangeByTime) {
+				trimExpiredRows(second);
+			}
+			add(message, second);
+
+		} catch (ExceptionSQLExecution e) {
+			if (!errorAlreadyCaught) {
+				RioDB.rio.getSystemSettings().getLogger()
+						.error("Window " + windowName + ": " + e.getMessage().replace("\n", " ").replace("\r", " "));
+				errorAlreadyCaught = true;
+			}
+		}
+	}
+
+	// the second of a message, from the timestamp field or the clock
+	private int getSecond(RioDBStreamMessage message, int currentSecond) {
+		if (rangeByTimeIsTimestamp) {
+			return (int) (message.getDouble(timestampNumericFieldId) / 1000d);
+		}
+		return currentSecond;
+	}
+
+	// add a row with the values of all fields
+	private void add(RioDBStreamMessage message, int second) {
+
+		if (nextSeq - headSeq == rowSecond.length) {
+			grow();
+		}
+
+		int i = (int) nextSeq & mask;
+		rowSecond[i] = second;
+		for (int c = 0; c < columns.length; c++) {
+			rowValues[c][i] = message.getDouble(numericFieldIndexes[c]);
+		}
+		long seq = nextSeq;
+		nextSeq++;
+		for (WindowOfMultiFieldColumn column : columns) {
+			if (column != null) {
+				column.rowAdded(seq);
+			}
+		}
+		if (pair != null) {
+			pair.rowAdded(seq);
+		}
+
+		// window of quantity evicts the oldest row when over range
+		if (!rangeByTime && nextSeq - headSeq > range) {
+			evictHead();
+		}
+	}
+
+	// evict rows that are expired at currentSecond
+	public void trimExpiredRows(int currentSecond) {
+		if (!rangeByTime) {
+			return;
+		}
+		int expirationTime = currentSecond - range;
+		while (headSeq < nextSeq && rowSecond[(int) headSeq & mask] <= expirationTime) {
+			evictHead();
+		}
+	}
+
+	private void evictHead() {
+		long seq = headSeq;
+		for (WindowOfMultiFieldColumn column : columns) {
+			if (column != null) {
+				column.rowEvicted(seq);
+			}
+		}
+		if (pair != null) {
+			pair.rowEvicted(seq);
+		}
+		headSeq++;
+		full = true;
+	}
+
+	// empty the window, for all columns
+	public void clear() {
+		headSeq = nextSeq;
+		full = false;
+		for (WindowOfMultiFieldColumn column : columns) {
+			if (column != null) {
+				column.clear();
+			}
+		}
+		if (pair != null) {
+			pair.clear();
+		}
+	}
+
+	// double the ring capacity, keeping sequence numbers
+	private void grow() {
+		int oldSecond[] = rowSecond;
+		double oldValues[][] = rowValues;
+		int oldMask = mask;
+
+		allocate(oldSecond.length * 2);
+		for (long seq = headSeq; seq < nextSeq; seq++) {
+			int from = (int) seq & oldMask;
+			int to = (int) seq & mask;
+			rowSecond[to] = oldSecond[from];
+			for (int c = 0; c < oldValues.length; c++) {
+				rowValues[c][to] = oldValues[c][from];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		rowSecond = new int[capacity];
+		rowValues = new double[numericFieldIndexes.length][capacity];
+		mask = capacity - 1;
+	}
+
+	// getters used by the columns. seq must be between headSeq and nextSeq.
+	protected double getValue(int column, long seq) {
+		return rowValues[column][(int) seq & mask];
+	}
+
+	protected long getHeadSeq() {
+		return headSeq;
+	}
+
+	protected long getNextSeq() {
+		return nextSeq;
+	}
+
+	protected boolean isFull() {
+		return full;
+	}
+
+	public boolean isRangeByTime() {
+		return rangeByTime;
+	}
+
+	public String getRange() {
+		if (rangeByTime) {
+			return "\"" + range + "s\"";
+		}
+		return String.valueOf(range);
+	}
+
+	// count of rows stored
+	public int getStoredRows() {
+		return (int) (nextSeq - headSeq);
+	}
+
+	public String describeWindow() {
+		String s = "{\"name\":\"" + windowName + "\",\n \"columns\":[";
+		boolean firstColumn = true;
+		for (int c = 0; c < columns.length; c++) {
+			if (columns[c] != null) {
+				s = s + (firstColumn ? "" : ",") + "\"" + getColumnWindowName(c) + "\"";
+				firstColumn = false;
+			}
+		}
+		s = s + "]";
+		if (pair != null) {
+			s = s + ",\n \"x\":\"" + fieldNames[0] + "\", \"y\":\"" + fieldNames[1] + "\", \"running\":["
+					+ pair.getAggregations() + "]";
+		}
+		s = s + ",\n \"range\": " + getRange() + ",\n \"rows\": " + getStoredRows() + "}";
+		return s;
+	}
+
+}
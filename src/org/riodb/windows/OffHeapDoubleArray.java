@@ -0,0 +1,156 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    OffHeapDoubleArray is a fixed size array of doubles stored outside of the
+ *    Java heap, in a direct ByteBuffer.
+ *
+ *    Very large windows (millions of elements) are costly on the heap. Full GCs
+ *    scan them, and the heap must be sized for them. Windows with at least
+ *    'off_heap_threshold' elements (riodb.conf) store their elements off-heap.
+ *    0 disables off-heap storage.
+ *
+ *    Off-heap memory is freed explicitly when a window is dropped or reset, or
+ *    when a partition expires. A stream thread may still be inside the window
+ *    when that happens, so freed arrays are retired first, and released by the
+ *    clock after RELEASE_DELAY_MILLIS.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.riodb.engine.RioDB;
+
+public final class OffHeapDoubleArray {
+
+	// windows with at least this many elements are stored off-heap. 0 disables.
+	private static int threshold = 1000000;
+
+	// largest array that fits in one direct ByteBuffer
+	public static final int MAX_LENGTH = Integer.MAX_VALUE / 8;
+
+	// time to wait before releasing freed memory
+	private static final long RELEASE_DELAY_MILLIS = 2000;
+
+	// bytes currently allocated off-heap, by all windows
+	private static final AtomicLong totalBytes = new AtomicLong();
+
+	// arrays freed, waiting to be released
+	private static final ConcurrentLinkedQueue<OffHeapDoubleArray> retired = new ConcurrentLinkedQueue<OffHeapDoubleArray>();
+
+	private ByteBuffer buffer;
+	private final int length;
+	private long retiredAt;
+
+	// constructor
+	public OffHeapDoubleArray(int length) {
+		this.length = length;
+		this.buffer = ByteBuffer.allocateDirect(length * 8).order(ByteOrder.nativeOrder());
+		totalBytes.addAndGet(getBytes());
+	}
+
+	// if an array of this length should be stored off-heap
+	public static boolean isOffHeap(int length) {
+		return threshold > 0 && length >= threshold && length <= MAX_LENGTH;
+	}
+
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	public static void setThreshold(int threshold) {
+		OffHeapDoubleArray.threshold = threshold;
+	}
+
+	// bytes allocated off-heap by all windows
+	public static long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	public double get(int index) {
+		return buffer.getDouble(index << 3);
+	}
+
+	public void set(int index, double value) {
+		buffer.putDouble(index << 3, value);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	// off-heap bytes used by this array
+	public long getBytes() {
+		return (long) length * 8;
+	}
+
+	// retire the array. It's released by the clock after a short delay.
+	public void free() {
+		if (retiredAt == 0) {
+			retiredAt = System.currentTimeMillis();
+			retired.add(this);
+		}
+	}
+
+	// release arrays retired before the delay. Called by the clock.
+	public static void releaseRetired(long currentMillis) {
+		OffHeapDoubleArray a = retired.peek();
+		while (a != null && currentMillis - a.retiredAt >= RELEASE_DELAY_MILLIS) {
+			retired.poll();
+			a.release();
+			a = retired.peek();
+		}
+	}
+
+	// release the direct memory now, instead of waiting for the buffer to be garbage collected.
+	private void release() {
+		ByteBuffer b = buffer;
+		buffer = null;
+		totalBytes.addAndGet(-getBytes());
+		try {
+			// Java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), b);
+		} catch (Exception e) {
+			try {
+				// Java 8
+				Method cleanerMethod = b.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(b);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			} catch (Exception e2) {
+				// left for the garbage collector
+				RioDB.rio.getSystemSettings().getLogger().debug("Off-heap memory left for GC: " + e2.getMessage());
+			}
+		}
+	}
+
+}
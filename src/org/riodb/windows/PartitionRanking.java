@@ -0,0 +1,258 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    PartitionRanking is an index of the partitions of a partitioned window,
+ *    sorted by one aggregate, like "rank by sum".
+ *
+ *    Partitions are kept in a sorted set by (value, partition key). When a
+ *    partition's summary changes, its entry is moved, in O(log P).
+ *    The top N partitions are read from the head of the set, without scanning
+ *    all partitions.
+ *
+ *    A bounded heap of N would be cheaper, but it can't tell the next best
+ *    partition when a top partition's value goes down. So all partitions are indexed.
+ *
+ *    The sorted set is only used by the stream thread. Readers (TOP n WINDOW over
+ *    HTTP, and SELECT w.top(n) from any stream) read an immutable array of the top
+ *    partitions. The stream thread publishes it again only when a change reaches
+ *    the top, or when a reader asked for more partitions than published.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class PartitionRanking {
+
+	// an entry in the ranking
+	private static class RankedPartition implements Comparable<RankedPartition> {
+		private final String key;
+		private final double value;
+
+		private RankedPartition(String key, double value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		// highest value first. Ties by key.
+		@Override
+		public int compareTo(RankedPartition other) {
+			int c = Double.compare(other.value, value);
+			if (c != 0) {
+				return c;
+			}
+			return key.compareTo(other.key);
+		}
+	}
+
+	// the function that partitions are ranked by
+	private String function;
+
+	private HashMap<String, RankedPartition> entries;
+	private TreeSet<RankedPartition> ranked;
+
+	// the top partitions, published for readers. Never modified once published.
+	private volatile RankedPartition top[];
+	// how many top partitions are published. Grows when readers ask for more.
+	private static final int DEFAULT_TOP_SIZE = 10;
+	private volatile int topSize;
+	// if the published top has every ranked partition
+	private volatile boolean topComplete;
+	// set by readers that asked for more partitions than published.
+	// The stream thread publishes again with its next update.
+	private volatile boolean republishRequested;
+
+	// constructor
+	public PartitionRanking(int functionId) {
+		this.function = SQLAggregateFunctions.getFunction(functionId);
+		clear();
+	}
+
+	// if partitions can be ranked by the function
+	public static boolean isRankable(int functionId) {
+		String function = SQLAggregateFunctions.getFunction(functionId);
+		return function != null && (function.equals("avg") || function.equals("count") || function.equals("sum")
+				|| function.equals("max") || function.equals("min") || function.equals("first")
+				|| function.equals("last") || function.equals("median") || function.equals("mode")
+				|| function.equals("count_distinct") || function.equals("slope") || function.equals("variance")
+				|| function.equals("stddev"));
+	}
+
+	// move the partition to its new place in the ranking
+	public void update(String partition, WindowSummaryInterface summary) {
+
+		publishIfRequested();
+
+		double value = getValue(summary);
+		RankedPartition old = entries.get(partition);
+		if (old != null) {
+			if (old.value == value) {
+				return;
+			}
+			ranked.remove(old);
+		}
+		// empty partitions are not ranked
+		if (Double.isNaN(value)) {
+			entries.remove(partition);
+			publishIfTopChanged(old, null);
+			return;
+		}
+		RankedPartition entry = new RankedPartition(partition, value);
+		entries.put(partition, entry);
+		ranked.add(entry);
+		publishIfTopChanged(old, entry);
+	}
+
+	// remove an expired partition from the ranking
+	public void remove(String partition) {
+		publishIfRequested();
+		RankedPartition old = entries.remove(partition);
+		if (old != null) {
+			ranked.remove(old);
+			publishIfTopChanged(old, null);
+		}
+	}
+
+	public void clear() {
+		entries = new HashMap<String, RankedPartition>();
+		ranked = new TreeSet<RankedPartition>();
+		top = new RankedPartition[0];
+		topSize = DEFAULT_TOP_SIZE;
+		topComplete = true;
+		republishRequested = false;
+	}
+
+	// publishes the top partitions again if the removed or added entry
+	// is within the published top, or the published top isn't full.
+	private void publishIfTopChanged(RankedPartition removed, RankedPartition added) {
+		RankedPartition current[] = top;
+		if (current.length < topSize
+				|| (removed != null && removed.compareTo(current[current.length - 1]) <= 0)
+				|| (added != null && added.compareTo(current[current.length - 1]) <= 0)) {
+			publish();
+		}
+	}
+
+	// publishes the top partitions again if a reader asked for more
+	private void publishIfRequested() {
+		if (republishRequested) {
+			republishRequested = false;
+			publish();
+		}
+	}
+
+	private void publish() {
+		RankedPartition newTop[] = new RankedPartition[Math.min(topSize, ranked.size())];
+		Iterator<RankedPartition> iter = ranked.iterator();
+		for (int i = 0; i < newTop.length; i++) {
+			newTop[i] = iter.next();
+		}
+		topComplete = newTop.length == ranked.size();
+		top = newTop;
+	}
+
+	// the published top, for n partitions. If more are asked for than published,
+	// the stream thread publishes more with its next update, or the next clock sweep.
+	// Until then, the first call for a larger n may return fewer rows.
+	private RankedPartition[] readTop(int n) {
+		RankedPartition current[] = top;
+		if (n > topSize) {
+			topSize = n;
+		}
+		if (n > current.length && !topComplete) {
+			republishRequested = true;
+		}
+		return current;
+	}
+
+	public String getFunction() {
+		return function;
+	}
+
+	// top N partitions, as a compact string like "key1:10.0|key2:8.5"
+	public String getTop(int n) {
+		StringBuilder sb = new StringBuilder();
+		RankedPartition current[] = readTop(n);
+		for (int i = 0; i < n && i < current.length; i++) {
+			RankedPartition entry = current[i];
+			if (i > 0) {
+				sb.append('|');
+			}
+			sb.append(entry.key).append(':').append(entry.value);
+		}
+		return sb.toString();
+	}
+
+	// top N partitions, in JSON
+	public String describeTop(int n) {
+		StringBuilder sb = new StringBuilder("[");
+		RankedPartition current[] = readTop(n);
+		for (int i = 0; i < n && i < current.length; i++) {
+			RankedPartition entry = current[i];
+			if (i > 0) {
+				sb.append(",\n ");
+			}
+			sb.append("{\"partition\":\"").append(entry.key.replace("\"", "'")).append("\", \"").append(function)
+					.append("\":").append(entry.value).append('}');
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+
+	// the ranked aggregate, from a partition summary
+	private double getValue(WindowSummaryInterface summary) {
+		switch (function) {
+		case "avg":
+			return summary.getAvg();
+		case "count":
+			return summary.getCount();
+		case "count_distinct":
+			return summary.getCountDistinct();
+		case "first":
+			return summary.getFirst();
+		case "last":
+			return summary.getLast();
+		case "max":
+			return summary.getMax();
+		case "median":
+			return summary.getMedian();
+		case "min":
+			return summary.getMin();
+		case "mode":
+			return summary.getMode();
+		case "slope":
+			return summary.getSlope();
+		case "variance":
+			return summary.getSampleVariance();
+		case "stddev":
+			return summary.getSampleStdDev();
+		default:
+			return summary.getSum();
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    PartitionRollup is a global rollup of all partitions in a partitioned window.
+ *
+ *    Instead of running a second (unpartitioned) window over the same data, the
+ *    rollup merges the aggregates that the partitions already compute.
+ *    Each partition's last known contribution is kept. When a partition's summary
+ *    changes, the rollup subtracts the old contribution and adds the new one.
+ *
+ *    Mergeable aggregates:
+ *       Count, Sum, Avg    - added up
+ *       Max, Min           - a sorted multiset of partition maxes (or mins)
+ *       Variance, StdDev   - count, mean and M2 (sum of squared differences) of
+ *                            each partition, merged with Chan's parallel formula
+ *
+ *    Median, Mode, CountDistinct, First, Last, Previous and Slope can't be merged
+ *    from partition summaries, so they are not available globally.
+ *
+ *    Partitions are updated and removed by the stream thread. Queries of other
+ *    streams can read the summary, so the rollup is synchronized.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class PartitionRollup {
+
+	// the part of the rollup that came from one partition
+	private static class Contribution {
+		private int count;
+		private double sum;
+		private int varCount;
+		private double varMean;
+		private double m2;
+		private double max = Double.NaN;
+		private double min = Double.NaN;
+	}
+
+	private HashMap<String, Contribution> contributions;
+
+	// running global values
+	private int count;
+	private double sum;
+	// count, mean and M2 of all partitions, for variance
+	private int varCount;
+	private double varMean;
+	private double m2;
+	// removing partitions from M2 loses some precision, so it is
+	// merged again from all partitions once in a while (amortized O(1)).
+	private int varUpdates;
+	private TreeMap<Double, Counter> partitionMaxes;
+	private TreeMap<Double, Counter> partitionMins;
+
+	private boolean requiresCount;
+	private boolean requiresSum;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresVariance;
+
+	// constructor
+	public PartitionRollup(Window window) {
+		this.requiresCount = window.requiresFunction(SQLAggregateFunctions.getFunctionId("count"));
+		this.requiresSum = window.requiresFunction(SQLAggregateFunctions.getFunctionId("sum"));
+		this.requiresMax = window.requiresFunction(SQLAggregateFunctions.getFunctionId("max"));
+		this.requiresMin = window.requiresFunction(SQLAggregateFunctions.getFunctionId("min"));
+		this.requiresVariance = window.requiresFunction(SQLAggregateFunctions.getFunctionId("variance"));
+		clear();
+	}
+
+	// if the function can be read from the rollup
+	public static boolean isMergeable(int functionId) {
+		String function = SQLAggregateFunctions.getFunction(functionId);
+		return function != null && (function.equals("avg") || function.equals("count") || function.equals("sum")
+				|| function.equals("max") || function.equals("min")
+				|| function.equals("variance") || function.equals("variance_pop") || function.equals("stddev")
+				|| function.equals("stddev_pop"));
+	}
+
+	// replace the contribution of a partition with its latest summary
+	public synchronized void update(String partition, WindowSummaryInterface summary) {
+
+		Contribution c = contributions.get(partition);
+		if (c == null) {
+			c = new Contribution();
+			contributions.put(partition, c);
+		}
+
+		if (requiresCount) {
+			count = count - c.count + summary.getCount();
+			c.count = summary.getCount();
+		}
+		if (requiresSum) {
+			sum = sum - c.sum + summary.getSum();
+			c.sum = summary.getSum();
+		}
+		if (requiresVariance && summary instanceof WindowSummary) {
+			// the running sum of squared differences of the partition is its M2
+			unmergeVariance(c.varCount, c.varMean, c.m2);
+			BigDecimal varRunningSum = ((WindowSummary) summary).getVarRunningSum();
+			if (summary.getCount() > 0 && varRunningSum != null) {
+				c.varCount = summary.getCount();
+				c.varMean = summary.getSum() / summary.getCount();
+				c.m2 = varRunningSum.doubleValue();
+			} else {
+				c.varCount = 0;
+				c.varMean = 0;
+				c.m2 = 0;
+			}
+			mergeVariance(c.varCount, c.varMean, c.m2);
+			varUpdates++;
+			if (varUpdates > 16 * contributions.size() + 1024) {
+				rebuildVariance();
+			}
+		}
+		if (requiresMax && !sameValue(c.max, summary.getMax())) {
+			multisetRemove(partitionMaxes, c.max);
+			c.max = summary.getMax();
+			multisetAdd(partitionMaxes, c.max);
+		}
+		if (requiresMin && !sameValue(c.min, summary.getMin())) {
+			multisetRemove(partitionMins, c.min);
+			c.min = summary.getMin();
+			multisetAdd(partitionMins, c.min);
+		}
+	}
+
+	// remove an expired partition from the rollup
+	public synchronized void remove(String partition) {
+		Contribution c = contributions.remove(partition);
+		if (c == null) {
+			return;
+		}
+		count = count - c.count;
+		sum = sum - c.sum;
+		unmergeVariance(c.varCount, c.varMean, c.m2);
+		if (requiresMax) {
+			multisetRemove(partitionMaxes, c.max);
+		}
+		if (requiresMin) {
+			multisetRemove(partitionMins, c.min);
+		}
+	}
+
+	// adds a partition's count, mean and M2 to the global ones (Chan et al.)
+	private void mergeVariance(int n, double mean, double partitionM2) {
+		if (n == 0) {
+			return;
+		}
+		int total = varCount + n;
+		double delta = mean - varMean;
+		varMean = varMean + delta * n / total;
+		m2 = m2 + partitionM2 + delta * delta * ((double) varCount * n / total);
+		varCount = total;
+	}
+
+	// removes a partition's count, mean and M2 from the global ones.
+	// The inverse of mergeVariance.
+	private void unmergeVariance(int n, double mean, double partitionM2) {
+		if (n == 0) {
+			return;
+		}
+		int rest = varCount - n;
+		if (rest <= 0) {
+			varCount = 0;
+			varMean = 0;
+			m2 = 0;
+			return;
+		}
+		double restMean = (varMean * varCount - mean * n) / rest;
+		double delta = mean - restMean;
+		m2 = m2 - partitionM2 - delta * delta * ((double) rest * n / varCount);
+		if (m2 < 0) {
+			m2 = 0;
+		}
+		varMean = restMean;
+		varCount = rest;
+	}
+
+	// merges the count, mean and M2 of all partitions again
+	private void rebuildVariance() {
+		varCount = 0;
+		varMean = 0;
+		m2 = 0;
+		for (Contribution c : contributions.values()) {
+			mergeVariance(c.varCount, c.varMean, c.m2);
+		}
+		varUpdates = 0;
+	}
+
+	public synchronized void clear() {
+		contributions = new HashMap<String, Contribution>();
+		count = 0;
+		sum = 0;
+		varCount = 0;
+		varMean = 0;
+		m2 = 0;
+		varUpdates = 0;
+		partitionMaxes = new TreeMap<Double, Counter>();
+		partitionMins = new TreeMap<Double, Counter>();
+	}
+
+	public synchronized int getPartitionCount() {
+		return contributions.size();
+	}
+
+	// a summary of all partitions
+	public synchronized WindowSummary getSummary() {
+		WindowSummary summary = new WindowSummary();
+		summary.setCount(count);
+		summary.setSum(sum);
+		if (requiresMax && !partitionMaxes.isEmpty()) {
+			summary.setMax(partitionMaxes.lastKey());
+		}
+		if (requiresMin && !partitionMins.isEmpty()) {
+			summary.setMin(partitionMins.firstKey());
+		}
+		if (requiresVariance && varCount > 0) {
+			if (!requiresCount) {
+				summary.setCount(varCount);
+			}
+			summary.setVarRunningSum(m2);
+		}
+		return summary;
+	}
+
+	private static boolean sameValue(double a, double b) {
+		return a == b || (Double.isNaN(a) && Double.isNaN(b));
+	}
+
+	private static void multisetAdd(TreeMap<Double, Counter> multiset, double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		Counter c = multiset.get(value);
+		if (c == null) {
+			multiset.put(value, new Counter());
+		} else {
+			c.increment();
+		}
+	}
+
+	private static void multisetRemove(TreeMap<Double, Counter> multiset, double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		Counter c = multiset.get(value);
+		if (c != null && c.decrementReachZero()) {
+			multiset.remove(value);
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    A queue of sequence numbers, in a primitive ring.
+ *    Used as a monotonic queue for sliding Max and Min over stored elements.
+ *
+ */
+
+package org.riodb.windows;
+
+class SeqQueue {
+	private long seqs[] = new long[16];
+	private int head = 0;
+	private int size = 0;
+
+	void addLast(long seq) {
+		if (size == seqs.length) {
+			long newSeqs[] = new long[seqs.length * 2];
+			for (int i = 0; i < size; i++) {
+				newSeqs[i] = seqs[(head + i) % seqs.length];
+			}
+			seqs = newSeqs;
+			head = 0;
+		}
+		seqs[(head + size) % seqs.length] = seq;
+		size++;
+	}
+
+	long peekFirst() {
+		return seqs[head];
+	}
+
+	long peekLast() {
+		return seqs[(head + size - 1) % seqs.length];
+	}
+
+	void pollFirst() {
+		head = (head + 1) % seqs.length;
+		size--;
+	}
+
+	void pollLast() {
+		size--;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void clear() {
+		head = 0;
+		size = 0;
+	}
+}
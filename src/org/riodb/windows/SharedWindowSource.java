@@ -0,0 +1,336 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The SharedWindowSource is the base storage shared by windows of time
+ *    that read the same stream field (or expression), with the same WHEN
+ *    condition, and the same time basis (clock or timestamp).
+ *
+ *    For example, w_1m, w_5m and w_1h over the same field don't need to keep
+ *    three copies of the data, or evaluate the field and condition three times.
+ *
+ *    The WindowManager puts each message into the source ONCE. The source
+ *    evaluates the condition and the field, and summarizes elements into
+ *    Seconds, like WindowOfTimeSimple does. The windows are views
+ *    (WindowOfSharedSource) with their own range cursors over these Seconds.
+ *
+ *    Seconds are stored in primitive arrays used as a ring. Each Second has a
+ *    sequence number. Seconds no longer needed by any view are released when
+ *    the ring needs room.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.ArrayList;
+
+import org.riodb.engine.RioDB;
+import org.riodb.plugin.RioDBStreamMessage;
+import org.riodb.sql.ExceptionSQLExecution;
+import org.riodb.sql.SQLWindowCondition;
+import org.riodb.sql.SQLWindowSourceExpression;
+
+public class SharedWindowSource {
+
+	// identifies the field, condition and time basis this source is for
+	private final String sourceKey;
+
+	private boolean windowOfNumericExpression;
+	private SQLWindowSourceExpression windowSourceExpression;
+	private int numericFieldIndex;
+
+	private SQLWindowCondition windowCondition;
+	private boolean hasCondition;
+
+	private boolean rangeByTimeIsTimestamp;
+	private int timestampNumericFieldId;
+
+	private boolean keepPreviousMessage;
+	private RioDBStreamMessage previousMessage;
+	private RioDBStreamMessage currentMessage;
+	private boolean firstMessage;
+
+	private boolean errorAlreadyCaught;
+
+	// Seconds, stored as parallel arrays. Capacity is a power of 2.
+	private int nodeSecond[];
+	private int nodeCount[];
+	private double nodeSum[];
+	private double nodeMax[];
+	private double nodeMin[];
+	private double nodeFirst[];
+	private double nodeLast[];
+	private double nodePrevious[];
+	private int mask;
+
+	// sequence number of the oldest Second still stored
+	private long headSeq;
+	// sequence number of the next Second to be created
+	private long nextSeq;
+
+	// the windows reading from this source
+	private final ArrayList<WindowOfSharedSource> views;
+
+	// constructor
+	public SharedWindowSource(String sourceKey, int streamId, int fieldId, SQLWindowCondition windowCondition,
+			boolean rangeByTimeIsTimestamp, SQLWindowSourceExpression windowSourceExpression) {
+
+		this.sourceKey = sourceKey;
+
+		this.windowOfNumericExpression = false;
+		if (windowSourceExpression != null) {
+			windowOfNumericExpression = true;
+			this.windowSourceExpression = windowSourceExpression;
+			windowSourceExpression.retain();
+		} else {
+			this.numericFieldIndex = RioDB.rio.getEngine().getStream(streamId).getDef().getNumericFieldIndex(fieldId);
+		}
+
+		this.windowCondition = windowCondition;
+		this.hasCondition = windowCondition != null;
+		if (hasCondition) {
+			windowCondition.retain();
+		}
+
+		this.rangeByTimeIsTimestamp = rangeByTimeIsTimestamp;
+		if (rangeByTimeIsTimestamp) {
+			this.timestampNumericFieldId = RioDB.rio.getEngine().getStream(streamId).getDef()
+					.getTimestampNumericFieldId();
+		}
+
+		keepPreviousMessage = false;
+		if (windowSourceExpression != null && windowSourceExpression.requiresPrevious()) {
+			keepPreviousMessage = true;
+			firstMessage = true;
+		}
+		previousMessage = null;
+		errorAlreadyCaught = false;
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing shared window source");
+
+		allocate(64);
+		headSeq = 0;
+		nextSeq = 0;
+		views = new ArrayList<WindowOfSharedSource>();
+	}
+
+	public String getSourceKey() {
+		return sourceKey;
+	}
+
+	// creates a new window reading from this source
+	public WindowOfSharedSource newView(int rangeStart, boolean[] functionsRequired) {
+		WindowOfSharedSource view = new WindowOfSharedSource(this, rangeStart, functionsRequired);
+		views.add(view);
+		return view;
+	}
+
+	// removes a window (when dropped or reset)
+	public void removeView(Window view) {
+		views.remove(view);
+	}
+
+	public boolean hasViews() {
+		return !views.isEmpty();
+	}
+
+	// release the condition and expression, when the last view is dropped
+	public void releaseConditions() {
+		if (windowCondition != null) {
+			windowCondition.release();
+		}
+		if (windowSourceExpression != null) {
+			windowSourceExpression.release();
+		}
+	}
+
+	// evaluate the message once, for all windows reading this source
+	public void putMessageRef(RioDBStreamMessage message, int currentSecond) {
+
+		if (keepPreviousMessage) {
+			previousMessage = currentMessage;
+			currentMessage = message;
+			if (firstMessage) {
+				firstMessage = false;
+				return;
+			}
+		}
+
+		try {
+			if (hasCondition && !windowCondition.match(message, previousMessage)) {
+				return;
+			}
+
+			double d;
+			if (!windowOfNumericExpression) {
+				d = message.getDouble(numericFieldIndex);
+			} else {
+				d = windowSourceExpression.getNumber(message, previousMessage);
+			}
+
+			if (rangeByTimeIsTimestamp) {
+				add(d, (int) (message.getDouble(timestampNumericFieldId) / 1000d));
+			} else {
+				add(d, currentSecond);
+			}
+
+		} catch (ExceptionSQLExecution e) {
+			if (!errorAlreadyCaught) {
+				RioDB.rio.getSystemSettings().getLogger()
+						.error("Shared window source: " + e.getMessage().replace("\n", " ").replace("\r", " "));
+				errorAlreadyCaught = true;
+			}
+		}
+	}
+
+	// add element to the newest Second, or to a new Second.
+	// Elements arriving with an older second are summarized into the newest Second.
+	private void add(double element, int second) {
+
+		if (nextSeq > headSeq && second <= nodeSecond[(int) (nextSeq - 1) & mask]) {
+			int i = (int) (nextSeq - 1) & mask;
+			if (element > nodeMax[i]) {
+				nodeMax[i] = element;
+			}
+			if (element < nodeMin[i]) {
+				nodeMin[i] = element;
+			}
+			nodePrevious[i] = nodeLast[i];
+			nodeLast[i] = element;
+			nodeSum[i] += element;
+			nodeCount[i]++;
+			return;
+		}
+
+		if (nextSeq - headSeq == nodeSecond.length) {
+			release();
+			if (nextSeq - headSeq == nodeSecond.length) {
+				grow();
+			}
+		}
+
+		int i = (int) nextSeq & mask;
+		nodeSecond[i] = second;
+		nodeCount[i] = 1;
+		nodeSum[i] = element;
+		nodeMax[i] = element;
+		nodeMin[i] = element;
+		nodeFirst[i] = element;
+		nodeLast[i] = element;
+		nodePrevious[i] = Double.NaN;
+		nextSeq++;
+	}
+
+	// release Seconds older than the oldest Second any view still needs
+	private void release() {
+		long oldestNeeded = nextSeq;
+		for (WindowOfSharedSource view : views) {
+			if (view.getOldestSeq() < oldestNeeded) {
+				oldestNeeded = view.getOldestSeq();
+			}
+		}
+		if (oldestNeeded > headSeq) {
+			headSeq = oldestNeeded;
+		}
+	}
+
+	// double the ring capacity, keeping sequence numbers
+	private void grow() {
+		int oldSecond[] = nodeSecond;
+		int oldCount[] = nodeCount;
+		double oldSum[] = nodeSum;
+		double oldMax[] = nodeMax;
+		double oldMin[] = nodeMin;
+		double oldFirst[] = nodeFirst;
+		double oldLast[] = nodeLast;
+		double oldPrevious[] = nodePrevious;
+		int oldMask = mask;
+
+		allocate(oldSecond.length * 2);
+		for (long seq = headSeq; seq < nextSeq; seq++) {
+			int from = (int) seq & oldMask;
+			int to = (int) seq & mask;
+			nodeSecond[to] = oldSecond[from];
+			nodeCount[to] = oldCount[from];
+			nodeSum[to] = oldSum[from];
+			nodeMax[to] = oldMax[from];
+			nodeMin[to] = oldMin[from];
+			nodeFirst[to] = oldFirst[from];
+			nodeLast[to] = oldLast[from];
+			nodePrevious[to] = oldPrevious[from];
+		}
+	}
+
+	private void allocate(int capacity) {
+		nodeSecond = new int[capacity];
+		nodeCount = new int[capacity];
+		nodeSum = new double[capacity];
+		nodeMax = new double[capacity];
+		nodeMin = new double[capacity];
+		nodeFirst = new double[capacity];
+		nodeLast = new double[capacity];
+		nodePrevious = new double[capacity];
+		mask = capacity - 1;
+	}
+
+	// getters used by the views. seq must be between headSeq and nextSeq.
+	protected long getNextSeq() {
+		return nextSeq;
+	}
+
+	protected int getSecond(long seq) {
+		return nodeSecond[(int) seq & mask];
+	}
+
+	protected int getCount(long seq) {
+		return nodeCount[(int) seq & mask];
+	}
+
+	protected double getSum(long seq) {
+		return nodeSum[(int) seq & mask];
+	}
+
+	protected double getMax(long seq) {
+		return nodeMax[(int) seq & mask];
+	}
+
+	protected double getMin(long seq) {
+		return nodeMin[(int) seq & mask];
+	}
+
+	protected double getFirst(long seq) {
+		return nodeFirst[(int) seq & mask];
+	}
+
+	protected double getLast(long seq) {
+		return nodeLast[(int) seq & mask];
+	}
+
+	protected double getPrevious(long seq) {
+		return nodePrevious[(int) seq & mask];
+	}
+
+	// count of Seconds stored
+	public int getStoredSeconds() {
+		return (int) (nextSeq - headSeq);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+
+	An associative aggregate operator for the SlidingAggregation.
+
+	Operators don't need to be invertible. Max and Min, for example,
+	can't "subtract" an evicted element. The SlidingAggregation only
+	ever combines partial aggregates, so any associative operator works.
+
+	Operators are registered per function in SQLAggregateFunctions.
+	Only Max and Min are registered. They slide in windows of quantity
+	stored on the heap, windows of time complex, and generated windows
+	of time. Mode and Median are not a combination of two doubles (they
+	need the counts of every value), so they keep the sorted TreeMap of
+	the window.
+
+*/
+
+package org.riodb.windows;
+
+public interface SlidingAggregateOperator {
+
+	// combines two partial aggregates. "older" always covers older elements than "newer".
+	public double combine(double older, double newer);
+
+	// operator for MAX
+	public static final SlidingAggregateOperator MAX = new SlidingAggregateOperator() {
+		@Override
+		public double combine(double older, double newer) {
+			return newer > older ? newer : older;
+		}
+	};
+
+	// operator for MIN
+	public static final SlidingAggregateOperator MIN = new SlidingAggregateOperator() {
+		@Override
+		public double combine(double older, double newer) {
+			return newer < older ? newer : older;
+		}
+	};
+
+}
@@ -0,0 +1,147 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+
+	A generic sliding-window aggregation for FIFO windows, using two stacks.
+
+	Elements are pushed to the back stack, and popped from the front stack.
+	The back stack keeps the running aggregate of all its elements.
+	The front stack keeps, for each position, the aggregate from that element
+	to the newest element of the front stack.
+	When the front stack is empty and an element needs to be popped, the back
+	stack is flipped into the front stack.
+
+	So push, pop and get are amortized O(1) for any associative operator,
+	even when the operator is not invertible (like Max and Min).
+	There's no need to scan the window when the max or min is evicted.
+
+	Both stacks are primitive arrays, so there is no boxing.
+
+*/
+
+package org.riodb.windows;
+
+import java.util.Arrays;
+
+public class SlidingAggregation {
+
+	// the aggregate operator
+	private final SlidingAggregateOperator operator;
+
+	// back stack: element values, and the running aggregate
+	private double[] back;
+	private int backSize;
+	private double backAggregate;
+
+	// front stack: aggregate from each position to the newest in the front stack.
+	// The oldest element is at the top (frontSize - 1).
+	private double[] front;
+	private int frontSize;
+
+	// constructor
+	public SlidingAggregation(SlidingAggregateOperator operator) {
+		this.operator = operator;
+		this.back = new double[16];
+		this.front = new double[16];
+		this.backSize = 0;
+		this.frontSize = 0;
+	}
+
+	// add newest element
+	public void push(double element) {
+		if (backSize == back.length) {
+			back = Arrays.copyOf(back, back.length * 2);
+		}
+		back[backSize] = element;
+		if (backSize == 0) {
+			backAggregate = element;
+		} else {
+			backAggregate = operator.combine(backAggregate, element);
+		}
+		backSize++;
+	}
+
+	// combines an element into the newest element, for windows that aggregate
+	// elements of the same second in one node. Returns false if the newest
+	// element was already flipped to the front stack. Then the element is pushed instead.
+	public boolean combineNewest(double element) {
+		if (backSize == 0) {
+			return false;
+		}
+		back[backSize - 1] = operator.combine(back[backSize - 1], element);
+		backAggregate = operator.combine(backAggregate, element);
+		return true;
+	}
+
+	// remove oldest element
+	public void pop() {
+		if (frontSize == 0) {
+			flip();
+		}
+		if (frontSize > 0) {
+			frontSize--;
+		}
+	}
+
+	// aggregate of all elements. NaN if empty.
+	public double get() {
+		if (frontSize == 0) {
+			if (backSize == 0) {
+				return Double.NaN;
+			}
+			return backAggregate;
+		}
+		if (backSize == 0) {
+			return front[frontSize - 1];
+		}
+		return operator.combine(front[frontSize - 1], backAggregate);
+	}
+
+	// count of elements
+	public int size() {
+		return frontSize + backSize;
+	}
+
+	// remove all elements
+	public void clear() {
+		backSize = 0;
+		frontSize = 0;
+	}
+
+	// move all elements from back stack to front stack, newest first,
+	// so that the oldest element ends up on top.
+	private void flip() {
+		if (front.length < backSize) {
+			front = new double[back.length];
+		}
+		for (int i = backSize - 1; i >= 0; i--) {
+			if (frontSize == 0) {
+				front[frontSize] = back[i];
+			} else {
+				front[frontSize] = operator.combine(back[i], front[frontSize - 1]);
+			}
+			frontSize++;
+		}
+		backSize = 0;
+	}
+
+}
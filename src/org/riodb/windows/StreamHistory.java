@@ -0,0 +1,263 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The StreamHistory keeps the most recent raw messages of a stream,
+ *    like 'create stream ... history 100000' or 'history 1h', or both.
+ *
+ *    Fields are stored in columns (primitive arrays for numbers) used as a ring.
+ *    Each message has a sequence number. Old messages are evicted when the ring
+ *    is full, or when they are older than the max age.
+ *
+ *    New windows are loaded from the history (backfill), so a new window of
+ *    1 hour doesn't start empty. And the history can be read with
+ *    'HISTORY stream_name [LAST n] [SINCE 5m];'
+ *
+ *    Messages are added by the stream thread only. Reads from other threads
+ *    copy the rows, and then discard the rows that were overwritten meanwhile.
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.plugin.RioDBStreamMessage;
+import org.riodb.plugin.RioDBStreamMessageDef;
+import org.riodb.sql.BASE64Utils;
+
+public class StreamHistory {
+
+	// max messages kept when the history is bounded by age only.
+	public static final int MAX_HISTORY_SIZE = 10000000;
+
+	// the columns. Replaced together when the ring grows.
+	private static class Ring {
+		private final int seconds[];
+		private final double numericColumns[][];
+		private final String stringColumns[][];
+		private final int mask;
+
+		private Ring(int capacity, int numericCount, int stringCount) {
+			seconds = new int[capacity];
+			numericColumns = new double[numericCount][capacity];
+			stringColumns = new String[stringCount][capacity];
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Ring ring;
+	private volatile long headSeq;
+	private volatile long nextSeq;
+
+	// max messages, and max age in seconds (0 if not bounded by age)
+	private final int maxSize;
+	private final int maxAge;
+
+	// constructor
+	public StreamHistory(int maxSize, int maxAge) {
+		this.maxSize = maxSize > 0 ? maxSize : MAX_HISTORY_SIZE;
+		this.maxAge = maxAge;
+		this.headSeq = 0;
+		this.nextSeq = 0;
+	}
+
+	// add a message. Stream thread only.
+	public void add(RioDBStreamMessage message, int currentSecond) {
+
+		Ring r = ring;
+		if (r == null) {
+			// columns are allocated with the first message, when the field counts are known.
+			r = new Ring(Math.min(1024, capacityFor(maxSize)), message.getDoubleFieldsCount(),
+					message.getStringFieldsCount());
+			ring = r;
+		}
+
+		if (maxAge > 0) {
+			while (headSeq < nextSeq && r.seconds[(int) headSeq & r.mask] <= currentSecond - maxAge) {
+				headSeq++;
+			}
+		}
+		if (nextSeq - headSeq >= maxSize) {
+			headSeq++;
+		} else if (nextSeq - headSeq > r.mask) {
+			r = grow(r);
+		}
+
+		int index = (int) nextSeq & r.mask;
+		r.seconds[index] = currentSecond;
+		for (int i = 0; i < r.numericColumns.length; i++) {
+			r.numericColumns[i][index] = message.getDouble(i);
+		}
+		for (int i = 0; i < r.stringColumns.length; i++) {
+			r.stringColumns[i][index] = message.getString(i);
+		}
+		nextSeq++;
+	}
+
+	// add a batch of messages. Stream thread only.
+	public void addBatch(RioDBStreamMessage messages[], int count, int currentSecond) {
+		for (int i = 0; i < count; i++) {
+			add(messages[i], currentSecond);
+		}
+	}
+
+	// double the ring, keeping the sequence numbers.
+	private Ring grow(Ring r) {
+		Ring newRing = new Ring((r.mask + 1) * 2, r.numericColumns.length, r.stringColumns.length);
+		for (long seq = headSeq; seq < nextSeq; seq++) {
+			int from = (int) seq & r.mask;
+			int to = (int) seq & newRing.mask;
+			newRing.seconds[to] = r.seconds[from];
+			for (int i = 0; i < r.numericColumns.length; i++) {
+				newRing.numericColumns[i][to] = r.numericColumns[i][from];
+			}
+			for (int i = 0; i < r.stringColumns.length; i++) {
+				newRing.stringColumns[i][to] = r.stringColumns[i][from];
+			}
+		}
+		ring = newRing;
+		return newRing;
+	}
+
+	private static int capacityFor(int size) {
+		int capacity = 1;
+		while (capacity < size && capacity < (1 << 30)) {
+			capacity = capacity << 1;
+		}
+		return capacity;
+	}
+
+	/*
+	 * Reads for the backfill of new windows. Stream thread only, so no copies needed.
+	 */
+
+	public long getHeadSeq() {
+		return headSeq;
+	}
+
+	public long getNextSeq() {
+		return nextSeq;
+	}
+
+	public int getSecond(long seq) {
+		return ring.seconds[(int) seq & ring.mask];
+	}
+
+	public double getDouble(long seq, int numericFieldIndex) {
+		return ring.numericColumns[numericFieldIndex][(int) seq & ring.mask];
+	}
+
+	// an empty message with the fields of this stream, for copyMessage.
+	// null if there's no message yet.
+	public RioDBStreamMessage newMessage() {
+		Ring r = ring;
+		if (r == null) {
+			return null;
+		}
+		return new RioDBStreamMessage(r.numericColumns.length, r.stringColumns.length);
+	}
+
+	// copy a message from the columns into a message made by newMessage
+	public void copyMessage(long seq, RioDBStreamMessage message) {
+		Ring r = ring;
+		int index = (int) seq & r.mask;
+		for (int i = 0; i < r.numericColumns.length; i++) {
+			message.set(i, r.numericColumns[i][index]);
+		}
+		for (int i = 0; i < r.stringColumns.length; i++) {
+			message.set(i, r.stringColumns[i][index]);
+		}
+	}
+
+	public int size() {
+		return (int) (nextSeq - headSeq);
+	}
+
+	// describe the bounds, for DESCRIBE STREAM
+	public String describe() {
+		String s = "{\"max_messages\": " + maxSize;
+		if (maxAge > 0) {
+			s = s + ", \"max_age\": \"" + maxAge + "s\"";
+		}
+		return s + ", \"messages\": " + size() + "}";
+	}
+
+	/*
+	 * Read the last messages in JSON format, for 'HISTORY stream_name'. Any thread.
+	 * Up to 'limit' messages, received at or after 'sinceSecond'.
+	 */
+	public String getRows(RioDBStreamMessageDef def, int limit, int sinceSecond) {
+
+		// nextSeq first: the ring read after it has all messages before it.
+		long next = nextSeq;
+		Ring r = ring;
+		long from = Math.max(headSeq, next - limit);
+		if (r == null || from >= next) {
+			return "[]";
+		}
+
+		int count = (int) (next - from);
+		int seconds[] = new int[count];
+		double numbers[][] = new double[r.numericColumns.length][count];
+		String strings[][] = new String[r.stringColumns.length][count];
+		for (int j = 0; j < count; j++) {
+			int index = (int) (from + j) & r.mask;
+			seconds[j] = r.seconds[index];
+			for (int i = 0; i < numbers.length; i++) {
+				numbers[i][j] = r.numericColumns[i][index];
+			}
+			for (int i = 0; i < strings.length; i++) {
+				strings[i][j] = r.stringColumns[i][index];
+			}
+		}
+
+		// rows overwritten by the stream thread while copying are discarded.
+		long firstValid = Math.max(headSeq, nextSeq - (r.mask + 1));
+		int start = (int) Math.max(0, firstValid - from);
+
+		StringBuilder sb = new StringBuilder("[");
+		boolean first = true;
+		for (int j = start; j < count; j++) {
+			if (seconds[j] < sinceSecond) {
+				continue;
+			}
+			sb.append(first ? "\n{" : ",\n{");
+			first = false;
+			sb.append("\"second\":").append(seconds[j]);
+			for (int i = 0; i < numbers.length; i++) {
+				sb.append(",\"").append(def.getNumericFieldName(i)).append("\":");
+				// JSON has no NaN or infinity
+				if (Double.isNaN(numbers[i][j]) || Double.isInfinite(numbers[i][j])) {
+					sb.append("null");
+				} else {
+					sb.append(numbers[i][j]);
+				}
+			}
+			for (int i = 0; i < strings.length; i++) {
+				String value = strings[i][j] == null ? "" : BASE64Utils.decodeText(strings[i][j]);
+				sb.append(",\"").append(def.getStringFieldName(i)).append("\":\"")
+						.append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
+			}
+			sb.append("}");
+		}
+		return sb.append("\n]").toString();
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    TopKSketch estimates the K most frequent elements of a window of strings,
+ *    for the TOPK function. Like top URLs or top error codes.
+ *
+ *    It uses the Space-Saving algorithm: a bounded number of counters.
+ *    When all counters are taken, a new element replaces the element with the
+ *    lowest count, and inherits its count + 1. Frequent elements keep their
+ *    counters, so the top K is accurate, even with a long tail of rare elements.
+ *
+ *    Space-Saving can't remove an element. To slide, the window range is split in
+ *    buckets, each with its own counters. When a bucket is entirely out of range,
+ *    the whole bucket is dropped. The result merges the counters of all buckets.
+ *    The oldest bucket may still count some elements that already left the window.
+ *    So counts are estimates.
+ *
+ *    The counts of all buckets are also kept merged, updated with each change, so
+ *    reading the top K only selects K elements from the merged counts.
+ *
+ *    Position is the second of an element (windows of time), or its sequence
+ *    number (windows of quantity).
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+public class TopKSketch {
+
+	public static final int DEFAULT_K = 10;
+	public static final int MAX_K = 1000;
+
+	// buckets per window range
+	private static final int BUCKETS = 8;
+	// counters per bucket, for each K. More counters, less error.
+	private static final int COUNTERS_PER_K = 8;
+	private static final int MIN_COUNTERS = 64;
+
+	// counters for elements of one bucket of positions
+	private static class Bucket {
+		private final long bucketId;
+		private final HashMap<String, Counter> counters = new HashMap<String, Counter>();
+		// elements with the lowest count, to be replaced. Refreshed when used up.
+		private final ArrayList<String> lowest = new ArrayList<String>();
+		private int lowestCount;
+
+		private Bucket(long bucketId) {
+			this.bucketId = bucketId;
+		}
+	}
+
+	private final int k;
+	private final int range;
+	private final int capacity;
+	private final long bucketLength;
+
+	private ArrayDeque<Bucket> buckets;
+
+	// counts of all buckets, merged
+	private HashMap<String, Counter> merged;
+
+	// the merged top K is cached until the next change
+	private int version;
+	private int cachedVersion;
+	private String cachedTop;
+
+	// constructor
+	public TopKSketch(int k, int range) {
+		this.k = k;
+		this.range = range;
+		this.capacity = Math.max(MIN_COUNTERS, k * COUNTERS_PER_K);
+		this.bucketLength = Math.max(1, (range + BUCKETS - 1) / BUCKETS);
+		clear();
+	}
+
+	public TopKSketch makeEmptyClone() {
+		return new TopKSketch(k, range);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public void clear() {
+		buckets = new ArrayDeque<Bucket>();
+		merged = new HashMap<String, Counter>();
+		version = 0;
+		cachedVersion = -1;
+		cachedTop = "";
+	}
+
+	// count an element at a position
+	public void add(String element, long position) {
+
+		long bucketId = Math.floorDiv(position, bucketLength);
+		Bucket b = buckets.peekLast();
+		if (b == null || b.bucketId != bucketId) {
+			b = new Bucket(bucketId);
+			buckets.add(b);
+		}
+
+		Counter c = b.counters.get(element);
+		if (c != null) {
+			c.increment();
+		} else if (b.counters.size() < capacity) {
+			b.counters.put(element, new Counter());
+		} else {
+			// replace an element with the lowest count.
+			// Counts only go up, so a listed element still at lowestCount is still the lowest.
+			String replaced = null;
+			while (replaced == null) {
+				if (b.lowest.isEmpty()) {
+					findLowest(b);
+				}
+				String candidate = b.lowest.remove(b.lowest.size() - 1);
+				if (b.counters.get(candidate).isEQ(b.lowestCount)) {
+					replaced = candidate;
+				}
+			}
+			b.counters.remove(replaced);
+			b.counters.put(element, new Counter(b.lowestCount + 1));
+			mergedAdd(replaced, -b.lowestCount);
+			mergedAdd(element, b.lowestCount);
+		}
+		mergedAdd(element, 1);
+		version++;
+	}
+
+	// adds to the merged count of an element. Elements at 0 are removed.
+	private void mergedAdd(String element, int n) {
+		Counter c = merged.get(element);
+		if (c == null) {
+			merged.put(element, new Counter(n));
+		} else {
+			c.add(n);
+			if (c.isEQ(0)) {
+				merged.remove(element);
+			}
+		}
+	}
+
+	// list the elements with the lowest count in a bucket
+	private static void findLowest(Bucket b) {
+		b.lowestCount = Integer.MAX_VALUE;
+		for (Entry<String, Counter> e : b.counters.entrySet()) {
+			int c = e.getValue().intValue();
+			if (c < b.lowestCount) {
+				b.lowestCount = c;
+				b.lowest.clear();
+			}
+			if (c == b.lowestCount) {
+				b.lowest.add(e.getKey());
+			}
+		}
+	}
+
+	// drop buckets with no position after expiredPosition
+	public void expire(long expiredPosition) {
+		while (!buckets.isEmpty() && (buckets.peekFirst().bucketId + 1) * bucketLength - 1 <= expiredPosition) {
+			for (Entry<String, Counter> e : buckets.poll().counters.entrySet()) {
+				mergedAdd(e.getKey(), -e.getValue().intValue());
+			}
+			version++;
+		}
+	}
+
+	// top K elements with estimated counts, like "a:12|b:7"
+	public String getTop() {
+		if (cachedVersion == version) {
+			return cachedTop;
+		}
+
+		// the K highest counts, with the lowest of them at the head
+		PriorityQueue<Entry<String, Counter>> heap = new PriorityQueue<Entry<String, Counter>>(k + 1, (a, b) -> {
+			int c = Integer.compare(a.getValue().intValue(), b.getValue().intValue());
+			return c != 0 ? c : b.getKey().compareTo(a.getKey());
+		});
+		for (Entry<String, Counter> e : merged.entrySet()) {
+			heap.add(e);
+			if (heap.size() > k) {
+				heap.poll();
+			}
+		}
+		ArrayList<Entry<String, Counter>> entries = new ArrayList<Entry<String, Counter>>(heap);
+		entries.sort((a, b) -> {
+			int c = Integer.compare(b.getValue().intValue(), a.getValue().intValue());
+			return c != 0 ? c : a.getKey().compareTo(b.getKey());
+		});
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < k && i < entries.size(); i++) {
+			if (i > 0) {
+				sb.append('|');
+			}
+			sb.append(entries.get(i).getKey()).append(':').append(entries.get(i).getValue().intValue());
+		}
+		cachedTop = sb.toString();
+		cachedVersion = version;
+		return cachedTop;
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    A first-in-first-out queue of values with timestamps, for windows of time.
+ *
+ *    ValueDeque stores each element as an object (on an ArrayDeque).
+ *    CompressedBlockQueue stores elements compressed, in blocks.
+ *
+ */
+
+package org.riodb.windows;
+
+interface ValueQueue extends Iterable<ValueWithTimestamp> {
+	// add newest element
+	public boolean add(ValueWithTimestamp element);
+	// remove and return oldest element
+	public ValueWithTimestamp poll();
+	// oldest element
+	public ValueWithTimestamp peekFirst();
+	// newest element
+	public ValueWithTimestamp peekLast();
+	// count of elements
+	public int size();
+	// if the queue has no elements
+	public boolean isEmpty();
+}
@@ -0,0 +1,195 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WatermarkBuffer restores event-time order for windows ranged by
+ *    timestamp, when messages arrive late or out of order.
+ *
+ *    Elements wait in a small min-heap ordered by timestamp. The watermark is
+ *    the newest timestamp seen, minus the allowed lateness. Elements are
+ *    released into the window, oldest first, once the watermark passes them.
+ *    So windows only ever receive elements in order, without sorting windows.
+ *
+ *    Elements older than the watermark are later than the allowed lateness.
+ *    They are either dropped, or included as if they arrived at the watermark.
+ *
+ *    The heap is stored in primitive arrays. For partitioned windows, each
+ *    element also keeps its partition key.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.Arrays;
+
+public class WatermarkBuffer {
+
+	// allowed lateness, in ms
+	private final long allowedLateness;
+	// include elements later than the allowed lateness (at the watermark), or drop them.
+	private final boolean includeLate;
+
+	// min-heap of elements, ordered by timestamp (ms)
+	private long timestamps[];
+	private double values[];
+	private String keys[];
+	private int size;
+
+	// the newest timestamp seen
+	private long maxTimestamp;
+
+	// counters
+	private long reordered; // arrived out of order, within the allowed lateness
+	private long lateDropped; // later than allowed, dropped
+	private long lateIncluded; // later than allowed, included at the watermark
+
+	// constructor
+	public WatermarkBuffer(long allowedLateness, boolean includeLate) {
+		this.allowedLateness = allowedLateness;
+		this.includeLate = includeLate;
+		timestamps = new long[16];
+		values = new double[16];
+		keys = new String[16];
+		size = 0;
+		maxTimestamp = Long.MIN_VALUE;
+	}
+
+	// the watermark: elements older than this are not expected anymore.
+	public long getWatermark() {
+		if (maxTimestamp == Long.MIN_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return maxTimestamp - allowedLateness;
+	}
+
+	// add an element to wait for the watermark.
+	// returns false if the element was dropped for being too late.
+	public boolean offer(double value, long timestamp, String key) {
+
+		if (maxTimestamp != Long.MIN_VALUE && timestamp < getWatermark()) {
+			if (!includeLate) {
+				lateDropped++;
+				return false;
+			}
+			lateIncluded++;
+			timestamp = getWatermark();
+		} else if (timestamp < maxTimestamp) {
+			reordered++;
+		}
+
+		if (timestamp > maxTimestamp) {
+			maxTimestamp = timestamp;
+		}
+
+		if (size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			keys = Arrays.copyOf(keys, size * 2);
+		}
+
+		// sift up
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (timestamps[parent] <= timestamp) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		timestamps[i] = timestamp;
+		values[i] = value;
+		keys[i] = key;
+		return true;
+	}
+
+	// if the oldest element waiting has been passed by the watermark
+	public boolean hasReady() {
+		return size > 0 && timestamps[0] <= getWatermark();
+	}
+
+	// getters for the oldest element waiting
+	public long peekTimestamp() {
+		return timestamps[0];
+	}
+
+	public double peekValue() {
+		return values[0];
+	}
+
+	public String peekKey() {
+		return keys[0];
+	}
+
+	// remove the oldest element waiting
+	public void poll() {
+		size--;
+		long timestamp = timestamps[size];
+		double value = values[size];
+		String key = keys[size];
+		keys[size] = null;
+
+		// sift down
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && timestamps[child + 1] < timestamps[child]) {
+				child++;
+			}
+			if (timestamp <= timestamps[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		if (size > 0) {
+			timestamps[i] = timestamp;
+			values[i] = value;
+			keys[i] = key;
+		}
+	}
+
+	private void move(int from, int to) {
+		timestamps[to] = timestamps[from];
+		values[to] = values[from];
+		keys[to] = keys[from];
+	}
+
+	// remove all elements waiting
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+		}
+		size = 0;
+		maxTimestamp = Long.MIN_VALUE;
+	}
+
+	// lateness and counters in JSON format, for describing windows
+	public String describe() {
+		return "{\"allowed_ms\": " + allowedLateness + ", \"policy\": \"" + (includeLate ? "include" : "drop")
+				+ "\", \"waiting\": " + size + ", \"reordered\": " + reordered + ", \"late_dropped\": " + lateDropped
+				+ ", \"late_included\": " + lateIncluded + "}";
+	}
+
+}
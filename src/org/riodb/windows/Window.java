@@ -47,6 +47,18 @@ public interface Window {
 	// Makes a copy of the window, but fresh from start. 
 	// used to start new empty windows when partitioning windows by a key. 
 	public Window makeEmptyClone();
+	// Makes an empty copy of the window running other functions, for ALTER WINDOW. null if not supported.
+	public default Window makeEmptyClone(boolean[] functionsRequired) {
+		return null;
+	}
+	// copies the elements stored, oldest first, for rebuilding the window with other functions.
+	// false if the window doesn't keep its elements.
+	public default boolean copyElements(ElementLog log, int currentSecond) {
+		return false;
+	}
+	// marks a rebuilt window of time full, when the window it replaces had reached eviction age.
+	public default void markFull() {
+	}
 	// print function for debugging
 	public void printElements();
 	// checks if this window requires a function:
@@ -58,4 +70,27 @@ public interface Window {
 	public WindowSummaryInterface trimAndGetWindowSummaryCopy(int currentSecond);
 	// function to evict expired elements (effective on windowOfTime* only)
 	public void trimExpiredWindowElements(int currentSecond);
+	// off-heap bytes used by this window (for very large windows)
+	public default long getOffHeapBytes() {
+		return 0;
+	}
+	// free off-heap memory when the window is dropped or reset. The window must not be used after.
+	public default void free() {
+	}
+	// trim expired and add a batch of elements with their seconds. Returns the summary after the batch.
+	// if summaries is not null, it gets the summary after each element.
+	public default WindowSummaryInterface trimAddBatch(double[] elements, int[] seconds, int count,
+			WindowSummaryInterface[] summaries) {
+		WindowSummaryInterface windowSummary = null;
+		for (int i = 0; i < count; i++) {
+			windowSummary = trimAddAndGetWindowSummaryCopy(elements[i], seconds[i]);
+			if (summaries != null) {
+				summaries[i] = windowSummary;
+			}
+		}
+		if (windowSummary == null) {
+			return getWindowSummaryCopy();
+		}
+		return windowSummary;
+	}
 }
@@ -0,0 +1,306 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    WindowClassGenerator generates a specialized window class for each
+ *    combination of required functions.
+ *
+ *    WindowOfTimeSimple checks flags like requiresMax and requiresSum for every
+ *    element, and every SecondNode carries fields for all functions, needed or not.
+ *    A window of "sum" over a large partitioned stream pays for max, min,
+ *    first, previous... in memory and in branches.
+ *
+ *    The generated class has only the node arrays and update code for the
+ *    functions required. Nodes are kept in a ring of primitive arrays
+ *    (one array per field, sized in powers of 2) instead of a queue of objects.
+ *    Max and Min slide with the nodes in a SlidingAggregation, so evicting
+ *    the max or min node doesn't scan the ring.
+ *
+ *    Classes are compiled with InMemoryJavaCompiler, the same way as compiled
+ *    conditions and expressions, and cached per combination of functions.
+ *    So 1000 partitions, or 10 windows with the same functions, share one class.
+ *
+ *    Only windows of time without a range end are generated. If compiling
+ *    fails, null is returned and the caller falls back to WindowOfTimeSimple.
+ *
+ */
+
+package org.riodb.windows;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+
+import org.mdkt.compiler.InMemoryJavaCompiler;
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public final class WindowClassGenerator {
+
+	// compiled constructors, by combination of required functions
+	private static final HashMap<String, Constructor<?>> compiledClasses = new HashMap<String, Constructor<?>>();
+
+	// returns a new specialized window of time, or null if it could not be generated.
+	public static Window newWindowOfTime(int rangeStart, boolean[] functionsRequired, int partitionExpiration) {
+
+		boolean requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		boolean requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		boolean requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		boolean requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		boolean requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		boolean requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		// class name tells the functions it supports. c=count, f=first, x=max, n=min, p=previous, s=sum
+		String className = "CompiledWindowOfTime_" + (requiresCount ? "c" : "") + (requiresFirst ? "f" : "")
+				+ (requiresMax ? "x" : "") + (requiresMin ? "n" : "") + (requiresPrevious ? "p" : "")
+				+ (requiresSum ? "s" : "");
+
+		try {
+			Constructor<?> constructor;
+			synchronized (compiledClasses) {
+				constructor = compiledClasses.get(className);
+				if (constructor == null) {
+					String source = generateWindowOfTime(className, requiresCount, requiresFirst, requiresMax,
+							requiresMin, requiresPrevious, requiresSum);
+
+					Class<?> newClass = InMemoryJavaCompiler.newInstance().compile("org.riodb.windows." + className,
+							source);
+					constructor = newClass.getDeclaredConstructor(int.class, boolean[].class, int.class);
+					compiledClasses.put(className, constructor);
+					RioDB.rio.getSystemSettings().getLogger().trace("    compiled " + className);
+				}
+			}
+			RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing " + className);
+			return (Window) constructor.newInstance(rangeStart, functionsRequired, partitionExpiration);
+
+		} catch (Exception e) {
+			String msg = e.getMessage() == null ? e.getClass().getName() : e.getMessage().replace("\n", "\\n");
+			RioDB.rio.getSystemSettings().getLogger().debug("Error compiling dynamic class: [" + className + "] " + msg);
+			return null;
+		}
+	}
+
+	// number of compiled window classes
+	public static int getCompiledClassCount() {
+		synchronized (compiledClasses) {
+			return compiledClasses.size();
+		}
+	}
+
+	// generates the source code of a window of time for the functions required
+	private static String generateWindowOfTime(String className, boolean requiresCount, boolean requiresFirst,
+			boolean requiresMax, boolean requiresMin, boolean requiresPrevious, boolean requiresSum) {
+
+		StringBuilder s = new StringBuilder();
+
+		s.append("package org.riodb.windows;\r\n\r\n");
+		s.append("public class " + className + " extends CompiledWindow {\r\n");
+
+		// node arrays. one array per field, only for the functions required.
+		s.append("	private int nodeSecond[];\r\n");
+		s.append("	private double nodeLast[];\r\n");
+		if (requiresCount) {
+			s.append("	private int nodeCount[];\r\n");
+		}
+		if (requiresSum) {
+			s.append("	private double nodeSum[];\r\n");
+		}
+		// stack entries of each node in the sliding aggregations of max and min
+		if (requiresMax || requiresMin) {
+			s.append("	private int nodeEntries[];\r\n");
+		}
+		if (requiresFirst) {
+			s.append("	private double nodeFirst[];\r\n");
+		}
+		s.append("	private int head;\r\n");
+		s.append("	private int size;\r\n");
+		s.append("	private int mask;\r\n");
+		s.append("	private int newest;\r\n");
+		s.append("	private int newestSecond;\r\n\r\n");
+
+		// constructor and clone
+		s.append("	public " + className + "(int rangeStart, boolean[] functionsRequired, int partitionExpiration) {\r\n");
+		s.append("		super(rangeStart, functionsRequired, partitionExpiration);\r\n");
+		s.append("		mask = 15;\r\n");
+		s.append("		nodeSecond = new int[16];\r\n");
+		s.append("		nodeLast = new double[16];\r\n");
+		if (requiresCount) {
+			s.append("		nodeCount = new int[16];\r\n");
+		}
+		if (requiresSum) {
+			s.append("		nodeSum = new double[16];\r\n");
+		}
+		if (requiresMax || requiresMin) {
+			s.append("		nodeEntries = new int[16];\r\n");
+		}
+		if (requiresFirst) {
+			s.append("		nodeFirst = new double[16];\r\n");
+		}
+		s.append("	}\r\n\r\n");
+
+		s.append("	public Window makeEmptyClone() {\r\n");
+		s.append("		return new " + className + "(rangeStart, functionsRequired, partitionExpiration);\r\n");
+		s.append("	}\r\n\r\n");
+
+		// add element
+		s.append("	protected void addTrimmed(double element, int currentSecond) {\r\n");
+		s.append("		if (partitionExpiration > 0) {\r\n");
+		s.append("			lastEntryTime = currentSecond;\r\n");
+		s.append("		}\r\n");
+		s.append("		if (size > 0) {\r\n");
+		s.append("			int i = newest;\r\n");
+		s.append("			if (currentSecond <= newestSecond) {\r\n");
+		if (requiresCount) {
+			s.append("				nodeCount[i]++;\r\n");
+		}
+		if (requiresSum) {
+			s.append("				nodeSum[i] += element;\r\n");
+		}
+		if (requiresMax || requiresMin) {
+			s.append("				nodeEntries[i] += slidingAddToNewest(element);\r\n");
+		}
+		s.append("				nodeLast[i] = element;\r\n");
+		s.append("			} else {\r\n");
+		s.append("				newNode(currentSecond, element);\r\n");
+		s.append("			}\r\n");
+		if (requiresMax) {
+			s.append("			if (element > windowSummary.getMax()) {\r\n");
+			s.append("				windowSummary.setMax(element);\r\n");
+			s.append("			}\r\n");
+		}
+		if (requiresMin) {
+			s.append("			if (element < windowSummary.getMin()) {\r\n");
+			s.append("				windowSummary.setMin(element);\r\n");
+			s.append("			}\r\n");
+		}
+		if (requiresPrevious) {
+			s.append("			windowSummary.setPrevious(windowSummary.getLast());\r\n");
+		}
+		s.append("		} else {\r\n");
+		s.append("			newNode(currentSecond, element);\r\n");
+		if (requiresMax) {
+			s.append("			windowSummary.setMax(element);\r\n");
+		}
+		if (requiresMin) {
+			s.append("			windowSummary.setMin(element);\r\n");
+		}
+		if (requiresFirst) {
+			s.append("			windowSummary.setFirst(element);\r\n");
+		}
+		s.append("		}\r\n");
+		if (requiresCount) {
+			s.append("		windowSummary.incrementCount();\r\n");
+		}
+		if (requiresSum) {
+			s.append("		windowSummary.sumAdd(element);\r\n");
+		}
+		s.append("		windowSummary.setLast(element);\r\n");
+		s.append("	}\r\n\r\n");
+
+		// new node at the end of the ring
+		s.append("	private void newNode(int second, double element) {\r\n");
+		s.append("		if (size == nodeSecond.length) {\r\n");
+		s.append("			int capacity = nodeSecond.length * 2;\r\n");
+		s.append("			nodeSecond = regrow(nodeSecond, head, size, capacity);\r\n");
+		s.append("			nodeLast = regrow(nodeLast, head, size, capacity);\r\n");
+		if (requiresCount) {
+			s.append("			nodeCount = regrow(nodeCount, head, size, capacity);\r\n");
+		}
+		if (requiresSum) {
+			s.append("			nodeSum = regrow(nodeSum, head, size, capacity);\r\n");
+		}
+		if (requiresMax || requiresMin) {
+			s.append("			nodeEntries = regrow(nodeEntries, head, size, capacity);\r\n");
+		}
+		if (requiresFirst) {
+			s.append("			nodeFirst = regrow(nodeFirst, head, size, capacity);\r\n");
+		}
+		s.append("			head = 0;\r\n");
+		s.append("			mask = capacity - 1;\r\n");
+		s.append("		}\r\n");
+		s.append("		int i = (head + size) & mask;\r\n");
+		s.append("		newest = i;\r\n");
+		s.append("		newestSecond = second;\r\n");
+		s.append("		nodeSecond[i] = second;\r\n");
+		s.append("		nodeLast[i] = element;\r\n");
+		if (requiresCount) {
+			s.append("		nodeCount[i] = 1;\r\n");
+		}
+		if (requiresSum) {
+			s.append("		nodeSum[i] = element;\r\n");
+		}
+		if (requiresMax || requiresMin) {
+			s.append("		nodeEntries[i] = 1;\r\n");
+			s.append("		slidingPush(element);\r\n");
+		}
+		if (requiresFirst) {
+			s.append("		nodeFirst[i] = element;\r\n");
+		}
+		s.append("		size++;\r\n");
+		s.append("	}\r\n\r\n");
+
+		// evict expired nodes
+		s.append("	public void trimExpiredWindowElements(int currentSecond) {\r\n");
+		s.append("		int expirationTime = currentSecond - rangeStart;\r\n");
+		s.append("		if (size == 0 || nodeSecond[head] > expirationTime) {\r\n");
+		s.append("			return;\r\n");
+		s.append("		}\r\n");
+		s.append("		if (newestSecond <= expirationTime) {\r\n");
+		s.append("			head = 0;\r\n");
+		s.append("			size = 0;\r\n");
+		s.append("			resetSummary(" + requiresPrevious + ");\r\n");
+		// the range has passed, so the empty window stays full like after a partial eviction
+		s.append("			windowSummary.setFull(true);\r\n");
+		if (requiresMax || requiresMin) {
+			s.append("			slidingClear();\r\n");
+		}
+		s.append("			return;\r\n");
+		s.append("		}\r\n");
+		s.append("		while (nodeSecond[head] <= expirationTime) {\r\n");
+		if (requiresCount) {
+			s.append("			windowSummary.setCount(windowSummary.getCount() - nodeCount[head]);\r\n");
+		}
+		if (requiresSum) {
+			s.append("			windowSummary.sumSubtract(nodeSum[head]);\r\n");
+		}
+		if (requiresMax || requiresMin) {
+			s.append("			slidingPop(nodeEntries[head]);\r\n");
+		}
+		s.append("			head = (head + 1) & mask;\r\n");
+		s.append("			size--;\r\n");
+		s.append("		}\r\n");
+		if (requiresMax) {
+			s.append("		windowSummary.setMax(slidingMax.get());\r\n");
+		}
+		if (requiresMin) {
+			s.append("		windowSummary.setMin(slidingMin.get());\r\n");
+		}
+		if (requiresFirst) {
+			s.append("		windowSummary.setFirst(nodeFirst[head]);\r\n");
+		}
+		s.append("		windowSummary.setFull(true);\r\n");
+		s.append("	}\r\n");
+
+		s.append("}\r\n");
+
+		return s.toString();
+	}
+
+}
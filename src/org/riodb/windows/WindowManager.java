@@ -44,6 +44,17 @@ public class WindowManager {
 	// * -1) -1)
 	private final ArrayList<WindowWrapper_String> windowWrapperList_String = new ArrayList<WindowWrapper_String>();
 
+	// shared storage for windows of time over the same field and condition.
+	// Each message is put into each shared source once, before the windows read it.
+	private final ArrayList<SharedWindowSource> sharedSourceList = new ArrayList<SharedWindowSource>();
+
+	// storage of multi-field windows. Each message is put into each source once,
+	// and the column windows (in windowWrapperList) read from it.
+	private final ArrayList<MultiFieldWindowSource> multiFieldSourceList = new ArrayList<MultiFieldWindowSource>();
+
+	// recent raw messages of the stream, to load new windows. null if the stream has no history.
+	private StreamHistory streamHistory;
+
 	public WindowManager() {
 		// this.streamId = streamId;
 	}
@@ -54,8 +65,22 @@ public class WindowManager {
 		this.streamId = streamId;
 	}
 
+	// stream history setter, from 'create stream ... history ...'
+	public void setStreamHistory(StreamHistory streamHistory) {
+		this.streamHistory = streamHistory;
+	}
+
+	// stream history getter. null if the stream has no history.
+	public StreamHistory getStreamHistory() {
+		return streamHistory;
+	}
+
 	// add a window to this stream's windowManager
 	public void addWindow(WindowWrapper newWindow) {
+		// the window is loaded from the stream history by the stream thread, before its first message.
+		if (streamHistory != null && newWindow.canBackfill()) {
+			newWindow.requestBackfill(streamHistory);
+		}
 		windowWrapperList.add(newWindow);
 		RioDB.rio.getSystemSettings().getLogger().trace("    window '" + newWindow.getName() + "' added to WindowManager");
 	}
@@ -66,19 +91,72 @@ public class WindowManager {
 		RioDB.rio.getSystemSettings().getLogger().trace("    window '" + newWindow.getName() + "' added to WindowManager");
 	}
 
+	// get the shared source by key, or null if there isn't one yet.
+	public SharedWindowSource getSharedSource(String sourceKey) {
+		for (SharedWindowSource s : sharedSourceList) {
+			if (s.getSourceKey().equals(sourceKey)) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	// add a shared source to this stream's windowManager
+	public void addSharedSource(SharedWindowSource newSource) {
+		sharedSourceList.add(newSource);
+		RioDB.rio.getSystemSettings().getLogger().trace("    shared window source added to WindowManager");
+	}
+
+	// get the multi-field source by window name, or null if there isn't one.
+	public MultiFieldWindowSource getMultiFieldSource(String windowName) {
+		for (MultiFieldWindowSource s : multiFieldSourceList) {
+			if (s.getWindowName().equals(windowName)) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	// add a multi-field source to this stream's windowManager
+	public void addMultiFieldSource(MultiFieldWindowSource newSource) {
+		multiFieldSourceList.add(newSource);
+		RioDB.rio.getSystemSettings().getLogger()
+				.trace("    multi-field window '" + newSource.getWindowName() + "' added to WindowManager");
+	}
+
 	// drop a window (sync in case of concurrent requests)
 	public synchronized boolean dropWindow(String windowName) {
 
+		// a multi-field window drops all of its column and pair windows
+		MultiFieldWindowSource multiFieldSource = getMultiFieldSource(windowName);
+		if (multiFieldSource != null) {
+			for (int i = windowWrapperList.size() - 1; i >= 0; i--) {
+				if (windowWrapperList.get(i).getMultiFieldSource() == multiFieldSource) {
+					windowWrapperList.remove(i).releaseConditions();
+				}
+			}
+			multiFieldSourceList.remove(multiFieldSource);
+			multiFieldSource.releaseConditions();
+			return true;
+		}
+
 		for (int i = 0; i < windowWrapperList.size(); i++) {
 			if (windowName.equals(windowWrapperList.get(i).getName())) {
-				windowWrapperList.remove(i);
+				SharedWindowSource sharedSource = windowWrapperList.get(i).getSharedSource();
+				windowWrapperList.get(i).detachSharedSource();
+				if (sharedSource != null && !sharedSource.hasViews()) {
+					sharedSourceList.remove(sharedSource);
+					sharedSource.releaseConditions();
+				}
+				windowWrapperList.get(i).releaseConditions();
+				windowWrapperList.remove(i).free();
 				return true;
 			}
 		}
 
 		for (int i = 0; i < windowWrapperList_String.size(); i++) {
 			if (windowName.equals(windowWrapperList_String.get(i).getName())) {
-				windowWrapperList_String.remove(i);
+				windowWrapperList_String.remove(i).releaseConditions();
 				return true;
 			}
 		}
@@ -191,6 +269,10 @@ public class WindowManager {
 			return true;
 		}
 
+		if (getMultiFieldSource(windowName) != null) {
+			return true;
+		}
+
 		return false;
 	}
 
@@ -258,6 +340,10 @@ public class WindowManager {
 
 	// get all window names
 	public String describeWindow(String windowName) {
+		MultiFieldWindowSource multiFieldSource = getMultiFieldSource(windowName);
+		if (multiFieldSource != null) {
+			return multiFieldSource.describeWindow();
+		}
 		for (int i = 0; i < windowWrapperList.size(); i++) {
 			if (windowWrapperList.get(i).getName().equals(windowName)) {
 				String description = windowWrapperList.get(i).describeWindow();
@@ -286,9 +372,19 @@ public class WindowManager {
 		WindowSummary results[] = new WindowSummary[windowWrapperList.size()];
 		// guarantee that currentSecond is the same for all windows.
 		int currentSecond = RioDB.rio.getEngine().getClock().getCurrentSecond();
+		for (int i = 0; i < sharedSourceList.size(); i++) {
+			sharedSourceList.get(i).putMessageRef(message, currentSecond);
+		}
+		for (int i = 0; i < multiFieldSourceList.size(); i++) {
+			multiFieldSourceList.get(i).putMessageRef(message, currentSecond);
+		}
 		for (int i = 0; i < results.length; i++) {
 			results[i] = (WindowSummary) windowWrapperList.get(i).putMessageRef(message, currentSecond);
 		}
+		// after the windows, so a window loaded from the history doesn't get the message twice.
+		if (streamHistory != null) {
+			streamHistory.add(message, currentSecond);
+		}
 
 		return results;
 
@@ -313,6 +409,51 @@ public class WindowManager {
 
 	}
 
+	/*
+	 * Method to process a batch of messages through all windows. Each window is
+	 * updated with the whole batch, and the summaries at the end of the batch are
+	 * returned.
+	 */
+	public WindowSummary[] putMessageBatch(RioDBStreamMessage messages[], int count) {
+
+		WindowSummary results[] = new WindowSummary[windowWrapperList.size()];
+		// guarantee that currentSecond is the same for all windows.
+		int currentSecond = RioDB.rio.getEngine().getClock().getCurrentSecond();
+		for (int i = 0; i < sharedSourceList.size(); i++) {
+			for (int j = 0; j < count; j++) {
+				sharedSourceList.get(i).putMessageRef(messages[j], currentSecond);
+			}
+		}
+		for (int i = 0; i < multiFieldSourceList.size(); i++) {
+			for (int j = 0; j < count; j++) {
+				multiFieldSourceList.get(i).putMessageRef(messages[j], currentSecond);
+			}
+		}
+		for (int i = 0; i < results.length; i++) {
+			results[i] = (WindowSummary) windowWrapperList.get(i).putMessageBatch(messages, count, currentSecond,
+					null);
+		}
+		if (streamHistory != null) {
+			streamHistory.addBatch(messages, count, currentSecond);
+		}
+
+		return results;
+	}
+
+	// Method to process a batch of messages through all windows of STRING.
+	public WindowSummary_String[] putMessageBatch_String(RioDBStreamMessage messages[], int count) {
+
+		WindowSummary_String results[] = new WindowSummary_String[windowWrapperList_String.size()];
+		// guarantee that currentSecond is the same for all windows.
+		int currentSecond = RioDB.rio.getEngine().getClock().getCurrentSecond();
+		for (int i = 0; i < results.length; i++) {
+			results[i] = (WindowSummary_String) windowWrapperList_String.get(i).putMessageBatch(messages, count,
+					currentSecond, null);
+		}
+
+		return results;
+	}
+
 	// Trim windows to evict elements that are old (for window of time)
 	public void trimExpiredWindowElements(int currentSecond) {
 		for (int i = 0; i < windowWrapperList.size(); i++) {
@@ -335,6 +476,10 @@ public class WindowManager {
 		else if (hasWindow_String(windowName)) {
 			getWindow_String(windowName).resetWindow();
 		}
+
+		else if (getMultiFieldSource(windowName) != null) {
+			getMultiFieldSource(windowName).clear();
+		}
 	}
 
 	// Reset all windows to empty, awaiting first entry
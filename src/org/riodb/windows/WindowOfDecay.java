@@ -0,0 +1,205 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfDecay is used for DECAY windows, like 'range decay 5m'.
+ *
+ *    Instead of evicting elements when they leave a range, elements fade:
+ *    the weight of an element halves every half-life (5 minutes in the example).
+ *    Avg is the exponentially weighted moving average (EWMA). Sum and Count
+ *    are the exponentially decayed sum and count.
+ *
+ *    No elements are stored. The state is a few primitives, updated in O(1):
+ *       decayedSum  = decayedSum  * 2^(-elapsed / halfLife) + element
+ *       decayedCount = decayedCount * 2^(-elapsed / halfLife) + 1
+ *    So millions of partitions are affordable.
+ *
+ *    Time is the event time in seconds (the timestamp field, or the Clock).
+ *    A late element counts with the weight it would have had by now.
+ *
+ *    Only functions that can be decayed without storing elements are supported:
+ *       Avg, Count, Last, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfDecay implements Window {
+
+	// a partition can expire once its weight is below 2^-20 (about one millionth).
+	private static final int EXPIRATION_HALF_LIVES = 20;
+
+	// half-life, in seconds
+	private final int halfLife;
+
+	private final boolean functionsRequired[];
+
+	// decayed state, as of decayedSecond
+	private double decayedSum;
+	private double decayedCount;
+	private int decayedSecond;
+
+	private double last;
+	private double previous;
+
+	// time of the most recent element, for partition expiration
+	private int lastEntryTime;
+
+	// constructor
+	public WindowOfDecay(int halfLife, boolean[] functionsRequired) {
+
+		this.halfLife = halfLife;
+		this.functionsRequired = functionsRequired;
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of decay");
+
+		decayedSum = 0;
+		decayedCount = 0;
+		decayedSecond = Integer.MIN_VALUE;
+		last = Double.NaN;
+		previous = Double.NaN;
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		return new WindowOfDecay(halfLife, functionsRequired);
+	}
+
+	// if a function can be computed by a DECAY window
+	public static boolean supportsFunction(int functionId) {
+		String function = SQLAggregateFunctions.getFunction(functionId);
+		return function.equals("avg") || function.equals("count") || function.equals("last")
+				|| function.equals("previous") || function.equals("sum");
+	}
+
+	// decay factor for a number of seconds
+	private double decayFactor(int elapsed) {
+		return Math.pow(0.5, (double) elapsed / halfLife);
+	}
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+
+		if (decayedSecond == Integer.MIN_VALUE) {
+			decayedSecond = currentSecond;
+		}
+
+		if (currentSecond >= decayedSecond) {
+			trimExpiredWindowElements(currentSecond);
+			decayedSum += element;
+			decayedCount++;
+		} else {
+			// late element. Weighed as of decayedSecond.
+			double factor = decayFactor(decayedSecond - currentSecond);
+			decayedSum += element * factor;
+			decayedCount += factor;
+		}
+
+		previous = last;
+		last = element;
+		if (currentSecond > lastEntryTime) {
+			lastEntryTime = currentSecond;
+		}
+
+		return getWindowSummaryCopy();
+	}
+
+	// decays the state to currentSecond
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		if (currentSecond > decayedSecond && decayedSecond != Integer.MIN_VALUE) {
+			double factor = decayFactor(currentSecond - decayedSecond);
+			decayedSum *= factor;
+			decayedCount *= factor;
+			decayedSecond = currentSecond;
+		}
+	}
+
+	@Override
+	public int getWindowCount() {
+		return (int) Math.round(decayedCount);
+	}
+
+	@Override
+	public double getWindowLast() {
+		return last;
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		WindowSummaryOfDecay s = new WindowSummaryOfDecay(decayedCount, decayedSum);
+		s.setLast(last);
+		s.setPrevious(previous);
+		s.setFull(decayedCount > 0);
+		return s;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return decayedCount == 0;
+	}
+
+	// a decay window is full once it has an element
+	@Override
+	public boolean isFull() {
+		return decayedCount > 0;
+	}
+
+	@Override
+	public void printElements() {
+		System.out.println("decayed sum: " + decayedSum + " decayed count: " + decayedCount + " as of: "
+				+ decayedSecond);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return "\"decay " + halfLife + "s\"";
+	}
+
+	// a partition can be dropped once its elements have faded out.
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond - lastEntryTime > Math.max(Window.GRACE_PERIOD, (long) halfLife * EXPIRATION_HALF_LIVES)) {
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfMultiFieldColumn is the window of one field (column) of a
+ *    multi-field window. It doesn't store any data. The rows are stored in the
+ *    MultiFieldWindowSource, shared by all columns.
+ *
+ *    The source notifies the column when a row enters or leaves the window,
+ *    and the column updates its own aggregates incrementally.
+ *
+ *    Max and Min are tracked with a monotonic queue of row sequence numbers,
+ *    so evicting the max or min doesn't require a scan.
+ *
+ *    Supports:
+ *       Avg, Count, First, Last, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfMultiFieldColumn implements Window {
+
+	// the shared storage
+	private final MultiFieldWindowSource source;
+	// the column index of this field in the source
+	private final int column;
+
+	// aggregates of the rows in the window
+	private int count;
+	private double sum;
+	private SeqQueue maxQueue;
+	private SeqQueue minQueue;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// constructor. Columns are made by the MultiFieldWindowSource
+	protected WindowOfMultiFieldColumn(MultiFieldWindowSource source, int column, boolean[] functionsRequired) {
+
+		this.source = source;
+		this.column = column;
+
+		this.functionsRequired = functionsRequired;
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of multi-field column");
+
+		count = 0;
+		sum = 0;
+		if (requiresMax) {
+			maxQueue = new SeqQueue();
+		}
+		if (requiresMin) {
+			minQueue = new SeqQueue();
+		}
+	}
+
+	// if a function can be computed by a column of a multi-field window
+	public static boolean supportsFunction(int functionId) {
+		String function = SQLAggregateFunctions.getFunction(functionId);
+		return function.equals("avg") || function.equals("count") || function.equals("first")
+				|| function.equals("last") || function.equals("max") || function.equals("min")
+				|| function.equals("previous") || function.equals("sum");
+	}
+
+	public MultiFieldWindowSource getSource() {
+		return source;
+	}
+
+	// a row was added to the source
+	protected void rowAdded(long seq) {
+		double element = source.getValue(column, seq);
+		count++;
+		if (requiresSum) {
+			sum += element;
+		}
+		if (requiresMax) {
+			while (!maxQueue.isEmpty() && source.getValue(column, maxQueue.peekLast()) <= element) {
+				maxQueue.pollLast();
+			}
+			maxQueue.addLast(seq);
+		}
+		if (requiresMin) {
+			while (!minQueue.isEmpty() && source.getValue(column, minQueue.peekLast()) >= element) {
+				minQueue.pollLast();
+			}
+			minQueue.addLast(seq);
+		}
+	}
+
+	// the oldest row is leaving the source
+	protected void rowEvicted(long seq) {
+		count--;
+		if (requiresSum) {
+			sum -= source.getValue(column, seq);
+		}
+		if (requiresMax && maxQueue.peekFirst() == seq) {
+			maxQueue.pollFirst();
+		}
+		if (requiresMin && minQueue.peekFirst() == seq) {
+			minQueue.pollFirst();
+		}
+		if (count == 0) {
+			sum = 0;
+		}
+	}
+
+	// the source was emptied
+	protected void clear() {
+		count = 0;
+		sum = 0;
+		if (requiresMax) {
+			maxQueue.clear();
+		}
+		if (requiresMin) {
+			minQueue.clear();
+		}
+	}
+
+	// A reset empties the whole multi-field window, all columns.
+	// The column stays attached to the source, so it returns itself.
+	@Override
+	public Window makeEmptyClone() {
+		source.clear();
+		return this;
+	}
+
+	// Rows are added to the MultiFieldWindowSource by the WindowManager, not to the column.
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		source.trimExpiredRows(currentSecond);
+	}
+
+	@Override
+	public int getWindowCount() {
+		return count;
+	}
+
+	@Override
+	public double getWindowLast() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		return source.getValue(column, source.getNextSeq() - 1);
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+
+		WindowSummary windowSummary = new WindowSummary();
+		windowSummary.setFull(source.isFull());
+		if (count == 0) {
+			return windowSummary;
+		}
+
+		long top = source.getNextSeq() - 1;
+
+		// count is always set, so that Avg works.
+		windowSummary.setCount(count);
+		if (requiresSum) {
+			windowSummary.setSum(sum);
+		}
+		if (requiresMax) {
+			windowSummary.setMax(source.getValue(column, maxQueue.peekFirst()));
+		}
+		if (requiresMin) {
+			windowSummary.setMin(source.getValue(column, minQueue.peekFirst()));
+		}
+		if (requiresFirst) {
+			windowSummary.setFirst(source.getValue(column, source.getHeadSeq()));
+		}
+		if (requiresPrevious && count > 1) {
+			windowSummary.setPrevious(source.getValue(column, top - 1));
+		}
+		windowSummary.setLast(source.getValue(column, top));
+
+		return windowSummary;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public boolean isFull() {
+		return source.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		String s = "column " + column + ": ";
+		for (long seq = source.getHeadSeq(); seq < source.getNextSeq(); seq++) {
+			s = s + ", " + source.getValue(column, seq);
+		}
+		System.out.println(s);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return source.getRange();
+	}
+
+	// never partitioned
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		return false;
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfMultiFieldPair computes functions of two fields (x, y) of a
+ *    multi-field window, like 'create window cl running correlation from s.cpu, s.latency range 5m;'
+ *    The first field is x and the second field is y.
+ *
+ *    Like the columns, it doesn't store any data. The MultiFieldWindowSource
+ *    notifies it when a row enters or leaves the window, and the sums of
+ *    x, y, x*x, y*y and x*y are updated. O(1) per row.
+ *
+ *    Adding and subtracting values for a long time loses precision, so sums are
+ *    compensated (Neumaier summation), and values are shifted by a reference
+ *    close to the values in the window. Once all rows in the window have been
+ *    replaced, the reference is picked again and the sums are rebuilt from the
+ *    rows. That's amortized O(1) per row.
+ *
+ *    Supports:
+ *       Count, Covariance, Covariance_pop, Correlation, Regr_slope, Regr_intercept
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfMultiFieldPair implements Window {
+
+	// indexes of the sums
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int XX = 2;
+	private static final int YY = 3;
+	private static final int XY = 4;
+
+	// the shared storage
+	private final MultiFieldWindowSource source;
+	// the columns of x and y in the source
+	private final int columnX;
+	private final int columnY;
+
+	private int count;
+	// reference values subtracted from x and y
+	private double shiftX;
+	private double shiftY;
+	// compensated sums: the sum, and the low-order bits lost while summing
+	private final double sums[];
+	private final double compensations[];
+	// rows evicted since the sums were rebuilt
+	private int evictedSinceRebuild;
+
+	private boolean functionsRequired[];
+
+	// constructor. The pair is made by the MultiFieldWindowSource
+	protected WindowOfMultiFieldPair(MultiFieldWindowSource source, int columnX, int columnY,
+			boolean[] functionsRequired) {
+
+		this.source = source;
+		this.columnX = columnX;
+		this.columnY = columnY;
+		this.functionsRequired = functionsRequired;
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of multi-field pair");
+
+		sums = new double[5];
+		compensations = new double[5];
+		clear();
+	}
+
+	public MultiFieldWindowSource getSource() {
+		return source;
+	}
+
+	// a row was added to the source
+	protected void rowAdded(long seq) {
+		if (count == 0) {
+			shiftX = source.getValue(columnX, seq);
+			shiftY = source.getValue(columnY, seq);
+		}
+		double x = source.getValue(columnX, seq) - shiftX;
+		double y = source.getValue(columnY, seq) - shiftY;
+		count++;
+		add(X, x);
+		add(Y, y);
+		add(XX, x * x);
+		add(YY, y * y);
+		add(XY, x * y);
+	}
+
+	// the oldest row is leaving the source
+	protected void rowEvicted(long seq) {
+		double x = source.getValue(columnX, seq) - shiftX;
+		double y = source.getValue(columnY, seq) - shiftY;
+		count--;
+		if (count == 0) {
+			clear();
+			return;
+		}
+		add(X, -x);
+		add(Y, -y);
+		add(XX, -(x * x));
+		add(YY, -(y * y));
+		add(XY, -(x * y));
+
+		evictedSinceRebuild++;
+		if (evictedSinceRebuild >= count) {
+			rebuild(seq + 1);
+		}
+	}
+
+	// pick a new reference and sum the rows from firstSeq again
+	private void rebuild(long firstSeq) {
+		long nextSeq = firstSeq + count;
+		clear();
+		for (long seq = firstSeq; seq < nextSeq; seq++) {
+			rowAdded(seq);
+		}
+	}
+
+	// Neumaier summation
+	private void add(int i, double value) {
+		double t = sums[i] + value;
+		if (Math.abs(sums[i]) >= Math.abs(value)) {
+			compensations[i] += (sums[i] - t) + value;
+		} else {
+			compensations[i] += (value - t) + sums[i];
+		}
+		sums[i] = t;
+	}
+
+	private double sum(int i) {
+		return sums[i] + compensations[i];
+	}
+
+	// the source was emptied
+	protected void clear() {
+		count = 0;
+		evictedSinceRebuild = 0;
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] = 0;
+			compensations[i] = 0;
+		}
+	}
+
+	// A reset empties the whole multi-field window.
+	// The pair stays attached to the source, so it returns itself.
+	@Override
+	public Window makeEmptyClone() {
+		source.clear();
+		return this;
+	}
+
+	// Rows are added to the MultiFieldWindowSource by the WindowManager, not to the pair.
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		source.trimExpiredRows(currentSecond);
+	}
+
+	@Override
+	public int getWindowCount() {
+		return count;
+	}
+
+	// last y
+	@Override
+	public double getWindowLast() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		return source.getValue(columnY, source.getNextSeq() - 1);
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		WindowSummary windowSummary = new WindowSummaryOfPair(count, shiftX, shiftY, sum(X), sum(Y), sum(XX),
+				sum(YY), sum(XY));
+		windowSummary.setFull(source.isFull());
+		return windowSummary;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public boolean isFull() {
+		return source.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		String s = "pair: ";
+		for (long seq = source.getHeadSeq(); seq < source.getNextSeq(); seq++) {
+			s = s + ", (" + source.getValue(columnX, seq) + "," + source.getValue(columnY, seq) + ")";
+		}
+		System.out.println(s);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return source.getRange();
+	}
+
+	// never partitioned
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		return false;
+	}
+
+}
@@ -60,6 +60,11 @@ public class WindowOfQuantity implements Window {
 	// First-in-First-out circular array to store elements after window is full
 	private double[] windowElements;
 	
+	// or, for very large windows, an off-heap array
+	private OffHeapDoubleArray offHeapElements;
+	// length of the array in use
+	private int elementsLength;
+
 	// window size
 	private int rangeSize;
 
@@ -110,6 +115,12 @@ public class WindowOfQuantity implements Window {
 	private int pageSize; // will start as 0. Will also serve the purpose of a flag which indicates that
 	// we're using pagination when pageSize > 0
 
+	// Full windows stored on the heap slide MAX and MIN with a SlidingAggregation instead,
+	// so evicting the max or min needs no scan. Off-heap windows keep the pages, so
+	// the stacks don't put their elements back on the heap.
+	private SlidingAggregation slidingMax;
+	private SlidingAggregation slidingMin;
+
 	// median requires a local copy
 	// This is the actual element known as the median element.
 	// whereas in windowSummary, the median sometimes is a point in between the
@@ -154,6 +165,9 @@ public class WindowOfQuantity implements Window {
 	private boolean requiresSum;
 	private boolean requiresVariance;
 
+	// bucket counts for HISTOGRAM. null if not required.
+	private Histogram histogram;
+
 	// Constructor
 	public WindowOfQuantity(int rangeStart, int rangeEnd, boolean[] functionsRequired, int partitionExpiration) {
 
@@ -224,7 +238,48 @@ public class WindowOfQuantity implements Window {
 
 	@Override
 	public Window makeEmptyClone() {
-		return new WindowOfQuantity(rangeStart, rangeEnd, required_Functions, partitionExpiration);
+		return makeEmptyClone(required_Functions);
+	}
+
+	@Override
+	public Window makeEmptyClone(boolean[] functionsRequired) {
+		WindowOfQuantity w = new WindowOfQuantity(rangeStart, rangeEnd, functionsRequired, partitionExpiration);
+		if (histogram != null) {
+			w.enableHistogram(histogram.makeEmptyClone());
+		}
+		return w;
+	}
+
+	// elements in the window, then elements in the waiting queue.
+	// Window of quantity doesn't keep seconds per element. They all get the second
+	// of the last entry, so a rebuilt partition doesn't look newer than it is.
+	@Override
+	public boolean copyElements(ElementLog log, int currentSecond) {
+		if (partitionExpiration > 0) {
+			currentSecond = lastEntryTime;
+		}
+		if (windowSummary.isFull()) {
+			for (int i = windowArrayMarker; i < elementsLength; i++) {
+				log.add(element(i), currentSecond);
+			}
+			for (int i = 0; i < windowArrayMarker; i++) {
+				log.add(element(i), currentSecond);
+			}
+		} else {
+			for (Double d : initialWindow) {
+				log.add(d, currentSecond);
+			}
+		}
+		if (hasRangeEnd) {
+			waitingQueue.copyTo(log, currentSecond);
+		}
+		return true;
+	}
+
+	// starts counting elements in buckets, for HISTOGRAM
+	public void enableHistogram(Histogram histogram) {
+		this.histogram = histogram;
+		windowSummary.setHistogram(histogram);
 	}
 
 	// a wrapper function that adds an element and returns the windowSummary
@@ -245,6 +300,21 @@ public class WindowOfQuantity implements Window {
 		return getWindowSummaryCopy();
 	}
 
+	// adds a batch of elements. The summary is only copied at the end, or per element if requested.
+	@Override
+	public WindowSummary trimAddBatch(double[] elements, int[] seconds, int count, WindowSummaryInterface[] summaries) {
+		if (partitionExpiration > 0 && count > 0) {
+			lastEntryTime = seconds[count - 1];
+		}
+		for (int i = 0; i < count; i++) {
+			add(elements[i]);
+			if (summaries != null) {
+				summaries[i] = getWindowSummaryCopy();
+			}
+		}
+		return getWindowSummaryCopy();
+	}
+
 	// Public procedure to add Element to Window
 	private void add(double elementInserted) {
 
@@ -263,6 +333,10 @@ public class WindowOfQuantity implements Window {
 
 			}
 
+			if (histogram != null) {
+				histogram.add(elementInserted);
+			}
+
 			// if Previous is required...
 			if (requiresPrevious) {
 				windowSummary.setPrevious(windowSummary.getLast());
@@ -280,10 +354,25 @@ public class WindowOfQuantity implements Window {
 				// add new element to circular array and retrieve evicted element.
 				double elementEvicted = putAndPopFromWindow(elementInserted);
 
+				if (histogram != null) {
+					histogram.remove(elementEvicted);
+				}
+
 				// if First is required...
 				if (requiresFirst) {
 					windowSummary.setFirst(getFirst());
 				}
+				// sliding aggregations follow every element, even one equal to the evicted.
+				if (slidingMax != null) {
+					slidingMax.pop();
+					slidingMax.push(elementInserted);
+					windowSummary.setMax(slidingMax.get());
+				}
+				if (slidingMin != null) {
+					slidingMin.pop();
+					slidingMin.push(elementInserted);
+					windowSummary.setMin(slidingMin.get());
+				}
 				// if the new arriving is same as oldest leaving, we need to do nothing.
 				if (elementInserted != elementEvicted) {
 					// if SUM is needed, we need to compute windowSum
@@ -385,7 +474,7 @@ public class WindowOfQuantity implements Window {
 							windowSummary.setCountDistinct(uniqueElements.size());
 						}
 
-						if (requiresMax) {
+						if (requiresMax && slidingMax == null) {
 							/// Set new max if elementInserted is bigger than max
 							if (elementInserted > windowSummary.getMax()) {
 								windowSummary.setMax(elementInserted);
@@ -413,7 +502,7 @@ public class WindowOfQuantity implements Window {
 
 						}
 
-						if (requiresMin) {
+						if (requiresMin && slidingMin == null) {
 							/// Set new min if elementInserted is bigger than min
 							if (elementInserted < windowSummary.getMin()) {
 								windowSummary.setMin(elementInserted);
@@ -479,10 +568,10 @@ public class WindowOfQuantity implements Window {
 						slopeInsertsSinceReset++;
 						// as we evict the oldest element, we also evict it's position x from the sum of
 						// x
-						long removedIndex = slopeInsertsSinceReset - windowElements.length;
+						long removedIndex = slopeInsertsSinceReset - elementsLength;
 						// sum of all X positions...
 						// Clever: add new X and remove old X is same as adding window length
-						slopeEx = slopeEx + windowElements.length;
+						slopeEx = slopeEx + elementsLength;
 						// Update the sum of x*y
 						// slopeExy = slopeExy + (slopeInsertsSinceReset * elementInserted) -
 						// (removedIndex * elementEvicted);
@@ -704,7 +793,7 @@ public class WindowOfQuantity implements Window {
 			if (!windowSummary.isFull() && initialWindow.size() == rangeSize) {
 				convertToFullWindow();
 				windowSummary.setFull(true);
-				windowSummary.setCount(windowElements.length); // redundant
+				windowSummary.setCount(elementsLength); // redundant
 			}
 
 		} // end if(hasRangeEnd && !waitingQueue.isFull())
@@ -745,16 +834,33 @@ public class WindowOfQuantity implements Window {
 
 	// Procedure to convert from arrayDeque to fixed recycling array:
 	private void convertToFullWindow() {
-		windowElements = new double[initialWindow.size()];
+		// very large windows store elements off-heap
+		elementsLength = initialWindow.size();
+		if (OffHeapDoubleArray.isOffHeap(elementsLength)) {
+			offHeapElements = new OffHeapDoubleArray(elementsLength);
+		} else {
+			windowElements = new double[elementsLength];
+		}
 		// fill array with contents of arrayDeque
 
-		if (requiresMax && rangeSize >= threshholdForUsingBuckets) {
-			pageSize = pageSizeDefault;
-			maxPaginated = new double[(rangeSize / pageSize) + 1];
-		}
-		if (requiresMin && rangeSize >= threshholdForUsingBuckets) {
-			pageSize = pageSizeDefault;
-			minPaginated = new double[(rangeSize / pageSize) + 1];
+		if (!sortedElementsRequired && offHeapElements == null) {
+			if (requiresMax) {
+				slidingMax = new SlidingAggregation(
+						SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("max")));
+			}
+			if (requiresMin) {
+				slidingMin = new SlidingAggregation(
+						SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("min")));
+			}
+		} else {
+			if (requiresMax && rangeSize >= threshholdForUsingBuckets) {
+				pageSize = pageSizeDefault;
+				maxPaginated = new double[(rangeSize / pageSize) + 1];
+			}
+			if (requiresMin && rangeSize >= threshholdForUsingBuckets) {
+				pageSize = pageSizeDefault;
+				minPaginated = new double[(rangeSize / pageSize) + 1];
+			}
 		}
 
 		int pageCount = 0;
@@ -762,15 +868,21 @@ public class WindowOfQuantity implements Window {
 		double pageMax = Double.MIN_VALUE;
 		double pageMin = Double.MAX_VALUE;
 
-		for (int i = 0; i < windowElements.length; i++) {
-			windowElements[i] = initialWindow.poll().doubleValue();
+		for (int i = 0; i < elementsLength; i++) {
+			setElement(i, initialWindow.poll().doubleValue());
+			if (slidingMax != null) {
+				slidingMax.push(element(i));
+			}
+			if (slidingMin != null) {
+				slidingMin.push(element(i));
+			}
 
 			if (pageSize > 0) {
-				if (requiresMax && windowElements[i] > pageMax) {
-					pageMax = windowElements[i];
+				if (requiresMax && element(i) > pageMax) {
+					pageMax = element(i);
 				}
-				if (requiresMin && windowElements[i] < pageMin) {
-					pageMin = windowElements[i];
+				if (requiresMin && element(i) < pageMin) {
+					pageMin = element(i);
 				}
 				pageCount++;
 				if (pageCount == pageSize) {
@@ -809,13 +921,13 @@ public class WindowOfQuantity implements Window {
 		// devide by 100 and multiply by 100 in order to round it to hundreds
 		start = start * pageSize;
 		int end = start + pageSize;
-		if (end >= windowElements.length) {
-			end = windowElements.length;
+		if (end >= elementsLength) {
+			end = elementsLength;
 		}
-		double max = windowElements[start];
+		double max = element(start);
 		for (int i = start; i < end; i++) {
-			if (windowElements[i] > max) {
-				max = windowElements[i];
+			if (element(i) > max) {
+				max = element(i);
 			}
 		}
 		maxPaginated[thisArrayMarker / pageSize] = max;
@@ -829,13 +941,13 @@ public class WindowOfQuantity implements Window {
 		// devide by 100 and multiply by 100 in order to round it to hundreds
 		start = start * pageSize;
 		int end = start + pageSize;
-		if (end >= windowElements.length) {
-			end = windowElements.length;
+		if (end >= elementsLength) {
+			end = elementsLength;
 		}
-		double min = windowElements[start];
+		double min = element(start);
 		for (int i = start; i < end; i++) {
-			if (windowElements[i] < min) {
-				min = windowElements[i];
+			if (element(i) < min) {
+				min = element(i);
 			}
 		}
 		minPaginated[thisArrayMarker / pageSize] = min;
@@ -860,11 +972,11 @@ public class WindowOfQuantity implements Window {
 		// if the window size is smaller than threshholdForUsingBuckets, we're not using
 		// pagination.
 		else {
-			double tempMax = windowElements[0];
+			double tempMax = element(0);
 			// loop through circular array looking for a greater value
-			for (int i = 1; i < windowElements.length; i++) {
-				if (windowElements[i] > tempMax) {
-					tempMax = windowElements[i];
+			for (int i = 1; i < elementsLength; i++) {
+				if (element(i) > tempMax) {
+					tempMax = element(i);
 				}
 			}
 			return tempMax;
@@ -884,11 +996,11 @@ public class WindowOfQuantity implements Window {
 			}
 			return tempMin;
 		} else {
-			double tempMin = windowElements[0];
+			double tempMin = element(0);
 			// loop through circular array looking for a greater value
-			for (int i = 1; i < windowElements.length; i++) {
-				if (windowElements[i] < tempMin) {
-					tempMin = windowElements[i];
+			for (int i = 1; i < elementsLength; i++) {
+				if (element(i) < tempMin) {
+					tempMin = element(i);
 				}
 			}
 			return tempMin;
@@ -944,19 +1056,19 @@ public class WindowOfQuantity implements Window {
 
 	// called to reset slope running sums when too large.
 	private void resetSlopeVars() {
-		slopeInsertsSinceReset = windowElements.length;
+		slopeInsertsSinceReset = elementsLength;
 		slopeEx = ((1 + slopeInsertsSinceReset) * slopeInsertsSinceReset) / 2;
 		slopeEx2 = new BigDecimal(
 				(slopeInsertsSinceReset * (slopeInsertsSinceReset + 1) * (2 * slopeInsertsSinceReset + 1)) / 6);
 
 		slopeExy = new BigDecimal(0);
-		int incr = windowElements.length;
+		int incr = elementsLength;
 		int sub = windowArrayMarker - 1;
-		for (int i = 0; i < windowElements.length; i++) {
+		for (int i = 0; i < elementsLength; i++) {
 			if (incr > 0 && i == windowArrayMarker) {
 				incr = 0;
 			}
-			BigDecimal incrB = new BigDecimal(((i - sub + incr) * windowElements[i]));
+			BigDecimal incrB = new BigDecimal(((i - sub + incr) * element(i)));
 			slopeExy = slopeExy.add(incrB);
 		}
 
@@ -1022,14 +1134,14 @@ public class WindowOfQuantity implements Window {
 	// get size
 	private int getCount() {
 		if (windowSummary.isFull()) {
-			return windowElements.length;
+			return elementsLength;
 		}
 		return initialWindow.size();
 	}
 
 	private double getFirst() {
-		if (windowElements != null) {
-			return windowElements[windowArrayMarker];
+		if (elementsLength > 0) {
+			return element(windowArrayMarker);
 		}
 		return initialWindow.peekFirst().doubleValue();
 	}
@@ -1118,11 +1230,11 @@ public class WindowOfQuantity implements Window {
 		String string = "";
 		if (windowSummary.isFull()) {
 			string = "Array\t";
-			for (int i = windowArrayMarker; i < windowElements.length; i++) {
-				string = string + windowElements[i] + "\t";
+			for (int i = windowArrayMarker; i < elementsLength; i++) {
+				string = string + element(i) + "\t";
 			}
 			for (int i = 0; i < windowArrayMarker; i++) {
-				string = string + windowElements[i] + "\t";
+				string = string + element(i) + "\t";
 			}
 		} else {
 			string = "Queue\t";
@@ -1174,14 +1286,55 @@ public class WindowOfQuantity implements Window {
 	}
 
 	
+	// get element from the array in use
+	private double element(int index) {
+		if (offHeapElements != null) {
+			return offHeapElements.get(index);
+		}
+		return windowElements[index];
+	}
+
+	// set element in the array in use
+	private void setElement(int index, double value) {
+		if (offHeapElements != null) {
+			offHeapElements.set(index, value);
+		} else {
+			windowElements[index] = value;
+		}
+	}
+
+	// off-heap bytes used by this window
+	@Override
+	public long getOffHeapBytes() {
+		long bytes = 0;
+		if (offHeapElements != null) {
+			bytes = offHeapElements.getBytes();
+		}
+		if (waitingQueue != null) {
+			bytes = bytes + waitingQueue.getOffHeapBytes();
+		}
+		return bytes;
+	}
+
+	// free off-heap memory. The window must not be used after this.
+	@Override
+	public void free() {
+		if (offHeapElements != null) {
+			offHeapElements.free();
+		}
+		if (waitingQueue != null) {
+			waitingQueue.free();
+		}
+	}
+
 	// procedure to add element to array and remove oldest lement in one shot
 	private double putAndPopFromWindow(double in) {
 		// swaps array entry old for new, at marker
-		double ret = windowElements[windowArrayMarker];
-		windowElements[windowArrayMarker] = in;
+		double ret = element(windowArrayMarker);
+		setElement(windowArrayMarker, in);
 		windowArrayMarker++;
 		// if marker exceeds array, return to 0
-		if (windowArrayMarker == windowElements.length) {
+		if (windowArrayMarker == elementsLength) {
 			windowArrayMarker = 0;
 		}
 		return ret;
@@ -123,6 +123,10 @@ public class WindowOfQuantity_String implements Window_String {
 	private boolean requiresMode;
 	private boolean requiresPrevious;
 
+	// sketch for TOPK. null if not required.
+	// elements are numbered in order of entering the window.
+	private TopKSketch topK;
+	private long topKPosition;
 
 	// Constructor
 	public WindowOfQuantity_String(int rangeStart, int rangeEnd, boolean[] functionsRequired, int partitionExpiration) {
@@ -186,7 +190,19 @@ public class WindowOfQuantity_String implements Window_String {
 
 	@Override
 	public Window_String makeEmptyClone() {
-		return new WindowOfQuantity_String(rangeStart, rangeEnd, required_Functions, partitionExpiration);
+		WindowOfQuantity_String w = new WindowOfQuantity_String(rangeStart, rangeEnd, required_Functions,
+				partitionExpiration);
+		if (topK != null) {
+			w.enableTopK(topK.getK());
+		}
+		return w;
+	}
+
+	// starts counting the top K elements, for TOPK
+	public void enableTopK(int k) {
+		topK = new TopKSketch(k, rangeSize);
+		topKPosition = 0;
+		windowSummary.setTopKSketch(topK);
 	}
 
 	// a wrapper function that adds an element and returns the windowSummary
@@ -226,6 +242,12 @@ public class WindowOfQuantity_String implements Window_String {
 
 			}
 
+			if (topK != null) {
+				topKPosition++;
+				topK.add(elementInserted, topKPosition);
+				topK.expire(topKPosition - rangeSize);
+			}
+
 			// if Previous is required...
 			if (requiresPrevious) {
 				windowSummary.setPrevious(windowSummary.getLast());
@@ -0,0 +1,283 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+
+    This file is part of RioDB
+
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+/*
+ *    The WindowOfSession is used for SESSION windows.
+ *
+ *    A session is a burst of activity. It stays open while elements keep
+ *    arriving, and it closes when no element arrives for longer than the gap.
+ *    For example, 'range session 30s' closes a session after 30 seconds of
+ *    inactivity.
+ *
+ *    No elements are stored. The stats of the open session are updated
+ *    incrementally in a WindowSummary.
+ *
+ *    When an element arrives after the gap, the session is closed and a new
+ *    session starts with that element. The summary returned for that element is
+ *    the summary of the closed session, flagged as closed (for queries ON CLOSE).
+ *
+ *    When partitioned, a closed session is due for expiration right away,
+ *    so the partition is freed without waiting for the GRACE_PERIOD.
+ *    The wrapper reports the closed summary to its next message, like the clock
+ *    closing an unpartitioned session.
+ *
+ *    Only functions that can be updated without storing elements are supported:
+ *       Avg, Count, First, Last, Histogram, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfSession implements Window {
+
+	// summary of the open session
+	private WindowSummary windowSummary;
+
+	// summary of the most recently closed session
+	private WindowSummary closedSummary;
+
+	// flag that a session closed, and the next summary copy should be the closed session.
+	private boolean closePending;
+
+	// if there's an open session
+	private boolean sessionOpen;
+
+	// the max inactivity (in seconds) before a session closes
+	private int sessionGap;
+
+	// time of the most recent element
+	private int lastEntryTime;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresCount;
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// bucket counts for HISTOGRAM of the open session. null if not required.
+	private Histogram histogram;
+
+	// constructor
+	public WindowOfSession(int sessionGap, boolean[] functionsRequired) {
+
+		this.sessionGap = sessionGap;
+
+		this.functionsRequired = functionsRequired;
+		this.requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of session");
+
+		windowSummary = new WindowSummary();
+		closedSummary = null;
+		closePending = false;
+		sessionOpen = false;
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		WindowOfSession w = new WindowOfSession(sessionGap, functionsRequired);
+		if (histogram != null) {
+			w.enableHistogram(histogram.makeEmptyClone());
+		}
+		return w;
+	}
+
+	// starts counting elements in buckets, for HISTOGRAM
+	public void enableHistogram(Histogram histogram) {
+		this.histogram = histogram;
+		windowSummary.setHistogram(histogram);
+	}
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+
+		// close the session if the gap has passed.
+		trimExpiredWindowElements(currentSecond);
+
+		add(element);
+		lastEntryTime = currentSecond;
+		sessionOpen = true;
+
+		return getWindowSummaryCopy();
+	}
+
+	// a session closed inside the batch is returned, flagged as closed, like it is
+	// returned to the element after the gap. So queries ON CLOSE see it when they
+	// run on the last message of the batch.
+	@Override
+	public WindowSummaryInterface trimAddBatch(double[] elements, int[] seconds, int count,
+			WindowSummaryInterface[] summaries) {
+		WindowSummary closed = null;
+		WindowSummary summary = null;
+		for (int i = 0; i < count; i++) {
+			summary = trimAddAndGetWindowSummaryCopy(elements[i], seconds[i]);
+			if (summary.isWindowClosed()) {
+				closed = summary;
+			}
+			if (summaries != null) {
+				summaries[i] = summary;
+			}
+		}
+		if (closed != null) {
+			return closed;
+		}
+		if (summary == null) {
+			return getWindowSummaryCopy();
+		}
+		return summary;
+	}
+
+	// add element to the open session
+	private void add(double elementInserted) {
+
+		if (sessionOpen) {
+			if (requiresMax && elementInserted > windowSummary.getMax()) {
+				windowSummary.setMax(elementInserted);
+			}
+			if (requiresMin && elementInserted < windowSummary.getMin()) {
+				windowSummary.setMin(elementInserted);
+			}
+			if (requiresPrevious) {
+				windowSummary.setPrevious(windowSummary.getLast());
+			}
+		} else {
+			// first element of a new session.
+			// IF statements are different because some variables have NaN assigned.
+			if (requiresMax) {
+				windowSummary.setMax(elementInserted);
+			}
+			if (requiresMin) {
+				windowSummary.setMin(elementInserted);
+			}
+			if (requiresFirst) {
+				windowSummary.setFirst(elementInserted);
+			}
+		}
+		if (requiresCount) {
+			windowSummary.incrementCount();
+		}
+		if (requiresSum) {
+			windowSummary.sumAdd(elementInserted);
+		}
+		if (histogram != null) {
+			histogram.add(elementInserted);
+		}
+		windowSummary.setLast(elementInserted);
+	}
+
+	// closes the open session if no element arrived within the gap.
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		if (sessionOpen && currentSecond - lastEntryTime > sessionGap) {
+			windowSummary.setFull(true);
+			closedSummary = windowSummary;
+			closePending = true;
+			windowSummary = new WindowSummary();
+			// the closed session keeps its histogram.
+			if (histogram != null) {
+				histogram = histogram.makeEmptyClone();
+				windowSummary.setHistogram(histogram);
+			}
+			sessionOpen = false;
+		}
+	}
+
+	@Override
+	public int getWindowCount() {
+		return windowSummary.getCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return windowSummary.getLast();
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	// copy of the open session summary.
+	// The first copy after a session closes is the closed session, flagged as closed.
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		if (closePending) {
+			closePending = false;
+			WindowSummary copy = new WindowSummary(closedSummary);
+			copy.setWindowClosed(true);
+			return copy;
+		}
+		return new WindowSummary(windowSummary);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return windowSummary.isEmpty();
+	}
+
+	// the open session is never full. It's only full when closed.
+	@Override
+	public boolean isFull() {
+		return false;
+	}
+
+	@Override
+	public void printElements() {
+		System.out.println("session open: " + sessionOpen + " last entry: " + lastEntryTime + "\n"
+				+ windowSummary.getAll());
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return "\"session " + sessionGap + "s\"";
+	}
+
+	// a session partition can be dropped as soon as its session is closed.
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond - lastEntryTime > sessionGap) {
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfSharedSource is a window of time that doesn't store any data.
+ *    It's a view over the Seconds stored in a SharedWindowSource, with its own
+ *    range cursors and aggregates.
+ *
+ *    Seconds between startSeq and endSeq are complete, and aggregated
+ *    incrementally as they enter and leave the range. The newest Second of the
+ *    source may still be receiving elements, so it's combined when the summary
+ *    is read.
+ *
+ *    Max and Min are tracked with a monotonic queue of Second sequence numbers,
+ *    so evicting the max or min doesn't require a scan.
+ *
+ *    Supports the same functions as WindowOfTimeSimple, without range end:
+ *       Avg, Count, First, Last, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfSharedSource implements Window {
+
+	// the shared storage
+	private final SharedWindowSource source;
+
+	// oldest Second in the window
+	private long startSeq;
+	// next Second to aggregate. Seconds from startSeq to endSeq (exclusive) are aggregated.
+	private long endSeq;
+
+	// aggregates of the complete Seconds in the window
+	private int completeCount;
+	private double completeSum;
+	private SeqQueue maxQueue;
+	private SeqQueue minQueue;
+
+	// the second of the last trim
+	private int lastTrimSecond;
+	private boolean full;
+
+	// window range
+	private int rangeStart;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresCount;
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// constructor. Use SharedWindowSource.newView
+	protected WindowOfSharedSource(SharedWindowSource source, int rangeStart, boolean[] functionsRequired) {
+
+		this.source = source;
+		this.rangeStart = rangeStart;
+
+		this.functionsRequired = functionsRequired;
+		this.requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of shared source");
+
+		// a new window starts empty, after whatever the source has right now.
+		startSeq = source.getNextSeq();
+		endSeq = startSeq;
+		completeCount = 0;
+		completeSum = 0;
+		if (requiresMax) {
+			maxQueue = new SeqQueue();
+		}
+		if (requiresMin) {
+			minQueue = new SeqQueue();
+		}
+		full = false;
+	}
+
+	public SharedWindowSource getSource() {
+		return source;
+	}
+
+	// the oldest Second this window still needs from the source
+	protected long getOldestSeq() {
+		return startSeq;
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		return source.newView(rangeStart, functionsRequired);
+	}
+
+	// Elements are added to the SharedWindowSource by the WindowManager, not to the window.
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		return trimAndGetWindowSummaryCopy(currentSecond);
+	}
+
+	// aggregate Seconds completed since the last call
+	private void catchUp() {
+		long newest = source.getNextSeq() - 1;
+		while (endSeq < newest) {
+			completeCount += source.getCount(endSeq);
+			if (requiresSum) {
+				completeSum += source.getSum(endSeq);
+			}
+			if (requiresMax) {
+				while (!maxQueue.isEmpty() && source.getMax(maxQueue.peekLast()) <= source.getMax(endSeq)) {
+					maxQueue.pollLast();
+				}
+				maxQueue.addLast(endSeq);
+			}
+			if (requiresMin) {
+				while (!minQueue.isEmpty() && source.getMin(minQueue.peekLast()) >= source.getMin(endSeq)) {
+					minQueue.pollLast();
+				}
+				minQueue.addLast(endSeq);
+			}
+			endSeq++;
+		}
+	}
+
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+
+		catchUp();
+		lastTrimSecond = currentSecond;
+
+		int expirationTime = currentSecond - rangeStart;
+		while (startSeq < endSeq && source.getSecond(startSeq) <= expirationTime) {
+			completeCount -= source.getCount(startSeq);
+			if (requiresSum) {
+				completeSum -= source.getSum(startSeq);
+			}
+			if (requiresMax && maxQueue.peekFirst() == startSeq) {
+				maxQueue.pollFirst();
+			}
+			if (requiresMin && minQueue.peekFirst() == startSeq) {
+				minQueue.pollFirst();
+			}
+			startSeq++;
+			full = true;
+		}
+		if (completeCount == 0) {
+			completeSum = 0;
+		}
+	}
+
+	// if the newest Second of the source is in this window
+	private boolean newestInRange() {
+		long newest = source.getNextSeq() - 1;
+		return newest >= startSeq && source.getSecond(newest) > lastTrimSecond - rangeStart;
+	}
+
+	// the newest Second in this window. Less than startSeq if window is empty
+	private long topSeq() {
+		if (newestInRange()) {
+			return source.getNextSeq() - 1;
+		}
+		return endSeq - 1;
+	}
+
+	@Override
+	public int getWindowCount() {
+		if (newestInRange()) {
+			return completeCount + source.getCount(source.getNextSeq() - 1);
+		}
+		return completeCount;
+	}
+
+	@Override
+	public double getWindowLast() {
+		long top = topSeq();
+		if (top < startSeq) {
+			return Double.NaN;
+		}
+		return source.getLast(top);
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+
+		WindowSummary windowSummary = new WindowSummary();
+		windowSummary.setFull(full);
+
+		long top = topSeq();
+		if (top < startSeq) {
+			return windowSummary;
+		}
+		boolean newestInRange = top >= endSeq;
+
+		if (requiresCount) {
+			windowSummary.setCount(getWindowCount());
+		}
+		if (requiresSum) {
+			windowSummary.setSum(newestInRange ? completeSum + source.getSum(top) : completeSum);
+		}
+		if (requiresMax) {
+			double max = maxQueue.isEmpty() ? source.getMax(top) : source.getMax(maxQueue.peekFirst());
+			if (newestInRange && source.getMax(top) > max) {
+				max = source.getMax(top);
+			}
+			windowSummary.setMax(max);
+		}
+		if (requiresMin) {
+			double min = minQueue.isEmpty() ? source.getMin(top) : source.getMin(minQueue.peekFirst());
+			if (newestInRange && source.getMin(top) < min) {
+				min = source.getMin(top);
+			}
+			windowSummary.setMin(min);
+		}
+		if (requiresFirst) {
+			windowSummary.setFirst(source.getFirst(startSeq));
+		}
+		if (requiresPrevious) {
+			// if the newest Second has more than 1, use its previous.
+			// otherwise previous is the last from the Second before.
+			if (source.getCount(top) > 1) {
+				windowSummary.setPrevious(source.getPrevious(top));
+			} else if (top > startSeq) {
+				windowSummary.setPrevious(source.getLast(top - 1));
+			}
+		}
+		windowSummary.setLast(source.getLast(top));
+
+		return windowSummary;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return getWindowCount() == 0;
+	}
+
+	@Override
+	public boolean isFull() {
+		return full;
+	}
+
+	@Override
+	public void printElements() {
+		String s = "seconds: ";
+		for (long seq = startSeq; seq <= topSeq(); seq++) {
+			s = s + ", " + source.getSecond(seq) + ":" + source.getCount(seq);
+		}
+		System.out.println(s);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return String.valueOf(rangeStart);
+	}
+
+	// never partitioned
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		return false;
+	}
+
+}
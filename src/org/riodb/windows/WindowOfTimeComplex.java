@@ -30,8 +30,10 @@
  *   Eviction happens when elements hit a certain age. 
  *   
  *   Elements are stored in an ArrayDeque of a ValueWithTimestamp. 
+ *   For long windows, 'range ... compressed' stores elements in a CompressedBlockQueue instead.
  *   
  *   Additional collections like TreeMap and ArrayDeque are used if the query requires Median or CountDistinct.
+ *   Max and Min use a SlidingAggregation (unless the TreeMap is already used), so they don't need a scan on eviction.
  *   If the query does not require median, mode or count distinct, then the program should select WintoOfTimeSimple.  
  *   
  */
@@ -62,7 +64,10 @@ public class WindowOfTimeComplex implements Window {
 
 	// A FIFO queue to hold elements in the window
 	// Elements MUST be inserted in chronological order
-	private ArrayDeque<ValueWithTimestamp> windowQueue;
+	private ValueQueue windowQueue;
+
+	// if windowQueue is compressed
+	private boolean compressed;
 
 	// A FIFO queue to hold elements waiting
 	// Used only when range has end time, for example:
@@ -81,6 +86,14 @@ public class WindowOfTimeComplex implements Window {
 	// Integer is the count of how many elements in the window have that value
 	private HashMap<Double, Counter> uniqueElements;
 
+	// Sliding aggregations for MAX and MIN, when not using sortedElements.
+	// So that evicting the max or min doesn't require scanning the window.
+	private SlidingAggregation slidingMax;
+	private SlidingAggregation slidingMin;
+
+	// during a batch, the slope is computed once at the end of the batch.
+	private boolean deferDerivedStats;
+
 	// Count of how many elements equal windowMax
 	// private int maxSiblings; // no longer needed
 
@@ -141,9 +154,19 @@ public class WindowOfTimeComplex implements Window {
 	private boolean requiresSum;
 	private boolean requiresVariance;
 
+	// bucket counts for HISTOGRAM. null if not required.
+	private Histogram histogram;
+
 	// Constructor
 	public WindowOfTimeComplex(int rangeStart, int rangeEnd, boolean[] functionsRequired, int partitionExpiration) {
+		this(rangeStart, rangeEnd, functionsRequired, partitionExpiration, false);
+	}
 
+	// Constructor with compressed windowQueue option
+	public WindowOfTimeComplex(int rangeStart, int rangeEnd, boolean[] functionsRequired, int partitionExpiration,
+			boolean compressed) {
+
+		this.compressed = compressed;
 		this.rangeStart = rangeStart;
 		this.rangeEnd = rangeEnd;
 		this.hasRangeEnd = false;
@@ -173,7 +196,7 @@ public class WindowOfTimeComplex implements Window {
 		windowSummary = new WindowSummary();
 
 		// start empty initial stack
-		windowQueue = new ArrayDeque<ValueWithTimestamp>();
+		windowQueue = newWindowQueue();
 
 		usingSorted = false;
 		// additional collections are initialized as needed
@@ -189,6 +212,15 @@ public class WindowOfTimeComplex implements Window {
 			sortedElements = null;
 		}
 
+		if (requiresMax && !usingSorted) {
+			slidingMax = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("max")));
+		}
+		if (requiresMin && !usingSorted) {
+			slidingMin = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("min")));
+		}
+
 		// if variance is required
 		if (requiresVariance) {
 			// computeWindowVariance();
@@ -204,7 +236,49 @@ public class WindowOfTimeComplex implements Window {
 
 	@Override
 	public Window makeEmptyClone() {
-		return new WindowOfTimeComplex(rangeStart, rangeEnd, functionsRequired, partitionExpiration);
+		return makeEmptyClone(functionsRequired);
+	}
+
+	@Override
+	public Window makeEmptyClone(boolean[] functionsRequired) {
+		WindowOfTimeComplex w = new WindowOfTimeComplex(rangeStart, rangeEnd, functionsRequired, partitionExpiration,
+				compressed);
+		if (histogram != null) {
+			w.enableHistogram(histogram.makeEmptyClone());
+		}
+		return w;
+	}
+
+	// elements in the window, then elements in the waiting queue, with their seconds.
+	@Override
+	public boolean copyElements(ElementLog log, int currentSecond) {
+		for (ValueWithTimestamp v : windowQueue) {
+			log.add(v.doubleValue(), v.getSecond());
+		}
+		if (hasRangeEnd) {
+			for (ValueWithTimestamp v : waitingQueue) {
+				log.add(v.doubleValue(), v.getSecond());
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void markFull() {
+		windowSummary.setFull(true);
+	}
+
+	// starts counting elements in buckets, for HISTOGRAM
+	public void enableHistogram(Histogram histogram) {
+		this.histogram = histogram;
+		windowSummary.setHistogram(histogram);
+	}
+
+	private ValueQueue newWindowQueue() {
+		if (compressed) {
+			return new CompressedBlockQueue();
+		}
+		return new ValueDeque();
 	}
 
 	// a wrapper function that adds an element and returns the windowSummary
@@ -215,6 +289,39 @@ public class WindowOfTimeComplex implements Window {
 			lastEntryTime = currentSecond;
 		}
 		trimExpiredWindowElements(currentSecond);
+		addTrimmed(element, currentSecond);
+
+		return getWindowSummaryCopy();
+	}
+
+	// adds a batch of elements. Eviction runs once per second in the batch.
+	// Unless a summary is requested per element, the slope is computed once at the end.
+	@Override
+	public WindowSummary trimAddBatch(double[] elements, int[] seconds, int count, WindowSummaryInterface[] summaries) {
+		if (partitionExpiration > 0 && count > 0) {
+			lastEntryTime = seconds[count - 1];
+		}
+		deferDerivedStats = summaries == null;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || seconds[i] != seconds[i - 1]) {
+				trimExpiredWindowElements(seconds[i]);
+			}
+			addTrimmed(elements[i], seconds[i]);
+			if (summaries != null) {
+				summaries[i] = getWindowSummaryCopy();
+			}
+		}
+		if (deferDerivedStats) {
+			deferDerivedStats = false;
+			if (requiresSlope && !windowQueue.isEmpty()) {
+				windowSummary.setSlope(computeWindowSlope());
+			}
+		}
+		return getWindowSummaryCopy();
+	}
+
+	// adds element to the window, or to the waiting queue. Expired elements were already trimmed.
+	private void addTrimmed(double element, int currentSecond) {
 
 		// Double elementAsDouble = element;
 		ValueWithTimestamp elementWithTimestamp = new ValueWithTimestamp(element, currentSecond);
@@ -229,8 +336,6 @@ public class WindowOfTimeComplex implements Window {
 			// add new item to tail of waiting queue
 			waitingQueue.add(elementWithTimestamp);
 		}
-
-		return getWindowSummaryCopy();
 	}
 
 	// Public procedure to add Element to Window
@@ -242,6 +347,10 @@ public class WindowOfTimeComplex implements Window {
 
 		Double elementAsDouble = pairInserted.doubleValue();
 
+		if (histogram != null) {
+			histogram.add(pairInserted.doubleValue());
+		}
+
 		/*
 		 * functions like Previous, Last, and Variance are pre-calculated before we
 		 * start making changes to Sum, Count, etc
@@ -257,6 +366,13 @@ public class WindowOfTimeComplex implements Window {
 			windowSummary.setLast(pairInserted.doubleValue());
 		}
 
+		if (slidingMax != null) {
+			slidingMax.push(pairInserted.doubleValue());
+		}
+		if (slidingMin != null) {
+			slidingMin.push(pairInserted.doubleValue());
+		}
+
 		// If queue already has elements
 		if (windowQueue.size() >= 1) {
 
@@ -359,7 +475,9 @@ public class WindowOfTimeComplex implements Window {
 				}
 
 				// call reusable function to finish computing windowSlope variable.
-				windowSummary.setSlope(computeWindowSlope());
+				if (!deferDerivedStats) {
+					windowSummary.setSlope(computeWindowSlope());
+				}
 			}
 		}
 		/*
@@ -452,9 +570,13 @@ public class WindowOfTimeComplex implements Window {
 	private void resetWindow() {
 		// init windowSummary
 		windowSummary = new WindowSummary();
+		if (histogram != null) {
+			histogram.clear();
+			windowSummary.setHistogram(histogram);
+		}
 
 		// start empty initial stack
-		windowQueue = new ArrayDeque<ValueWithTimestamp>();
+		windowQueue = newWindowQueue();
 
 		// additional collections are initialized as needed
 		if (usingSorted) {
@@ -462,6 +584,12 @@ public class WindowOfTimeComplex implements Window {
 		} else if (requiresCountDistinct) {
 			uniqueElements = new HashMap<Double, Counter>();
 		}
+		if (slidingMax != null) {
+			slidingMax.clear();
+		}
+		if (slidingMin != null) {
+			slidingMin.clear();
+		}
 		// if variance is required
 		if (requiresVariance) {
 			// computeWindowVariance();
@@ -499,6 +627,7 @@ public class WindowOfTimeComplex implements Window {
 			// if the newest element is due for expiration, then everything can go
 			if (windowQueue.peekLast().getSecond() <= expirationTime) {
 				resetWindow();
+				windowSummary.setFull(true);
 			}
 			// otherwise, we check from the oldest
 			else if (windowQueue.peekFirst().getSecond() <= expirationTime) {
@@ -518,6 +647,17 @@ public class WindowOfTimeComplex implements Window {
 						// double evicted = arrayDeque.poll().doubleValue();
 						windowQueue.poll().doubleValue();
 
+						if (histogram != null) {
+							histogram.remove(evictingElement.doubleValue());
+						}
+
+						if (slidingMax != null) {
+							slidingMax.pop();
+						}
+						if (slidingMin != null) {
+							slidingMin.pop();
+						}
+
 						if (requiresSum) {
 							windowSummary.sumSubtract(evictingElement.doubleValue());
 						}
@@ -628,6 +768,8 @@ public class WindowOfTimeComplex implements Window {
 
 				if (itemsRemoved) {
 
+					windowSummary.setFull(true);
+
 					if (maxEvicted) {
 						windowSummary.setMax(computeWindowMax());
 					}
@@ -694,48 +836,23 @@ public class WindowOfTimeComplex implements Window {
 		// return count;
 	}
 
-	// Procedure called when we need to traverse all the data looking for a new MAX
+	// Procedure called when the MAX was evicted and we need a new MAX
 	// it updates windowSummar.max
 	private double computeWindowMax() {
 		if (usingSorted) {
 			return sortedElements.lastKey().doubleValue();
 		} else {
-			double tempMax = Double.MIN_VALUE;
-			tempMax = windowQueue.peekFirst().doubleValue();
-			// maxSiblings = 0;
-			// loop through dequeue looking for a smaller value
-			for (ValueWithTimestamp entry : windowQueue) {
-				if (entry.doubleValue() > tempMax) {
-					tempMax = entry.doubleValue();
-					// maxSiblings = 1;
-				}
-				// else if (entry.doubleValue() == tempMax) {
-				// maxSiblings++;
-				// }
-			}
-			return tempMax;
+			return slidingMax.get();
 		}
 	}
 
-	// Procedure called when we need to traverse all the data looking for a new Min
+	// Procedure called when the MIN was evicted and we need a new MIN
 	// it updates windowSummar.min
 	private double computeWindowMin() {
 		if (usingSorted) {
 			return sortedElements.firstKey().doubleValue();
 		} else {
-			double tempMin = Double.MAX_VALUE;
-			// minSiblings = 0;
-			// loop through deque looking for lower Min
-			for (ValueWithTimestamp entry : windowQueue) {
-				if (entry.doubleValue() < tempMin) {
-					tempMin = entry.doubleValue();
-					// minSiblings = 1;
-				}
-				// else if (entry.doubleValue() == tempMin) {
-				// minSiblings++;
-				// }
-			}
-			return tempMin;
+			return slidingMin.get();
 		}
 	}
 
@@ -1004,6 +1121,9 @@ public class WindowOfTimeComplex implements Window {
 		if (hasRangeEnd) {
 			return rangeStart + "-" + rangeEnd;
 		}
+		if (compressed) {
+			return "\"" + rangeStart + "s compressed\"";
+		}
 		return String.valueOf(rangeStart);
 	}
 
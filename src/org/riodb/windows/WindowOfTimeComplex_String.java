@@ -111,6 +111,9 @@ public class WindowOfTimeComplex_String implements Window_String {
 	private boolean requiresMode;
 	private boolean requiresPrevious;
 
+	// sketch for TOPK. null if not required.
+	private TopKSketch topK;
+
 	// Constructor
 	public WindowOfTimeComplex_String(int rangeStart, int rangeEnd, boolean[] functionsRequired, int partitionExpiration) {
 
@@ -165,7 +168,18 @@ public class WindowOfTimeComplex_String implements Window_String {
 
 	@Override
 	public Window_String makeEmptyClone() {
-		return new WindowOfTimeComplex_String(rangeStart, rangeEnd, functionsRequired, partitionExpiration);
+		WindowOfTimeComplex_String w = new WindowOfTimeComplex_String(rangeStart, rangeEnd, functionsRequired,
+				partitionExpiration);
+		if (topK != null) {
+			w.enableTopK(topK.getK());
+		}
+		return w;
+	}
+
+	// starts counting the top K elements, for TOPK
+	public void enableTopK(int k) {
+		topK = new TopKSketch(k, rangeStart);
+		windowSummary.setTopKSketch(topK);
 	}
 
 	// a wrapper function that adds an element and returns the windowSummary
@@ -203,6 +217,10 @@ public class WindowOfTimeComplex_String implements Window_String {
 
 		String elementAsString = pairInserted.stringValue();
 
+		if (topK != null) {
+			topK.add(elementAsString, pairInserted.getSecond());
+		}
+
 		/*
 		 * functions like Previous, Last, and Variance are pre-calculated before we
 		 * start making changes to Sum, Count, etc
@@ -328,6 +346,10 @@ public class WindowOfTimeComplex_String implements Window_String {
 	private void resetWindow() {
 		// init windowSummary
 		windowSummary = new WindowSummary_String();
+		if (topK != null) {
+			topK.clear();
+			windowSummary.setTopKSketch(topK);
+		}
 
 		// start empty initial stack
 		windowQueue = new ArrayDeque<ValueWithTimestamp_String>();
@@ -461,6 +483,10 @@ public class WindowOfTimeComplex_String implements Window_String {
 		// if(count > 0)
 		// System.out.println("trimmed "+ count);
 
+		if (topK != null) {
+			topK.expire(expirationTime);
+		}
+
 		// done evicting stuff.
 		// IF using waiting queue....
 		// move elements from waitingQueue into windowQueue:
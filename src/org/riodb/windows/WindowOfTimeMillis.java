@@ -0,0 +1,393 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfTimeMillis is a window of time with millisecond precision,
+ *    like 'range 250ms', or 'range 5s bucket 100ms'.
+ *
+ *    Like WindowOfTimeSimple, elements are summarized into buckets. But instead
+ *    of one bucket per second, the bucket granularity is configurable in ms
+ *    (1ms by default). So the count of buckets, and the cost of aggregation,
+ *    is bounded by range / bucket.
+ *
+ *    Buckets are stored in primitive arrays used as a ring, with long
+ *    timestamps in milliseconds.
+ *
+ *    Time is passed in milliseconds by the WindowWrapper, using the timestamp
+ *    field (in ms), or the Clock. Methods of the Window interface that pass
+ *    seconds (like the Clock's trim every second) are converted to milliseconds.
+ *
+ *    Supports the same functions as WindowOfTimeSimple:
+ *       Avg, Count, First, Last, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfTimeMillis implements Window {
+
+	// max count of buckets in a window
+	public static final int MAX_BUCKETS = 1000000;
+
+	// buckets, as parallel arrays in a ring
+	private long bucketStart[];
+	private int bucketCount[];
+	private double bucketSum[];
+	// stack entries of each bucket in the sliding aggregations
+	private int bucketEntries[];
+	private double bucketFirst[];
+	private double bucketLast[];
+	private double bucketPrevious[];
+	// index of the oldest bucket, and count of buckets
+	private int head;
+	private int size;
+
+	// MAX and MIN slide with the buckets, so evicting the max or min bucket
+	// doesn't scan up to a million buckets. null if not required.
+	private SlidingAggregation slidingMax;
+	private SlidingAggregation slidingMin;
+
+	// a WindowSummary object to track the current state of this window.
+	private WindowSummary windowSummary;
+
+	// partitionExpiration - to expire stale partitions.
+	private int partitionExpiration;
+	private long lastEntryMillis;
+
+	// window range and bucket length, in milliseconds
+	private long rangeMillis;
+	private long bucketMillis;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresCount;
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// constructor
+	public WindowOfTimeMillis(long rangeMillis, long bucketMillis, boolean[] functionsRequired,
+			int partitionExpiration) {
+
+		this.rangeMillis = rangeMillis;
+		this.bucketMillis = bucketMillis;
+
+		this.partitionExpiration = partitionExpiration;
+		this.functionsRequired = functionsRequired;
+		this.requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		if (requiresMax) {
+			slidingMax = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("max")));
+		}
+		if (requiresMin) {
+			slidingMin = new SlidingAggregation(
+					SQLAggregateFunctions.getSlidingOperator(SQLAggregateFunctions.getFunctionId("min")));
+		}
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of time, millis");
+
+		allocate(16);
+		head = 0;
+		size = 0;
+		windowSummary = new WindowSummary();
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		return new WindowOfTimeMillis(rangeMillis, bucketMillis, functionsRequired, partitionExpiration);
+	}
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		return trimAddAndGetWindowSummaryCopyMillis(element, currentSecond * 1000L);
+	}
+
+	// trim expired, add element with timestamp in ms, and get a clone of the WindowSummary
+	public WindowSummary trimAddAndGetWindowSummaryCopyMillis(double element, long currentMillis) {
+
+		trimExpiredWindowElementsMillis(currentMillis);
+
+		if (partitionExpiration > 0) {
+			lastEntryMillis = currentMillis;
+		}
+
+		long start = currentMillis - Math.floorMod(currentMillis, bucketMillis);
+
+		if (size > 0) {
+			int newest = (head + size - 1) % bucketStart.length;
+			// same bucket, or late element: summarized into the newest bucket
+			if (start <= bucketStart[newest]) {
+				bucketEntries[newest] += slidingAddToNewest(element);
+				bucketPrevious[newest] = bucketLast[newest];
+				bucketLast[newest] = element;
+				bucketSum[newest] += element;
+				bucketCount[newest]++;
+			} else {
+				newBucket(start, element);
+			}
+
+			if (requiresMax && element > windowSummary.getMax()) {
+				windowSummary.setMax(element);
+			}
+			if (requiresMin && element < windowSummary.getMin()) {
+				windowSummary.setMin(element);
+			}
+			if (requiresPrevious) {
+				windowSummary.setPrevious(windowSummary.getLast());
+			}
+		} else {
+			newBucket(start, element);
+			// IF statements are different because some variables have NaN assigned.
+			if (requiresMax) {
+				windowSummary.setMax(element);
+			}
+			if (requiresMin) {
+				windowSummary.setMin(element);
+			}
+			if (requiresFirst) {
+				windowSummary.setFirst(element);
+			}
+		}
+		if (requiresCount) {
+			windowSummary.incrementCount();
+		}
+		if (requiresSum) {
+			windowSummary.sumAdd(element);
+		}
+		windowSummary.setLast(element);
+
+		return getWindowSummaryCopy();
+	}
+
+	private void newBucket(long start, double element) {
+		if (size == bucketStart.length) {
+			grow();
+		}
+		int i = (head + size) % bucketStart.length;
+		bucketStart[i] = start;
+		bucketCount[i] = 1;
+		bucketSum[i] = element;
+		bucketEntries[i] = 1;
+		bucketFirst[i] = element;
+		bucketLast[i] = element;
+		bucketPrevious[i] = Double.NaN;
+		size++;
+		if (slidingMax != null) {
+			slidingMax.push(element);
+		}
+		if (slidingMin != null) {
+			slidingMin.push(element);
+		}
+	}
+
+	// adds an element to the newest bucket. Returns the stack entries it added to the bucket (0 or 1).
+	private int slidingAddToNewest(double element) {
+		int entries = 0;
+		if (slidingMax != null && !slidingMax.combineNewest(element)) {
+			slidingMax.push(element);
+			entries = 1;
+		}
+		if (slidingMin != null && !slidingMin.combineNewest(element)) {
+			slidingMin.push(element);
+			entries = 1;
+		}
+		return entries;
+	}
+
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		trimExpiredWindowElementsMillis(currentSecond * 1000L);
+	}
+
+	// function to evict expired buckets, with time in ms
+	public void trimExpiredWindowElementsMillis(long currentMillis) {
+
+		long expirationTime = currentMillis - rangeMillis;
+
+		boolean removed = false;
+
+		// evict buckets that are completely expired, from oldest to newest.
+		while (size > 0 && bucketStart[head] + bucketMillis - 1 <= expirationTime) {
+			if (requiresSum) {
+				windowSummary.sumSubtract(bucketSum[head]);
+			}
+			if (requiresCount) {
+				windowSummary.setCount(windowSummary.getCount() - bucketCount[head]);
+			}
+			for (int e = 0; e < bucketEntries[head]; e++) {
+				if (slidingMax != null) {
+					slidingMax.pop();
+				}
+				if (slidingMin != null) {
+					slidingMin.pop();
+				}
+			}
+			head = (head + 1) % bucketStart.length;
+			size--;
+			removed = true;
+		}
+
+		if (!removed) {
+			return;
+		}
+
+		if (size == 0) {
+			// everything expired. Start a new empty window.
+			WindowSummary newEmptyWindow = new WindowSummary();
+			if (requiresPrevious) {
+				newEmptyWindow.setPrevious(windowSummary.getPrevious());
+			}
+			newEmptyWindow.setFull(true);
+			windowSummary = newEmptyWindow;
+			return;
+		}
+
+		if (requiresMax) {
+			windowSummary.setMax(slidingMax.get());
+		}
+		if (requiresMin) {
+			windowSummary.setMin(slidingMin.get());
+		}
+
+		if (requiresFirst) {
+			windowSummary.setFirst(bucketFirst[head]);
+		}
+		windowSummary.setFull(true);
+	}
+
+	// double the ring capacity
+	private void grow() {
+		long oldStart[] = bucketStart;
+		int oldCount[] = bucketCount;
+		double oldSum[] = bucketSum;
+		int oldEntries[] = bucketEntries;
+		double oldFirst[] = bucketFirst;
+		double oldLast[] = bucketLast;
+		double oldPrevious[] = bucketPrevious;
+
+		allocate(oldStart.length * 2);
+		for (int n = 0; n < size; n++) {
+			int from = (head + n) % oldStart.length;
+			bucketStart[n] = oldStart[from];
+			bucketCount[n] = oldCount[from];
+			bucketSum[n] = oldSum[from];
+			bucketEntries[n] = oldEntries[from];
+			bucketFirst[n] = oldFirst[from];
+			bucketLast[n] = oldLast[from];
+			bucketPrevious[n] = oldPrevious[from];
+		}
+		head = 0;
+	}
+
+	private void allocate(int capacity) {
+		bucketStart = new long[capacity];
+		bucketCount = new int[capacity];
+		bucketSum = new double[capacity];
+		bucketEntries = new int[capacity];
+		bucketFirst = new double[capacity];
+		bucketLast = new double[capacity];
+		bucketPrevious = new double[capacity];
+	}
+
+	@Override
+	public int getWindowCount() {
+		return windowSummary.getCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return windowSummary.getLast();
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		return trimAndGetWindowSummaryCopyMillis(currentSecond * 1000L);
+	}
+
+	// trim expired with time in ms, and get clone of the WindowSummary
+	public WindowSummary trimAndGetWindowSummaryCopyMillis(long currentMillis) {
+		trimExpiredWindowElementsMillis(currentMillis);
+		return getWindowSummaryCopy();
+	}
+
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		return new WindowSummary(windowSummary);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean isFull() {
+		return windowSummary.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		String s = "bucket counts: ";
+		for (int n = 0; n < size; n++) {
+			int i = (head + n) % bucketStart.length;
+			s = s + ", " + bucketStart[i] + ":" + bucketCount[i];
+		}
+		System.out.println(s);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		if (bucketMillis > 1) {
+			return "\"" + rangeMillis + "ms bucket " + bucketMillis + "ms\"";
+		}
+		return "\"" + rangeMillis + "ms\"";
+	}
+
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond * 1000L - lastEntryMillis > Window.GRACE_PERIOD * 1000L) {
+			return true;
+		}
+		return false;
+	}
+
+}
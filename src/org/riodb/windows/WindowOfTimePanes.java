@@ -0,0 +1,381 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+
+    This file is part of RioDB
+
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+
+*/
+
+/*
+ *    The WindowOfTimePanes is used for TUMBLING and HOPPING windows.
+ *
+ *    A HOPPING window of 5m every 10s produces a new result every 10 seconds,
+ *    covering the last 5 minutes. A TUMBLING window is a HOPPING window where
+ *    the hop is the same as the window size, so the windows do not overlap.
+ *
+ *    Instead of keeping every element (or updating a summary per element),
+ *    each element is aggregated ONCE into a Pane. The pane length is the
+ *    greatest common divisor of window size and hop, so every window is made
+ *    of whole panes, and panes are shared by all the overlapping windows.
+ *
+ *    When a window closes, its panes are combined into the WindowSummary.
+ *    The summary stays the same until the next window closes.
+ *
+ *    Panes are kept in a ring, and recycled as time moves on.
+ *
+ *    Only functions that can be combined from panes are supported:
+ *       Avg, Count, First, Last, Histogram, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfTimePanes implements Window {
+
+	/// Pane: summarized stats for everything arrived within a pane of time
+	private class Pane {
+		private int paneStart; // The second that this pane starts
+		private double paneMax; // max val received in this pane
+		private double paneMin; // min val received in this pane
+		private double paneFirst; // first item received in this pane
+		private double paneLast; // last item received in this pane
+		private double panePrevious; // element before Last
+		private double paneSum; // sum of all vals in this pane
+		private int paneCount; // count of all vals in this pane.
+		private Histogram paneHistogram; // bucket counts in this pane, if required
+
+		// panes are recycled. Reset makes an empty pane for a new start second.
+		protected void reset(int paneStart) {
+			this.paneStart = paneStart;
+			this.paneCount = 0;
+			this.paneSum = 0;
+			this.panePrevious = Double.NaN;
+			if (paneHistogram != null) {
+				paneHistogram.clear();
+			}
+		}
+
+		// adding item to pane
+		protected void add(double element) {
+			if (paneCount == 0) {
+				paneMax = element;
+				paneMin = element;
+				paneFirst = element;
+			} else {
+				if (requiresMax && element > paneMax) {
+					paneMax = element;
+				}
+				if (requiresMin && element < paneMin) {
+					paneMin = element;
+				}
+				if (requiresPrevious) {
+					panePrevious = paneLast;
+				}
+			}
+			if (requiresSum) {
+				paneSum += element;
+			}
+			if (paneHistogram != null) {
+				paneHistogram.add(element);
+			}
+			paneCount++;
+			paneLast = element;
+		}
+	}
+
+	// ring of panes. Large enough for one window plus one hop.
+	private Pane panes[];
+
+	// the summary of the most recently closed window
+	private WindowSummary windowSummary;
+
+	// flag that a window closed, and the next summary copy should say so.
+	private boolean closePending;
+
+	// the end second of the most recently closed window
+	private int lastWindowEnd;
+
+	// partitionExpiration - to expire stale partitions.
+	private int partitionExpiration;
+	private int lastEntryTime;
+
+	// window size, hop and pane length, in seconds
+	private int windowSize;
+	private int windowHop;
+	private int paneLength;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresCount;
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// empty histogram with the bounds for HISTOGRAM. null if not required.
+	private Histogram histogram;
+
+	// constructor. For TUMBLING windows, windowHop is the same as windowSize.
+	public WindowOfTimePanes(int windowSize, int windowHop, boolean[] functionsRequired, int partitionExpiration) {
+
+		this.windowSize = windowSize;
+		this.windowHop = windowHop;
+		this.paneLength = greatestCommonDivisor(windowSize, windowHop);
+
+		this.partitionExpiration = partitionExpiration;
+		this.functionsRequired = functionsRequired;
+		this.requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of time panes");
+
+		panes = new Pane[(windowSize + windowHop) / paneLength];
+		for (int i = 0; i < panes.length; i++) {
+			panes[i] = new Pane();
+			panes[i].reset(Integer.MIN_VALUE);
+		}
+		windowSummary = new WindowSummary();
+		closePending = false;
+		lastWindowEnd = Integer.MIN_VALUE;
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		WindowOfTimePanes w = new WindowOfTimePanes(windowSize, windowHop, functionsRequired, partitionExpiration);
+		if (histogram != null) {
+			w.enableHistogram(histogram.makeEmptyClone());
+		}
+		return w;
+	}
+
+	// starts counting elements in buckets per pane, for HISTOGRAM
+	public void enableHistogram(Histogram histogram) {
+		this.histogram = histogram;
+		for (Pane p : panes) {
+			p.paneHistogram = histogram.makeEmptyClone();
+		}
+	}
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+
+		// close any window that ended before this element arrived.
+		trimExpiredWindowElements(currentSecond);
+
+		if (partitionExpiration > 0) {
+			lastEntryTime = currentSecond;
+		}
+
+		int paneStart = currentSecond - Math.floorMod(currentSecond, paneLength);
+		// late element for a pane that no window still open will use. Nothing to do.
+		if (lastWindowEnd != Integer.MIN_VALUE && paneStart < lastWindowEnd + windowHop - windowSize) {
+			return getWindowSummaryCopy();
+		}
+
+		Pane p = panes[Math.floorMod(paneStart / paneLength, panes.length)];
+		if (p.paneStart != paneStart) {
+			p.reset(paneStart);
+		}
+		p.add(element);
+
+		return getWindowSummaryCopy();
+	}
+
+	// a window closed inside the batch stays flagged on the returned summary,
+	// so queries ON CLOSE see it when they run on the last message of the batch.
+	@Override
+	public WindowSummaryInterface trimAddBatch(double[] elements, int[] seconds, int count,
+			WindowSummaryInterface[] summaries) {
+		boolean closedInBatch = false;
+		WindowSummary summary = null;
+		for (int i = 0; i < count; i++) {
+			summary = trimAddAndGetWindowSummaryCopy(elements[i], seconds[i]);
+			closedInBatch = closedInBatch || summary.isWindowClosed();
+			if (summaries != null) {
+				summaries[i] = summary;
+			}
+		}
+		if (summary == null) {
+			return getWindowSummaryCopy();
+		}
+		if (closedInBatch) {
+			summary.setWindowClosed(true);
+		}
+		return summary;
+	}
+
+	// Close the most recent window that ended by currentSecond,
+	// combining all of its panes into the windowSummary.
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+
+		// windows end at k * windowHop + windowSize
+		if (currentSecond < windowSize) {
+			return;
+		}
+		int windowEnd = currentSecond - Math.floorMod(currentSecond - windowSize, windowHop);
+		if (windowEnd <= lastWindowEnd) {
+			return;
+		}
+
+		WindowSummary newSummary = new WindowSummary();
+		Histogram newHistogram = null;
+		if (histogram != null) {
+			newHistogram = histogram.makeEmptyClone();
+			newSummary.setHistogram(newHistogram);
+		}
+		boolean empty = true;
+		for (int paneStart = windowEnd - windowSize; paneStart < windowEnd; paneStart += paneLength) {
+			Pane p = panes[Math.floorMod(paneStart / paneLength, panes.length)];
+			if (p.paneStart != paneStart || p.paneCount == 0) {
+				continue;
+			}
+			if (empty) {
+				empty = false;
+				if (requiresMax) {
+					newSummary.setMax(p.paneMax);
+				}
+				if (requiresMin) {
+					newSummary.setMin(p.paneMin);
+				}
+				if (requiresFirst) {
+					newSummary.setFirst(p.paneFirst);
+				}
+			} else {
+				if (requiresMax && p.paneMax > newSummary.getMax()) {
+					newSummary.setMax(p.paneMax);
+				}
+				if (requiresMin && p.paneMin < newSummary.getMin()) {
+					newSummary.setMin(p.paneMin);
+				}
+			}
+			if (requiresCount) {
+				newSummary.incrementCount(p.paneCount);
+			}
+			if (requiresSum) {
+				newSummary.sumAdd(p.paneSum);
+			}
+			if (newHistogram != null) {
+				newHistogram.addAll(p.paneHistogram);
+			}
+			if (requiresPrevious) {
+				// if pane has more than 1, use pane previous.
+				// otherwise previous is the last from the previous pane.
+				if (p.paneCount > 1) {
+					newSummary.setPrevious(p.panePrevious);
+				} else {
+					newSummary.setPrevious(newSummary.getLast());
+				}
+			}
+			newSummary.setLast(p.paneLast);
+		}
+		newSummary.setFull(true);
+
+		windowSummary = newSummary;
+		lastWindowEnd = windowEnd;
+		closePending = true;
+	}
+
+	@Override
+	public int getWindowCount() {
+		return windowSummary.getCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return windowSummary.getLast();
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	// copy of the summary of the last closed window.
+	// The first copy after a window closes is flagged as closed.
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		WindowSummary copy = new WindowSummary(windowSummary);
+		if (closePending) {
+			copy.setWindowClosed(true);
+			closePending = false;
+		}
+		return copy;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return windowSummary.isEmpty();
+	}
+
+	@Override
+	public boolean isFull() {
+		return windowSummary.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		String s = "pane counts: ";
+		for (Pane p : panes) {
+			s = s + ", " + p.paneStart + ":" + p.paneCount;
+		}
+		System.out.println(s);
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		if (windowHop == windowSize) {
+			return "\"tumbling " + windowSize + "s\"";
+		}
+		return "\"hopping " + windowSize + "s every " + windowHop + "s\"";
+	}
+
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond - lastEntryTime > Window.GRACE_PERIOD) {
+			return true;
+		}
+		return false;
+	}
+
+	private static int greatestCommonDivisor(int a, int b) {
+		while (b != 0) {
+			int t = b;
+			b = a % b;
+			a = t;
+		}
+		return a;
+	}
+
+}
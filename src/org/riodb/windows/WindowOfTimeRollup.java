@@ -0,0 +1,459 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowOfTimeRollup is used for long windows of time, when requested
+ *    with ROLLUP, like 'range 30d rollup'.
+ *
+ *    Like WindowOfTimeSimple, elements are summarized into nodes. But instead
+ *    of keeping one node per second for the whole range, nodes are cascaded
+ *    into lower resolution as they get older:
+ *       - the last hour is kept per second,
+ *       - the last day is kept per minute,
+ *       - anything older is kept per hour.
+ *    So a window of 30 days needs about 3600 + 1440 + 720 nodes,
+ *    instead of 2.6 million SecondNodes.
+ *
+ *    A node is evicted when all of its time range is expired. The oldest node
+ *    may be partially expired. For that node:
+ *       - Count and Sum are interpolated, assuming elements were evenly
+ *         distributed within the node.
+ *       - Max, Min and First use the whole node.
+ *    So results are approximate, and windows of time are exact unless ROLLUP
+ *    is requested.
+ *
+ *    Supports the same functions as WindowOfTimeSimple:
+ *       Avg, Count, First, Last, Max, Min, Previous, Sum
+ *
+ */
+
+package org.riodb.windows;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowOfTimeRollup implements Window {
+
+	// nodes are cascaded to minutes after 1 hour, and to hours after 1 day.
+	private static final int SECOND_RESOLUTION_AGE = 3600;
+	private static final int MINUTE_RESOLUTION_AGE = 86400;
+
+	/// RollupNode summarized stats for everything arrived within its time range
+	private class RollupNode {
+		private int nodeStart; // the first second that this node captures
+		private int nodeLength; // how many seconds this node captures (1, 60 or 3600)
+		private double nodeMax; // max val received in this node
+		private double nodeMin; // min val received in this node
+		private double nodeFirst; // first item received in this node
+		private double nodeLast; // last item received in this node
+		private double nodePrevious; // element before Last
+		private double nodeSum; // sum of all vals in this node
+		private int nodeCount; // count of all vals in this node.
+
+		// constructor: the time range that the node represents, and the first element
+		RollupNode(int start, int length, double elementInserted) {
+			this.nodeStart = start;
+			this.nodeLength = length;
+			this.nodeMax = elementInserted;
+			this.nodeMin = elementInserted;
+			this.nodeSum = elementInserted;
+			this.nodeFirst = elementInserted;
+			this.nodeLast = elementInserted;
+			this.nodeCount = 1;
+			this.nodePrevious = Double.NaN;
+		}
+
+		// constructor: an empty node of lower resolution, to cascade other nodes into
+		RollupNode(int start, int length) {
+			this.nodeStart = start;
+			this.nodeLength = length;
+			this.nodeCount = 0;
+			this.nodeSum = 0;
+			this.nodePrevious = Double.NaN;
+		}
+
+		// adding item to node
+		protected void add(double element) {
+			if (element > nodeMax) {
+				nodeMax = element;
+			}
+			if (element < nodeMin) {
+				nodeMin = element;
+			}
+			nodeSum += element;
+			nodeCount++;
+			nodePrevious = nodeLast;
+			nodeLast = element;
+		}
+
+		// merging a newer node into this node
+		protected void merge(RollupNode newer) {
+			if (nodeCount == 0) {
+				nodeMax = newer.nodeMax;
+				nodeMin = newer.nodeMin;
+				nodeFirst = newer.nodeFirst;
+			} else {
+				if (newer.nodeMax > nodeMax) {
+					nodeMax = newer.nodeMax;
+				}
+				if (newer.nodeMin < nodeMin) {
+					nodeMin = newer.nodeMin;
+				}
+			}
+			if (newer.nodeCount > 1) {
+				nodePrevious = newer.nodePrevious;
+			} else {
+				nodePrevious = nodeLast;
+			}
+			nodeLast = newer.nodeLast;
+			nodeSum += newer.nodeSum;
+			nodeCount += newer.nodeCount;
+		}
+
+		// the last second that this node captures
+		protected int getEnd() {
+			return nodeStart + nodeLength - 1;
+		}
+	}
+
+	// nodes per second, per minute and per hour. Hours are the oldest.
+	private ArrayDeque<RollupNode> secondNodes;
+	private ArrayDeque<RollupNode> minuteNodes;
+	private ArrayDeque<RollupNode> hourNodes;
+
+	// a WindowSummary object to track the current state of this window.
+	// Count and Sum include the whole oldest node, even if partially expired.
+	private WindowSummary windowSummary;
+
+	// the expiration time of the last trim, for interpolating the oldest node
+	private int lastExpirationTime;
+
+	// partitionExpiration - to expire stale partitions.
+	private int partitionExpiration;
+	private int lastEntryTime;
+
+	// window range
+	private int rangeStart;
+
+	private boolean functionsRequired[];
+	// required aggregations:
+	private boolean requiresCount;
+	private boolean requiresFirst;
+	private boolean requiresMax;
+	private boolean requiresMin;
+	private boolean requiresPrevious;
+	private boolean requiresSum;
+
+	// functions that can be summarized into rollup nodes
+	private static final String SUPPORTED_FUNCTIONS[] = { "avg", "count", "first", "last", "max", "min", "previous",
+			"sum" };
+
+	// if a rollup window can run all the functions required
+	public static boolean supportsFunctions(boolean[] functionsRequired) {
+		for (int i = 0; i < functionsRequired.length; i++) {
+			if (functionsRequired[i] && !Arrays.asList(SUPPORTED_FUNCTIONS).contains(SQLAggregateFunctions.getFunction(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// constructor
+	public WindowOfTimeRollup(int rangeStart, boolean[] functionsRequired, int partitionExpiration) {
+
+		this.rangeStart = rangeStart;
+
+		this.partitionExpiration = partitionExpiration;
+		this.functionsRequired = functionsRequired;
+		this.requiresCount = functionsRequired[SQLAggregateFunctions.getFunctionId("count")];
+		this.requiresFirst = functionsRequired[SQLAggregateFunctions.getFunctionId("first")];
+		this.requiresMax = functionsRequired[SQLAggregateFunctions.getFunctionId("max")];
+		this.requiresMin = functionsRequired[SQLAggregateFunctions.getFunctionId("min")];
+		this.requiresPrevious = functionsRequired[SQLAggregateFunctions.getFunctionId("previous")];
+		this.requiresSum = functionsRequired[SQLAggregateFunctions.getFunctionId("sum")];
+
+		RioDB.rio.getSystemSettings().getLogger().debug("\tconstructing Window of time, rollup");
+
+		secondNodes = new ArrayDeque<RollupNode>();
+		minuteNodes = new ArrayDeque<RollupNode>();
+		hourNodes = new ArrayDeque<RollupNode>();
+		windowSummary = new WindowSummary();
+		lastExpirationTime = Integer.MIN_VALUE;
+	}
+
+	@Override
+	public Window makeEmptyClone() {
+		return new WindowOfTimeRollup(rangeStart, functionsRequired, partitionExpiration);
+	}
+
+	@Override
+	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+
+		trimExpiredWindowElements(currentSecond);
+
+		if (partitionExpiration > 0) {
+			lastEntryTime = currentSecond;
+		}
+
+		boolean wasEmpty = isWindowEmpty();
+
+		// add to the newest second, or start a new second.
+		// elements arriving late are summarized into the newest second.
+		if (!secondNodes.isEmpty() && currentSecond <= secondNodes.peekLast().nodeStart) {
+			secondNodes.peekLast().add(element);
+		} else {
+			secondNodes.add(new RollupNode(currentSecond, 1, element));
+		}
+
+		if (wasEmpty) {
+			// IF statements are different because some variables have NaN assigned.
+			if (requiresMax) {
+				windowSummary.setMax(element);
+			}
+			if (requiresMin) {
+				windowSummary.setMin(element);
+			}
+			if (requiresFirst) {
+				windowSummary.setFirst(element);
+			}
+		} else {
+			if (requiresMax && element > windowSummary.getMax()) {
+				windowSummary.setMax(element);
+			}
+			if (requiresMin && element < windowSummary.getMin()) {
+				windowSummary.setMin(element);
+			}
+			if (requiresPrevious) {
+				windowSummary.setPrevious(windowSummary.getLast());
+			}
+		}
+		if (requiresCount) {
+			windowSummary.incrementCount();
+		}
+		if (requiresSum) {
+			windowSummary.sumAdd(element);
+		}
+		windowSummary.setLast(element);
+
+		return getWindowSummaryCopy();
+	}
+
+	private boolean isWindowEmpty() {
+		return secondNodes.isEmpty() && minuteNodes.isEmpty() && hourNodes.isEmpty();
+	}
+
+	// the oldest node in the window, or null if empty
+	private RollupNode peekOldest() {
+		if (!hourNodes.isEmpty()) {
+			return hourNodes.peekFirst();
+		}
+		if (!minuteNodes.isEmpty()) {
+			return minuteNodes.peekFirst();
+		}
+		return secondNodes.peekFirst();
+	}
+
+	// removes the oldest node in the window
+	private void pollOldest() {
+		if (!hourNodes.isEmpty()) {
+			hourNodes.pollFirst();
+		} else if (!minuteNodes.isEmpty()) {
+			minuteNodes.pollFirst();
+		} else {
+			secondNodes.pollFirst();
+		}
+	}
+
+	// moves nodes that got old enough into lower resolution nodes
+	private void cascade(ArrayDeque<RollupNode> from, ArrayDeque<RollupNode> to, int length, int olderThan) {
+		while (!from.isEmpty() && from.peekFirst().getEnd() <= olderThan) {
+			RollupNode node = from.pollFirst();
+			int start = node.nodeStart - Math.floorMod(node.nodeStart, length);
+			if (to.isEmpty() || to.peekLast().nodeStart != start) {
+				to.add(new RollupNode(start, length));
+			}
+			to.peekLast().merge(node);
+		}
+	}
+
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+
+		cascade(secondNodes, minuteNodes, 60, currentSecond - SECOND_RESOLUTION_AGE);
+		cascade(minuteNodes, hourNodes, 3600, currentSecond - MINUTE_RESOLUTION_AGE);
+
+		int expirationTime = currentSecond - rangeStart;
+		lastExpirationTime = expirationTime;
+
+		boolean maxRemoved = false;
+		boolean minRemoved = false;
+		boolean removed = false;
+
+		// evict nodes that are completely expired, from oldest to newest.
+		RollupNode oldest = peekOldest();
+		while (oldest != null && oldest.getEnd() <= expirationTime) {
+			if (requiresSum) {
+				windowSummary.sumSubtract(oldest.nodeSum);
+			}
+			if (requiresCount) {
+				windowSummary.setCount(windowSummary.getCount() - oldest.nodeCount);
+			}
+			if (requiresMax && oldest.nodeMax == windowSummary.getMax()) {
+				maxRemoved = true;
+			}
+			if (requiresMin && oldest.nodeMin == windowSummary.getMin()) {
+				minRemoved = true;
+			}
+			pollOldest();
+			removed = true;
+			oldest = peekOldest();
+		}
+
+		if (!removed) {
+			return;
+		}
+
+		if (oldest == null) {
+			// everything expired. Start a new empty window.
+			WindowSummary newEmptyWindow = new WindowSummary();
+			if (requiresPrevious) {
+				newEmptyWindow.setPrevious(windowSummary.getPrevious());
+			}
+			newEmptyWindow.setFull(true);
+			windowSummary = newEmptyWindow;
+			return;
+		}
+
+		if (maxRemoved || minRemoved) {
+			if (requiresMax) {
+				windowSummary.setMax(Math.max(levelMax(hourNodes),
+						Math.max(levelMax(minuteNodes), levelMax(secondNodes))));
+			}
+			if (requiresMin) {
+				windowSummary.setMin(Math.min(levelMin(hourNodes),
+						Math.min(levelMin(minuteNodes), levelMin(secondNodes))));
+			}
+		}
+
+		if (requiresFirst) {
+			windowSummary.setFirst(oldest.nodeFirst);
+		}
+		windowSummary.setFull(true);
+	}
+
+	// max of all nodes in a level
+	private double levelMax(ArrayDeque<RollupNode> level) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (RollupNode node : level) {
+			if (node.nodeMax > max) {
+				max = node.nodeMax;
+			}
+		}
+		return max;
+	}
+
+	// min of all nodes in a level
+	private double levelMin(ArrayDeque<RollupNode> level) {
+		double min = Double.POSITIVE_INFINITY;
+		for (RollupNode node : level) {
+			if (node.nodeMin < min) {
+				min = node.nodeMin;
+			}
+		}
+		return min;
+	}
+
+	@Override
+	public int getWindowCount() {
+		return getWindowSummaryCopy().getCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return windowSummary.getLast();
+	}
+
+	@Override
+	public WindowSummary trimAndGetWindowSummaryCopy(int currentSecond) {
+		trimExpiredWindowElements(currentSecond);
+		return getWindowSummaryCopy();
+	}
+
+	// copy of the summary, with Count and Sum of a partially expired oldest node interpolated
+	@Override
+	public WindowSummary getWindowSummaryCopy() {
+		WindowSummary copy = new WindowSummary(windowSummary);
+		RollupNode oldest = peekOldest();
+		if (oldest != null && oldest.nodeLength > 1 && oldest.nodeStart <= lastExpirationTime) {
+			double expiredFraction = (double) (lastExpirationTime - oldest.nodeStart + 1) / oldest.nodeLength;
+			if (requiresCount) {
+				copy.setCount(copy.getCount() - (int) Math.round(oldest.nodeCount * expiredFraction));
+			}
+			if (requiresSum) {
+				copy.sumSubtract(oldest.nodeSum * expiredFraction);
+			}
+		}
+		return copy;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return isWindowEmpty();
+	}
+
+	@Override
+	public boolean isFull() {
+		return windowSummary.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		System.out.println("nodes per hour: " + hourNodes.size() + " per minute: " + minuteNodes.size()
+				+ " per second: " + secondNodes.size());
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return "\"" + rangeStart + "s rollup\"";
+	}
+
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		if (currentSecond - lastEntryTime > Window.GRACE_PERIOD) {
+			return true;
+		}
+		return false;
+	}
+
+}
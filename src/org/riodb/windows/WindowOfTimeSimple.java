@@ -201,6 +201,29 @@ public class WindowOfTimeSimple implements Window {
 	public WindowSummary trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
 
 		trimExpiredWindowElements(currentSecond);
+		addTrimmed(element, currentSecond);
+
+		return getWindowSummaryCopy();
+	}
+
+	// adds a batch of elements. Eviction runs once per second in the batch,
+	// and the summary is only copied at the end, or per element if requested.
+	@Override
+	public WindowSummary trimAddBatch(double[] elements, int[] seconds, int count, WindowSummaryInterface[] summaries) {
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || seconds[i] != seconds[i - 1]) {
+				trimExpiredWindowElements(seconds[i]);
+			}
+			addTrimmed(elements[i], seconds[i]);
+			if (summaries != null) {
+				summaries[i] = getWindowSummaryCopy();
+			}
+		}
+		return getWindowSummaryCopy();
+	}
+
+	// adds element to the window, or to the waiting queue. Expired elements were already trimmed.
+	private void addTrimmed(double element, int currentSecond) {
 
 		// if waiting queue is not being used
 		if (!hasRangeEnd) {
@@ -227,8 +250,6 @@ public class WindowOfTimeSimple implements Window {
 				mostRecentSecond = currentSecond;
 			}
 		}
-
-		return getWindowSummaryCopy();
 	}
 
 	private void add(double elementInserted, int currentSecond) {
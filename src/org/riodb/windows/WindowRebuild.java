@@ -0,0 +1,228 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    The WindowRebuild is used by ALTER WINDOW ... ADD RUNNING to add functions
+ *    to a live window without emptying it.
+ *
+ *    It's put in place of the live window by the WindowWrapper, in the stream
+ *    thread (a safe point, between messages). The elements stored in the live
+ *    window are copied, and a background thread adds them to a new window that
+ *    runs the new functions. Copying is fast. Adding is the slow part.
+ *
+ *    Meanwhile, the live window keeps receiving elements, and the summaries come
+ *    from it. Elements and trims are also logged. When the background thread is
+ *    done, the WindowWrapper (again in the stream thread) replays the log into
+ *    the new window, and puts the new window in place.
+ *
+ *    New functions read as empty until the new window is in place.
+ *
+ */
+
+package org.riodb.windows;
+
+import org.riodb.engine.RioDB;
+import org.riodb.sql.SQLAggregateFunctions;
+
+public class WindowRebuild implements Window, Runnable {
+
+	private final String windowName;
+
+	// the window in use, while the new one is built
+	private final Window liveWindow;
+	// the window being built with the new functions
+	private final Window newWindow;
+	private final boolean functionsRequired[];
+
+	// elements stored in the live window when the rebuild started
+	private ElementLog storedElements;
+	// elements and trims received since the rebuild started
+	private final ElementLog changes;
+
+	// set by the background thread when the stored elements were added to the new window
+	private volatile boolean rebuilt;
+	// set if the window was dropped or reset before the rebuild finished
+	private boolean abandoned;
+
+	// if a window can be rebuilt with other functions
+	public static boolean canRebuild(Window window) {
+		return window instanceof WindowOfQuantity || window instanceof WindowOfTimeComplex;
+	}
+
+	// constructor. Must be called from the stream thread.
+	public WindowRebuild(String windowName, Window liveWindow, boolean[] functionsRequired, int currentSecond) {
+
+		this.windowName = windowName;
+		this.liveWindow = liveWindow;
+		this.functionsRequired = functionsRequired;
+		this.newWindow = liveWindow.makeEmptyClone(functionsRequired);
+
+		storedElements = new ElementLog(liveWindow.getWindowCount());
+		liveWindow.copyElements(storedElements, currentSecond);
+		changes = new ElementLog(64);
+		rebuilt = false;
+		abandoned = false;
+
+		RioDB.rio.getSystemSettings().getLogger().debug("Window " + windowName + ": rebuilding "
+				+ storedElements.size() + " elements with new functions.");
+
+		Thread rebuildThread = new Thread(this, "REBUILD_" + windowName);
+		rebuildThread.setDaemon(true);
+		rebuildThread.start();
+	}
+
+	// background thread: add the stored elements to the new window
+	@Override
+	public void run() {
+		storedElements.replay(newWindow);
+		storedElements = null;
+		synchronized (this) {
+			rebuilt = true;
+			if (abandoned) {
+				newWindow.free();
+			}
+		}
+	}
+
+	// if the new window is ready to be put in place
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	// Catch up and return the new window. Must be called from the stream thread, after isRebuilt.
+	public Window finish() {
+		changes.replay(newWindow);
+		// the replayed elements may not expire anything, so the new window keeps the full flag of the live window
+		if (liveWindow.isFull()) {
+			newWindow.markFull();
+		}
+		liveWindow.free();
+		RioDB.rio.getSystemSettings().getLogger().debug("Window " + windowName + ": rebuild done, "
+				+ changes.size() + " elements and trims caught up.");
+		return newWindow;
+	}
+
+	@Override
+	public WindowSummaryInterface trimAddAndGetWindowSummaryCopy(double element, int currentSecond) {
+		changes.add(element, currentSecond);
+		return liveWindow.trimAddAndGetWindowSummaryCopy(element, currentSecond);
+	}
+
+	@Override
+	public WindowSummaryInterface trimAddBatch(double[] elements, int[] seconds, int count,
+			WindowSummaryInterface[] summaries) {
+		for (int i = 0; i < count; i++) {
+			changes.add(elements[i], seconds[i]);
+		}
+		return liveWindow.trimAddBatch(elements, seconds, count, summaries);
+	}
+
+	@Override
+	public WindowSummaryInterface trimAndGetWindowSummaryCopy(int currentSecond) {
+		changes.addTrim(currentSecond);
+		return liveWindow.trimAndGetWindowSummaryCopy(currentSecond);
+	}
+
+	// not logged: this can be called by the trim thread, and
+	// the next element or trim replayed trims the new window anyway.
+	@Override
+	public void trimExpiredWindowElements(int currentSecond) {
+		liveWindow.trimExpiredWindowElements(currentSecond);
+	}
+
+	@Override
+	public WindowSummaryInterface getWindowSummaryCopy() {
+		return liveWindow.getWindowSummaryCopy();
+	}
+
+	// a reset (or drop) during the rebuild starts over with an empty window with the new functions.
+	@Override
+	public Window makeEmptyClone() {
+		return newWindow.makeEmptyClone();
+	}
+
+	@Override
+	public Window makeEmptyClone(boolean[] functionsRequired) {
+		return newWindow.makeEmptyClone(functionsRequired);
+	}
+
+	@Override
+	public void free() {
+		liveWindow.free();
+		synchronized (this) {
+			abandoned = true;
+			if (rebuilt) {
+				newWindow.free();
+			}
+		}
+	}
+
+	@Override
+	public long getOffHeapBytes() {
+		return liveWindow.getOffHeapBytes() + newWindow.getOffHeapBytes();
+	}
+
+	@Override
+	public String getAggregations() {
+		return SQLAggregateFunctions.getFunctionsAvailable(functionsRequired);
+	}
+
+	@Override
+	public boolean requiresFunction(int functionId) {
+		return functionsRequired[functionId];
+	}
+
+	@Override
+	public String getRange() {
+		return liveWindow.getRange();
+	}
+
+	@Override
+	public int getWindowCount() {
+		return liveWindow.getWindowCount();
+	}
+
+	@Override
+	public double getWindowLast() {
+		return liveWindow.getWindowLast();
+	}
+
+	@Override
+	public boolean isDueForExpiration(int currentSecond) {
+		return liveWindow.isDueForExpiration(currentSecond);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return liveWindow.isEmpty();
+	}
+
+	@Override
+	public boolean isFull() {
+		return liveWindow.isFull();
+	}
+
+	@Override
+	public void printElements() {
+		liveWindow.printElements();
+	}
+
+}
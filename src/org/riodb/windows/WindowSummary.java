@@ -36,11 +36,16 @@ public class WindowSummary implements WindowSummaryInterface {
 	private double previous;
 	private float  slope;
 	private double sum;
+	// flags a summary taken right after a TUMBLING or HOPPING window closed
+	private boolean windowClosed;
 
 	// private double variance;
 	// a running sum of squared differences
 	// based on Welford's variance algorithm
 	private BigDecimal varRunningSum;
+
+	// bucket counts for HISTOGRAM. Copies take a snapshot of the counts.
+	private Histogram histogram;
 	
 	WindowSummary() {
 		full = false;
@@ -56,6 +61,8 @@ public class WindowSummary implements WindowSummaryInterface {
 		slope = 0;
 		sum = 0;
 		varRunningSum = null;
+		windowClosed = false;
+		histogram = null;
 	};
 
 	// constructor for clone
@@ -74,6 +81,8 @@ public class WindowSummary implements WindowSummaryInterface {
 		this.slope = source.slope;
 		this.sum = source.sum;
 		this.varRunningSum = source.varRunningSum;
+		this.windowClosed = false;
+		this.histogram = source.histogram == null ? null : source.histogram.makeCopy();
 	};
 
 	@Override
@@ -226,6 +235,14 @@ public class WindowSummary implements WindowSummaryInterface {
 		this.sum = this.sum - f;
 	}
 
+	public boolean isWindowClosed() {
+		return windowClosed;
+	}
+
+	public void setWindowClosed(boolean windowClosed) {
+		this.windowClosed = windowClosed;
+	}
+
 	@Override
 	public double getPopulationVariance() {
 		if (count > 0 && varRunningSum != null)
@@ -280,6 +297,44 @@ public class WindowSummary implements WindowSummaryInterface {
 		varRunningSum = varRunningSum.subtract(weightedDelta, Constants.MATH_CONTEXT);
 	}
 
+	@Override
+	public String getHistogram() {
+		if (histogram == null) {
+			return "";
+		}
+		return histogram.getHistogram();
+	}
+
+	void setHistogram(Histogram histogram) {
+		this.histogram = histogram;
+	}
+
+	// functions of two fields. Only computed by multi-field windows (WindowSummaryOfPair)
+	@Override
+	public double getCovariance() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCovariancePop() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCorrelation() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrSlope() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrIntercept() {
+		return Double.NaN;
+	}
+
 	// get all values
 	@Override
 	public String getAll() {
@@ -300,6 +355,11 @@ public class WindowSummary implements WindowSummaryInterface {
 		s += "\nsample variance " + getSampleVariance();
 		s += "\npopulation deviation " + getPopulationStdDev();
 		s += "\nsample deviation " + getSampleStdDev();
+		s += "\nhistogram " + getHistogram();
+		s += "\ncovariance " + getCovariance();
+		s += "\ncorrelation " + getCorrelation();
+		s += "\nregression slope " + getRegrSlope();
+		s += "\nregression intercept " + getRegrIntercept();
 
 		return s;
 	}
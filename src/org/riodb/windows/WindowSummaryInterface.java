@@ -27,13 +27,19 @@ public interface WindowSummaryInterface {
 	public double getAvg();
 	public int getCount();
 	public int getCountDistinct();
+	public double getCorrelation();
+	public double getCovariance();
+	public double getCovariancePop();
 	public double getFirst();
+	public String getHistogram();
 	public double getLast();
 	public double getMax();
 	public double getMedian();
 	public double getMin();
 	public double getMode();
 	public double getPrevious();
+	public double getRegrIntercept();
+	public double getRegrSlope();
 	public float getSlope();
 	public double getSampleStdDev();
 	public double getPopulationStdDev();
@@ -32,6 +32,7 @@ public interface WindowSummaryInterface_String {
 	public String getMin();
 	public String getMode();
 	public String getPrevious();
+	public String getTopK();
 	public void incrementCount();
 	public void incrementCount(int addend);
 	public boolean isEmpty();
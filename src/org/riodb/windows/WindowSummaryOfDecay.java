@@ -0,0 +1,60 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    Summary of a DECAY window.
+ *
+ *    Sum and Count are decayed: each element weighs less as it gets older.
+ *    So Avg is the exponentially weighted moving average (EWMA) of elements.
+ *    Count is the decayed count, rounded. The exact weight is used for Avg.
+ *
+ */
+
+package org.riodb.windows;
+
+public class WindowSummaryOfDecay extends WindowSummary {
+
+	// decayed count of elements
+	private final double weight;
+
+	WindowSummaryOfDecay(double weight, double decayedSum) {
+		super();
+		this.weight = weight;
+		setSum(decayedSum);
+		setCount((int) Math.round(weight));
+	}
+
+	@Override
+	public double getAvg() {
+		return getSum() / weight;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	// empty only if no element ever arrived. Old elements fade, but never reach zero.
+	@Override
+	public boolean isEmpty() {
+		return weight == 0;
+	}
+
+}
@@ -195,6 +195,36 @@ public class WindowSummaryOfOne implements WindowSummaryInterface {
 		// not used
 	}
 
+	@Override
+	public String getHistogram() {
+		return "";
+	}
+
+	@Override
+	public double getCovariance() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCovariancePop() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCorrelation() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrSlope() {
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrIntercept() {
+		return Double.NaN;
+	}
+
 	@Override
 	public String getAll() {
 		String s = "";
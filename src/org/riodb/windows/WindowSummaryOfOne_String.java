@@ -152,6 +152,14 @@ public class WindowSummaryOfOne_String implements WindowSummaryInterface_String
 		this.previous = previous;
 	}
 
+	@Override
+	public String getTopK() {
+		if (value == null) {
+			return "";
+		}
+		return value + ":1";
+	}
+
 	@Override
 	public String getAll() {
 		String s = "";
@@ -0,0 +1,125 @@
+/*
+ 	Copyright (c) 2021 Lucio D Matos,  www.riodb.org
+ 
+    This file is part of RioDB
+    
+    RioDB is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    RioDB is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    A copy of the GNU General Public License should be found in the root
+    directory. If not, see <https://www.gnu.org/licenses/>.
+ 
+*/
+
+
+/*
+ *    Summary of the two fields (x, y) of a multi-field window.
+ *
+ *    Holds the count and sums of x, y, x*x, y*y and x*y. The sums are of values
+ *    shifted by a reference (the first x and y in the window), so that large
+ *    values don't cancel out the digits that matter.
+ *
+ *    Covariance, correlation and the linear regression of y on x
+ *    (y = slope * x + intercept) are computed from the sums when read.
+ *
+ */
+
+package org.riodb.windows;
+
+public class WindowSummaryOfPair extends WindowSummary {
+
+	// reference values subtracted from x and y
+	private final double shiftX;
+	private final double shiftY;
+
+	// sums of shifted values
+	private final double sumX;
+	private final double sumY;
+	private final double sumXX;
+	private final double sumYY;
+	private final double sumXY;
+
+	WindowSummaryOfPair(int count, double shiftX, double shiftY, double sumX, double sumY, double sumXX,
+			double sumYY, double sumXY) {
+		super();
+		setCount(count);
+		this.shiftX = shiftX;
+		this.shiftY = shiftY;
+		this.sumX = sumX;
+		this.sumY = sumY;
+		this.sumXX = sumXX;
+		this.sumYY = sumYY;
+		this.sumXY = sumXY;
+	}
+
+	// sum of squared deviations of x
+	private double squaredDeviationsX() {
+		return Math.max(0, sumXX - sumX * sumX / getCount());
+	}
+
+	// sum of squared deviations of y
+	private double squaredDeviationsY() {
+		return Math.max(0, sumYY - sumY * sumY / getCount());
+	}
+
+	// sum of products of deviations of x and y
+	private double coDeviations() {
+		return sumXY - sumX * sumY / getCount();
+	}
+
+	@Override
+	public double getCovariance() {
+		if (getCount() > 1) {
+			return coDeviations() / (getCount() - 1);
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCovariancePop() {
+		if (getCount() > 0) {
+			return coDeviations() / getCount();
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public double getCorrelation() {
+		if (getCount() > 1) {
+			double d = Math.sqrt(squaredDeviationsX() * squaredDeviationsY());
+			if (d > 0) {
+				// rounding can take it slightly over 1
+				return Math.max(-1, Math.min(1, coDeviations() / d));
+			}
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrSlope() {
+		if (getCount() > 1) {
+			double d = squaredDeviationsX();
+			if (d > 0) {
+				return coDeviations() / d;
+			}
+		}
+		return Double.NaN;
+	}
+
+	@Override
+	public double getRegrIntercept() {
+		double slope = getRegrSlope();
+		if (Double.isNaN(slope)) {
+			return Double.NaN;
+		}
+		return (shiftY + sumY / getCount()) - slope * (shiftX + sumX / getCount());
+	}
+
+}
@@ -31,6 +31,10 @@ public class WindowSummary_String implements WindowSummaryInterface_String {
 	private String min;
 	private String mode;
 	private String previous;
+	// sketch for TOPK, in the window's own summary. Copies keep the top K
+	// of the moment they were made, so they don't change with the window.
+	private TopKSketch topKSketch;
+	private String topK;
 
 	WindowSummary_String() {
 		full = false;
@@ -42,6 +46,8 @@ public class WindowSummary_String implements WindowSummaryInterface_String {
 		min = null;
 		mode =  null;
 		previous =  null;
+		topKSketch = null;
+		topK = "";
 	};
 
 	// constructor for clone
@@ -56,6 +62,7 @@ public class WindowSummary_String implements WindowSummaryInterface_String {
 		this.min = source.min;
 		this.mode = source.mode;
 		this.previous = source.previous;
+		this.topK = source.getTopK();
 	};
 
 	@Override
@@ -163,6 +170,18 @@ public class WindowSummary_String implements WindowSummaryInterface_String {
 		this.previous = previous;
 	}
 
+	@Override
+	public String getTopK() {
+		if (topKSketch == null) {
+			return topK;
+		}
+		return topKSketch.getTop();
+	}
+
+	void setTopKSketch(TopKSketch topKSketch) {
+		this.topKSketch = topKSketch;
+	}
+
 	// get all values
 	@Override
 	public String getAll() {
@@ -176,6 +195,7 @@ public class WindowSummary_String implements WindowSummaryInterface_String {
 		s += "\nmin " + min;
 		s += "\nmode " + mode;
 		s += "\nprevious " + previous;
+		s += "\ntopk " + getTopK();
 	
 		return s;
 	}
@@ -42,17 +42,43 @@ public class WindowWrapper {
 	protected boolean rangeByTime;
 	protected boolean rangeByTimeIsTimestamp;
 	protected int rangeByTimeFieldNumericIndexId;
+	// window of time with millisecond precision
+	protected boolean rangeByMillis;
+	// reorder buffer for late or out-of-order messages (range by timestamp only)
+	protected WatermarkBuffer watermarkBuffer;
 
 	protected Window defaultWindow;
+	// when the window is a view over a shared source, fed by the WindowManager
+	protected SharedWindowSource sharedSource;
+	// when the window is a column of a multi-field window, fed by the WindowManager
+	protected MultiFieldWindowSource multiFieldSource;
 	protected SQLWindowCondition windowCondition;
 	protected boolean errorAlreadyCaught;
 	protected String  status;
 
+	// functions requested by ALTER WINDOW, to be put in place by the stream thread
+	private volatile boolean pendingFunctionsRequired[];
+	private volatile boolean alterInProgress;
+	// stream history to load the new window from, before its first message
+	private volatile StreamHistory backfillHistory;
+	// history being loaded, a chunk per message, and the next message to load.
+	// Live messages are loaded from the history too, so they stay in order.
+	private volatile StreamHistory backfilling;
+	private long backfillSeq;
+	private long backfillLoaded;
+	private static final int BACKFILL_CHUNK = 65536;
+	// if there's work for the stream thread to do between messages
+	private volatile boolean safePointPending;
+
 	protected boolean keepPreviousMessage;
 	protected RioDBStreamMessage previousMessage;
 	protected RioDBStreamMessage currentMessage;
 	protected boolean firstMessage;
 
+	// reusable arrays for batches of messages
+	private double batchElements[];
+	private int batchSeconds[];
+
 	public WindowWrapper(int streamId, String windowName, Window window, int fieldId,
 			SQLWindowCondition windowCondition, boolean rangeByTime, boolean rangeByTimeIsTimestamp,
 			SQLWindowSourceExpression windowSourceExpression) {
@@ -60,11 +86,21 @@ public class WindowWrapper {
 		this.streamId = streamId;
 		this.windowName = windowName;
 		this.defaultWindow = window;
+		this.rangeByMillis = window instanceof WindowOfTimeMillis;
+		if (window instanceof WindowOfSharedSource) {
+			this.sharedSource = ((WindowOfSharedSource) window).getSource();
+		}
+		if (window instanceof WindowOfMultiFieldColumn) {
+			this.multiFieldSource = ((WindowOfMultiFieldColumn) window).getSource();
+		} else if (window instanceof WindowOfMultiFieldPair) {
+			this.multiFieldSource = ((WindowOfMultiFieldPair) window).getSource();
+		}
 
 		this.windowOfNumericExpression = false;
 		if (windowSourceExpression != null) {
 			windowOfNumericExpression = true;
 			this.windowSourceExpression = windowSourceExpression;
+			windowSourceExpression.retain();
 		} else {
 			this.numericFieldIndex = RioDB.rio.getEngine().getStream(streamId).getDef().getNumericFieldIndex(fieldId);
 		}
@@ -79,6 +115,7 @@ public class WindowWrapper {
 		hasCondition = false;
 		if (windowCondition != null) {
 			hasCondition = true;
+			windowCondition.retain();
 		}
 
 		errorAlreadyCaught = false;
@@ -129,16 +166,61 @@ public class WindowWrapper {
 			s = s + "\"quantity\"";
 		}
 
-		s = s + ",\n \"range\": " + defaultWindow.getRange() + "}";
+		s = s + ",\n \"range\": " + defaultWindow.getRange();
+		if (watermarkBuffer != null) {
+			s = s + ",\n \"lateness\": " + watermarkBuffer.describe();
+		}
+		// bucket counts are read from the window's own histogram, without copying the window
+		if (defaultWindow.requiresFunction(SQLAggregateFunctions.getFunctionId("histogram"))) {
+			s = s + ",\n \"histogram\": \"" + defaultWindow.getWindowSummaryCopy().getHistogram() + "\"";
+		}
+		long offHeapBytes = getOffHeapBytes();
+		if (offHeapBytes > 0) {
+			s = s + ",\n \"off_heap_bytes\": " + offHeapBytes;
+		}
+		if (alterInProgress) {
+			s = s + ",\n \"rebuilding\": true";
+		}
+		if (backfillHistory != null || backfilling != null) {
+			s = s + ",\n \"loading\": true";
+		}
+		s = s + "}";
 		return s;
 	}
 
+	// a window still loading from the stream history reads as empty
 	public WindowSummaryInterface getWindowSummary() {
+		if (backfilling != null) {
+			return new WindowSummary();
+		}
 		return defaultWindow.getWindowSummaryCopy();
 	}
 
 	public WindowSummaryInterface putMessageRef(RioDBStreamMessage message, int currentSecond) {
 
+		if (safePointPending) {
+			runSafePoint(currentSecond, 1);
+			// still loading. The message is in the history, and will be loaded in turn.
+			// The window is not ready, so queries don't run on a partial summary.
+			if (backfilling != null) {
+				return null;
+			}
+		}
+
+		// the WindowManager already put the message into the shared source.
+		if (sharedSource != null) {
+			if (rangeByTimeIsTimestamp) {
+				return defaultWindow.trimAndGetWindowSummaryCopy(
+						(int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d));
+			}
+			return defaultWindow.trimAndGetWindowSummaryCopy(currentSecond);
+		}
+
+		// the WindowManager already put the row into the multi-field source, and trimmed it.
+		if (multiFieldSource != null) {
+			return defaultWindow.getWindowSummaryCopy();
+		}
+
 		if (keepPreviousMessage) {
 			previousMessage = currentMessage;
 			currentMessage = message;
@@ -153,7 +235,12 @@ public class WindowWrapper {
 			// if there's a required condition and it doesn't match
 			if (hasCondition && !windowCondition.match(message, previousMessage)) {
 				// then we just read the summary. no updates made.
-				if (rangeByTime && rangeByTimeIsTimestamp) {
+				if (watermarkBuffer != null) {
+					return trimAndGetAtWatermark(defaultWindow);
+				} else if (rangeByMillis) {
+					return ((WindowOfTimeMillis) defaultWindow)
+							.trimAndGetWindowSummaryCopyMillis(getCurrentMillis(message));
+				} else if (rangeByTime && rangeByTimeIsTimestamp) {
 					return defaultWindow.trimAndGetWindowSummaryCopy(
 							(int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d));
 				}
@@ -176,8 +263,26 @@ public class WindowWrapper {
 				else {
 					d = windowSourceExpression.getNumber(message, previousMessage);
 				}
+				// elements wait in the reorder buffer, and enter the window in order.
+				if (watermarkBuffer != null) {
+					watermarkBuffer.offer(d, getCurrentMillis(message), null);
+					WindowSummaryInterface ws = null;
+					while (watermarkBuffer.hasReady()) {
+						ws = trimAdd(defaultWindow, watermarkBuffer.peekValue(), watermarkBuffer.peekTimestamp());
+						watermarkBuffer.poll();
+					}
+					if (ws != null) {
+						return ws;
+					}
+					return trimAndGetAtWatermark(defaultWindow);
+				}
+				// for range by time in milliseconds, we pass in the timestamp or clock in ms
+				else if (rangeByMillis) {
+					return ((WindowOfTimeMillis) defaultWindow).trimAddAndGetWindowSummaryCopyMillis(d,
+							getCurrentMillis(message));
+				}
 				// for range by time using timestamp, we pass in the timestamp
-				if (rangeByTime && rangeByTimeIsTimestamp) {
+				else if (rangeByTime && rangeByTimeIsTimestamp) {
 					return defaultWindow.trimAddAndGetWindowSummaryCopy(d,
 							(int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d));
 					// else (for window of quantity or range by clock, we pass current second
@@ -198,24 +303,366 @@ public class WindowWrapper {
 
 	}
 
+	/*
+	 * Process a batch of messages. The window is updated once with all matching
+	 * elements, and the summary at the end of the batch is returned. If summaries
+	 * is not null, it gets the summary after each message.
+	 * 
+	 * Windows that need each message in turn (shared or multi-field source, reorder buffer,
+	 * milliseconds, previous message, or per-message summaries with a condition)
+	 * process the batch one message at a time.
+	 */
+	public WindowSummaryInterface putMessageBatch(RioDBStreamMessage messages[], int count, int currentSecond,
+			WindowSummaryInterface summaries[]) {
+
+		if (safePointPending) {
+			runSafePoint(currentSecond, count);
+			if (backfilling != null) {
+				if (summaries != null) {
+					for (int i = 0; i < count; i++) {
+						summaries[i] = null;
+					}
+				}
+				return null;
+			}
+		}
+
+		if (sharedSource != null || multiFieldSource != null || watermarkBuffer != null || rangeByMillis || keepPreviousMessage
+				|| (summaries != null && hasCondition)) {
+			return putMessageEach(messages, count, currentSecond, summaries);
+		}
+
+		if (batchElements == null || batchElements.length < count) {
+			batchElements = new double[count];
+			batchSeconds = new int[count];
+		}
+
+		try {
+			int matched = 0;
+			boolean lastMatched = false;
+			for (int i = 0; i < count; i++) {
+				lastMatched = !hasCondition || windowCondition.match(messages[i], null);
+				if (lastMatched) {
+					if (!windowOfNumericExpression) {
+						batchElements[matched] = messages[i].getDouble(numericFieldIndex);
+					} else {
+						batchElements[matched] = windowSourceExpression.getNumber(messages[i], null);
+					}
+					batchSeconds[matched] = getBatchSecond(messages[i], currentSecond);
+					matched++;
+				}
+			}
+
+			if (lastMatched) {
+				return defaultWindow.trimAddBatch(batchElements, batchSeconds, matched, summaries);
+			}
+			WindowSummaryInterface batchSummary = null;
+			if (matched > 0) {
+				batchSummary = defaultWindow.trimAddBatch(batchElements, batchSeconds, matched, null);
+			}
+			// the last message didn't match. trim up to its time, like putMessageRef does.
+			WindowSummaryInterface lastSummary = defaultWindow
+					.trimAndGetWindowSummaryCopy(getBatchSecond(messages[count - 1], currentSecond));
+			// a window closed inside the batch stays flagged, for queries ON CLOSE.
+			if (batchSummary instanceof WindowSummary && ((WindowSummary) batchSummary).isWindowClosed()
+					&& !((WindowSummary) lastSummary).isWindowClosed()) {
+				return batchSummary;
+			}
+			return lastSummary;
+
+		} catch (ExceptionSQLExecution e) {
+			if (!errorAlreadyCaught) {
+				RioDB.rio.getSystemSettings().getLogger()
+						.error("Window " + windowName + ": " + e.getMessage().replace("\n", " ").replace("\r", " "));
+				errorAlreadyCaught = true;
+				this.status = e.getMessage().replace("\"", "'").replace("\n", "\\t");
+			}
+			return null;
+		}
+	}
+
+	// process a batch of messages one at a time
+	protected WindowSummaryInterface putMessageEach(RioDBStreamMessage messages[], int count, int currentSecond,
+			WindowSummaryInterface summaries[]) {
+		WindowSummaryInterface windowSummary = null;
+		for (int i = 0; i < count; i++) {
+			windowSummary = putMessageRef(messages[i], currentSecond);
+			if (summaries != null) {
+				summaries[i] = windowSummary;
+			}
+		}
+		return windowSummary;
+	}
+
+	// the second of a message in a batch, from the timestamp field or the clock
+	private int getBatchSecond(RioDBStreamMessage message, int currentSecond) {
+		if (rangeByTime && rangeByTimeIsTimestamp) {
+			return (int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d);
+		}
+		return currentSecond;
+	}
+
+	// Enable the reorder buffer. Messages can arrive up to allowedLateness (ms) late.
+	// Messages even later are dropped, or included at the watermark.
+	public void setAllowedLateness(long allowedLateness, boolean includeLate) {
+		watermarkBuffer = new WatermarkBuffer(allowedLateness, includeLate);
+	}
+
+	// add an element to a window, with time in ms
+	protected WindowSummaryInterface trimAdd(Window w, double d, long millis) {
+		if (rangeByMillis) {
+			return ((WindowOfTimeMillis) w).trimAddAndGetWindowSummaryCopyMillis(d, millis);
+		}
+		return w.trimAddAndGetWindowSummaryCopy(d, (int) (millis / 1000L));
+	}
+
+	// trim a window up to the watermark, and get summary
+	protected WindowSummaryInterface trimAndGetAtWatermark(Window w) {
+		long watermark = watermarkBuffer.getWatermark();
+		if (watermark == Long.MIN_VALUE) {
+			return w.getWindowSummaryCopy();
+		}
+		if (rangeByMillis) {
+			return ((WindowOfTimeMillis) w).trimAndGetWindowSummaryCopyMillis(watermark);
+		}
+		return w.trimAndGetWindowSummaryCopy((int) (watermark / 1000L));
+	}
+
+	// current time in milliseconds, from the timestamp field or the clock
+	protected long getCurrentMillis(RioDBStreamMessage message) {
+		if (rangeByTimeIsTimestamp) {
+			return (long) message.getDouble(rangeByTimeFieldNumericIndexId);
+		}
+		return RioDB.rio.getEngine().getClock().getCurrentMillis();
+	}
+
 	public boolean windowRequiresFunction(int functionId) {
 		if (functionId >= SQLAggregateFunctions.functionsAvailable() || functionId < 0)
 			return false;
+		boolean pending[] = pendingFunctionsRequired;
+		if (pending != null) {
+			return pending[functionId];
+		}
 		return defaultWindow.requiresFunction(functionId);
 	}
 
+	// ALTER WINDOW ... ADD RUNNING. The window is rebuilt with the new functions
+	// by the stream thread, at the next message.
+	public void requestAddFunctions(boolean[] functionsRequired) {
+		pendingFunctionsRequired = functionsRequired;
+		alterInProgress = true;
+		safePointPending = true;
+	}
+
+	// if the window keeps its elements, so it can be rebuilt with other functions
+	public boolean canAddFunctions() {
+		return sharedSource == null && multiFieldSource == null && !alterInProgress
+				&& WindowRebuild.canRebuild(defaultWindow);
+	}
+
+	// if an ALTER WINDOW is still being applied
+	public boolean isAlterInProgress() {
+		return alterInProgress;
+	}
+
+	// if the window can be loaded from the stream history. Windows fed by a source,
+	// or that need each message in real time (reorder buffer, milliseconds, previous message) start empty.
+	public boolean canBackfill() {
+		return sharedSource == null && multiFieldSource == null && watermarkBuffer == null && !rangeByMillis
+				&& !keepPreviousMessage;
+	}
+
+	// load the window from the stream history, by the stream thread, before its next message.
+	public void requestBackfill(StreamHistory history) {
+		backfillHistory = history;
+		safePointPending = true;
+	}
+
+	// called by the stream thread, between messages: load a chunk of the stream history,
+	// start the rebuild requested by ALTER WINDOW, or put the rebuilt window in place when it's ready.
+	// 'arrived' is the count of messages that came with this call.
+	private void runSafePoint(int currentSecond, int arrived) {
+
+		// cleared first, so a request made meanwhile sets it again.
+		safePointPending = false;
+
+		StreamHistory history = backfillHistory;
+		if (history != null) {
+			backfillHistory = null;
+			backfillSeq = history.getHeadSeq();
+			backfillLoaded = 0;
+			backfilling = history;
+		}
+
+		// the rebuild waits until the window is loaded.
+		if (backfilling != null) {
+			backfill(Math.max(BACKFILL_CHUNK, 2L * arrived));
+			if (backfilling != null) {
+				safePointPending = true;
+				return;
+			}
+		}
+
+		boolean pending[] = pendingFunctionsRequired;
+		if (pending != null && !(defaultWindow instanceof WindowRebuild)) {
+			defaultWindow = new WindowRebuild(windowName, defaultWindow, pending, currentSecond);
+			pendingFunctionsRequired = null;
+		} else if (defaultWindow instanceof WindowRebuild && ((WindowRebuild) defaultWindow).isRebuilt()) {
+			defaultWindow = ((WindowRebuild) defaultWindow).finish();
+		}
+
+		if (defaultWindow instanceof WindowRebuild || pendingFunctionsRequired != null) {
+			alterInProgress = true;
+			safePointPending = true;
+		} else {
+			alterInProgress = false;
+		}
+	}
+
+	// add up to 'limit' messages kept in the stream history to the window, through the batch add path.
+	// Loading is spread over messages, so a long history doesn't stall the stream for one message.
+	// It's done when it catches up with the history, which has the messages that came meanwhile.
+	// The message being processed is not in the history yet, so it goes to the window live.
+	private void backfill(long limit) {
+
+		StreamHistory history = backfilling;
+		// messages dropped from the history before they were loaded are skipped.
+		long headSeq = Math.max(backfillSeq, history.getHeadSeq());
+		long nextSeq = Math.min(history.getNextSeq(), headSeq + limit);
+		backfillSeq = headSeq;
+		if (headSeq < nextSeq) {
+			backfillChunk(history, headSeq, nextSeq);
+		}
+
+		if (backfilling != null && backfillSeq >= history.getNextSeq()) {
+			backfilling = null;
+			RioDB.rio.getSystemSettings().getLogger()
+					.debug("Window " + windowName + ": loaded " + backfillLoaded + " messages from stream history.");
+		}
+	}
+
+	// add the messages from headSeq to nextSeq (exclusive) to the window.
+	private void backfillChunk(StreamHistory history, long headSeq, long nextSeq) {
+
+		// the condition and expressions need the message. Otherwise the column is read directly.
+		RioDBStreamMessage message = null;
+		if (hasCondition || windowOfNumericExpression) {
+			message = history.newMessage();
+		}
+
+		int chunk = (int) Math.min(nextSeq - headSeq, 4096);
+		double elements[] = new double[chunk];
+		int seconds[] = new int[chunk];
+		int matched = 0;
+
+		for (long seq = headSeq; seq < nextSeq; seq++) {
+			// a message that fails is skipped, like a live message. Loading goes on.
+			try {
+				if (message != null) {
+					history.copyMessage(seq, message);
+					if (hasCondition && !windowCondition.match(message, null)) {
+						continue;
+					}
+				}
+				if (windowOfNumericExpression) {
+					elements[matched] = windowSourceExpression.getNumber(message, null);
+				} else {
+					elements[matched] = history.getDouble(seq, numericFieldIndex);
+				}
+			} catch (ExceptionSQLExecution e) {
+				if (!errorAlreadyCaught) {
+					RioDB.rio.getSystemSettings().getLogger().error("Window " + windowName
+							+ ": loading from stream history: " + e.getMessage().replace("\n", " ").replace("\r", " "));
+					errorAlreadyCaught = true;
+					this.status = e.getMessage().replace("\"", "'").replace("\n", "\\t");
+				}
+				continue;
+			}
+			if (rangeByTime && rangeByTimeIsTimestamp) {
+				seconds[matched] = (int) (history.getDouble(seq, rangeByTimeFieldNumericIndexId) / 1000d);
+			} else {
+				seconds[matched] = history.getSecond(seq);
+			}
+			matched++;
+			if (matched == chunk) {
+				defaultWindow.trimAddBatch(elements, seconds, matched, null);
+				matched = 0;
+			}
+		}
+		if (matched > 0) {
+			defaultWindow.trimAddBatch(elements, seconds, matched, null);
+		}
+
+		backfillSeq = nextSeq;
+		backfillLoaded += nextSeq - headSeq;
+	}
+
+	// if the function can be read from a global rollup of partitions. Only for partitioned windows.
+	public boolean globalProvidesFunction(int functionId) {
+		return false;
+	}
+
 	public int getStreamId() {
 		return streamId;
 	}
 
+	// if window is TUMBLING, HOPPING or SESSION, which produce results when windows close
+	public boolean isClosingWindow() {
+		return defaultWindow instanceof WindowOfTimePanes || defaultWindow instanceof WindowOfSession;
+	}
+
 	public void trimExpiredWindowElements(int currentSecond) {
-		if (rangeByTime && rangeByTimeFieldNumericIndexId == -1) {
+		// while loading, the history's seconds trim the window.
+		if (rangeByTime && rangeByTimeFieldNumericIndexId == -1 && backfilling == null) {
 			defaultWindow.trimExpiredWindowElements(currentSecond);
 		}
 	}
 
+	// if the window is a view over a shared source
+	public SharedWindowSource getSharedSource() {
+		return sharedSource;
+	}
+
+	// if the window is a column of a multi-field window
+	public MultiFieldWindowSource getMultiFieldSource() {
+		return multiFieldSource;
+	}
+
+	// stop reading from the shared source, when window is dropped.
+	public void detachSharedSource() {
+		if (sharedSource != null) {
+			sharedSource.removeView(defaultWindow);
+		}
+	}
+
+	// off-heap bytes used by this window
+	public long getOffHeapBytes() {
+		return defaultWindow.getOffHeapBytes();
+	}
+
+	// free off-heap memory, when window is dropped.
+	public void free() {
+		defaultWindow.free();
+	}
+
+	// release the condition and FROM expression, when the window is dropped
+	public void releaseConditions() {
+		if (windowCondition != null) {
+			windowCondition.release();
+		}
+		if (windowSourceExpression != null) {
+			windowSourceExpression.release();
+		}
+	}
+
 	public void resetWindow() {
+		detachSharedSource();
+		Window oldWindow = defaultWindow;
 		defaultWindow = defaultWindow.makeEmptyClone();
+		oldWindow.free();
+		if (watermarkBuffer != null) {
+			watermarkBuffer.clear();
+		}
 		previousMessage = null;
 	}
 
@@ -20,9 +20,12 @@
 
 package org.riodb.windows;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.riodb.engine.RioDB;
 import org.riodb.sql.ExceptionSQLExecution;
@@ -36,6 +39,29 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 	// what data stream these queries run against
 	private HashMap<String, Window> windowMap;
 	private int partitionByStringFieldId;
+
+	// SESSION partition keys, in order of their last element, so that
+	// closed sessions can be freed from the head without a full scan.
+	private boolean sessionPartitions;
+	private LinkedHashSet<String> sessionOrder;
+	// summaries of sessions closed by expiration. Like a session closed by the
+	// clock in an unpartitioned window, each is reported to the next message.
+	private ArrayDeque<WindowSummaryInterface> closedSessions;
+
+	// The stream thread holds this lock while it changes partitions.
+	// The clock expires partitions when the lock is free. Otherwise, the
+	// expiration stays pending, and the stream thread runs it with its next message.
+	private final ReentrantLock partitionLock = new ReentrantLock();
+	private volatile int expirationSecond = Integer.MIN_VALUE;
+	private int lastExpirationSecond = Integer.MIN_VALUE;
+	// off-heap bytes of all partitions, added up with each expiration.
+	private volatile long offHeapBytes = 0;
+
+	// optional rollup of all partitions, for queries like window.global.avg
+	private PartitionRollup globalRollup;
+
+	// optional index of partitions sorted by an aggregate, for top N partitions
+	private PartitionRanking partitionRanking;
 	
 	private boolean windowOfNumericExpression;
 	private SQLWindowSourceExpression windowSourceExpression;
@@ -46,7 +72,12 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 
 		super(streamId, windowName, window, fieldId, windowCondition, rangeByTime, rangeByTimeIsTimestamp, windowSourceExpression);
 
+		sessionPartitions = window instanceof WindowOfSession;
 		windowMap = new HashMap<String, Window>();
+		if (sessionPartitions) {
+			sessionOrder = new LinkedHashSet<String>();
+			closedSessions = new ArrayDeque<WindowSummaryInterface>();
+		}
 
 		this.partitionByStringFieldId = RioDB.rio.getEngine().getStream(streamId).getDef()
 				.getStringFieldIndex(partitionByStringColumnId);
@@ -68,7 +99,14 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 				s = s + "\"where\": \"" + windowCondition.getExpression() + "\",\n \"running\":["
 				+ defaultWindow.getAggregations() + "]" + ",\n \"partition_by\":\""
 				+ RioDB.rio.getEngine().getStream(this.streamId).getDef().getStringFieldName(partitionByStringFieldId)
-				+ "\",\n \"range_by\": ";
+				+ "\"";
+		if (globalRollup != null) {
+			s = s + ",\n \"global\": true";
+		}
+		if (partitionRanking != null) {
+			s = s + ",\n \"rank_by\": \"" + partitionRanking.getFunction() + "\"";
+		}
+		s = s + ",\n \"range_by\": ";
 		if (rangeByTime) {
 			if (rangeByTimeFieldNumericIndexId == -1) {
 				s = s + "\"clock\"";
@@ -80,15 +118,58 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 			s = s + "\"quantity\"";
 		}
 
-		s = s + ",\n \"range\": " + defaultWindow.getRange() + "}";
+		s = s + ",\n \"range\": " + defaultWindow.getRange();
+		if (watermarkBuffer != null) {
+			s = s + ",\n \"lateness\": " + watermarkBuffer.describe();
+		}
+		s = s + "}";
 		return s;
 	}
 
+	// keep a global rollup of all partitions
+	public void enableGlobalRollup() {
+		globalRollup = new PartitionRollup(defaultWindow);
+	}
+
+	// the summary of all partitions, if there's a global rollup
 	@Override
 	public WindowSummaryInterface getWindowSummary() {
+		if (globalRollup != null) {
+			return globalRollup.getSummary();
+		}
 		return null;
 	}
 
+	// keep an index of partitions ranked by a function
+	public void enablePartitionRanking(int functionId) {
+		partitionRanking = new PartitionRanking(functionId);
+	}
+
+	public boolean hasPartitionRanking() {
+		return partitionRanking != null;
+	}
+
+	// top N partitions, like "key1:10.0|key2:8.5"
+	public String getTopPartitions(int n) {
+		if (partitionRanking == null) {
+			return "";
+		}
+		return partitionRanking.getTop(n);
+	}
+
+	// top N partitions, in JSON
+	public String describeTopPartitions(int n) {
+		if (partitionRanking == null) {
+			return "[]";
+		}
+		return partitionRanking.describeTop(n);
+	}
+
+	@Override
+	public boolean globalProvidesFunction(int functionId) {
+		return globalRollup != null && windowRequiresFunction(functionId) && PartitionRollup.isMergeable(functionId);
+	}
+
 	public WindowSummaryInterface getWindowSummary(String key) {
 		if (windowMap.containsKey(key)) {
 			return windowMap.get(key).getWindowSummaryCopy();
@@ -96,7 +177,82 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 		return null;
 	}
 
+	// partitions are looked up per message, so a batch is processed one message at a time.
+	@Override
+	public WindowSummaryInterface putMessageBatch(RioDBStreamMessage messages[], int count, int currentSecond,
+			WindowSummaryInterface summaries[]) {
+		partitionLock.lock();
+		try {
+			expirePartitions();
+			WindowSummaryInterface ws = null;
+			for (int i = 0; i < count; i++) {
+				ws = putMessageAndIndex(messages[i], currentSecond);
+				if (summaries != null) {
+					summaries[i] = ws;
+				}
+				// queries run on the last message of the batch. A session closed
+				// before it waits with the sessions closed by expiration.
+				if (i < count - 1 && sessionPartitions && isClosed(ws)) {
+					closedSessions.add(ws);
+				}
+			}
+			return reportClosedSession(ws);
+		} finally {
+			partitionLock.unlock();
+		}
+	}
+
 	public WindowSummaryInterface putMessageRef(RioDBStreamMessage message, int currentSecond) {
+		partitionLock.lock();
+		try {
+			expirePartitions();
+			return reportClosedSession(putMessageAndIndex(message, currentSecond));
+		} finally {
+			partitionLock.unlock();
+		}
+	}
+
+	private WindowSummaryInterface putMessageAndIndex(RioDBStreamMessage message, int currentSecond) {
+		WindowSummaryInterface ws = putMessagePartition(message, currentSecond);
+		if (ws != null && (globalRollup != null || partitionRanking != null)) {
+			updatePartitionIndexes(message.getString(partitionByStringFieldId), ws);
+		}
+		return ws;
+	}
+
+	// a session closed by expiration is reported to the next message, flagged as closed,
+	// unless the message closed a session of its own partition.
+	private WindowSummaryInterface reportClosedSession(WindowSummaryInterface ws) {
+		if (sessionPartitions && !closedSessions.isEmpty() && !isClosed(ws)) {
+			return closedSessions.poll();
+		}
+		return ws;
+	}
+
+	private static boolean isClosed(WindowSummaryInterface ws) {
+		return ws instanceof WindowSummary && ((WindowSummary) ws).isWindowClosed();
+	}
+
+	// the partition summary is merged into the global rollup, and moved in the ranking.
+	private void updatePartitionIndexes(String key, WindowSummaryInterface ws) {
+		if (globalRollup != null) {
+			globalRollup.update(key, ws);
+		}
+		if (partitionRanking != null) {
+			partitionRanking.update(key, ws);
+		}
+	}
+
+	private void removeFromPartitionIndexes(String key) {
+		if (globalRollup != null) {
+			globalRollup.remove(key);
+		}
+		if (partitionRanking != null) {
+			partitionRanking.remove(key);
+		}
+	}
+
+	private WindowSummaryInterface putMessagePartition(RioDBStreamMessage message, int currentSecond) {
 		
 		if (keepPreviousMessage) {
 			previousMessage = currentMessage;
@@ -116,6 +272,10 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 				// then we just read the summary. no updates made.
 				if (w == null) {
 					return null;
+				} else if (watermarkBuffer != null) {
+					return trimAndGetAtWatermark(w);
+				} else if (rangeByMillis) {
+					return ((WindowOfTimeMillis) w).trimAndGetWindowSummaryCopyMillis(getCurrentMillis(message));
 				} else if (rangeByTime && rangeByTimeIsTimestamp) {
 					return w.trimAndGetWindowSummaryCopy(
 							(int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d));
@@ -127,6 +287,10 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 				// there's no condition, or the condition matches. We update and read summary:
 				double d;
 
+				if (sessionPartitions && watermarkBuffer == null) {
+					touchSession(message.getString(partitionByStringFieldId));
+				}
+
 				// if this window is NOT sourced from an expression:
 				if (!windowOfNumericExpression) {
 					d = message.getDouble(numericFieldIndex);
@@ -136,8 +300,49 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 					d = windowSourceExpression.getNumber(message, previousMessage);
 				}
 
+				// elements wait in the reorder buffer, and enter their partition in order.
+				if (watermarkBuffer != null) {
+					String key = message.getString(partitionByStringFieldId);
+					if (w == null) {
+						w = defaultWindow.makeEmptyClone();
+						windowMap.put(key, w);
+					}
+					watermarkBuffer.offer(d, getCurrentMillis(message), key);
+					WindowSummaryInterface ws = null;
+					while (watermarkBuffer.hasReady()) {
+						Window readyWindow = windowMap.get(watermarkBuffer.peekKey());
+						// partition may have expired while the element was waiting
+						if (readyWindow == null) {
+							readyWindow = defaultWindow.makeEmptyClone();
+							windowMap.put(watermarkBuffer.peekKey(), readyWindow);
+						}
+						if (sessionPartitions) {
+							touchSession(watermarkBuffer.peekKey());
+						}
+						WindowSummaryInterface readySummary = trimAdd(readyWindow, watermarkBuffer.peekValue(),
+								watermarkBuffer.peekTimestamp());
+						if (readyWindow == w) {
+							ws = readySummary;
+						} else {
+							updatePartitionIndexes(watermarkBuffer.peekKey(), readySummary);
+						}
+						watermarkBuffer.poll();
+					}
+					if (ws != null) {
+						return ws;
+					}
+					return trimAndGetAtWatermark(w);
+				}
+				// for range by time in milliseconds, we pass in the timestamp or clock in ms
+				else if (rangeByMillis) {
+					if (w == null) {
+						w = defaultWindow.makeEmptyClone();
+						windowMap.put(message.getString(partitionByStringFieldId), w);
+					}
+					return ((WindowOfTimeMillis) w).trimAddAndGetWindowSummaryCopyMillis(d, getCurrentMillis(message));
+				}
 				// for range by time using timestamp, we pass in the timestamp
-				if (rangeByTime && rangeByTimeIsTimestamp) {
+				else if (rangeByTime && rangeByTimeIsTimestamp) {
 					// key exists:
 					if (w != null) {
 						return w.trimAddAndGetWindowSummaryCopy(d,
@@ -183,21 +388,130 @@ public class WindowWrapperPartitioned extends WindowWrapper {
 		return defaultWindow.requiresFunction(functionId);
 	}
 
+	// called by the clock. If the stream thread is changing partitions,
+	// it runs the expiration with its next message instead.
 	public void trimExpiredWindowElements(int currentSecond) {
+		expirationSecond = currentSecond;
+		if (partitionLock.tryLock()) {
+			try {
+				expirePartitions();
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+	}
+
+	// moves a session partition to the tail of the session order.
+	private void touchSession(String key) {
+		sessionOrder.remove(key);
+		sessionOrder.add(key);
+	}
+
+	// removes expired partitions, once per clock second. Caller holds the partition lock.
+	private void expirePartitions() {
+
+		int currentSecond = expirationSecond;
+		if (currentSecond == lastExpirationSecond) {
+			return;
+		}
+		lastExpirationSecond = currentSecond;
+
+		// Sessions are in order of their last element. Least recent first.
+		// Close and free sessions until we find one that is still open.
+		if (sessionPartitions) {
+			Iterator<String> keys = sessionOrder.iterator();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				Window w = windowMap.get(key);
+				if (w != null && !w.isDueForExpiration(currentSecond)) {
+					break;
+				}
+				keys.remove();
+				if (w != null) {
+					windowMap.remove(key);
+					// the closed summary is reported to the next message.
+					w.trimExpiredWindowElements(currentSecond);
+					closedSessions.add(w.getWindowSummaryCopy());
+					w.free();
+					removeFromPartitionIndexes(key);
+				}
+			}
+			return;
+		}
 
 		Iterator<Map.Entry<String, Window>> iter = windowMap.entrySet().iterator();
+
+		long bytes = 0;
 		while (iter.hasNext()) {
 			Map.Entry<String, Window> entry = iter.next();
 			if (entry.getValue().isDueForExpiration(currentSecond)) {
 				iter.remove();
+				entry.getValue().free();
+				removeFromPartitionIndexes(entry.getKey());
 				RioDB.rio.getSystemSettings().getLogger().debug("removed expired window.");
 			} else {
-				defaultWindow.trimExpiredWindowElements(currentSecond);
+				bytes = bytes + entry.getValue().getOffHeapBytes();
+				// a quiet partition still ages out of the global rollup and the ranking
+				if (globalRollup != null || partitionRanking != null) {
+					entry.getValue().trimExpiredWindowElements(currentSecond);
+					updatePartitionIndexes(entry.getKey(), entry.getValue().getWindowSummaryCopy());
+				}
 			}
 		}
+		offHeapBytes = bytes;
 	}
 	
+	// partitions are made by messages in real time. Partitioned windows start empty.
+	@Override
+	public boolean canBackfill() {
+		return false;
+	}
+
+	// off-heap bytes used by all partitions, as of the last expiration.
+	// Other threads read the total, without reading partitions.
+	@Override
+	public long getOffHeapBytes() {
+		return offHeapBytes;
+	}
+
+	// free off-heap memory of all partitions, when window is dropped.
+	@Override
+	public void free() {
+		partitionLock.lock();
+		try {
+			for (Window w : windowMap.values()) {
+				w.free();
+			}
+		} finally {
+			partitionLock.unlock();
+		}
+	}
+
 	public void resetWindow() {
-		windowMap = new HashMap<String, Window>();
+		partitionLock.lock();
+		try {
+			HashMap<String, Window> oldWindowMap = windowMap;
+			windowMap = new HashMap<String, Window>();
+			offHeapBytes = 0;
+			if (sessionPartitions) {
+				sessionOrder.clear();
+				closedSessions.clear();
+			}
+			for (Window w : oldWindowMap.values()) {
+				w.free();
+			}
+			if (watermarkBuffer != null) {
+				watermarkBuffer.clear();
+			}
+			if (globalRollup != null) {
+				globalRollup.clear();
+			}
+			if (partitionRanking != null) {
+				partitionRanking.clear();
+			}
+		} finally {
+			partitionLock.unlock();
+		}
 	}
+
 }
@@ -85,6 +85,13 @@ public class WindowWrapperPartitioned_String extends WindowWrapper_String {
 		return null;
 	}
 
+	// partitions are looked up per message, so a batch is processed one message at a time.
+	@Override
+	public WindowSummaryInterface_String putMessageBatch(RioDBStreamMessage messages[], int count,
+			int currentSecond, WindowSummaryInterface_String summaries[]) {
+		return putMessageEach(messages, count, currentSecond, summaries);
+	}
+
 	public WindowSummaryInterface_String putMessageRef(RioDBStreamMessage message, int currentSecond) {
 		
 		if (keepPreviousMessage) {
@@ -53,6 +53,10 @@ public class WindowWrapper_String {
 	protected RioDBStreamMessage currentMessage;
 	protected boolean firstMessage;
 
+	// reusable arrays for batches of messages
+	private String batchElements[];
+	private int batchSeconds[];
+
 	public WindowWrapper_String(int streamId, String windowName, Window_String window, int fieldId,
 			SQLWindowCondition windowCondition, boolean rangeByTime, boolean rangeByTimeIsTimestamp,
 			SQLWindowSourceExpression windowSourceExpression) {
@@ -66,6 +70,7 @@ public class WindowWrapper_String {
 		if(windowSourceExpression != null) {
 			windowOfStringExpression = true;
 			this.windowSourceExpression = windowSourceExpression;
+			windowSourceExpression.retain();
 		} else {
 			this.stringFieldIndex = RioDB.rio.getEngine().getStream(streamId).getDef().getStringFieldIndex(fieldId);
 		}		
@@ -81,6 +86,7 @@ public class WindowWrapper_String {
 		hasCondition = false;
 		if (windowCondition != null) {
 			hasCondition = true;
+			windowCondition.retain();
 		}
 
 		this.errorAlreadyCaught = false;
@@ -97,6 +103,16 @@ public class WindowWrapper_String {
 	public String getName() {
 		return windowName;
 	}
+
+	// release the condition and FROM expression, when the window is dropped
+	public void releaseConditions() {
+		if (windowCondition != null) {
+			windowCondition.release();
+		}
+		if (windowSourceExpression != null) {
+			windowSourceExpression.release();
+		}
+	}
 	
 	public String getStatus() {
 		return status;
@@ -201,6 +217,87 @@ public class WindowWrapper_String {
 
 	}
 
+	/*
+	 * Process a batch of messages. The window is updated once with all matching
+	 * elements, and the summary at the end of the batch is returned. If summaries
+	 * is not null, it gets the summary after each message.
+	 */
+	public WindowSummaryInterface_String putMessageBatch(RioDBStreamMessage messages[], int count,
+			int currentSecond, WindowSummaryInterface_String summaries[]) {
+
+		if (keepPreviousMessage || (summaries != null && hasCondition)) {
+			return putMessageEach(messages, count, currentSecond, summaries);
+		}
+
+		if (batchElements == null || batchElements.length < count) {
+			batchElements = new String[count];
+			batchSeconds = new int[count];
+		}
+
+		try {
+			int matched = 0;
+			boolean lastMatched = false;
+			for (int i = 0; i < count; i++) {
+				lastMatched = !hasCondition || windowCondition.match(messages[i], null);
+				if (lastMatched) {
+					if (!windowOfStringExpression) {
+						batchElements[matched] = messages[i].getString(stringFieldIndex);
+					} else {
+						batchElements[matched] = windowSourceExpression.getString(messages[i], null);
+					}
+					batchSeconds[matched] = getBatchSecond(messages[i], currentSecond);
+					matched++;
+				}
+			}
+
+			WindowSummaryInterface_String windowSummary;
+			if (lastMatched) {
+				windowSummary = defaultWindow.trimAddBatch(batchElements, batchSeconds, matched, summaries);
+			} else {
+				if (matched > 0) {
+					defaultWindow.trimAddBatch(batchElements, batchSeconds, matched, null);
+				}
+				// the last message didn't match. trim up to its time, like putMessageRef does.
+				windowSummary = defaultWindow
+						.trimAndGetWindowSummaryCopy(getBatchSecond(messages[count - 1], currentSecond));
+			}
+			// release string references
+			for (int i = 0; i < matched; i++) {
+				batchElements[i] = null;
+			}
+			return windowSummary;
+
+		} catch (ExceptionSQLExecution e) {
+			if (!errorAlreadyCaught) {
+				RioDB.rio.getSystemSettings().getLogger().error("Window " + windowName + ": " + e.getMessage().replace("\n", " ").replace("\r", " "));
+				errorAlreadyCaught = true;
+				this.status = e.getMessage().replace("\"", "'").replace("\n", "\\t");
+			}
+			return null;
+		}
+	}
+
+	// process a batch of messages one at a time
+	protected WindowSummaryInterface_String putMessageEach(RioDBStreamMessage messages[], int count,
+			int currentSecond, WindowSummaryInterface_String summaries[]) {
+		WindowSummaryInterface_String windowSummary = null;
+		for (int i = 0; i < count; i++) {
+			windowSummary = putMessageRef(messages[i], currentSecond);
+			if (summaries != null) {
+				summaries[i] = windowSummary;
+			}
+		}
+		return windowSummary;
+	}
+
+	// the second of a message in a batch, from the timestamp field or the clock
+	private int getBatchSecond(RioDBStreamMessage message, int currentSecond) {
+		if (rangeByTime && rangeByTimeIsTimestamp) {
+			return (int) (message.getDouble(rangeByTimeFieldNumericIndexId) / 1000d);
+		}
+		return currentSecond;
+	}
+
 	public boolean windowRequiresFunction(int functionId) {
 		if (functionId >= SQLAggregateFunctions.functionsAvailable() || functionId < 0)
 			return false;
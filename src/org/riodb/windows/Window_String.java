@@ -58,4 +58,20 @@ public interface Window_String {
 	public WindowSummaryInterface_String trimAndGetWindowSummaryCopy(int currentSecond);
 	// function to evict expired elements (effective on windowOfTime* only)
 	public void trimExpiredWindowElements(int currentSecond);
+	// trim expired and add a batch of elements with their seconds. Returns the summary after the batch.
+	// if summaries is not null, it gets the summary after each element.
+	public default WindowSummaryInterface_String trimAddBatch(String[] elements, int[] seconds, int count,
+			WindowSummaryInterface_String[] summaries) {
+		WindowSummaryInterface_String windowSummary = null;
+		for (int i = 0; i < count; i++) {
+			windowSummary = trimAddAndGetWindowSummaryCopy(elements[i], seconds[i]);
+			if (summaries != null) {
+				summaries[i] = windowSummary;
+			}
+		}
+		if (windowSummary == null) {
+			return getWindowSummaryCopy();
+		}
+		return windowSummary;
+	}
 }